@@ -1,5 +1,7 @@
 package com.niravramdhanie.twod.game.actions;
 
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
 /**
  * Interface for actions that can be executed when a button is pressed.
  */
@@ -15,4 +17,22 @@ public interface Action {
      * @return A description of what the action does
      */
     String getDescription();
+    
+    /**
+     * Writes any state the action keeps between executions to a snapshot.
+     * Stateless actions don't need to override this.
+     * 
+     * @param snapshot The snapshot to write to
+     */
+    default void saveState(WorldSnapshot snapshot) {
+    }
+    
+    /**
+     * Restores the state written by {@link #saveState(WorldSnapshot)}
+     * without executing the action.
+     * 
+     * @param snapshot The snapshot to read from
+     */
+    default void loadState(WorldSnapshot snapshot) {
+    }
 } 
\ No newline at end of file
@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Random;
 
 import com.niravramdhanie.twod.game.entity.Button;
+import com.niravramdhanie.twod.game.utils.GameClock;
 
 /**
  * Factory class for creating different types of actions for buttons.
@@ -31,9 +32,10 @@ public class ActionFactory {
      * 
      * @param type The type of action to create
      * @param button The button that will use this action (needed for timed actions)
+     * @param clock The clock timed actions run on
      * @return The created action
      */
-    public static Action createAction(ActionType type, Button button) {
+    public static Action createAction(ActionType type, Button button, GameClock clock) {
         switch (type) {
             case MESSAGE:
                 return new MessageAction("Button pressed: " + type.name());
@@ -47,14 +49,14 @@ public class ActionFactory {
                 
             case TIMED:
                 MessageAction msgAction = new MessageAction("Timed button pressed! Will deactivate in 3 seconds.");
-                TimedAction timedAction = new TimedAction(msgAction, 3000);
+                TimedAction timedAction = new TimedAction(msgAction, 3000, clock);
                 timedAction.setTargetButton(button);
                 return timedAction;
                 
             case TOGGLE:
                 DoorAction doorAction = new DoorAction("toggle_door_" + random.nextInt(1000));
-                doorAction.setDoorStateChangeListener((doorId, isOpen) -> {
-                    System.out.println("Door listener: Door " + doorId + " is now " + (isOpen ? "open" : "closed"));
+                doorAction.setDoorStateChangeListener((doorHandle, isOpen) -> {
+                    System.out.println("Door listener: Door " + doorAction.getDoorId() + " is now " + (isOpen ? "open" : "closed"));
                 });
                 return new ToggleAction(doorAction, doorAction);
                 
@@ -67,8 +69,8 @@ public class ActionFactory {
                 MessageAction firstAction = new MessageAction("First action executed!");
                 MessageAction secondAction = new MessageAction("Second action executed!");
                 DoorAction thirdAction = new DoorAction("multi_door_" + random.nextInt(1000));
-                thirdAction.setDoorStateChangeListener((doorId, isOpen) -> {
-                    System.out.println("MultiAction door: " + doorId + " is now " + (isOpen ? "open" : "closed"));
+                thirdAction.setDoorStateChangeListener((doorHandle, isOpen) -> {
+                    System.out.println("MultiAction door: " + thirdAction.getDoorId() + " is now " + (isOpen ? "open" : "closed"));
                 });
                 
                 return new MultiAction(firstAction, secondAction, thirdAction);
@@ -79,7 +81,7 @@ public class ActionFactory {
                     new MessageAction("Toggled OFF"),
                     new MessageAction("Toggled ON")
                 );
-                TimedAction timedToggle = new TimedAction(toggleAction, 5000);
+                TimedAction timedToggle = new TimedAction(toggleAction, 5000, clock);
                 timedToggle.setTargetButton(button);
                 return timedToggle;
                 
@@ -92,8 +94,8 @@ public class ActionFactory {
                     "Combined action - Message 3");
                 
                 DoorAction combinedDoor = new DoorAction("combined_door_" + random.nextInt(1000));
-                combinedDoor.setDoorStateChangeListener((doorId, isOpen) -> {
-                    System.out.println("Combined door: " + doorId + " is now " + (isOpen ? "open" : "closed"));
+                combinedDoor.setDoorStateChangeListener((doorHandle, isOpen) -> {
+                    System.out.println("Combined door: " + combinedDoor.getDoorId() + " is now " + (isOpen ? "open" : "closed"));
                 });
                 
                 return new MultiAction(cyclingMsg, combinedDoor);
@@ -107,26 +109,28 @@ public class ActionFactory {
      * Creates a random action.
      * 
      * @param button The button that will use this action
+     * @param clock The clock timed actions run on
      * @return A randomly selected action
      */
-    public static Action createRandomAction(Button button) {
+    public static Action createRandomAction(Button button, GameClock clock) {
         ActionType[] types = ActionType.values();
         ActionType randomType = types[random.nextInt(types.length)];
         
-        return createAction(randomType, button);
+        return createAction(randomType, button, clock);
     }
     
     /**
      * Creates one of each action type.
      * 
      * @param button The button that will use these actions (for timed actions)
+     * @param clock The clock timed actions run on
      * @return A list containing one of each action type
      */
-    public static List<Action> createAllActionTypes(Button button) {
+    public static List<Action> createAllActionTypes(Button button, GameClock clock) {
         List<Action> actions = new ArrayList<>();
         
         for (ActionType type : ActionType.values()) {
-            actions.add(createAction(type, button));
+            actions.add(createAction(type, button, clock));
         }
         
         return actions;
@@ -138,11 +142,12 @@ public class ActionFactory {
      * @param message The message to display
      * @param durationMillis The duration in milliseconds
      * @param button The button to deactivate
+     * @param clock The clock the action runs on
      * @return A timed message action
      */
-    public static TimedAction createTimedMessage(String message, int durationMillis, Button button) {
+    public static TimedAction createTimedMessage(String message, int durationMillis, Button button, GameClock clock) {
         MessageAction msgAction = new MessageAction(message);
-        TimedAction timedAction = new TimedAction(msgAction, durationMillis);
+        TimedAction timedAction = new TimedAction(msgAction, durationMillis, clock);
         timedAction.setTargetButton(button);
         return timedAction;
     }
@@ -0,0 +1,592 @@
+package com.niravramdhanie.twod.game.actions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.niravramdhanie.twod.game.entity.Button;
+import com.niravramdhanie.twod.game.utils.GameClock;
+import com.niravramdhanie.twod.game.utils.TimerWheel;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
+/**
+ * An action tree compiled into a flat list of instructions.
+ * Multi, toggle, timed, message, print and door actions become opcodes in one int
+ * array, and everything they remember between executions lives in one long array
+ * of state slots, so running a button's actions is a loop over the instructions
+ * and saving or restoring them is a single array copy. An action that appears in
+ * the tree more than once shares its slots, as it would share its fields.
+ * Any other kind of action is kept as an object and called directly.
+ *
+ * The program takes its starting state from the actions when it's compiled and
+ * keeps the state itself afterwards, so the actions' own fields no longer follow
+ * a button that runs the program.
+ */
+public class ActionProgram {
+    // Instructions and their operands
+    private static final int OP_END = 0;         // END
+    private static final int OP_PRINT = 1;       // PRINT string
+    private static final int OP_MESSAGE = 2;     // MESSAGE slot firstString count cycling
+    private static final int OP_DOOR = 3;        // DOOR slot door
+    private static final int OP_TOGGLE = 4;      // TOGGLE slot offBranch
+    private static final int OP_JUMP = 5;        // JUMP target
+    private static final int OP_TIMED = 6;       // TIMED timer bodyEnd
+    private static final int OP_DEACTIVATE = 7;  // DEACTIVATE button
+    private static final int OP_CALL = 8;        // CALL action
+
+    private final int[] code;
+    private final long[] state;
+    private final String[] strings;
+    private final Button[] buttons;
+    private final Action[] calls;
+
+    // Doors: the state slot and the action that passes requests on to the door
+    private final int[] doorSlots;
+    private final DoorAction[] doors;
+
+    // Timers: the first of two state slots (active, start tick), duration and expiry code
+    private final int[] timerSlots;
+    private final long[] timerDurations;
+    private final int[] timerExpiries;
+    private final TimerWheel.Timer[] timers;
+
+    // Taken from the timed actions, so the program keeps their game's time
+    private final GameClock clock;
+    private final TimerWheel timerWheel;
+
+    // Set when the root action is a toggle or a timer, for the button to display
+    private final int rootToggleSlot;
+    private final int rootToggleDoor;
+    private final int rootTimer;
+    private final boolean repeatable;
+
+    private ActionProgram(Compiler compiler) {
+        this.code = Arrays.copyOf(compiler.code, compiler.codeLength);
+        this.state = Arrays.copyOf(compiler.state, compiler.stateLength);
+        this.strings = compiler.strings.toArray(new String[0]);
+        this.buttons = compiler.buttons.toArray(new Button[0]);
+        this.calls = compiler.calls.toArray(new Action[0]);
+        this.doorSlots = toArray(compiler.doorSlots);
+        this.doors = compiler.doors.toArray(new DoorAction[0]);
+        this.timerSlots = toArray(compiler.timerSlots);
+        this.timerDurations = new long[compiler.timerDurations.size()];
+        for (int i = 0; i < timerDurations.length; i++) {
+            timerDurations[i] = compiler.timerDurations.get(i);
+        }
+        this.timerExpiries = toArray(compiler.timerExpiries);
+        this.clock = compiler.clock;
+        this.timerWheel = compiler.timerWheel;
+        this.timers = new TimerWheel.Timer[timerSlots.length];
+        for (int i = 0; i < timers.length; i++) {
+            final int timer = i;
+            timers[i] = new TimerWheel.Timer(t -> expire(timer));
+        }
+        this.rootToggleSlot = compiler.rootToggleSlot;
+        this.rootToggleDoor = compiler.rootToggleDoor;
+        this.rootTimer = compiler.rootTimer;
+        this.repeatable = compiler.repeatable;
+
+        // Timers that were already running when the tree was compiled keep running
+        for (int i = 0; i < timers.length; i++) {
+            if (state[timerSlots[i]] != 0) {
+                scheduleExpiry(i);
+            }
+        }
+    }
+
+    /**
+     * Compiles an action tree.
+     *
+     * @param root The root action
+     * @param owner The button that runs the program, deactivated when a timer expires
+     *              unless the timed action names its own target button
+     * @return The compiled program, or null if there is no action
+     */
+    public static ActionProgram compile(Action root, Button owner) {
+        if (root == null) {
+            return null;
+        }
+        return new ActionProgram(new Compiler(root, owner));
+    }
+
+    /**
+     * Runs the program, as executing the root action would.
+     */
+    public void execute() {
+        run(0);
+    }
+
+    /**
+     * Checks timers when there's no timer wheel to expire them. Does nothing otherwise.
+     */
+    public void update() {
+        if (timerWheel != null) {
+            return;
+        }
+        for (int i = 0; i < timerSlots.length; i++) {
+            int slot = timerSlots[i];
+            if (state[slot] != 0 && clock.getTicks() - state[slot + 1] >= timerDurations[i]) {
+                expire(i);
+            }
+        }
+    }
+
+    /**
+     * Checks if pressing the button again while it's active should run the program again,
+     * which is the case for toggles and cycling messages.
+     *
+     * @return True if the program runs on every press
+     */
+    public boolean isRepeatable() {
+        return repeatable;
+    }
+
+    /**
+     * Checks if the root action is a toggle that is currently on.
+     *
+     * @return True if toggled on, false if off or the root isn't a toggle
+     */
+    public boolean isToggled() {
+        return rootToggleSlot >= 0 && state[rootToggleSlot] != 0;
+    }
+
+    /**
+     * Sets the root toggle's state without running either branch. If the toggle's
+     * on action is a door, the door follows.
+     *
+     * @param toggled The toggle state
+     * @return True if the root action is a toggle, false otherwise
+     */
+    public boolean setToggled(boolean toggled) {
+        if (rootToggleSlot < 0) {
+            return false;
+        }
+        state[rootToggleSlot] = toggled ? 1 : 0;
+        if (rootToggleDoor >= 0) {
+            setDoorOpen(rootToggleDoor, toggled);
+        }
+        return true;
+    }
+
+    /**
+     * Opens or closes every door the program controls, without running the program.
+     *
+     * @param open True to open the doors, false to close them
+     */
+    public void setDoorsOpen(boolean open) {
+        for (int i = 0; i < doors.length; i++) {
+            setDoorOpen(i, open);
+        }
+    }
+
+    /**
+     * Checks if the root action is a timer that is running.
+     *
+     * @return True if the root timer is active
+     */
+    public boolean isTimerActive() {
+        return rootTimer >= 0 && state[timerSlots[rootTimer]] != 0;
+    }
+
+    /**
+     * Gets the fraction of the root timer remaining (0.0 to 1.0).
+     *
+     * @return The fraction remaining, or 0 if the root timer isn't running
+     */
+    public float getTimeRemainingFraction() {
+        if (!isTimerActive() || timerDurations[rootTimer] <= 0) {
+            return 0.0f;
+        }
+        long remaining = state[timerSlots[rootTimer] + 1] + timerDurations[rootTimer] - clock.getTicks();
+        return remaining > 0 ? (float) remaining / timerDurations[rootTimer] : 0.0f;
+    }
+
+    /**
+     * Copies the program state.
+     *
+     * @return A copy of the state slots
+     */
+    public long[] copyState() {
+        return state.clone();
+    }
+
+    /**
+     * Puts back state returned by {@link #copyState()}, as the rewind does when it restarts
+     * a recording. Doors whose state changes are told to move, and running timers
+     * start again from the current tick.
+     *
+     * @param saved The saved state
+     */
+    public void restoreState(long[] saved) {
+        for (int i = 0; i < doors.length; i++) {
+            setDoorOpen(i, saved[doorSlots[i]] != 0);
+        }
+        System.arraycopy(saved, 0, state, 0, state.length);
+        for (int i = 0; i < timers.length; i++) {
+            int slot = timerSlots[i];
+            if (state[slot] != 0) {
+                state[slot + 1] = clock.getTicks();
+                scheduleExpiry(i);
+            } else {
+                timers[i].cancel();
+            }
+        }
+    }
+
+    /**
+     * Writes the state slots, and the state of any actions called directly, to a snapshot.
+     *
+     * @param snapshot The snapshot to write to
+     */
+    public void saveState(WorldSnapshot snapshot) {
+        for (long value : state) {
+            snapshot.writeLong(value);
+        }
+        for (Action action : calls) {
+            action.saveState(snapshot);
+        }
+    }
+
+    /**
+     * Restores the state written by {@link #saveState(WorldSnapshot)} without running anything.
+     * Running timers are scheduled again, so the timer wheel should already be at the restored tick.
+     *
+     * @param snapshot The snapshot to read from
+     */
+    public void loadState(WorldSnapshot snapshot) {
+        for (int i = 0; i < state.length; i++) {
+            state[i] = snapshot.readLong();
+        }
+        for (Action action : calls) {
+            action.loadState(snapshot);
+        }
+        for (int i = 0; i < timers.length; i++) {
+            if (state[timerSlots[i]] != 0) {
+                scheduleExpiry(i);
+            } else {
+                timers[i].cancel();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of state slots.
+     *
+     * @return The state size
+     */
+    public int getStateSize() {
+        return state.length;
+    }
+
+    /**
+     * Gets the number of ints of code.
+     *
+     * @return The code length
+     */
+    public int getCodeLength() {
+        return code.length;
+    }
+
+    /**
+     * Runs instructions from a position until the next END.
+     */
+    private void run(int pc) {
+        while (true) {
+            switch (code[pc]) {
+                case OP_END:
+                    return;
+
+                case OP_PRINT:
+                    System.out.println(strings[code[pc + 1]]);
+                    pc += 2;
+                    break;
+
+                case OP_MESSAGE: {
+                    int slot = code[pc + 1];
+                    int count = code[pc + 3];
+                    if (count > 0) {
+                        System.out.println(strings[code[pc + 2] + (int) state[slot]]);
+                        if (code[pc + 4] != 0) {
+                            state[slot] = (state[slot] + 1) % count;
+                        }
+                    }
+                    pc += 5;
+                    break;
+                }
+
+                case OP_DOOR: {
+                    int slot = code[pc + 1];
+                    boolean open = state[slot] == 0;
+                    state[slot] = open ? 1 : 0;
+                    DoorAction door = doors[code[pc + 2]];
+                    door.requestDoorState(open);
+                    System.out.println("Door " + door.getDoorId() + " is now " + (open ? "open" : "closed"));
+                    pc += 3;
+                    break;
+                }
+
+                case OP_TOGGLE: {
+                    int slot = code[pc + 1];
+                    state[slot] = state[slot] == 0 ? 1 : 0;
+                    pc = state[slot] != 0 ? pc + 3 : code[pc + 2];
+                    break;
+                }
+
+                case OP_JUMP:
+                    pc = code[pc + 1];
+                    break;
+
+                case OP_TIMED: {
+                    int timer = code[pc + 1];
+                    int slot = timerSlots[timer];
+                    long now = clock.getTicks();
+                    if (state[slot] == 0) {
+                        // Start the timer and run the body
+                        state[slot] = 1;
+                        state[slot + 1] = now;
+                        scheduleExpiry(timer);
+                        System.out.println("Timed action started for " +
+                                           (timerDurations[timer] * 1000 / GameClock.TICKS_PER_SECOND) + "ms");
+                        pc += 3;
+                    } else {
+                        if (now - state[slot + 1] >= timerDurations[timer]) {
+                            expire(timer);
+                            System.out.println("Timed action expired");
+                        } else {
+                            state[slot + 1] = now;
+                            scheduleExpiry(timer);
+                            System.out.println("Timed action refreshed for " +
+                                               (timerDurations[timer] * 1000 / GameClock.TICKS_PER_SECOND) + "ms");
+                        }
+                        pc = code[pc + 2];
+                    }
+                    break;
+                }
+
+                case OP_DEACTIVATE:
+                    buttons[code[pc + 1]].deactivate();
+                    pc += 2;
+                    break;
+
+                case OP_CALL:
+                    calls[code[pc + 1]].execute();
+                    pc += 2;
+                    break;
+
+                default:
+                    throw new IllegalStateException("Bad action program opcode " + code[pc] + " at " + pc);
+            }
+        }
+    }
+
+    /**
+     * Stops a timer and runs its deactivation code.
+     */
+    private void expire(int timer) {
+        int slot = timerSlots[timer];
+        if (state[slot] == 0) {
+            return;
+        }
+        state[slot] = 0;
+        timers[timer].cancel();
+        run(timerExpiries[timer]);
+    }
+
+    /**
+     * Schedules a running timer's expiry on the timer wheel, if there is one.
+     */
+    private void scheduleExpiry(int timer) {
+        if (timerWheel != null) {
+            timerWheel.scheduleAt(timers[timer], state[timerSlots[timer] + 1] + timerDurations[timer]);
+        }
+    }
+
+    /**
+     * Sets a door's state slot and asks the door to move if it changed.
+     */
+    private void setDoorOpen(int door, boolean open) {
+        int slot = doorSlots[door];
+        if ((state[slot] != 0) != open) {
+            state[slot] = open ? 1 : 0;
+            doors[door].requestDoorState(open);
+        }
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Walks an action tree and emits its instructions.
+     */
+    private static final class Compiler {
+        private final Button owner;
+
+        private int[] code = new int[32];
+        private int codeLength;
+        private long[] state = new long[8];
+        private int stateLength;
+        private final List<String> strings = new ArrayList<>();
+        private final List<Button> buttons = new ArrayList<>();
+        private final List<Action> calls = new ArrayList<>();
+        private final List<Integer> doorSlots = new ArrayList<>();
+        private final List<DoorAction> doors = new ArrayList<>();
+        private final List<Integer> timerSlots = new ArrayList<>();
+        private final List<Long> timerDurations = new ArrayList<>();
+        private final List<Integer> timerExpiries = new ArrayList<>();
+
+        // Slots, doors and timers already given to an action, so a shared action shares them
+        private final Map<Action, Integer> slots = new IdentityHashMap<>();
+        private final Map<DoorAction, Integer> doorIndexes = new IdentityHashMap<>();
+        private final Map<TimedAction, Integer> timerIndexes = new IdentityHashMap<>();
+        private final List<TimedAction> pendingExpiries = new ArrayList<>();
+        private GameClock clock;
+        private TimerWheel timerWheel;
+
+        private int rootToggleSlot = -1;
+        private int rootToggleDoor = -1;
+        private int rootTimer = -1;
+        private boolean repeatable;
+
+        Compiler(Action root, Button owner) {
+            this.owner = owner;
+
+            emitAction(root);
+            emit(OP_END);
+
+            // Expiry code goes after the main program; expiring can start more timers
+            for (int i = 0; i < pendingExpiries.size(); i++) {
+                TimedAction timedAction = pendingExpiries.get(i);
+                timerExpiries.set(timerIndexes.get(timedAction), codeLength);
+                emitAction(timedAction.getDeactivateAction());
+                Button target = timedAction.getTargetButton() != null ? timedAction.getTargetButton() : owner;
+                if (target != null) {
+                    buttons.add(target);
+                    emit(OP_DEACTIVATE, buttons.size() - 1);
+                }
+                emit(OP_END);
+            }
+
+            if (root instanceof ToggleAction) {
+                ToggleAction toggleAction = (ToggleAction) root;
+                rootToggleSlot = slots.get(toggleAction);
+                if (toggleAction.getOnAction() instanceof DoorAction) {
+                    rootToggleDoor = doorIndexes.get((DoorAction) toggleAction.getOnAction());
+                }
+                repeatable = true;
+            } else if (root instanceof MessageAction) {
+                repeatable = ((MessageAction) root).isCycling();
+            } else if (root instanceof TimedAction) {
+                rootTimer = timerIndexes.get((TimedAction) root);
+            }
+        }
+
+        private void emitAction(Action action) {
+            if (action == null) {
+                return;
+            }
+
+            if (action instanceof MultiAction) {
+                for (Action child : ((MultiAction) action).getActions()) {
+                    emitAction(child);
+                }
+            } else if (action instanceof ToggleAction) {
+                ToggleAction toggleAction = (ToggleAction) action;
+                int slot = slotFor(action, 1);
+                state[slot] = toggleAction.isToggled() ? 1 : 0;
+                int toggle = emit(OP_TOGGLE, slot, 0);
+                emitAction(toggleAction.getOnAction());
+                int jump = emit(OP_JUMP, 0);
+                code[toggle + 2] = codeLength;
+                emitAction(toggleAction.getOffAction());
+                code[jump + 1] = codeLength;
+            } else if (action instanceof TimedAction) {
+                TimedAction timedAction = (TimedAction) action;
+                int timer = timerFor(timedAction);
+                int timed = emit(OP_TIMED, timer, 0);
+                emitAction(timedAction.getWrappedAction());
+                code[timed + 2] = codeLength;
+            } else if (action instanceof MessageAction) {
+                MessageAction messageAction = (MessageAction) action;
+                int slot = slotFor(action, 1);
+                state[slot] = messageAction.getCurrentMessageIndex();
+                int first = strings.size();
+                strings.addAll(messageAction.getMessages());
+                emit(OP_MESSAGE, slot, first, messageAction.getMessages().size(), messageAction.isCycling() ? 1 : 0);
+            } else if (action instanceof PrintAction) {
+                strings.add(((PrintAction) action).getMessage());
+                emit(OP_PRINT, strings.size() - 1);
+            } else if (action instanceof DoorAction) {
+                DoorAction doorAction = (DoorAction) action;
+                int slot = slotFor(action, 1);
+                state[slot] = doorAction.isDoorOpen() ? 1 : 0;
+                Integer door = doorIndexes.get(doorAction);
+                if (door == null) {
+                    door = doors.size();
+                    doors.add(doorAction);
+                    doorSlots.add(slot);
+                    doorIndexes.put(doorAction, door);
+                }
+                emit(OP_DOOR, slot, door);
+            } else {
+                calls.add(action);
+                emit(OP_CALL, calls.size() - 1);
+            }
+        }
+
+        /**
+         * Gets the first state slot for an action, allocating it the first time the action is seen.
+         */
+        private int slotFor(Action action, int size) {
+            Integer slot = slots.get(action);
+            if (slot == null) {
+                slot = stateLength;
+                stateLength += size;
+                if (stateLength > state.length) {
+                    state = Arrays.copyOf(state, Math.max(stateLength, state.length * 2));
+                }
+                slots.put(action, slot);
+            }
+            return slot;
+        }
+
+        /**
+         * Gets the timer for a timed action, allocating it the first time the action is seen.
+         */
+        private int timerFor(TimedAction timedAction) {
+            Integer timer = timerIndexes.get(timedAction);
+            if (timer == null) {
+                int slot = slotFor(timedAction, 2);
+                state[slot] = timedAction.isActive() ? 1 : 0;
+                state[slot + 1] = timedAction.getStartTick();
+                timer = timerSlots.size();
+                timerSlots.add(slot);
+                timerDurations.add(timedAction.getDurationTicks());
+                timerExpiries.add(0);
+                timerIndexes.put(timedAction, timer);
+                pendingExpiries.add(timedAction);
+                if (clock == null) {
+                    clock = timedAction.getClock();
+                    timerWheel = timedAction.getTimerWheel();
+                }
+            }
+            return timer;
+        }
+
+        private int emit(int... words) {
+            int start = codeLength;
+            if (codeLength + words.length > code.length) {
+                code = Arrays.copyOf(code, Math.max(codeLength + words.length, code.length * 2));
+            }
+            System.arraycopy(words, 0, code, codeLength, words.length);
+            codeLength += words.length;
+            return start;
+        }
+    }
+}
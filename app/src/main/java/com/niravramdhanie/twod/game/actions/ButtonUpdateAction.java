@@ -1,21 +1,23 @@
 package com.niravramdhanie.twod.game.actions;
 
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
 /**
  * An action that updates a MultiButtonAction when a button is activated.
  */
 public class ButtonUpdateAction implements Action {
-    private String buttonId;
+    private int buttonHandle;
     private MultiButtonAction targetAction;
     private boolean isActivated;
     
     /**
      * Creates a new ButtonUpdateAction.
      * 
-     * @param buttonId The ID of the button
+     * @param buttonHandle The entity handle of the button
      * @param targetAction The MultiButtonAction to update
      */
-    public ButtonUpdateAction(String buttonId, MultiButtonAction targetAction) {
-        this.buttonId = buttonId;
+    public ButtonUpdateAction(int buttonHandle, MultiButtonAction targetAction) {
+        this.buttonHandle = buttonHandle;
         this.targetAction = targetAction;
         this.isActivated = false;
     }
@@ -27,16 +29,32 @@ public class ButtonUpdateAction implements Action {
         
         // Update the target action with the new state
         if (targetAction != null) {
-            boolean stateChanged = targetAction.updateButtonState(buttonId, isActivated);
+            boolean stateChanged = targetAction.updateButtonState(buttonHandle, isActivated);
             if (stateChanged) {
-                System.out.println("ButtonUpdateAction: Updated button state for " + buttonId + " to " + isActivated);
+                System.out.println("ButtonUpdateAction: Updated button state for " + buttonHandle + " to " + isActivated);
             }
         }
     }
     
+    @Override
+    public void saveState(WorldSnapshot snapshot) {
+        snapshot.writeBoolean(isActivated);
+        if (targetAction != null) {
+            targetAction.saveState(snapshot);
+        }
+    }
+    
+    @Override
+    public void loadState(WorldSnapshot snapshot) {
+        isActivated = snapshot.readBoolean();
+        if (targetAction != null) {
+            targetAction.loadState(snapshot);
+        }
+    }
+    
     @Override
     public String getDescription() {
-        return "Button update action for " + buttonId + " (currently " + (isActivated ? "active" : "inactive") + ")";
+        return "Button update action for button " + buttonHandle + " (currently " + (isActivated ? "active" : "inactive") + ")";
     }
     
     /**
@@ -50,7 +68,7 @@ public class ButtonUpdateAction implements Action {
             
             // Update the target action with the new state
             if (targetAction != null) {
-                targetAction.updateButtonState(buttonId, isActivated);
+                targetAction.updateButtonState(buttonHandle, isActivated);
             }
         }
     }
@@ -1,38 +1,63 @@
 package com.niravramdhanie.twod.game.actions;
 
+import com.niravramdhanie.twod.game.entity.Door;
+import com.niravramdhanie.twod.game.entity.EntityRegistry;
+import com.niravramdhanie.twod.game.utils.EventBus;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
 /**
  * An action that simulates opening or closing a door.
  */
 public class DoorAction implements Action {
     private String doorId;
+    private int doorHandle;
     private boolean doorOpen;
     private DoorStateChangeListener listener;
+    private EventBus eventBus;
     
     /**
-     * Creates a new door action.
+     * Creates a new door action that isn't connected to a door in the level.
      * 
      * @param doorId The ID of the door
      */
     public DoorAction(String doorId) {
         this.doorId = doorId;
+        this.doorHandle = EntityRegistry.NO_HANDLE;
         this.doorOpen = false;
         this.listener = null;
     }
     
+    /**
+     * Creates a new door action for a door that has been added to the level.
+     * 
+     * @param door The door to control
+     */
+    public DoorAction(Door door) {
+        this(door.getId());
+        this.doorHandle = door.getHandle();
+    }
+    
     @Override
     public void execute() {
         // Toggle the door state
         doorOpen = !doorOpen;
         
-        // Notify the listener if present
-        if (listener != null) {
-            listener.onDoorStateChanged(doorId, doorOpen);
-        }
+        notifyStateChange();
         
         // Print a message to the console
         System.out.println("Door " + doorId + " is now " + (doorOpen ? "open" : "closed"));
     }
     
+    @Override
+    public void saveState(WorldSnapshot snapshot) {
+        snapshot.writeBoolean(doorOpen);
+    }
+    
+    @Override
+    public void loadState(WorldSnapshot snapshot) {
+        doorOpen = snapshot.readBoolean();
+    }
+    
     @Override
     public String getDescription() {
         return "Door '" + doorId + "' - " + (doorOpen ? "OPEN" : "CLOSED");
@@ -45,10 +70,10 @@ public class DoorAction implements Action {
         /**
          * Called when a door's state changes.
          * 
-         * @param doorId The ID of the door
+         * @param doorHandle The entity handle of the door
          * @param isOpen True if the door is now open, false if closed
          */
-        void onDoorStateChanged(String doorId, boolean isOpen);
+        void onDoorStateChanged(int doorHandle, boolean isOpen);
     }
     
     /**
@@ -78,6 +103,37 @@ public class DoorAction implements Action {
         this.doorId = doorId;
     }
     
+    /**
+     * Points the action at a door that has been added to the level, as the constructor does.
+     * 
+     * @param door The door to control
+     */
+    public void setDoor(Door door) {
+        this.doorId = door.getId();
+        this.doorHandle = door.getHandle();
+    }
+    
+    /**
+     * Disconnects the action from its door, listener and event bus and closes it,
+     * for an action going back to its pool.
+     */
+    public void reset() {
+        doorId = null;
+        doorHandle = EntityRegistry.NO_HANDLE;
+        doorOpen = false;
+        listener = null;
+        eventBus = null;
+    }
+    
+    /**
+     * Gets the entity handle of the door.
+     * 
+     * @return The door handle, or {@link EntityRegistry#NO_HANDLE} if not connected to a door
+     */
+    public int getDoorHandle() {
+        return doorHandle;
+    }
+    
     /**
      * Checks if the door is open.
      * 
@@ -96,9 +152,42 @@ public class DoorAction implements Action {
         boolean oldState = this.doorOpen;
         this.doorOpen = doorOpen;
         
-        // If the state changed and we have a listener, notify it
-        if (oldState != doorOpen && listener != null) {
-            listener.onDoorStateChanged(doorId, doorOpen);
+        // If the state changed, notify whoever moves the door
+        if (oldState != doorOpen) {
+            notifyStateChange();
+        }
+    }
+    
+    /**
+     * Sets the event bus that door open and close requests are published to.
+     * When set, requests go to the bus instead of the single listener, so any
+     * number of subscribers can follow the door.
+     * 
+     * @param eventBus The event bus
+     */
+    public void setEventBus(EventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+    
+    /**
+     * Publishes the door state to the event bus, or tells the listener if there's no bus.
+     */
+    private void notifyStateChange() {
+        requestDoorState(doorOpen);
+    }
+    
+    /**
+     * Asks for the door to be opened or closed without changing this action's own state.
+     * Used by compiled action programs, which keep the door state themselves.
+     * 
+     * @param open True to open the door, false to close it
+     */
+    void requestDoorState(boolean open) {
+        if (eventBus != null && doorHandle != EntityRegistry.NO_HANDLE) {
+            eventBus.publish(open ? EventBus.EventType.DOOR_OPEN_REQUESTED
+                                  : EventBus.EventType.DOOR_CLOSE_REQUESTED, doorHandle);
+        } else if (listener != null) {
+            listener.onDoorStateChanged(doorHandle, open);
         }
     }
 } 
\ No newline at end of file
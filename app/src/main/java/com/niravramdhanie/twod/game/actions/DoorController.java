@@ -1,167 +1,219 @@
 package com.niravramdhanie.twod.game.actions;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import com.niravramdhanie.twod.game.entity.Door;
+import com.niravramdhanie.twod.game.utils.EventBus;
 
 /**
  * Controls and manages doors in the game.
- * Tracks door states and provides methods to open/close doors by ID.
+ * Tracks door states and provides methods to open/close doors by entity handle.
+ * Doors must be added to the level before they are registered so they have a handle.
  */
-public class DoorController implements DoorAction.DoorStateChangeListener {
+public class DoorController implements DoorAction.DoorStateChangeListener, EventBus.Listener {
     private List<Door> doors;
-    private Map<String, Door> doorMap;
-    
+    private Door[] doorsByHandle;
+    private EventBus eventBus;
+
     /**
      * Creates a new door controller.
      */
     public DoorController() {
         doors = new ArrayList<>();
-        doorMap = new HashMap<>();
+        doorsByHandle = new Door[16];
     }
-    
+
+    /**
+     * Creates a new door controller that carries out door requests published on an event bus.
+     *
+     * @param eventBus The event bus
+     */
+    public DoorController(EventBus eventBus) {
+        this();
+        this.eventBus = eventBus;
+        eventBus.subscribe(EventBus.EventType.DOOR_OPEN_REQUESTED, this);
+        eventBus.subscribe(EventBus.EventType.DOOR_CLOSE_REQUESTED, this);
+    }
+
+    /**
+     * Stops listening to the event bus, when the controller's level is replaced.
+     */
+    public void detach() {
+        if (eventBus != null) {
+            eventBus.unsubscribe(this);
+            eventBus = null;
+        }
+    }
+
+    /**
+     * Forgets every door, when the controller's level is replaced, and keeps listening
+     * for the next level's doors.
+     */
+    public void clear() {
+        doors.clear();
+        Arrays.fill(doorsByHandle, null);
+    }
+
     /**
      * Registers a door with the controller.
-     * 
+     *
      * @param door The door to register
      */
     public void registerDoor(Door door) {
+        int handle = door.getHandle();
+        if (handle < 0) {
+            System.out.println("DoorController: Warning - Door " + door.getId() +
+                              " has no handle; add it to the level before registering it");
+            return;
+        }
+
         doors.add(door);
-        doorMap.put(door.getId(), door);
-        
+        if (handle >= doorsByHandle.length) {
+            doorsByHandle = Arrays.copyOf(doorsByHandle, Math.max(handle + 1, doorsByHandle.length * 2));
+        }
+        doorsByHandle[handle] = door;
+
         // Add this controller as a listener to the door
-        for (DoorAction action : findDoorActions(door.getId())) {
+        for (DoorAction action : findDoorActions(handle)) {
             action.setDoorStateChangeListener(this);
         }
     }
-    
+
     /**
-     * Finds all door actions for a specific door ID.
-     * 
-     * @param doorId The door ID
+     * Finds all door actions for a specific door.
+     *
+     * @param doorHandle The door handle
      * @return List of door actions
      */
-    private List<DoorAction> findDoorActions(String doorId) {
+    private List<DoorAction> findDoorActions(int doorHandle) {
         // This would typically be connected to a button registry or similar,
         // but for now, we'll return an empty list and register actions manually
         return new ArrayList<>();
     }
-    
+
     /**
-     * Opens a door by ID.
-     * 
-     * @param doorId The ID of the door to open
+     * Opens a door by handle.
+     *
+     * @param doorHandle The handle of the door to open
      * @return True if the door was found and opened, false otherwise
      */
-    public boolean openDoor(String doorId) {
-        Door door = doorMap.get(doorId);
+    public boolean openDoor(int doorHandle) {
+        Door door = getDoor(doorHandle);
         if (door != null) {
             door.open();
             return true;
         }
         return false;
     }
-    
+
     /**
-     * Closes a door by ID.
-     * 
-     * @param doorId The ID of the door to close
+     * Closes a door by handle.
+     *
+     * @param doorHandle The handle of the door to close
      * @return True if the door was found and closed, false otherwise
      */
-    public boolean closeDoor(String doorId) {
-        Door door = doorMap.get(doorId);
+    public boolean closeDoor(int doorHandle) {
+        Door door = getDoor(doorHandle);
         if (door != null) {
             door.close();
             return true;
         }
         return false;
     }
-    
+
     /**
-     * Toggles a door's state by ID.
-     * 
-     * @param doorId The ID of the door to toggle
+     * Toggles a door by handle.
+     *
+     * @param doorHandle The handle of the door to toggle
      * @return True if the door was found and toggled, false otherwise
      */
-    public boolean toggleDoor(String doorId) {
-        Door door = doorMap.get(doorId);
+    public boolean toggleDoor(int doorHandle) {
+        Door door = getDoor(doorHandle);
         if (door != null) {
             door.toggle();
             return true;
         }
         return false;
     }
-    
+
     /**
-     * Closes all doors managed by this controller.
+     * Closes all doors.
      */
     public void closeAllDoors() {
         for (Door door : doors) {
             door.close();
         }
     }
-    
+
     /**
-     * Opens all doors managed by this controller.
+     * Opens all doors.
      */
     public void openAllDoors() {
         for (Door door : doors) {
             door.open();
         }
     }
-    
+
     /**
-     * Gets all doors managed by this controller.
-     * 
-     * @return The list of doors
+     * Gets all registered doors.
+     *
+     * @return List of doors
      */
     public List<Door> getDoors() {
         return doors;
     }
-    
+
     /**
-     * Gets a door by ID.
-     * 
-     * @param doorId The door ID
+     * Gets a door by handle.
+     *
+     * @param doorHandle The door handle
      * @return The door, or null if not found
      */
-    public Door getDoor(String doorId) {
-        return doorMap.get(doorId);
+    public Door getDoor(int doorHandle) {
+        if (doorHandle < 0 || doorHandle >= doorsByHandle.length) {
+            return null;
+        }
+        return doorsByHandle[doorHandle];
     }
-    
+
     /**
      * Removes a door from the controller.
-     * 
-     * @param doorId The ID of the door to remove
+     *
+     * @param doorHandle The handle of the door to remove
      * @return True if the door was found and removed, false otherwise
      */
-    public boolean removeDoor(String doorId) {
-        Door door = doorMap.remove(doorId);
+    public boolean removeDoor(int doorHandle) {
+        Door door = getDoor(doorHandle);
         if (door != null) {
+            doorsByHandle[doorHandle] = null;
             doors.remove(door);
             return true;
         }
         return false;
     }
-    
+
+    @Override
+    public void onEvent(EventBus.EventType type, int handle) {
+        onDoorStateChanged(handle, type == EventBus.EventType.DOOR_OPEN_REQUESTED);
+    }
+
     @Override
-    public void onDoorStateChanged(String doorId, boolean isOpen) {
+    public void onDoorStateChanged(int doorHandle, boolean isOpen) {
         // Propagate the door state change to the actual door
-        Door door = doorMap.get(doorId);
+        Door door = getDoor(doorHandle);
         if (door != null) {
             if (isOpen) {
                 door.open();
             } else {
                 door.close();
             }
-            System.out.println("DoorController: Door " + doorId + " is now " + 
+            System.out.println("DoorController: Door " + door.getId() + " is now " +
                               (isOpen ? "open" : "closed"));
         } else {
-            System.out.println("DoorController: Warning - Door " + doorId + 
+            System.out.println("DoorController: Warning - Door " + doorHandle +
                               " not found when trying to change state");
         }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,551 @@
+package com.niravramdhanie.twod.game.actions;
+
+import java.util.Arrays;
+
+import com.niravramdhanie.twod.game.utils.EventBus;
+import com.niravramdhanie.twod.game.utils.TimerWheel;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
+/**
+ * A network of logic gates that turns button states into puzzle outcomes.
+ * A level declares inputs (usually bound to buttons), gates that combine them and
+ * the nodes whose changes it wants to hear about, then the graph is compiled into
+ * flat arrays. Each gate keeps its inputs as the bits of a mask, so evaluating it
+ * is a single comparison, and when an input changes only the gates downstream of
+ * it are evaluated again.
+ *
+ * A gate can only use nodes declared before it, so node numbers are already in
+ * evaluation order and the graph can't contain loops.
+ */
+public class LogicGraph implements EventBus.Listener {
+    /**
+     * Kinds of node in the graph.
+     */
+    public enum NodeType {
+        INPUT,  // Set from outside, usually by a button
+        AND,    // True when all inputs are true
+        OR,     // True when any input is true
+        XOR,    // True when an odd number of inputs are true
+        NOT,    // True when its input is false
+        LATCH,  // Turns on when its set input is true, off when its reset input is true
+        TIMER   // Follows its input, but stays true for a delay after the input turns off
+    }
+
+    /**
+     * Interface for the object that reacts when an output node changes.
+     */
+    public interface OutputListener {
+        /**
+         * Called after a change to the graph's inputs has been fully evaluated.
+         *
+         * @param node The output node
+         * @param value The node's new value
+         */
+        void onOutputChanged(int node, boolean value);
+    }
+
+    // Gate inputs are bits in a long
+    public static final int MAX_GATE_INPUTS = 64;
+
+    private static final NodeType[] TYPES = NodeType.values();
+
+    private final TimerWheel timerWheel;
+    private OutputListener outputListener;
+
+    // Declared nodes
+    private int nodeCount;
+    private byte[] types;
+    private String[] names;
+    private int[][] declaredInputs;
+    private long[] delays;
+    private boolean[] outputs;
+
+    // Compiled graph, indexed by node
+    private boolean compiled;
+    private long[] inputMasks;
+    private long[] fullMasks;
+    private int[] fanoutStart;
+    private int[] fanoutTargets;
+    private byte[] fanoutSlots;
+    private TimerWheel.Timer[] timers;
+
+    // Node values and nodes waiting to be evaluated, one bit per node
+    private long[] values;
+    private long[] dirty;
+    private boolean propagating;
+
+    // Output changes waiting to be reported
+    private int[] changedOutputs;
+    private boolean[] changedValues;
+    private int changedCount;
+    private boolean notifying;
+
+    // Input node for each button handle, or -1
+    private int[] buttonInputs;
+
+    /**
+     * Creates an empty logic graph.
+     *
+     * @param timerWheel The wheel timer nodes schedule on, or null if the graph has no timers
+     */
+    public LogicGraph(TimerWheel timerWheel) {
+        this.timerWheel = timerWheel;
+        this.types = new byte[16];
+        this.names = new String[16];
+        this.declaredInputs = new int[16][];
+        this.delays = new long[16];
+        this.outputs = new boolean[16];
+        this.buttonInputs = new int[0];
+        this.changedOutputs = new int[8];
+        this.changedValues = new boolean[8];
+    }
+
+    /**
+     * Declares an input node.
+     *
+     * @param name A name for the node, used in log messages
+     * @return The node
+     */
+    public int addInput(String name) {
+        return addNode(NodeType.INPUT, name, new int[0], 0);
+    }
+
+    /**
+     * Declares an input node that follows a button.
+     *
+     * @param name A name for the node, used in log messages
+     * @param buttonHandle The entity handle of the button
+     * @return The node
+     */
+    public int addButtonInput(String name, int buttonHandle) {
+        int node = addInput(name);
+        if (buttonHandle >= buttonInputs.length) {
+            int oldLength = buttonInputs.length;
+            buttonInputs = Arrays.copyOf(buttonInputs, Math.max(buttonHandle + 1, oldLength * 2));
+            Arrays.fill(buttonInputs, oldLength, buttonInputs.length, -1);
+        }
+        buttonInputs[buttonHandle] = node;
+        return node;
+    }
+
+    /**
+     * Declares an AND, OR, XOR or NOT gate.
+     * A NOT gate with several inputs is true when all of them are false.
+     *
+     * @param type The gate type
+     * @param name A name for the node, used in log messages
+     * @param inputs The nodes the gate reads, all declared earlier
+     * @return The node
+     */
+    public int addGate(NodeType type, String name, int... inputs) {
+        if (type == NodeType.INPUT || type == NodeType.LATCH || type == NodeType.TIMER) {
+            throw new IllegalArgumentException("Use the dedicated method to add a " + type + " node");
+        }
+        return addNode(type, name, inputs, 0);
+    }
+
+    /**
+     * Declares a latch, which remembers that its set input was true until its reset input is.
+     *
+     * @param name A name for the node, used in log messages
+     * @param set The node that turns the latch on
+     * @param reset The node that turns the latch off, or -1 for a latch that stays on
+     * @return The node
+     */
+    public int addLatch(String name, int set, int reset) {
+        int[] inputs = reset >= 0 ? new int[] { set, reset } : new int[] { set };
+        return addNode(NodeType.LATCH, name, inputs, 0);
+    }
+
+    /**
+     * Declares a timer, which stays true for a while after its input turns off.
+     *
+     * @param name A name for the node, used in log messages
+     * @param input The node the timer follows
+     * @param delayTicks How many ticks the timer stays on after the input turns off
+     * @return The node
+     */
+    public int addTimer(String name, int input, long delayTicks) {
+        return addNode(NodeType.TIMER, name, new int[] { input }, delayTicks);
+    }
+
+    /**
+     * Marks a node as an output, so the output listener hears when it changes.
+     *
+     * @param node The node
+     */
+    public void addOutput(int node) {
+        checkNode(node);
+        outputs[node] = true;
+    }
+
+    /**
+     * Sets the listener for output changes.
+     *
+     * @param listener The listener
+     */
+    public void setOutputListener(OutputListener listener) {
+        this.outputListener = listener;
+    }
+
+    /**
+     * Follows the button inputs through button events on an event bus.
+     *
+     * @param eventBus The event bus
+     */
+    public void subscribe(EventBus eventBus) {
+        eventBus.subscribe(EventBus.EventType.BUTTON_ACTIVATED, this);
+        eventBus.subscribe(EventBus.EventType.BUTTON_DEACTIVATED, this);
+    }
+
+    /**
+     * Builds the flat evaluation arrays from the declared nodes and evaluates every node
+     * with all inputs off. Outputs aren't reported for this first evaluation.
+     * Declaring more nodes afterwards means the graph is compiled again on next use.
+     */
+    public void compile() {
+        // Count the edges from each node to the gates that read it
+        fanoutStart = new int[nodeCount + 1];
+        for (int node = 0; node < nodeCount; node++) {
+            for (int input : declaredInputs[node]) {
+                fanoutStart[input + 1]++;
+            }
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            fanoutStart[node + 1] += fanoutStart[node];
+        }
+
+        fanoutTargets = new int[fanoutStart[nodeCount]];
+        fanoutSlots = new byte[fanoutStart[nodeCount]];
+        int[] next = Arrays.copyOf(fanoutStart, nodeCount);
+        inputMasks = new long[nodeCount];
+        fullMasks = new long[nodeCount];
+        timers = new TimerWheel.Timer[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            int[] inputs = declaredInputs[node];
+            for (int slot = 0; slot < inputs.length; slot++) {
+                int edge = next[inputs[slot]]++;
+                fanoutTargets[edge] = node;
+                fanoutSlots[edge] = (byte) slot;
+            }
+            fullMasks[node] = inputs.length == MAX_GATE_INPUTS ? -1L : (1L << inputs.length) - 1;
+
+            if (types[node] == NodeType.TIMER.ordinal() && timerWheel != null && delays[node] > 0) {
+                final int timerNode = node;
+                timers[node] = new TimerWheel.Timer(timer -> timerExpired(timerNode));
+            }
+        }
+
+        int words = (nodeCount + 63) >>> 6;
+        values = new long[words];
+        dirty = new long[words];
+        compiled = true;
+
+        // Settle the gates for the starting inputs, such as NOT gates turning on
+        for (int node = 0; node < nodeCount; node++) {
+            if (types[node] != NodeType.INPUT.ordinal()) {
+                markDirty(node);
+            }
+        }
+        boolean wasNotifying = notifying;
+        notifying = true;
+        propagate();
+        notifying = wasNotifying;
+        changedCount = 0;
+    }
+
+    /**
+     * Sets an input node and evaluates everything downstream of it.
+     *
+     * @param node The input node
+     * @param value The new value
+     */
+    public void setInput(int node, boolean value) {
+        checkNode(node);
+        if (types[node] != NodeType.INPUT.ordinal()) {
+            throw new IllegalArgumentException("Node " + names[node] + " is not an input");
+        }
+        if (!compiled) {
+            compile();
+        }
+        if (getValue(node) == value) {
+            return;
+        }
+
+        setValue(node, value);
+        propagate();
+    }
+
+    /**
+     * Gets a node's current value.
+     *
+     * @param node The node
+     * @return The node's value
+     */
+    public boolean getValue(int node) {
+        if (!compiled) {
+            compile();
+        }
+        return (values[node >>> 6] & (1L << node)) != 0;
+    }
+
+    /**
+     * Gets a node's name.
+     *
+     * @param node The node
+     * @return The name given when the node was declared
+     */
+    public String getName(int node) {
+        checkNode(node);
+        return names[node];
+    }
+
+    /**
+     * Gets the number of declared nodes.
+     *
+     * @return The node count
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public void onEvent(EventBus.EventType type, int handle) {
+        if (handle >= 0 && handle < buttonInputs.length && buttonInputs[handle] >= 0) {
+            setInput(buttonInputs[handle], type == EventBus.EventType.BUTTON_ACTIVATED);
+        }
+    }
+
+    /**
+     * Writes the node values, gate inputs and running timers to a snapshot.
+     *
+     * @param snapshot The snapshot to write to
+     */
+    public void saveState(WorldSnapshot snapshot) {
+        if (!compiled) {
+            compile();
+        }
+        for (long word : values) {
+            snapshot.writeLong(word);
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            snapshot.writeLong(inputMasks[node]);
+            if (timers[node] != null) {
+                snapshot.writeLong(timers[node].isScheduled() ? timers[node].getDeadline() : -1);
+            }
+        }
+    }
+
+    /**
+     * Restores the state written by {@link #saveState(WorldSnapshot)} without reporting outputs.
+     * Timers are scheduled again, so the timer wheel should already be at the restored tick.
+     *
+     * @param snapshot The snapshot to read from
+     */
+    public void loadState(WorldSnapshot snapshot) {
+        if (!compiled) {
+            compile();
+        }
+        for (int i = 0; i < values.length; i++) {
+            values[i] = snapshot.readLong();
+        }
+        Arrays.fill(dirty, 0);
+        changedCount = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            inputMasks[node] = snapshot.readLong();
+            if (timers[node] != null) {
+                long deadline = snapshot.readLong();
+                if (deadline >= 0) {
+                    timerWheel.scheduleAt(timers[node], deadline);
+                } else {
+                    timers[node].cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a node to the declaration arrays.
+     */
+    private int addNode(NodeType type, String name, int[] inputs, long delay) {
+        if (inputs.length > MAX_GATE_INPUTS) {
+            throw new IllegalArgumentException("Node " + name + " has more than " + MAX_GATE_INPUTS + " inputs");
+        }
+        if (type != NodeType.INPUT && inputs.length == 0) {
+            throw new IllegalArgumentException("Node " + name + " needs at least one input");
+        }
+        if ((type == NodeType.TIMER) && inputs.length != 1) {
+            throw new IllegalArgumentException("Timer " + name + " needs exactly one input");
+        }
+        for (int input : inputs) {
+            checkNode(input);
+        }
+
+        if (nodeCount == types.length) {
+            int capacity = nodeCount * 2;
+            types = Arrays.copyOf(types, capacity);
+            names = Arrays.copyOf(names, capacity);
+            declaredInputs = Arrays.copyOf(declaredInputs, capacity);
+            delays = Arrays.copyOf(delays, capacity);
+            outputs = Arrays.copyOf(outputs, capacity);
+        }
+
+        int node = nodeCount++;
+        types[node] = (byte) type.ordinal();
+        names[node] = name;
+        declaredInputs[node] = inputs.clone();
+        delays[node] = delay;
+        compiled = false;
+        return node;
+    }
+
+    /**
+     * Checks that a node has been declared.
+     */
+    private void checkNode(int node) {
+        if (node < 0 || node >= nodeCount) {
+            throw new IllegalArgumentException("Unknown logic node: " + node);
+        }
+    }
+
+    /**
+     * Evaluates the dirty nodes in order. Gates only read earlier nodes,
+     * so a single forward pass settles the graph.
+     */
+    private void propagate() {
+        if (propagating) {
+            return;
+        }
+
+        propagating = true;
+        try {
+            for (int word = 0; word < dirty.length; word++) {
+                long bits;
+                while ((bits = dirty[word]) != 0) {
+                    dirty[word] = bits & (bits - 1);
+                    int node = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    boolean value = evaluate(node);
+                    if (value != getValue(node)) {
+                        setValue(node, value);
+                    }
+                }
+            }
+        } finally {
+            propagating = false;
+        }
+
+        notifyOutputs();
+    }
+
+    /**
+     * Computes a gate's value from its input mask.
+     */
+    private boolean evaluate(int node) {
+        long mask = inputMasks[node];
+        switch (TYPES[types[node]]) {
+            case AND:
+                return mask == fullMasks[node];
+            case OR:
+                return mask != 0;
+            case XOR:
+                return (Long.bitCount(mask) & 1) != 0;
+            case NOT:
+                return mask == 0;
+            case LATCH:
+                if ((mask & 2) != 0) {
+                    return false;
+                }
+                return (mask & 1) != 0 || getValue(node);
+            case TIMER:
+                if ((mask & 1) != 0) {
+                    if (timers[node] != null) {
+                        timers[node].cancel();
+                    }
+                    return true;
+                }
+                if (timers[node] != null && getValue(node)) {
+                    // Hold the output on until the timer runs out
+                    if (!timers[node].isScheduled()) {
+                        timerWheel.schedule(timers[node], delays[node]);
+                    }
+                    return true;
+                }
+                return false;
+            default:
+                return getValue(node);
+        }
+    }
+
+    /**
+     * Stores a node's new value and passes it to the gates that read it.
+     */
+    private void setValue(int node, boolean value) {
+        if (value) {
+            values[node >>> 6] |= 1L << node;
+        } else {
+            values[node >>> 6] &= ~(1L << node);
+        }
+
+        for (int edge = fanoutStart[node]; edge < fanoutStart[node + 1]; edge++) {
+            int target = fanoutTargets[edge];
+            long bit = 1L << fanoutSlots[edge];
+            if (value) {
+                inputMasks[target] |= bit;
+            } else {
+                inputMasks[target] &= ~bit;
+            }
+            markDirty(target);
+        }
+
+        if (outputs[node]) {
+            if (changedCount == changedOutputs.length) {
+                changedOutputs = Arrays.copyOf(changedOutputs, changedCount * 2);
+                changedValues = Arrays.copyOf(changedValues, changedCount * 2);
+            }
+            changedOutputs[changedCount] = node;
+            changedValues[changedCount] = value;
+            changedCount++;
+        }
+    }
+
+    /**
+     * Queues a node to be evaluated.
+     */
+    private void markDirty(int node) {
+        dirty[node >>> 6] |= 1L << node;
+    }
+
+    /**
+     * Turns a timer node off when its delay runs out.
+     */
+    private void timerExpired(int node) {
+        if (getValue(node) && (inputMasks[node] & 1) == 0) {
+            setValue(node, false);
+            propagate();
+        }
+    }
+
+    /**
+     * Reports queued output changes. Changes caused by the listener are reported in the same call.
+     */
+    private void notifyOutputs() {
+        if (notifying) {
+            return;
+        }
+
+        notifying = true;
+        try {
+            for (int i = 0; i < changedCount; i++) {
+                int node = changedOutputs[i];
+                boolean value = changedValues[i];
+                System.out.println("Logic: " + names[node] + " is now " + (value ? "on" : "off"));
+                if (outputListener != null) {
+                    outputListener.onOutputChanged(node, value);
+                }
+            }
+        } finally {
+            changedCount = 0;
+            notifying = false;
+        }
+    }
+}
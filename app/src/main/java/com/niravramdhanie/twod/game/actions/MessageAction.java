@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
 /**
  * An enhanced version of PrintAction that can cycle through multiple messages.
  */
@@ -49,6 +51,16 @@ public class MessageAction implements Action {
         }
     }
     
+    @Override
+    public void saveState(WorldSnapshot snapshot) {
+        snapshot.writeInt(currentMessageIndex);
+    }
+    
+    @Override
+    public void loadState(WorldSnapshot snapshot) {
+        currentMessageIndex = snapshot.readInt();
+    }
+    
     @Override
     public String getDescription() {
         if (cycling) {
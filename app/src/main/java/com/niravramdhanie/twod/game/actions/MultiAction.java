@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
 /**
  * An action that executes multiple actions in sequence.
  */
@@ -38,6 +40,24 @@ public class MultiAction implements Action {
         }
     }
     
+    @Override
+    public void saveState(WorldSnapshot snapshot) {
+        for (Action action : actions) {
+            if (action != null) {
+                action.saveState(snapshot);
+            }
+        }
+    }
+    
+    @Override
+    public void loadState(WorldSnapshot snapshot) {
+        for (Action action : actions) {
+            if (action != null) {
+                action.loadState(snapshot);
+            }
+        }
+    }
+    
     @Override
     public String getDescription() {
         StringBuilder description = new StringBuilder("Multi-action (");
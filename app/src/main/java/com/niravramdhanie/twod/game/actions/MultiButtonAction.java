@@ -1,15 +1,22 @@
 package com.niravramdhanie.twod.game.actions;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import com.niravramdhanie.twod.game.utils.EventBus;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
 /**
  * An action that only executes when all required buttons are activated.
  * Used for scenarios where multiple buttons need to be pressed simultaneously.
  */
-public class MultiButtonAction implements Action {
-    private List<String> requiredButtonIds;
-    private List<Boolean> buttonStates;
+public class MultiButtonAction implements Action, EventBus.Listener {
+    // Required buttons by entity handle, with names used only for logging
+    private int[] requiredButtons;
+    private String[] buttonNames;
+    private boolean[] buttonStates;
+    private int buttonCount;
     private Action targetAction;
     private boolean permanentActivation;
     private boolean wasActivated;
@@ -22,8 +29,10 @@ public class MultiButtonAction implements Action {
      */
     public MultiButtonAction(Action targetAction, boolean permanentActivation) {
         this.targetAction = targetAction;
-        this.requiredButtonIds = new ArrayList<>();
-        this.buttonStates = new ArrayList<>();
+        this.requiredButtons = new int[4];
+        this.buttonNames = new String[4];
+        this.buttonStates = new boolean[4];
+        this.buttonCount = 0;
         this.permanentActivation = permanentActivation;
         this.wasActivated = false;
     }
@@ -31,34 +40,63 @@ public class MultiButtonAction implements Action {
     /**
      * Adds a button requirement.
      * 
-     * @param buttonId The ID of the required button
+     * @param buttonHandle The entity handle of the required button
+     * @param buttonName A name for the button, used in log messages
+     */
+    public void addRequiredButton(int buttonHandle, String buttonName) {
+        if (buttonCount == requiredButtons.length) {
+            requiredButtons = Arrays.copyOf(requiredButtons, buttonCount * 2);
+            buttonNames = Arrays.copyOf(buttonNames, buttonCount * 2);
+            buttonStates = Arrays.copyOf(buttonStates, buttonCount * 2);
+        }
+        requiredButtons[buttonCount] = buttonHandle;
+        buttonNames[buttonCount] = buttonName;
+        buttonStates[buttonCount] = false;
+        buttonCount++;
+    }
+    
+    /**
+     * Follows the required buttons through button events on an event bus,
+     * instead of being updated by the buttons' actions.
+     * 
+     * @param eventBus The event bus
      */
-    public void addRequiredButton(String buttonId) {
-        requiredButtonIds.add(buttonId);
-        buttonStates.add(false);
+    public void subscribe(EventBus eventBus) {
+        eventBus.subscribe(EventBus.EventType.BUTTON_ACTIVATED, this);
+        eventBus.subscribe(EventBus.EventType.BUTTON_DEACTIVATED, this);
+    }
+    
+    @Override
+    public void onEvent(EventBus.EventType type, int handle) {
+        if (indexOf(handle) != -1) {
+            updateButtonState(handle, type == EventBus.EventType.BUTTON_ACTIVATED);
+        }
     }
     
     /**
      * Updates the state of a button.
      * 
-     * @param buttonId The ID of the button
+     * @param buttonHandle The entity handle of the button
      * @param isActivated Whether the button is activated
      * @return True if the update changed the overall activation state, false otherwise
      */
-    public boolean updateButtonState(String buttonId, boolean isActivated) {
-        int index = requiredButtonIds.indexOf(buttonId);
+    public boolean updateButtonState(int buttonHandle, boolean isActivated) {
+        int index = indexOf(buttonHandle);
         if (index == -1) {
-            System.out.println("Button ID not found: " + buttonId);
+            System.out.println("Button handle not found: " + buttonHandle);
             return false;
         }
         
+        boolean allActivatedBefore = checkAllButtonsActivated();
+        boolean permanentlyActivatedBefore = isPermanentlyActivated();
+        
         // Update the button state
-        boolean oldState = buttonStates.get(index);
-        buttonStates.set(index, isActivated);
+        boolean oldState = buttonStates[index];
+        buttonStates[index] = isActivated;
         
         boolean stateChanged = oldState != isActivated;
         if (stateChanged) {
-            System.out.println("Button " + buttonId + " is now " + (isActivated ? "activated" : "deactivated"));
+            System.out.println("Button " + buttonNames[index] + " is now " + (isActivated ? "activated" : "deactivated"));
         }
         
         // Check if all buttons are now activated
@@ -79,13 +117,10 @@ public class MultiButtonAction implements Action {
             }
         }
         
-        // Execute the target action if we're activated
-        if ((allActivated || (permanentActivation && wasActivated)) && targetAction != null) {
-            if (allActivated) {
-                System.out.println("Executing target action because all buttons are active");
-            } else {
-                System.out.println("Executing target action because of permanent activation");
-            }
+        // Execute the target action when the buttons have just all become active.
+        // Once permanently activated it has already run and stays in effect.
+        if (allActivated && !allActivatedBefore && !permanentlyActivatedBefore && targetAction != null) {
+            System.out.println("Executing target action because all buttons are active");
             targetAction.execute();
             return true;
         }
@@ -93,14 +128,29 @@ public class MultiButtonAction implements Action {
         return false;
     }
     
+    /**
+     * Finds a required button.
+     * 
+     * @param buttonHandle The entity handle of the button
+     * @return The button's index, or -1 if it isn't required
+     */
+    private int indexOf(int buttonHandle) {
+        for (int i = 0; i < buttonCount; i++) {
+            if (requiredButtons[i] == buttonHandle) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
     /**
      * Logs information about which buttons still need to be activated.
      */
     private void logRemainingButtons() {
         List<String> missingButtons = new ArrayList<>();
-        for (int i = 0; i < requiredButtonIds.size(); i++) {
-            if (!buttonStates.get(i)) {
-                missingButtons.add(requiredButtonIds.get(i));
+        for (int i = 0; i < buttonCount; i++) {
+            if (!buttonStates[i]) {
+                missingButtons.add(buttonNames[i]);
             }
         }
         
@@ -115,12 +165,12 @@ public class MultiButtonAction implements Action {
      * @return True if all buttons are activated, false otherwise
      */
     private boolean checkAllButtonsActivated() {
-        for (Boolean state : buttonStates) {
-            if (!state) {
+        for (int i = 0; i < buttonCount; i++) {
+            if (!buttonStates[i]) {
                 return false;
             }
         }
-        return !buttonStates.isEmpty();
+        return buttonCount > 0;
     }
     
     @Override
@@ -129,13 +179,35 @@ public class MultiButtonAction implements Action {
         // The actual execution happens in updateButtonState
     }
     
+    @Override
+    public void saveState(WorldSnapshot snapshot) {
+        snapshot.writeBoolean(wasActivated);
+        for (int i = 0; i < buttonCount; i++) {
+            snapshot.writeBoolean(buttonStates[i]);
+        }
+        if (targetAction != null) {
+            targetAction.saveState(snapshot);
+        }
+    }
+    
+    @Override
+    public void loadState(WorldSnapshot snapshot) {
+        wasActivated = snapshot.readBoolean();
+        for (int i = 0; i < buttonCount; i++) {
+            buttonStates[i] = snapshot.readBoolean();
+        }
+        if (targetAction != null) {
+            targetAction.loadState(snapshot);
+        }
+    }
+    
     @Override
     public String getDescription() {
-        int totalButtons = requiredButtonIds.size();
+        int totalButtons = buttonCount;
         int activatedButtons = 0;
         
-        for (Boolean state : buttonStates) {
-            if (state) {
+        for (int i = 0; i < buttonCount; i++) {
+            if (buttonStates[i]) {
                 activatedButtons++;
             }
         }
@@ -149,9 +221,7 @@ public class MultiButtonAction implements Action {
      */
     public void reset() {
         wasActivated = false;
-        for (int i = 0; i < buttonStates.size(); i++) {
-            buttonStates.set(i, false);
-        }
+        Arrays.fill(buttonStates, 0, buttonCount, false);
     }
     
     /**
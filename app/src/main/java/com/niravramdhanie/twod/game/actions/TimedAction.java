@@ -1,30 +1,76 @@
 package com.niravramdhanie.twod.game.actions;
 
 import com.niravramdhanie.twod.game.entity.Button;
+import com.niravramdhanie.twod.game.utils.GameClock;
+import com.niravramdhanie.twod.game.utils.TimerWheel;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
 
 /**
  * An action that executes for a limited time and then automatically deactivates.
+ * Its time is read from the clock of the game it belongs to. When a timer wheel is
+ * set, the action expires from a wheel callback on the exact tick it falls due;
+ * otherwise it has to be polled with {@link #update()}.
  */
-public class TimedAction implements Action {
+public class TimedAction implements Action, TimerWheel.Callback {
+    private final GameClock clock;
+    private TimerWheel timerWheel; // Wheel that expires the action
+    
     private Action wrappedAction;
     private Action deactivateAction; // Action to execute when deactivated
     private long durationMillis;
+    private long durationTicks;
     private boolean isActive;
-    private long startTime;
+    private long startTick;
     private Button targetButton;
+    private final TimerWheel.Timer timer;
     
     /**
      * Creates a new timed action.
      * 
      * @param wrappedAction The action to execute for a limited time
      * @param durationMillis The duration in milliseconds
+     * @param clock The clock of the game the action runs in
      */
-    public TimedAction(Action wrappedAction, long durationMillis) {
+    public TimedAction(Action wrappedAction, long durationMillis, GameClock clock) {
+        this.clock = clock;
         this.wrappedAction = wrappedAction;
-        this.durationMillis = durationMillis;
+        setDuration(durationMillis);
         this.isActive = false;
-        this.startTime = 0;
+        this.startTick = 0;
         this.deactivateAction = null;
+        this.timer = new TimerWheel.Timer(this);
+    }
+    
+    /**
+     * Sets the action executed when the timed action starts.
+     * 
+     * @param wrappedAction The action, or null for none
+     */
+    public void setWrappedAction(Action wrappedAction) {
+        this.wrappedAction = wrappedAction;
+    }
+    
+    /**
+     * Sets how long the action stays active. Takes effect the next time it starts.
+     * 
+     * @param durationMillis The duration in milliseconds
+     */
+    public void setDuration(long durationMillis) {
+        this.durationMillis = durationMillis;
+        this.durationTicks = (durationMillis * GameClock.TICKS_PER_SECOND + 999) / 1000;
+    }
+    
+    /**
+     * Stops the action without running its deactivate action and lets go of the
+     * actions and button it was connected to, for an action going back to its pool.
+     */
+    public void reset() {
+        timer.cancel();
+        isActive = false;
+        startTick = 0;
+        wrappedAction = null;
+        deactivateAction = null;
+        targetButton = null;
     }
     
     /**
@@ -36,6 +82,79 @@ public class TimedAction implements Action {
         this.targetButton = button;
     }
     
+    /**
+     * Gets the button that is deactivated when the timer expires.
+     * 
+     * @return The target button, or null if none is set
+     */
+    public Button getTargetButton() {
+        return targetButton;
+    }
+    
+    /**
+     * Gets the action executed when the timed action starts.
+     * 
+     * @return The wrapped action, or null if there is none
+     */
+    public Action getWrappedAction() {
+        return wrappedAction;
+    }
+    
+    /**
+     * Gets the action executed when the timed action deactivates.
+     * 
+     * @return The deactivate action, or null if there is none
+     */
+    public Action getDeactivateAction() {
+        return deactivateAction;
+    }
+    
+    /**
+     * Gets how long the action stays active, in ticks.
+     * 
+     * @return The duration in ticks
+     */
+    public long getDurationTicks() {
+        return durationTicks;
+    }
+    
+    /**
+     * Gets the tick the action was last started or refreshed on.
+     * 
+     * @return The start tick
+     */
+    long getStartTick() {
+        return startTick;
+    }
+    
+    /**
+     * Sets the timer wheel the action schedules its expiry on.
+     * 
+     * @param wheel The timer wheel, or null to poll the action instead
+     */
+    public void setTimerWheel(TimerWheel wheel) {
+        timer.cancel();
+        this.timerWheel = wheel;
+    }
+    
+    /**
+     * Gets the timer wheel the action schedules its expiry on.
+     * 
+     * @return The timer wheel, or null if the action is polled
+     */
+    TimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+    
+    /**
+     * Gets the clock the action reads its time from.
+     * 
+     * @return The clock
+     */
+    GameClock getClock() {
+        return clock;
+    }
+    
     /**
      * Sets an action to execute when this timed action deactivates.
      * 
@@ -50,7 +169,8 @@ public class TimedAction implements Action {
         if (!isActive) {
             // Start the timer
             isActive = true;
-            startTime = System.currentTimeMillis();
+            startTick = clock.getTicks();
+            scheduleExpiry();
             
             // Execute the wrapped action
             if (wrappedAction != null) {
@@ -60,27 +180,27 @@ public class TimedAction implements Action {
             System.out.println("Timed action started for " + durationMillis + "ms");
         } else {
             // Already active, check if it should be deactivated
-            long elapsedTime = System.currentTimeMillis() - startTime;
-            if (elapsedTime >= durationMillis) {
+            if (clock.getTicks() - startTick >= durationTicks) {
                 deactivate();
                 System.out.println("Timed action expired");
             } else {
                 // Refresh the timer
-                startTime = System.currentTimeMillis();
+                startTick = clock.getTicks();
+                scheduleExpiry();
                 System.out.println("Timed action refreshed for " + durationMillis + "ms");
             }
         }
     }
     
     /**
-     * Updates the timed action status. Should be called regularly.
+     * Updates the timed action status. Only needs to be called regularly when no
+     * timer wheel is set; with a wheel the action expires on its own.
      * 
      * @return True if the action is still active, false if it has expired
      */
     public boolean update() {
         if (isActive) {
-            long elapsedTime = System.currentTimeMillis() - startTime;
-            if (elapsedTime >= durationMillis) {
+            if (timerWheel == null && clock.getTicks() - startTick >= durationTicks) {
                 deactivate();
                 return false;
             }
@@ -99,9 +219,8 @@ public class TimedAction implements Action {
             return 0;
         }
         
-        long elapsedTime = System.currentTimeMillis() - startTime;
-        long remaining = durationMillis - elapsedTime;
-        return (remaining > 0) ? remaining : 0;
+        long remainingTicks = startTick + durationTicks - clock.getTicks();
+        return (remainingTicks > 0) ? remainingTicks * 1000 / GameClock.TICKS_PER_SECOND : 0;
     }
     
     /**
@@ -110,11 +229,12 @@ public class TimedAction implements Action {
      * @return The fraction of time remaining, or 0 if not active
      */
     public float getTimeRemainingFraction() {
-        if (!isActive || durationMillis <= 0) {
+        if (!isActive || durationTicks <= 0) {
             return 0.0f;
         }
         
-        return (float)getRemainingTime() / durationMillis;
+        long remainingTicks = startTick + durationTicks - clock.getTicks();
+        return (remainingTicks > 0) ? (float)remainingTicks / durationTicks : 0.0f;
     }
     
     /**
@@ -122,6 +242,7 @@ public class TimedAction implements Action {
      */
     public void deactivate() {
         isActive = false;
+        timer.cancel();
         
         // Execute the deactivate action if set
         if (deactivateAction != null) {
@@ -154,9 +275,57 @@ public class TimedAction implements Action {
         
         // Set the start time to the current time when activating
         if (active) {
-            this.startTime = System.currentTimeMillis();
+            this.startTick = clock.getTicks();
+            scheduleExpiry();
+        } else {
+            this.startTick = 0;
+            timer.cancel();
+        }
+    }
+    
+    @Override
+    public void onTimer(TimerWheel.Timer timer) {
+        if (isActive) {
+            deactivate();
+        }
+    }
+    
+    /**
+     * Schedules the expiry for the current start tick on the timer wheel, if there is one.
+     * Restoring a snapshot resets the wheel, so this also puts back the expiry of a restored action.
+     */
+    private void scheduleExpiry() {
+        if (timerWheel != null) {
+            timerWheel.scheduleAt(timer, startTick + durationTicks);
+        }
+    }
+    
+    @Override
+    public void saveState(WorldSnapshot snapshot) {
+        snapshot.writeBoolean(isActive);
+        snapshot.writeLong(startTick);
+        if (wrappedAction != null) {
+            wrappedAction.saveState(snapshot);
+        }
+        if (deactivateAction != null) {
+            deactivateAction.saveState(snapshot);
+        }
+    }
+    
+    @Override
+    public void loadState(WorldSnapshot snapshot) {
+        isActive = snapshot.readBoolean();
+        startTick = snapshot.readLong();
+        if (isActive) {
+            scheduleExpiry();
         } else {
-            this.startTime = 0;
+            timer.cancel();
+        }
+        if (wrappedAction != null) {
+            wrappedAction.loadState(snapshot);
+        }
+        if (deactivateAction != null) {
+            deactivateAction.loadState(snapshot);
         }
     }
     
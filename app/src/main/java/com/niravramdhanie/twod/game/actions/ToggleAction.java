@@ -1,5 +1,7 @@
 package com.niravramdhanie.twod.game.actions;
 
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
 /**
  * An action that toggles between two different actions.
  */
@@ -62,6 +64,28 @@ public class ToggleAction implements Action {
      * 
      * @return True if toggled on, false if toggled off
      */
+    @Override
+    public void saveState(WorldSnapshot snapshot) {
+        snapshot.writeBoolean(toggled);
+        if (offAction != null) {
+            offAction.saveState(snapshot);
+        }
+        if (onAction != null && onAction != offAction) {
+            onAction.saveState(snapshot);
+        }
+    }
+    
+    @Override
+    public void loadState(WorldSnapshot snapshot) {
+        toggled = snapshot.readBoolean();
+        if (offAction != null) {
+            offAction.loadState(snapshot);
+        }
+        if (onAction != null && onAction != offAction) {
+            onAction.loadState(snapshot);
+        }
+    }
+    
     public boolean isToggled() {
         return toggled;
     }
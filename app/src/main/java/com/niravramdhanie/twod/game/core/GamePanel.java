@@ -14,6 +14,8 @@ import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 
 public class GamePanel extends JPanel {
+    private static final long serialVersionUID = 1L;
+    
     // Double buffering: use two images and swap between them
     private BufferedImage frontBuffer;
     private BufferedImage backBuffer;
@@ -27,6 +29,8 @@ public class GamePanel extends JPanel {
     private long lastFrameTime = 0;
     private int fpsCount = 0;
     private int currentFps = 0;
+    private long inputLagMs = 0;
+    private long droppedInputs = 0;
     private boolean showFpsCounter = true;
     private boolean needsRepaint = false;
     
@@ -132,6 +136,10 @@ public class GamePanel extends JPanel {
                     currentFps = fpsCount;
                     fpsCount = 0;
                     lastFrameTime = currentTime;
+                    
+                    // Worst wait for a tick over the last second, and input lost to a full queue
+                    inputLagMs = gsm.takeWorstInputLatency() / 1_000_000;
+                    droppedInputs = gsm.getInputQueue().getDroppedCount();
                 }
                 
                 // Clear the back buffer
@@ -145,7 +153,8 @@ public class GamePanel extends JPanel {
                 if (showFpsCounter) {
                     backG2d.setColor(Color.YELLOW);
                     backG2d.setFont(debugFont);
-                    backG2d.drawString("FPS: " + currentFps, 10, height - 20);
+                    backG2d.drawString("FPS: " + currentFps + "  Input lag: " + inputLagMs + " ms  Dropped: " + droppedInputs,
+                                       10, height - 20);
                 }
                 
                 // Swap buffers after rendering is complete
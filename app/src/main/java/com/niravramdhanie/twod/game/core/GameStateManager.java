@@ -4,6 +4,7 @@ import java.awt.Graphics2D;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.niravramdhanie.twod.game.input.InputQueue;
 import com.niravramdhanie.twod.game.input.KeyHandler;
 import com.niravramdhanie.twod.game.input.MouseHandler;
 import com.niravramdhanie.twod.game.state.GameState;
@@ -11,7 +12,12 @@ import com.niravramdhanie.twod.game.state.MenuState;
 import com.niravramdhanie.twod.game.state.PauseState;
 import com.niravramdhanie.twod.game.state.PlayState;
 
-public class GameStateManager {
+/**
+ * Holds the game states and passes updates, rendering and input to the current one.
+ * Input arrives on the input queue from the Swing event thread and is handed to the
+ * state at the start of each update, on the game thread, so states never see input mid-tick.
+ */
+public class GameStateManager implements InputQueue.Listener {
     private List<GameState> gameStates;
     private int currentState;
     private boolean initialized = false;
@@ -25,18 +31,31 @@ public class GameStateManager {
     private int width;
     private int height;
     
-    // Input handlers
+    // Input handlers, and the queue they put events on for the game thread
     private KeyHandler keyHandler;
     private MouseHandler mouseHandler;
+    private final InputQueue inputQueue = new InputQueue();
+    
+    // When the queue was last drained, and the longest an event had waited for it
+    // since the latency was last taken
+    private long drainTime;
+    private long worstInputLatency;
     
     // Track which states need constant updates
     private boolean[] stateNeedsConstantUpdates = new boolean[3]; // 3 states for now
     
     public GameStateManager(int width, int height) {
+        this(width, height, true);
+    }
+    
+    private GameStateManager(int width, int height, boolean createStates) {
         System.out.println("GameStateManager initialized with dimensions: " + width + "x" + height);
         this.width = width;
         this.height = height;
         gameStates = new ArrayList<>();
+        if (!createStates) {
+            return;
+        }
         
         // Add all game states
         gameStates.add(new MenuState(this));
@@ -53,6 +72,19 @@ public class GameStateManager {
         initialized = true;
     }
     
+    /**
+     * Creates a state manager with no states of its own, for play states run without
+     * a window, such as on the co-op server or in the harnesses. Nothing that needs a
+     * display is made, and switching state does nothing.
+     * 
+     * @param width The screen width
+     * @param height The screen height
+     * @return The state manager
+     */
+    public static GameStateManager createHeadless(int width, int height) {
+        return new GameStateManager(width, height, false);
+    }
+    
     public void setInputHandlers(KeyHandler kh, MouseHandler mh) {
         this.keyHandler = kh;
         this.mouseHandler = mh;
@@ -63,6 +95,9 @@ public class GameStateManager {
     }
     
     public void setState(int state) {
+        // A headless manager has no states to switch to
+        if (gameStates.isEmpty()) return;
+        
         System.out.println("Setting game state to: " + state);
         currentState = state;
         
@@ -85,6 +120,10 @@ public class GameStateManager {
     public void update() {
         if (!initialized) return;
         
+        // Hand the input since the last update to the states before they update
+        drainTime = System.nanoTime();
+        inputQueue.drain(this);
+        
         try {
             gameStates.get(currentState).update();
         } catch (Exception e) {
@@ -108,6 +147,36 @@ public class GameStateManager {
         }
     }
     
+    @Override
+    public void onInput(int type, int code, int x, int y, long time) {
+        worstInputLatency = Math.max(worstInputLatency, drainTime - time);
+        
+        switch (type) {
+            case InputQueue.KEY_PRESSED:
+            case InputQueue.KEY_RELEASED:
+                if (type == InputQueue.KEY_PRESSED) {
+                    keyPressed(code);
+                } else {
+                    keyReleased(code);
+                }
+                break;
+            case InputQueue.MOUSE_PRESSED:
+                mousePressed(x, y);
+                requestRedraw();
+                break;
+            case InputQueue.MOUSE_RELEASED:
+                mouseReleased(x, y);
+                requestRedraw();
+                break;
+            case InputQueue.MOUSE_MOVED:
+                mouseMoved(x, y);
+                requestRedraw();
+                break;
+            default:
+                break;
+        }
+    }
+    
     // Input handling methods - forward to current state
     
     public void keyPressed(int k) {
@@ -173,6 +242,27 @@ public class GameStateManager {
         return currentState;
     }
     
+    /**
+     * Gets the queue that the input handlers put events on.
+     * 
+     * @return The input queue
+     */
+    public InputQueue getInputQueue() {
+        return inputQueue;
+    }
+    
+    /**
+     * Takes the longest any input event has waited for the update that handed it to
+     * the states, since the last time this was called, and starts counting again.
+     * 
+     * @return The wait in nanoseconds, or 0 if there was no input
+     */
+    public long takeWorstInputLatency() {
+        long latency = worstInputLatency;
+        worstInputLatency = 0;
+        return latency;
+    }
+    
     /**
      * Checks if the current state needs constant updates and redraws
      * @return true if the current state needs continuous updates
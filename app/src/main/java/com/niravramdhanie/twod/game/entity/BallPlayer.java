@@ -3,10 +3,12 @@ package com.niravramdhanie.twod.game.entity;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.util.Collections;
 import java.util.List;
 
 import com.niravramdhanie.twod.game.graphics.Animation;
 import com.niravramdhanie.twod.game.utils.ResourceLoader;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
 
 public class BallPlayer extends Entity {
     // Movement flags
@@ -46,6 +48,7 @@ public class BallPlayer extends Entity {
     private int screenWidth;
     private int screenHeight;
     private List<Block> blocks;
+    private List<Block> boxes = Collections.emptyList();
     
     // Box carrying
     private Box carriedBox;
@@ -148,6 +151,27 @@ public class BallPlayer extends Entity {
         this.blocks = blocks;
     }
     
+    /**
+     * Sets the boxes the player collides with, which are checked after the blocks.
+     * 
+     * @param boxes The boxes that aren't being carried
+     */
+    public void setBoxes(List<Block> boxes) {
+        this.boxes = boxes;
+    }
+    
+    /**
+     * Sets the area the player is kept inside, which is the level rather than the
+     * screen once a level is bigger than the window.
+     * 
+     * @param width The width in pixels
+     * @param height The height in pixels
+     */
+    public void setBounds(int width, int height) {
+        this.screenWidth = width;
+        this.screenHeight = height;
+    }
+    
     /**
      * Sets the box being carried by the player.
      * 
@@ -217,8 +241,23 @@ public class BallPlayer extends Entity {
         down = false;
         
         // Reset velocity
-        velocity.x = 0;
-        velocity.y = 0;
+        setVelX(0);
+        setVelY(0);
+    }
+    
+    /**
+     * Puts the player back at a spawn point for a new game: still, not exploding,
+     * carrying nothing and at full health.
+     * 
+     * @param x The spawn X position
+     * @param y The spawn Y position
+     */
+    public void respawn(float x, float y) {
+        resetAfterExplosion();
+        setX(x);
+        setY(y);
+        carriedBox = null;
+        health = maxHealth;
     }
     
     @Override
@@ -235,8 +274,8 @@ public class BallPlayer extends Entity {
         Animation previousAnim = currentAnim;
         
         // Reset velocity immediately when no keys are pressed for instant stopping
-        if (!left && !right) velocity.x = 0;
-        if (!up && !down) velocity.y = 0;
+        if (!left && !right) setVelX(0);
+        if (!up && !down) setVelY(0);
         
         // Calculate input direction vector
         float dirX = 0, dirY = 0;
@@ -255,22 +294,22 @@ public class BallPlayer extends Entity {
         
         // Apply movement only if keys are pressed (no acceleration buildup)
         if (dirX != 0) {
-            velocity.x = dirX * maxSpeed;
+            setVelX(dirX * maxSpeed);
         }
         
         if (dirY != 0) {
-            velocity.y = dirY * maxSpeed;
+            setVelY(dirY * maxSpeed);
         }
         
         // Set appropriate animation based on movement direction
         if (spritesLoaded) {
-            if (velocity.x > 0) {
+            if (getVelX() > 0) {
                 currentAnim = rightAnim;
-            } else if (velocity.x < 0) {
+            } else if (getVelX() < 0) {
                 currentAnim = leftAnim;
-            } else if (velocity.y < 0) {
+            } else if (getVelY() < 0) {
                 currentAnim = upAnim;
-            } else if (velocity.y > 0) {
+            } else if (getVelY() > 0) {
                 currentAnim = downAnim;
             } else {
                 currentAnim = idleAnim;
@@ -283,38 +322,38 @@ public class BallPlayer extends Entity {
         }
         
         // Calculate new position
-        float newX = position.x + velocity.x;
-        float newY = position.y + velocity.y;
+        float newX = getX() + getVelX();
+        float newY = getY() + getVelY();
         
-        // Check screen boundaries
+        // Check level boundaries
         if (newX < 0) newX = 0;
-        if (newX > screenWidth - width) newX = screenWidth - width;
+        if (newX > screenWidth - getWidth()) newX = screenWidth - getWidth();
         if (newY < 0) newY = 0;
-        if (newY > screenHeight - height) newY = screenHeight - height;
+        if (newY > screenHeight - getHeight()) newY = screenHeight - getHeight();
         
         // Check block collisions for X movement
         boolean collisionX = false;
-        position.x = newX;
+        setX(newX);
         
         if (checkBlockCollisionX()) {
             collisionX = true;
             // Position already corrected in checkBlockCollisionX()
-            velocity.x = 0;
+            setVelX(0);
         }
         
         // Check block collisions for Y movement
         boolean collisionY = false;
-        position.y = newY;
+        setY(newY);
         
         if (checkBlockCollisionY()) {
             collisionY = true;
             // Position already corrected in checkBlockCollisionY()
-            velocity.y = 0;
+            setVelY(0);
         }
         
         // If no collision occurred, move normally
-        if (!collisionX) position.x = newX;
-        if (!collisionY) position.y = newY;
+        if (!collisionX) setX(newX);
+        if (!collisionY) setY(newY);
         
         // Update current animation
         if (spritesLoaded && currentAnim != null) {
@@ -331,15 +370,15 @@ public class BallPlayer extends Entity {
                 if (currentFrame != null) {
                     if (isExploding) {
                         // Scale up the explosion sprite to 4x size
-                        int explosionWidth = width * 4;  // Quadruple the width
-                        int explosionHeight = height * 4; // Quadruple the height
+                        int explosionWidth = getWidth() * 4;  // Quadruple the width
+                        int explosionHeight = getHeight() * 4; // Quadruple the height
                         // Center the explosion on the player's position
-                        int explosionX = (int)position.x - (explosionWidth - width) / 2;
-                        int explosionY = (int)position.y - (explosionHeight - height) / 2;
+                        int explosionX = (int)getX() - (explosionWidth - getWidth()) / 2;
+                        int explosionY = (int)getY() - (explosionHeight - getHeight()) / 2;
                         g.drawImage(currentFrame, explosionX, explosionY, explosionWidth, explosionHeight, null);
                     } else {
                         // Normal sprite rendering
-                        g.drawImage(currentFrame, (int)position.x, (int)position.y, width, height, null);
+                        g.drawImage(currentFrame, (int)getX(), (int)getY(), getWidth(), getHeight(), null);
                     }
                     return;
                 } else {
@@ -356,14 +395,14 @@ public class BallPlayer extends Entity {
             
             // Fallback if sprites aren't loaded or animation has no frames
             g.setColor(Color.RED);
-            g.fillOval((int)position.x, (int)position.y, width, height);
+            g.fillOval((int)getX(), (int)getY(), getWidth(), getHeight());
         } catch (Exception e) {
             System.err.println("Error rendering player: " + e.getMessage());
             e.printStackTrace();
             
             // Emergency fallback
             g.setColor(Color.RED);
-            g.fillOval((int)position.x, (int)position.y, width, height);
+            g.fillOval((int)getX(), (int)getY(), getWidth(), getHeight());
         }
     }
     
@@ -400,13 +439,33 @@ public class BallPlayer extends Entity {
     public void setUp(boolean up) { this.up = up; }
     public void setDown(boolean down) { this.down = down; }
     
+    @Override
+    public void saveState(WorldSnapshot snapshot) {
+        super.saveState(snapshot);
+        snapshot.writeBoolean(left);
+        snapshot.writeBoolean(right);
+        snapshot.writeBoolean(up);
+        snapshot.writeBoolean(down);
+        snapshot.writeInt(health);
+    }
+    
+    @Override
+    public void loadState(WorldSnapshot snapshot) {
+        super.loadState(snapshot);
+        left = snapshot.readBoolean();
+        right = snapshot.readBoolean();
+        up = snapshot.readBoolean();
+        down = snapshot.readBoolean();
+        health = snapshot.readInt();
+    }
+    
     /**
-     * Gets the player's velocity vector.
+     * Gets a copy of the player's velocity vector.
      * 
      * @return The velocity vector
      */
     public com.niravramdhanie.twod.game.utils.Vector2D getVelocity() {
-        return velocity;
+        return new com.niravramdhanie.twod.game.utils.Vector2D(getVelX(), getVelY());
     }
     
     /**
@@ -416,47 +475,41 @@ public class BallPlayer extends Entity {
      * @return True if a collision occurred, false otherwise
      */
     private boolean checkBlockCollisionX() {
-        // First check player collision with blocks (but not with the carried box)
-        for (Block block : blocks) {
-            if (block != carriedBox && checkCollision(block)) {
-                // Resolve X collision
-                if (velocity.x > 0) { // Moving right
-                    position.x = block.getX() - width;
-                } else if (velocity.x < 0) { // Moving left
-                    position.x = block.getX() + block.getWidth();
-                }
-                velocity.x = 0;
-                return true;
+        // First check player collision with blocks and resting boxes (but not with the carried box)
+        Block block = findCollision(blocks);
+        if (block == null) {
+            block = findCollision(boxes);
+        }
+        if (block != null) {
+            // Resolve X collision
+            if (getVelX() > 0) { // Moving right
+                setX(block.getX() - getWidth());
+            } else if (getVelX() < 0) { // Moving left
+                setX(block.getX() + block.getWidth());
             }
+            setVelX(0);
+            return true;
         }
         
         // If carrying a box, check if the box would collide with any blocks
-        if (carriedBox != null && velocity.x != 0) {
+        if (carriedBox != null && getVelX() != 0) {
             // Calculate where the box would be after the player's movement
-            float boxX = position.x + width/2 - carriedBox.getWidth()/2 + carriedBox.getRelativeX();
-            float boxY = position.y + height/2 - carriedBox.getHeight()/2 + carriedBox.getRelativeY();
-            
-            // Create a rectangle representing the box's position
-            java.awt.Rectangle boxBounds = new java.awt.Rectangle(
-                (int)boxX, (int)boxY, carriedBox.getWidth(), carriedBox.getHeight()
-            );
+            float boxX = getX() + getWidth()/2 - carriedBox.getWidth()/2 + carriedBox.getRelativeX();
+            float boxY = getY() + getHeight()/2 - carriedBox.getHeight()/2 + carriedBox.getRelativeY();
             
-            // Check for collisions with any block
-            for (Block block : blocks) {
-                if (block != carriedBox) {
-                    java.awt.Rectangle blockBounds = block.getBounds();
-                    
-                    if (boxBounds.intersects(blockBounds)) {
-                        // Resolve collision just like we would for the player
-                        if (velocity.x > 0) { // Moving right
-                            position.x = block.getX() - width - (boxX + carriedBox.getWidth() - position.x - width);
-                        } else if (velocity.x < 0) { // Moving left
-                            position.x = block.getX() + block.getWidth() - (boxX - position.x);
-                        }
-                        velocity.x = 0;
-                        return true;
-                    }
+            block = findBoxCollision(blocks, (int)boxX, (int)boxY);
+            if (block == null) {
+                block = findBoxCollision(boxes, (int)boxX, (int)boxY);
+            }
+            if (block != null) {
+                // Resolve collision just like we would for the player
+                if (getVelX() > 0) { // Moving right
+                    setX(block.getX() - getWidth() - (boxX + carriedBox.getWidth() - getX() - getWidth()));
+                } else if (getVelX() < 0) { // Moving left
+                    setX(block.getX() + block.getWidth() - (boxX - getX()));
                 }
+                setVelX(0);
+                return true;
             }
         }
         
@@ -470,53 +523,97 @@ public class BallPlayer extends Entity {
      * @return True if a collision occurred, false otherwise
      */
     private boolean checkBlockCollisionY() {
-        // First check player collision with blocks (but not with the carried box)
-        for (Block block : blocks) {
-            if (block != carriedBox && checkCollision(block)) {
-                // Resolve Y collision
-                if (velocity.y > 0) { // Moving down
-                    position.y = block.getY() - height;
-                } else if (velocity.y < 0) { // Moving up
-                    position.y = block.getY() + block.getHeight();
-                }
-                velocity.y = 0;
-                return true;
+        // First check player collision with blocks and resting boxes (but not with the carried box)
+        Block block = findCollision(blocks);
+        if (block == null) {
+            block = findCollision(boxes);
+        }
+        if (block != null) {
+            // Resolve Y collision
+            if (getVelY() > 0) { // Moving down
+                setY(block.getY() - getHeight());
+            } else if (getVelY() < 0) { // Moving up
+                setY(block.getY() + block.getHeight());
             }
+            setVelY(0);
+            return true;
         }
         
         // If carrying a box, check if the box would collide with any blocks
-        if (carriedBox != null && velocity.y != 0) {
+        if (carriedBox != null && getVelY() != 0) {
             // Calculate where the box would be after the player's movement
-            float boxX = position.x + width/2 - carriedBox.getWidth()/2 + carriedBox.getRelativeX();
-            float boxY = position.y + height/2 - carriedBox.getHeight()/2 + carriedBox.getRelativeY();
+            float boxX = getX() + getWidth()/2 - carriedBox.getWidth()/2 + carriedBox.getRelativeX();
+            float boxY = getY() + getHeight()/2 - carriedBox.getHeight()/2 + carriedBox.getRelativeY();
             
-            // Create a rectangle representing the box's position
-            java.awt.Rectangle boxBounds = new java.awt.Rectangle(
-                (int)boxX, (int)boxY, carriedBox.getWidth(), carriedBox.getHeight()
-            );
-            
-            // Check for collisions with any block
-            for (Block block : blocks) {
-                if (block != carriedBox) {
-                    java.awt.Rectangle blockBounds = block.getBounds();
-                    
-                    if (boxBounds.intersects(blockBounds)) {
-                        // Resolve collision just like we would for the player
-                        if (velocity.y > 0) { // Moving down
-                            position.y = block.getY() - height - (boxY + carriedBox.getHeight() - position.y - height);
-                        } else if (velocity.y < 0) { // Moving up
-                            position.y = block.getY() + block.getHeight() - (boxY - position.y);
-                        }
-                        velocity.y = 0;
-                        return true;
-                    }
+            block = findBoxCollision(blocks, (int)boxX, (int)boxY);
+            if (block == null) {
+                block = findBoxCollision(boxes, (int)boxX, (int)boxY);
+            }
+            if (block != null) {
+                // Resolve collision just like we would for the player
+                if (getVelY() > 0) { // Moving down
+                    setY(block.getY() - getHeight() - (boxY + carriedBox.getHeight() - getY() - getHeight()));
+                } else if (getVelY() < 0) { // Moving up
+                    setY(block.getY() + block.getHeight() - (boxY - getY()));
                 }
+                setVelY(0);
+                return true;
             }
         }
         
         return false;
     }
     
+    /**
+     * Finds the first block in a list the player overlaps, other than the carried box.
+     * 
+     * @param list The blocks to check
+     * @return The block, or null if there's none
+     */
+    private Block findCollision(List<Block> list) {
+        for (int i = 0; i < list.size(); i++) {
+            Block block = list.get(i);
+            if (block != carriedBox && checkCollision(block)) {
+                return block;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Finds the first block in a list the carried box would overlap at a position.
+     * 
+     * @param list The blocks to check
+     * @param boxX The box's X position
+     * @param boxY The box's Y position
+     * @return The block, or null if there's none
+     */
+    private Block findBoxCollision(List<Block> list, int boxX, int boxY) {
+        for (int i = 0; i < list.size(); i++) {
+            Block block = list.get(i);
+            if (block != carriedBox && boxOverlaps(boxX, boxY, block)) {
+                return block;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Checks if the carried box, placed at a position, would overlap a block's bounds.
+     * 
+     * @param boxX The box's X position
+     * @param boxY The box's Y position
+     * @param block The block
+     * @return True if they overlap, false otherwise
+     */
+    private boolean boxOverlaps(int boxX, int boxY, Block block) {
+        int blockX = (int)block.getX();
+        int blockY = (int)block.getY();
+        return carriedBox.getWidth() > 0 && carriedBox.getHeight() > 0 && block.getWidth() > 0 && block.getHeight() > 0
+            && boxX < blockX + block.getWidth() && blockX < boxX + carriedBox.getWidth()
+            && boxY < blockY + block.getHeight() && blockY < boxY + carriedBox.getHeight();
+    }
+    
     /**
      * Override collision detection to disable collision with the carried box
      */
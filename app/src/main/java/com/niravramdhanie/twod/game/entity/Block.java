@@ -20,7 +20,21 @@ public class Block extends Entity {
     private final Color color;
     
     public Block(float x, float y, int width, int height) {
-        super(x, y, width, height);
+        this(new ComponentStore(1), x, y, width, height);
+    }
+    
+    /**
+     * Creates a block in a shared component store, as a chunk does for its walls.
+     * 
+     * @param components The store to add the block to
+     * @param x X position
+     * @param y Y position
+     * @param width Width
+     * @param height Height
+     */
+    public Block(ComponentStore components, float x, float y, int width, int height) {
+        super(components, x, y, width, height);
+        setFlag(ComponentStore.SOLID, true);
         
         // Load wall texture if not already loaded
         synchronized (Block.class) {
@@ -54,6 +68,12 @@ public class Block extends Entity {
         this(x, y, width, height);
     }
     
+    @Override
+    public void reset() {
+        super.reset();
+        setFlag(ComponentStore.SOLID, true);
+    }
+    
     @Override
     public void update() {
         // Blocks are static, so no update logic is needed
@@ -67,17 +87,17 @@ public class Block extends Entity {
         
         try {
             if (blockImage != null) {
-                g.drawImage(blockImage, (int)position.x, (int)position.y, width, height, null);
+                g.drawImage(blockImage, (int)getX(), (int)getY(), getWidth(), getHeight(), null);
             } else {
                 // Fallback if image isn't loaded
                 g.setColor(color);
-                g.fillRect((int)position.x, (int)position.y, width, height);
+                g.fillRect((int)getX(), (int)getY(), getWidth(), getHeight());
             }
         } catch (Exception e) {
             // Ultimate fallback
             System.err.println("Error rendering block: " + e.getMessage());
             g.setColor(Color.MAGENTA);
-            g.fillRect((int)position.x, (int)position.y, width, height);
+            g.fillRect((int)getX(), (int)getY(), getWidth(), getHeight());
         }
     }
 }
\ No newline at end of file
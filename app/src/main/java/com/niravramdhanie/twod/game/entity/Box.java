@@ -6,7 +6,9 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.util.List;
 
+import com.niravramdhanie.twod.game.utils.EventBus;
 import com.niravramdhanie.twod.game.utils.ResourceLoader;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
 
 /**
  * A box entity that can be picked up and carried by the player.
@@ -22,6 +24,8 @@ public class Box extends Block {
     // Box properties
     private boolean isActive; // Whether the box follows the rewind system
     private boolean isMovable; // Whether the box can be picked up
+    private final boolean startsActive; // The values given to the constructor, restored by reset()
+    private final boolean startsMovable;
     private boolean fullRewindTracking; // Whether to fully track all box movements during rewind
     private boolean isRewinding; // Whether the box is currently being rewound
     
@@ -49,9 +53,13 @@ public class Box extends Block {
         this.isBeingCarried = false;
         this.isActive = isActive;
         this.isMovable = isMovable;
+        this.startsActive = isActive;
+        this.startsMovable = isMovable;
         this.fullRewindTracking = false; // Default to simple rewind
         this.isRewinding = false;
         this.carrier = null;
+        setFlag(ComponentStore.LOAD, true);
+        setLayer(ComponentStore.LAYER_ITEMS);
         
         // Default colors (used as fallback if image loading fails)
         this.boxColor = new Color(139, 69, 19); // Brown
@@ -69,6 +77,22 @@ public class Box extends Block {
         }
     }
     
+    /**
+     * Puts the box on the ground with nothing carrying it, for a box going back to its pool.
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        isBeingCarried = false;
+        carrier = null;
+        relativeX = 0;
+        relativeY = 0;
+        isActive = startsActive;
+        isMovable = startsMovable;
+        fullRewindTracking = false;
+        isRewinding = false;
+    }
+    
     @Override
     public void update() {
         // Box behavior is mainly handled in PlayState
@@ -92,7 +116,7 @@ public class Box extends Block {
         // Use images if available, otherwise draw with colors
         if ((isActive && activeBoxImage != null) || (!isActive && boxImage != null)) {
             g.drawImage(isActive ? activeBoxImage : boxImage, 
-                       (int)position.x, (int)position.y, width, height, null);
+                       (int)getX(), (int)getY(), getWidth(), getHeight(), null);
         } else {
             // Fallback to drawing with colors
             drawBox(g);
@@ -113,17 +137,17 @@ public class Box extends Block {
         
         // Create gradient for 3D effect
         GradientPaint gradient = new GradientPaint(
-            (int)position.x, (int)position.y, topColor,
-            (int)position.x, (int)position.y + height, bottomColor
+            (int)getX(), (int)getY(), topColor,
+            (int)getX(), (int)getY() + getHeight(), bottomColor
         );
         
         // Apply gradient and draw box
         g.setPaint(gradient);
-        g.fillRect((int)position.x, (int)position.y, width, height);
+        g.fillRect((int)getX(), (int)getY(), getWidth(), getHeight());
         
         // Draw box edges (darker)
         g.setColor(bottomColor.darker());
-        g.drawRect((int)position.x, (int)position.y, width, height);
+        g.drawRect((int)getX(), (int)getY(), getWidth(), getHeight());
         
         // Draw highlights
         int highlight = 4;
@@ -131,27 +155,27 @@ public class Box extends Block {
         
         // Top highlight
         g.setColor(new Color(255, 255, 255, 100));
-        g.fillRect((int)position.x + 1, (int)position.y + 1, width - 2, highlight);
+        g.fillRect((int)getX() + 1, (int)getY() + 1, getWidth() - 2, highlight);
         
         // Left highlight
-        g.fillRect((int)position.x + 1, (int)position.y + highlight + 1, 
-                   highlight, height - highlight - shadow - 1);
+        g.fillRect((int)getX() + 1, (int)getY() + highlight + 1, 
+                   highlight, getHeight() - highlight - shadow - 1);
         
         // Bottom shadow
         g.setColor(new Color(0, 0, 0, 80));
-        g.fillRect((int)position.x + 1, (int)position.y + height - shadow, 
-                   width - 2, shadow - 1);
+        g.fillRect((int)getX() + 1, (int)getY() + getHeight() - shadow, 
+                   getWidth() - 2, shadow - 1);
         
         // Right shadow
-        g.fillRect((int)position.x + width - shadow, (int)position.y + highlight + 1, 
-                   shadow - 1, height - highlight - shadow - 1);
+        g.fillRect((int)getX() + getWidth() - shadow, (int)getY() + highlight + 1, 
+                   shadow - 1, getHeight() - highlight - shadow - 1);
         
         // Draw a small indicator if the box is active
         if (isActive) {
             int indicatorSize = 6;
             g.setColor(new Color(0, 255, 0, 180));
-            g.fillOval((int)position.x + width - indicatorSize - 2, 
-                       (int)position.y + 2, indicatorSize, indicatorSize);
+            g.fillOval((int)getX() + getWidth() - indicatorSize - 2, 
+                       (int)getY() + 2, indicatorSize, indicatorSize);
         }
         
         // Restore original paint
@@ -182,8 +206,8 @@ public class Box extends Block {
         // Store relative position to the player (center to center)
         float playerCenterX = playerX + carrier.getWidth() / 2;
         float playerCenterY = playerY + carrier.getHeight() / 2;
-        float boxCenterX = position.x + width / 2;
-        float boxCenterY = position.y + height / 2;
+        float boxCenterX = getX() + getWidth() / 2;
+        float boxCenterY = getY() + getHeight() / 2;
         
         // Calculate offset from player center to box center
         // This preserves the exact relative position at pickup moment
@@ -197,7 +221,9 @@ public class Box extends Block {
         
         isBeingCarried = true;
         this.carrier = carrier;
+        setFlag(ComponentStore.SOLID, false);
         
+        publishEvent(EventBus.EventType.BOX_PICKED_UP);
         return true;
     }
     
@@ -235,8 +261,8 @@ public class Box extends Block {
             float playerVelX = 0;
             float playerVelY = 0;
             if (carrier instanceof BallPlayer) {
-                playerVelX = ((BallPlayer)carrier).getVelocity().x;
-                playerVelY = ((BallPlayer)carrier).getVelocity().y;
+                playerVelX = carrier.getVelX();
+                playerVelY = carrier.getVelY();
             }
             
             // Position the box with its center at the correct offset from player center
@@ -245,12 +271,12 @@ public class Box extends Block {
             float boxCenterY = playerCenterY + relativeY;
             
             // Convert back to top-left corner position
-            position.x = boxCenterX - width / 2;
-            position.y = boxCenterY - height / 2;
+            setX(boxCenterX - getWidth() / 2);
+            setY(boxCenterY - getHeight() / 2);
         } else {
             // Fallback if carrier is null
-            position.x = playerX + relativeX;
-            position.y = playerY + relativeY;
+            setX(playerX + relativeX);
+            setY(playerY + relativeY);
         }
     }
     
@@ -273,6 +299,7 @@ public class Box extends Block {
         
         isBeingCarried = false;
         carrier = null;
+        setFlag(ComponentStore.SOLID, true);
         
         // Ensure the box is positioned on the grid when dropped
         // This helps prevent the box from being placed at weird positions
@@ -280,14 +307,15 @@ public class Box extends Block {
             // Snap to grid if needed - uncomment if you want this behavior
             /*
             int gridCellSize = 32; // Should match GRID_CELL_SIZE in PlayState
-            float gridX = Math.round(position.x / gridCellSize) * gridCellSize;
-            float gridY = Math.round(position.y / gridCellSize) * gridCellSize;
-            position.x = gridX;
-            position.y = gridY;
+            float gridX = Math.round(getX() / gridCellSize) * gridCellSize;
+            float gridY = Math.round(getY() / gridCellSize) * gridCellSize;
+            setX(gridX);
+            setY(gridY);
             */
         }
         
-        System.out.println("Box dropped at position: " + position.x + ", " + position.y);
+        System.out.println("Box dropped at position: " + getX() + ", " + getY());
+        publishEvent(EventBus.EventType.BOX_DROPPED);
     }
     
     /**
@@ -308,6 +336,46 @@ public class Box extends Block {
         return carrier;
     }
     
+    /**
+     * Sets the entity carrying this box without changing its relative position.
+     * Used when restoring a saved state.
+     * 
+     * @param carrier The entity carrying this box
+     */
+    public void setCarrier(Entity carrier) {
+        this.carrier = carrier;
+    }
+    
+    /**
+     * Writes the box state to a snapshot.
+     * The carrier isn't stored; the owner of the carrier restores it with {@link #setCarrier(Entity)}.
+     */
+    @Override
+    public void saveState(WorldSnapshot snapshot) {
+        super.saveState(snapshot);
+        snapshot.writeBoolean(isBeingCarried);
+        snapshot.writeFloat(relativeX);
+        snapshot.writeFloat(relativeY);
+        snapshot.writeBoolean(isActive);
+        snapshot.writeBoolean(isMovable);
+        snapshot.writeBoolean(isRewinding);
+    }
+    
+    @Override
+    public void loadState(WorldSnapshot snapshot) {
+        super.loadState(snapshot);
+        isBeingCarried = snapshot.readBoolean();
+        relativeX = snapshot.readFloat();
+        relativeY = snapshot.readFloat();
+        isActive = snapshot.readBoolean();
+        isMovable = snapshot.readBoolean();
+        isRewinding = snapshot.readBoolean();
+        setFlag(ComponentStore.SOLID, !isBeingCarried);
+        if (!isBeingCarried) {
+            carrier = null;
+        }
+    }
+    
     /**
      * Checks if the box is in an active state (follows rewind).
      * 
@@ -9,19 +9,24 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 
 import com.niravramdhanie.twod.game.actions.Action;
+import com.niravramdhanie.twod.game.actions.ActionProgram;
 import com.niravramdhanie.twod.game.actions.DoorAction;
 import com.niravramdhanie.twod.game.actions.MessageAction;
 import com.niravramdhanie.twod.game.actions.MultiAction;
 import com.niravramdhanie.twod.game.actions.TimedAction;
 import com.niravramdhanie.twod.game.actions.ToggleAction;
+import com.niravramdhanie.twod.game.utils.EventBus;
 import com.niravramdhanie.twod.game.utils.ResourceLoader;
-import com.niravramdhanie.twod.game.utils.RewindManager;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
 
 /**
  * A button entity that can be placed on the grid and activated by the player.
  * The button is activated when the player is one grid space away and presses 'E'.
  */
 public class Button extends Entity {
+    private static final Color DEFAULT_COLOR = new Color(200, 50, 50); // Red when inactive
+    private static final Color DEFAULT_ACTIVE_COLOR = new Color(50, 200, 50); // Green when active
+    
     private BufferedImage buttonImage;
     private BufferedImage buttonActiveImage;
     private Color color;
@@ -29,12 +34,12 @@ public class Button extends Entity {
     private boolean activated;
     private Action action;
     
+    // The action compiled into a flat program, which is what actually runs
+    private ActionProgram program;
+    
     // Fonts for button icons
     private static Font iconFont;
     
-    // Reference to the rewind manager
-    private static RewindManager rewindManager;
-    
     // Visual effects for activation
     private long activationTime;
     private boolean pulseEffect;
@@ -61,8 +66,8 @@ public class Button extends Entity {
         this.activationTime = 0;
         
         // Default colors
-        this.color = new Color(200, 50, 50); // Red when inactive
-        this.activeColor = new Color(50, 200, 50); // Green when active
+        this.color = DEFAULT_COLOR;
+        this.activeColor = DEFAULT_ACTIVE_COLOR;
         
         try {
             // Load button images
@@ -74,10 +79,8 @@ public class Button extends Entity {
             buttonActiveImage = null;
         }
         
-        // If this is a timed action, set the target button
-        if (action instanceof TimedAction) {
-            ((TimedAction) action).setTargetButton(this);
-        }
+        // Compile the action now that the button exists to be its target
+        setAction(action);
     }
     
     /**
@@ -92,8 +95,28 @@ public class Button extends Entity {
         this(x, y, width, height, null);
     }
     
+    /**
+     * Releases the button, drops its action and restores the default colors,
+     * for a button going back to its pool.
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        activated = false;
+        activationTime = 0;
+        pulseEffect = true;
+        color = DEFAULT_COLOR;
+        activeColor = DEFAULT_ACTIVE_COLOR;
+        setAction(null);
+    }
+    
     @Override
     public void update() {
+        // Timers only need checking here if there's no timer wheel to expire them
+        if (program != null) {
+            program.update();
+        }
+        
         // Update activation time for effects
         if (activated) {
             if (activationTime == 0) {
@@ -129,7 +152,7 @@ public class Button extends Entity {
             // Ultimate fallback
             System.err.println("Error rendering button: " + e.getMessage());
             g.setColor(Color.MAGENTA);
-            g.fillRect((int)position.x, (int)position.y, width, height);
+            g.fillRect((int)getX(), (int)getY(), getWidth(), getHeight());
         }
     }
     
@@ -144,8 +167,8 @@ public class Button extends Entity {
         
         // Create gradient for 3D effect
         GradientPaint gradient = new GradientPaint(
-            (int)position.x, (int)position.y, topColor,
-            (int)position.x, (int)position.y + height, bottomColor
+            (int)getX(), (int)getY(), topColor,
+            (int)getX(), (int)getY() + getHeight(), bottomColor
         );
         
         // Store original paint and set gradient
@@ -153,15 +176,15 @@ public class Button extends Entity {
         g.setPaint(gradient);
         
         // Draw button body with rounded corners
-        g.fillRoundRect((int)position.x, (int)position.y, width, height, 5, 5);
+        g.fillRoundRect((int)getX(), (int)getY(), getWidth(), getHeight(), 5, 5);
         
         // Draw button border
         g.setColor(activated ? Color.WHITE : Color.DARK_GRAY);
-        g.drawRoundRect((int)position.x, (int)position.y, width, height, 5, 5);
+        g.drawRoundRect((int)getX(), (int)getY(), getWidth(), getHeight(), 5, 5);
         
         // Draw button top (lighter) for 3D effect
         g.setColor(new Color(255, 255, 255, 70));
-        g.fillRoundRect((int)position.x + 2, (int)position.y + 2, width - 4, height / 3, 3, 3);
+        g.fillRoundRect((int)getX() + 2, (int)getY() + 2, getWidth() - 4, getHeight() / 3, 3, 3);
         
         // Reset original paint
         g.setPaint(originalPaint);
@@ -179,8 +202,7 @@ public class Button extends Entity {
         if (action instanceof TimedAction) {
             return activated ? new Color(255, 140, 0) : new Color(200, 110, 0); // Orange for timed
         } else if (action instanceof ToggleAction) {
-            ToggleAction toggleAction = (ToggleAction) action;
-            if (toggleAction.isToggled()) {
+            if (program.isToggled()) {
                 return new Color(0, 170, 220); // Blue when toggled on
             } else {
                 return new Color(60, 60, 180); // Dark blue when toggled off
@@ -227,8 +249,7 @@ public class Button extends Entity {
             icon = "⇆"; // Toggle icon
             iconColor = Color.WHITE;
             
-            ToggleAction toggleAction = (ToggleAction) action;
-            if (toggleAction.isToggled()) {
+            if (program.isToggled()) {
                 icon = "ON";
             } else {
                 icon = "OFF";
@@ -253,8 +274,8 @@ public class Button extends Entity {
         // Center the icon in the button
         FontMetrics metrics = g.getFontMetrics();
         Rectangle2D bounds = metrics.getStringBounds(icon, g);
-        int x = (int)(position.x + (width - bounds.getWidth()) / 2);
-        int y = (int)(position.y + (height - bounds.getHeight()) / 2 + metrics.getAscent());
+        int x = (int)(getX() + (getWidth() - bounds.getWidth()) / 2);
+        int y = (int)(getY() + (getHeight() - bounds.getHeight()) / 2 + metrics.getAscent());
         
         // Draw icon with a subtle shadow for better visibility
         g.setColor(Color.BLACK);
@@ -276,7 +297,7 @@ public class Button extends Entity {
     private void drawInteractionHint(Graphics2D g) {
         g.setFont(new Font("Arial", Font.BOLD, 10));
         g.setColor(new Color(255, 255, 255, 200));
-        g.drawString("E", (int)position.x + width - 10, (int)position.y + 12);
+        g.drawString("E", (int)getX() + getWidth() - 10, (int)getY() + 12);
     }
     
     /**
@@ -285,18 +306,17 @@ public class Button extends Entity {
     private void drawTimerBar(Graphics2D g) {
         if (!(action instanceof TimedAction)) return;
         
-        TimedAction timedAction = (TimedAction) action;
-        if (!timedAction.isActive()) return;
+        if (!program.isTimerActive()) return;
         
         // Store original color
         Color originalColor = g.getColor();
         
         // Get the timer fraction (0.0 to 1.0)
-        float fraction = timedAction.getTimeRemainingFraction();
+        float fraction = program.getTimeRemainingFraction();
         
         // Draw the timer bar background
         g.setColor(Color.DARK_GRAY);
-        g.fillRect((int)position.x, (int)position.y + height + 2, width, 4);
+        g.fillRect((int)getX(), (int)getY() + getHeight() + 2, getWidth(), 4);
         
         // Draw the timer bar foreground
         if (fraction > 0.6f) {
@@ -307,7 +327,7 @@ public class Button extends Entity {
             g.setColor(Color.RED);
         }
         
-        g.fillRect((int)position.x, (int)position.y + height + 2, (int)(width * fraction), 4);
+        g.fillRect((int)getX(), (int)getY() + getHeight() + 2, (int)(getWidth() * fraction), 4);
         
         // Restore original color
         g.setColor(originalColor);
@@ -321,9 +341,9 @@ public class Button extends Entity {
      */
     private void drawToggleIndicator(Graphics2D g, boolean toggled) {
         g.setColor(Color.WHITE);
-        int circleSize = Math.min(width, height) / 3;
-        int circleX = (int)position.x + width - circleSize - 5;
-        int circleY = (int)position.y + 5;
+        int circleSize = Math.min(getWidth(), getHeight()) / 3;
+        int circleX = (int)getX() + getWidth() - circleSize - 5;
+        int circleY = (int)getY() + 5;
         
         g.drawOval(circleX, circleY, circleSize, circleSize);
         
@@ -339,9 +359,9 @@ public class Button extends Entity {
      * @param messageAction The message action
      */
     private void drawMessageIndicator(Graphics2D g, MessageAction messageAction) {
-        int indicatorSize = Math.min(width, height) / 4;
-        int indicatorX = (int)position.x + width - indicatorSize - 5;
-        int indicatorY = (int)position.y + height - indicatorSize - 5;
+        int indicatorSize = Math.min(getWidth(), getHeight()) / 4;
+        int indicatorX = (int)getX() + getWidth() - indicatorSize - 5;
+        int indicatorY = (int)getY() + getHeight() - indicatorSize - 5;
         
         if (messageAction.isCycling()) {
             // Draw cycling indicator (circular arrow)
@@ -389,10 +409,10 @@ public class Button extends Entity {
         // Draw outer glow
         int glowSize = 4;
         g.fillRoundRect(
-            (int)position.x - glowSize,
-            (int)position.y - glowSize,
-            width + glowSize * 2,
-            height + glowSize * 2,
+            (int)getX() - glowSize,
+            (int)getY() - glowSize,
+            getWidth() + glowSize * 2,
+            getHeight() + glowSize * 2,
             10, 10
         );
         
@@ -400,15 +420,6 @@ public class Button extends Entity {
         g.setColor(originalColor);
     }
     
-    /**
-     * Sets the rewind manager for all buttons.
-     * 
-     * @param rewindManager The rewind manager
-     */
-    public static void setRewindManager(RewindManager rewindManager) {
-        Button.rewindManager = rewindManager;
-    }
-    
     /**
      * Activates the button and executes its action.
      * 
@@ -419,16 +430,11 @@ public class Button extends Entity {
         
         if (activated) {
             // If already activated, only perform action if it's a toggle or cycling action
-            if (action instanceof ToggleAction || 
-                (action instanceof MessageAction && ((MessageAction)action).isCycling())) {
-                if (action != null) {
-                    action.execute();
-                }
+            if (program != null && program.isRepeatable()) {
+                program.execute();
                 
-                // Record the button activation if we're recording
-                if (rewindManager != null) {
-                    rewindManager.recordButtonActivation(this, true);
-                }
+                // Each press of a toggle counts as an activation
+                publishEvent(EventBus.EventType.BUTTON_ACTIVATED);
                 
                 return true;
             }
@@ -436,13 +442,12 @@ public class Button extends Entity {
         }
         
         activated = true;
-        if (action != null) {
-            action.execute();
+        if (program != null) {
+            program.execute();
         }
         
-        // Record the button activation if we're recording
-        if (rewindManager != null && !wasActivated) {
-            rewindManager.recordButtonActivation(this, true);
+        if (!wasActivated) {
+            publishEvent(EventBus.EventType.BUTTON_ACTIVATED);
         }
         
         return true;
@@ -455,9 +460,8 @@ public class Button extends Entity {
         boolean wasActivated = activated;
         activated = false;
         
-        // Record the button deactivation if we're recording
-        if (rewindManager != null && wasActivated) {
-            rewindManager.recordButtonActivation(this, false);
+        if (wasActivated) {
+            publishEvent(EventBus.EventType.BUTTON_DEACTIVATED);
         }
     }
     
@@ -482,6 +486,9 @@ public class Button extends Entity {
         if (action instanceof TimedAction) {
             ((TimedAction) action).setTargetButton(this);
         }
+        
+        // Changes made to the action tree after this aren't seen by the button
+        this.program = ActionProgram.compile(action, this);
     }
     
     /**
@@ -493,6 +500,15 @@ public class Button extends Entity {
         return action;
     }
     
+    /**
+     * Gets the compiled program the button runs for its action.
+     * 
+     * @return The program, or null if the button has no action
+     */
+    public ActionProgram getProgram() {
+        return program;
+    }
+    
     /**
      * Sets the button's inactive color.
      * 
@@ -520,19 +536,8 @@ public class Button extends Entity {
      * @return True if the action was a ToggleAction and state was set, false otherwise
      */
     public boolean forceSetToggleState(boolean toggled) {
-        if (action instanceof ToggleAction) {
-            ToggleAction toggleAction = (ToggleAction) action;
-            toggleAction.setToggled(toggled);
-            
-            // If this toggle controls a door, update the door state directly
-            if (toggleAction.getOnAction() instanceof DoorAction) {
-                DoorAction doorAction = (DoorAction) toggleAction.getOnAction();
-                doorAction.setDoorOpen(toggled);
-            }
-            
-            return true;
-        }
-        return false;
+        // The program also moves the door if the toggle controls one
+        return program != null && program.setToggled(toggled);
     }
     
     /**
@@ -542,8 +547,14 @@ public class Button extends Entity {
      * @param activated Whether the button should be activated
      */
     public void setActivated(boolean activated) {
+        boolean wasActivated = this.activated;
         this.activated = activated;
         
+        // Let anything that depends on the button follow the new state
+        if (activated != wasActivated) {
+            publishEvent(activated ? EventBus.EventType.BUTTON_ACTIVATED : EventBus.EventType.BUTTON_DEACTIVATED);
+        }
+        
         // Update activation time when the button is activated during rewind
         // to ensure the visual indicator plays properly
         if (activated) {
@@ -553,6 +564,27 @@ public class Button extends Entity {
         }
     }
     
+    /**
+     * Writes the button state, including its action's state, to a snapshot.
+     */
+    @Override
+    public void saveState(WorldSnapshot snapshot) {
+        super.saveState(snapshot);
+        snapshot.writeBoolean(activated);
+        if (program != null) {
+            program.saveState(snapshot);
+        }
+    }
+    
+    @Override
+    public void loadState(WorldSnapshot snapshot) {
+        super.loadState(snapshot);
+        activated = snapshot.readBoolean();
+        if (program != null) {
+            program.loadState(snapshot);
+        }
+    }
+    
     /**
      * Sets whether this button should use a pulsating effect when activated.
      * 
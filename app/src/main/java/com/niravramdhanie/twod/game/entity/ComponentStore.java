@@ -0,0 +1,142 @@
+package com.niravramdhanie.twod.game.entity;
+
+import java.util.Arrays;
+
+/**
+ * Entity state kept as parallel arrays of primitives, one slot per entity.
+ * <p>
+ * A level's {@link EntityRegistry} owns a store whose slots are the entities' handles,
+ * so the systems in {@link EntitySystems} can run over every entity's position, bounds
+ * and flags in order, without touching the entity objects. The entity objects are views:
+ * their getters and setters read and write their slot. An entity that isn't in a level
+ * keeps a store of its own, and walls share one store per chunk.
+ * <p>
+ * Arrays are package-private so the systems and entities can index them directly;
+ * everything else goes through the entities.
+ */
+public class ComponentStore {
+    // Flags, in the flag array
+    public static final int ACTIVE = 1;        // Updated and drawn
+    public static final int SOLID = 1 << 1;    // Stops movement: walls, closed doors, boxes on the ground
+    public static final int TRIGGER = 1 << 2;  // Pressed while a load's center is on it: weighted buttons
+    public static final int LOAD = 1 << 3;     // Presses triggers: boxes
+    public static final int MOVING = 1 << 4;   // Moved by its velocity every tick by the movement system
+
+    // Render layers, drawn in this order
+    public static final byte LAYER_FLOOR = 0;  // Walls, doors and buttons
+    public static final byte LAYER_ITEMS = 1;  // Boxes, drawn over the floor
+    public static final int LAYER_COUNT = 2;
+
+    float[] x;
+    float[] y;
+    float[] velX;
+    float[] velY;
+    int[] width;
+    int[] height;
+    int[] flags;
+    byte[] layers;
+    int count;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param capacity The number of slots to make room for
+     */
+    public ComponentStore(int capacity) {
+        capacity = Math.max(1, capacity);
+        x = new float[capacity];
+        y = new float[capacity];
+        velX = new float[capacity];
+        velY = new float[capacity];
+        width = new int[capacity];
+        height = new int[capacity];
+        flags = new int[capacity];
+        layers = new byte[capacity];
+    }
+
+    /**
+     * Adds a slot for a new entity, active and at rest.
+     *
+     * @return The slot
+     */
+    int add(float entityX, float entityY, int entityWidth, int entityHeight) {
+        int slot = count;
+        ensureSize(slot + 1);
+        x[slot] = entityX;
+        y[slot] = entityY;
+        width[slot] = entityWidth;
+        height[slot] = entityHeight;
+        flags[slot] = ACTIVE;
+        return slot;
+    }
+
+    /**
+     * Copies a slot from another store, growing this one if the slot is past its end.
+     */
+    void copy(ComponentStore from, int fromSlot, int toSlot) {
+        ensureSize(toSlot + 1);
+        x[toSlot] = from.x[fromSlot];
+        y[toSlot] = from.y[fromSlot];
+        velX[toSlot] = from.velX[fromSlot];
+        velY[toSlot] = from.velY[fromSlot];
+        width[toSlot] = from.width[fromSlot];
+        height[toSlot] = from.height[fromSlot];
+        flags[toSlot] = from.flags[fromSlot];
+        layers[toSlot] = from.layers[fromSlot];
+    }
+
+    /**
+     * Makes the store at least this many slots long. New slots are empty, with no flags set,
+     * so the systems skip them.
+     */
+    void ensureSize(int size) {
+        if (size > x.length) {
+            int capacity = Math.max(size, x.length * 2);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            velX = Arrays.copyOf(velX, capacity);
+            velY = Arrays.copyOf(velY, capacity);
+            width = Arrays.copyOf(width, capacity);
+            height = Arrays.copyOf(height, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            layers = Arrays.copyOf(layers, capacity);
+        }
+        if (size > count) {
+            count = size;
+        }
+    }
+
+    /**
+     * Empties a slot, so the systems skip it.
+     */
+    void remove(int slot) {
+        flags[slot] = 0;
+    }
+
+    /**
+     * Empties the store.
+     */
+    void clear() {
+        Arrays.fill(flags, 0, count, 0);
+        count = 0;
+    }
+
+    /**
+     * Gets the number of slots in use, including emptied ones.
+     *
+     * @return The slot count
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Gets the flags of a slot.
+     *
+     * @param slot The slot
+     * @return The flags, 0 for an empty slot
+     */
+    public int getFlags(int slot) {
+        return flags[slot];
+    }
+}
@@ -8,7 +8,9 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 
 import com.niravramdhanie.twod.game.actions.DoorAction;
+import com.niravramdhanie.twod.game.utils.EventBus;
 import com.niravramdhanie.twod.game.utils.ResourceLoader;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
 
 /**
  * A door entity that can be opened or closed.
@@ -137,6 +139,18 @@ public class Door extends Block implements DoorAction.DoorStateChangeListener {
         }
     }
     
+    /**
+     * Closes the door without publishing an event, for a door going back to its pool.
+     * The ID is left for the next level to set.
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        isOpen = false;
+        isPermanentlyOpen = false;
+        openTime = 0;
+    }
+    
     @Override
     public void update() {
         // Update door state
@@ -158,17 +172,17 @@ public class Door extends Block implements DoorAction.DoorStateChangeListener {
             
             if (gridWidth == 1 && gridHeight == 1) {
                 // Single cell door - draw with 180 degree rotation
-                g.translate(position.x + width, position.y + height); // Move to bottom-right corner
+                g.translate(getX() + getWidth(), getY() + getHeight()); // Move to bottom-right corner
                 g.rotate(Math.PI); // Rotate 180 degrees
-                g.drawImage(currentImage, 0, 0, width, height, null);
+                g.drawImage(currentImage, 0, 0, getWidth(), getHeight(), null);
             } else {
                 // Multi-cell door - tile the texture with 180 degree rotation
-                int tileSize = Math.min(width / gridWidth, height / gridHeight);
-                int tilesX = (width + tileSize - 1) / tileSize;
-                int tilesY = (height + tileSize - 1) / tileSize;
+                int tileSize = Math.min(getWidth() / gridWidth, getHeight() / gridHeight);
+                int tilesX = (getWidth() + tileSize - 1) / tileSize;
+                int tilesY = (getHeight() + tileSize - 1) / tileSize;
                 
                 // Move to bottom-right corner of the door area
-                g.translate(position.x + width, position.y + height);
+                g.translate(getX() + getWidth(), getY() + getHeight());
                 g.rotate(Math.PI); // Rotate 180 degrees
                 
                 for (int y = 0; y < tilesY; y++) {
@@ -238,10 +252,10 @@ public class Door extends Block implements DoorAction.DoorStateChangeListener {
         // Draw glow over the door frame
         int glowSize = 6;  // Larger glow for permanent
         g.fillRoundRect(
-            (int)position.x - glowSize, 
-            (int)position.y - glowSize, 
-            width + glowSize * 2, 
-            height + glowSize * 2,
+            (int)getX() - glowSize, 
+            (int)getY() - glowSize, 
+            getWidth() + glowSize * 2, 
+            getHeight() + glowSize * 2,
             10, 10
         );
         
@@ -256,8 +270,8 @@ public class Door extends Block implements DoorAction.DoorStateChangeListener {
         // Draw background for text to improve readability
         g.setColor(new Color(0, 0, 0, 180));
         g.fillRect(
-            (int)position.x + (width - textWidth) / 2 - 2, 
-            (int)position.y + height + 2, 
+            (int)getX() + (getWidth() - textWidth) / 2 - 2, 
+            (int)getY() + getHeight() + 2, 
             textWidth + 4, 
             textHeight
         );
@@ -265,8 +279,8 @@ public class Door extends Block implements DoorAction.DoorStateChangeListener {
         // Draw text
         g.setColor(Color.YELLOW);
         g.drawString(text, 
-            (int)position.x + (width - textWidth) / 2, 
-            (int)position.y + height + textHeight);
+            (int)getX() + (getWidth() - textWidth) / 2, 
+            (int)getY() + getHeight() + textHeight);
         
         // Restore original color
         g.setColor(originalColor);
@@ -299,10 +313,10 @@ public class Door extends Block implements DoorAction.DoorStateChangeListener {
         // Draw glow over the door frame
         int glowSize = 4;
         g.fillRoundRect(
-            (int)position.x - glowSize, 
-            (int)position.y - glowSize, 
-            width + glowSize * 2, 
-            height + glowSize * 2,
+            (int)getX() - glowSize, 
+            (int)getY() - glowSize, 
+            getWidth() + glowSize * 2, 
+            getHeight() + glowSize * 2,
             8, 8
         );
         
@@ -314,8 +328,8 @@ public class Door extends Block implements DoorAction.DoorStateChangeListener {
         int textWidth = fm.stringWidth(text);
         int textHeight = fm.getHeight();
         g.drawString(text, 
-            (int)position.x + (width - textWidth) / 2, 
-            (int)position.y + height + textHeight);
+            (int)getX() + (getWidth() - textWidth) / 2, 
+            (int)getY() + getHeight() + textHeight);
         
         // Restore original color
         g.setColor(originalColor);
@@ -330,19 +344,19 @@ public class Door extends Block implements DoorAction.DoorStateChangeListener {
         // Draw the door frame
         g.setColor(frameColor);
         
-        int frameThickness = Math.max(width, height) / 16; // Thinner frame for larger doors
+        int frameThickness = Math.max(getWidth(), getHeight()) / 16; // Thinner frame for larger doors
         
         // Left side
-        g.fillRect((int)position.x, (int)position.y, frameThickness, height);
+        g.fillRect((int)getX(), (int)getY(), frameThickness, getHeight());
         
         // Right side
-        g.fillRect((int)position.x + width - frameThickness, (int)position.y, frameThickness, height);
+        g.fillRect((int)getX() + getWidth() - frameThickness, (int)getY(), frameThickness, getHeight());
         
         // Top
-        g.fillRect((int)position.x, (int)position.y, width, frameThickness);
+        g.fillRect((int)getX(), (int)getY(), getWidth(), frameThickness);
         
         // Bottom
-        g.fillRect((int)position.x, (int)position.y + height - frameThickness, width, frameThickness);
+        g.fillRect((int)getX(), (int)getY() + getHeight() - frameThickness, getWidth(), frameThickness);
     }
     
     /**
@@ -358,11 +372,11 @@ public class Door extends Block implements DoorAction.DoorStateChangeListener {
         Color doorColor = new Color(139, 69, 19); // Brown door color
         
         // Door body fill
-        int frameThickness = Math.max(width, height) / 16;
-        int doorBodyX = (int)position.x + frameThickness;
-        int doorBodyY = (int)position.y + frameThickness;
-        int doorBodyWidth = width - (frameThickness * 2);
-        int doorBodyHeight = height - (frameThickness * 2);
+        int frameThickness = Math.max(getWidth(), getHeight()) / 16;
+        int doorBodyX = (int)getX() + frameThickness;
+        int doorBodyY = (int)getY() + frameThickness;
+        int doorBodyWidth = getWidth() - (frameThickness * 2);
+        int doorBodyHeight = getHeight() - (frameThickness * 2);
         
         // Create a gradient for 3D effect
         GradientPaint gradient = new GradientPaint(
@@ -435,14 +449,18 @@ public class Door extends Block implements DoorAction.DoorStateChangeListener {
      * Opens the door.
      */
     public void open() {
-        isOpen = true;
+        if (!isOpen) {
+            isOpen = true;
+            setFlag(ComponentStore.SOLID, false);
+            publishEvent(EventBus.EventType.DOOR_OPENED);
+        }
     }
     
     /**
      * Opens the door permanently, so it can't be closed again.
      */
     public void openPermanently() {
-        isOpen = true;
+        open();
         isPermanentlyOpen = true;
         System.out.println("Door " + id + " has been permanently opened!");
     }
@@ -460,8 +478,10 @@ public class Door extends Block implements DoorAction.DoorStateChangeListener {
      * Closes the door if it's not permanently open.
      */
     public void close() {
-        if (!isPermanentlyOpen) {
+        if (!isPermanentlyOpen && isOpen) {
             isOpen = false;
+            setFlag(ComponentStore.SOLID, true);
+            publishEvent(EventBus.EventType.DOOR_CLOSED);
         }
     }
     
@@ -492,21 +512,38 @@ public class Door extends Block implements DoorAction.DoorStateChangeListener {
         this.id = id;
     }
     
+    @Override
+    public void saveState(WorldSnapshot snapshot) {
+        super.saveState(snapshot);
+        snapshot.writeBoolean(isOpen);
+        snapshot.writeBoolean(isPermanentlyOpen);
+    }
+    
+    @Override
+    public void loadState(WorldSnapshot snapshot) {
+        super.loadState(snapshot);
+        isOpen = snapshot.readBoolean();
+        isPermanentlyOpen = snapshot.readBoolean();
+        setFlag(ComponentStore.SOLID, !isOpen);
+    }
+    
     /**
      * Toggles the door state unless it's permanently open.
      * 
      * @return The new door state
      */
     public boolean toggle() {
-        if (!isPermanentlyOpen) {
-            isOpen = !isOpen;
+        if (isOpen) {
+            close();
+        } else {
+            open();
         }
         return isOpen;
     }
     
     @Override
-    public void onDoorStateChanged(String doorId, boolean isOpen) {
-        if (this.id.equals(doorId)) {
+    public void onDoorStateChanged(int doorHandle, boolean isOpen) {
+        if (doorHandle == getHandle()) {
             if (isOpen) {
                 open();
             } else if (!isPermanentlyOpen) {
@@ -3,28 +3,49 @@ package com.niravramdhanie.twod.game.entity;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 
-import com.niravramdhanie.twod.game.utils.Vector2D;
+import com.niravramdhanie.twod.game.utils.EventBus;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
 
+/**
+ * Something in the game world. An entity is a view of its slot in a
+ * {@link ComponentStore}: its position, velocity, size and flags live there, and
+ * the getters and setters read and write the slot.
+ */
 public abstract class Entity {
-    protected Vector2D position;
-    protected Vector2D velocity;
-    protected int width;
-    protected int height;
-    protected boolean active;
+    // Where the entity's components are: its own store until it joins a level's registry
+    private ComponentStore components;
+    private int slot;
+    
+    // Store the components go back to when the entity leaves a registry, kept for the next time
+    private ComponentStore ownStore;
+    
+    // Handle assigned by the level's EntityRegistry, and the registry, whose event bus state changes go to
+    private int handle = EntityRegistry.NO_HANDLE;
+    private EntityRegistry registry;
     
     public Entity(float x, float y, int width, int height) {
-        this.position = new Vector2D(x, y);
-        this.velocity = new Vector2D(0, 0);
-        this.width = width;
-        this.height = height;
-        this.active = true;
+        this(new ComponentStore(1), x, y, width, height);
+    }
+    
+    /**
+     * Creates an entity in a slot of a shared store, such as the one that holds a chunk's walls.
+     * 
+     * @param components The store to add the entity to
+     * @param x The X position
+     * @param y The Y position
+     * @param width The width
+     * @param height The height
+     */
+    protected Entity(ComponentStore components, float x, float y, int width, int height) {
+        this.components = components;
+        this.slot = components.add(x, y, width, height);
     }
     
     public abstract void update();
     public abstract void render(Graphics2D g);
     
     public Rectangle getBounds() {
-        return new Rectangle((int)position.x, (int)position.y, width, height);
+        return new Rectangle((int)getX(), (int)getY(), getWidth(), getHeight());
     }
     
     /**
@@ -35,33 +56,175 @@ public abstract class Entity {
      */
     public Rectangle getCollisionBounds() {
         // Make the collision rectangle 90% of the entity's size
-        int collisionWidth = (int)(width * 0.9f);
-        int collisionHeight = (int)(height * 0.9f);
+        int collisionWidth = (int)(getWidth() * 0.9f);
+        int collisionHeight = (int)(getHeight() * 0.9f);
         
         // Center the collision rectangle within the entity's bounds
-        int collisionX = (int)position.x + (width - collisionWidth) / 2;
-        int collisionY = (int)position.y + (height - collisionHeight) / 2;
+        int collisionX = (int)getX() + (getWidth() - collisionWidth) / 2;
+        int collisionY = (int)getY() + (getHeight() - collisionHeight) / 2;
         
         return new Rectangle(collisionX, collisionY, collisionWidth, collisionHeight);
     }
     
+    /**
+     * Checks if the collision bounds of two entities overlap. Works out the same as
+     * intersecting their {@link #getCollisionBounds()} without making the rectangles,
+     * as it's called for many pairs every tick.
+     * 
+     * @param other The other entity
+     * @return True if they overlap, false otherwise
+     */
     public boolean checkCollision(Entity other) {
-        return getCollisionBounds().intersects(other.getCollisionBounds());
+        int width = (int)(getWidth() * 0.9f);
+        int height = (int)(getHeight() * 0.9f);
+        int otherWidth = (int)(other.getWidth() * 0.9f);
+        int otherHeight = (int)(other.getHeight() * 0.9f);
+        if (width <= 0 || height <= 0 || otherWidth <= 0 || otherHeight <= 0) {
+            return false;
+        }
+        
+        int x = (int)getX() + (getWidth() - width) / 2;
+        int y = (int)getY() + (getHeight() - height) / 2;
+        int otherX = (int)other.getX() + (other.getWidth() - otherWidth) / 2;
+        int otherY = (int)other.getY() + (other.getHeight() - otherHeight) / 2;
+        return x < otherX + otherWidth && otherX < x + width && y < otherY + otherHeight && otherY < y + height;
+    }
+    
+    /**
+     * Writes the entity's simulation state to a snapshot.
+     * Subclasses with more state should call this first and then write their own fields.
+     * 
+     * @param snapshot The snapshot to write to
+     */
+    public void saveState(WorldSnapshot snapshot) {
+        snapshot.writeFloat(getX());
+        snapshot.writeFloat(getY());
+        snapshot.writeFloat(getVelX());
+        snapshot.writeFloat(getVelY());
+        snapshot.writeInt(getWidth());
+        snapshot.writeInt(getHeight());
+        snapshot.writeBoolean(hasFlag(ComponentStore.ACTIVE));
+    }
+    
+    /**
+     * Restores the state written by {@link #saveState(WorldSnapshot)}.
+     * 
+     * @param snapshot The snapshot to read from
+     */
+    public void loadState(WorldSnapshot snapshot) {
+        setX(snapshot.readFloat());
+        setY(snapshot.readFloat());
+        setVelX(snapshot.readFloat());
+        setVelY(snapshot.readFloat());
+        setWidth(snapshot.readInt());
+        setHeight(snapshot.readInt());
+        setFlag(ComponentStore.ACTIVE, snapshot.readBoolean());
     }
     
     // Getters and setters
-    public float getX() { return position.x; }
-    public float getY() { return position.y; }
-    public void setX(float x) { position.x = x; }
-    public void setY(float y) { position.y = y; }
-    public float getVelX() { return velocity.x; }
-    public float getVelY() { return velocity.y; }
-    public void setVelX(float vx) { velocity.x = vx; }
-    public void setVelY(float vy) { velocity.y = vy; }
-    public int getWidth() { return width; }
-    public int getHeight() { return height; }
-    public void setWidth(int width) { this.width = width; }
-    public void setHeight(int height) { this.height = height; }
-    public boolean isActive() { return active; }
-    public void setActive(boolean active) { this.active = active; }
+    public float getX() { return components.x[slot]; }
+    public float getY() { return components.y[slot]; }
+    public void setX(float x) { components.x[slot] = x; }
+    public void setY(float y) { components.y[slot] = y; }
+    public float getVelX() { return components.velX[slot]; }
+    public float getVelY() { return components.velY[slot]; }
+    public void setVelX(float vx) { components.velX[slot] = vx; }
+    public void setVelY(float vy) { components.velY[slot] = vy; }
+    public int getWidth() { return components.width[slot]; }
+    public int getHeight() { return components.height[slot]; }
+    public void setWidth(int width) { components.width[slot] = width; }
+    public void setHeight(int height) { components.height[slot] = height; }
+    public boolean isActive() { return hasFlag(ComponentStore.ACTIVE); }
+    public void setActive(boolean active) { setFlag(ComponentStore.ACTIVE, active); }
+    
+    /**
+     * Checks if one of the entity's component flags is set.
+     * 
+     * @param flag A flag from {@link ComponentStore}
+     * @return True if the flag is set, false otherwise
+     */
+    public boolean hasFlag(int flag) {
+        return (components.flags[slot] & flag) != 0;
+    }
+    
+    /**
+     * Sets or clears one of the entity's component flags.
+     * 
+     * @param flag A flag from {@link ComponentStore}
+     * @param set True to set the flag, false to clear it
+     */
+    protected void setFlag(int flag, boolean set) {
+        if (set) {
+            components.flags[slot] |= flag;
+        } else {
+            components.flags[slot] &= ~flag;
+        }
+    }
+    
+    /**
+     * Sets the layer the render system draws the entity in.
+     * 
+     * @param layer A layer from {@link ComponentStore}
+     */
+    protected void setLayer(byte layer) {
+        components.layers[slot] = layer;
+    }
+    
+    /**
+     * Puts the entity back the way its constructor left it, apart from its position and size,
+     * so a pooled entity can be used again. Subclasses reset their own state and call this.
+     */
+    public void reset() {
+        setVelX(0);
+        setVelY(0);
+        setFlag(ComponentStore.ACTIVE, true);
+    }
+    
+    /**
+     * Gets the handle assigned when the entity was added to a level.
+     * 
+     * @return The handle, or {@link EntityRegistry#NO_HANDLE} if not registered
+     */
+    public int getHandle() { return handle; }
+    
+    /**
+     * Publishes an event about this entity on its registry's event bus, if it's in a level
+     * and the level has an event bus.
+     * 
+     * @param type The event type
+     */
+    protected void publishEvent(EventBus.EventType type) {
+        if (registry != null && registry.getEventBus() != null) {
+            registry.getEventBus().publish(type, handle);
+        }
+    }
+    
+    /**
+     * Moves the entity's components into its registry's store, where its slot is its handle.
+     * Only the registry assigns handles.
+     */
+    void attach(EntityRegistry registry, ComponentStore store, int handle) {
+        this.registry = registry;
+        store.copy(components, slot, handle);
+        components = store;
+        slot = handle;
+        this.handle = handle;
+    }
+    
+    /**
+     * Moves the entity's components out of its registry's store into a store of its own.
+     */
+    void detach() {
+        if (ownStore == null || ownStore == components) {
+            ownStore = new ComponentStore(1);
+        }
+        ownStore.copy(components, slot, 0);
+        if (handle != EntityRegistry.NO_HANDLE) {
+            components.remove(slot);
+        }
+        components = ownStore;
+        slot = 0;
+        handle = EntityRegistry.NO_HANDLE;
+        registry = null;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,156 @@
+package com.niravramdhanie.twod.game.entity;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.niravramdhanie.twod.game.utils.EventBus;
+
+/**
+ * Assigns each entity in a level a dense integer handle and looks entities up by it.
+ * Handles are array indices, so resolving one during the game is a single array read.
+ * Names such as door IDs map to handles through a separate table that is meant
+ * to be used while setting up a level, not every tick.
+ * The registry also owns the {@link ComponentStore} its entities keep their state in,
+ * with each entity's slot being its handle, and holds the event bus its entities
+ * publish their state changes to.
+ */
+public class EntityRegistry {
+    // Handle of an entity that isn't registered
+    public static final int NO_HANDLE = -1;
+
+    private Entity[] entities;
+    private int count;
+    private final Map<String, Integer> names;
+    private final ComponentStore components;
+    private EventBus eventBus;
+
+    /**
+     * Creates an empty registry.
+     */
+    public EntityRegistry() {
+        this.entities = new Entity[64];
+        this.count = 0;
+        this.names = new HashMap<>();
+        this.components = new ComponentStore(64);
+    }
+
+    /**
+     * Registers an entity and assigns it the next handle.
+     *
+     * @param entity The entity to register
+     * @return The entity's handle
+     */
+    public int register(Entity entity) {
+        if (entity.getHandle() != NO_HANDLE && get(entity.getHandle()) == entity) {
+            return entity.getHandle();
+        }
+
+        if (count == entities.length) {
+            entities = Arrays.copyOf(entities, entities.length * 2);
+        }
+        int handle = count++;
+        entities[handle] = entity;
+        entity.attach(this, components, handle);
+        return handle;
+    }
+
+    /**
+     * Removes an entity. Its handle is not reused until the registry is cleared.
+     *
+     * @param entity The entity to remove
+     */
+    public void unregister(Entity entity) {
+        int handle = entity.getHandle();
+        if (handle != NO_HANDLE && handle < count && entities[handle] == entity) {
+            entities[handle] = null;
+            entity.detach();
+        }
+    }
+
+    /**
+     * Gets the entity with a handle.
+     *
+     * @param handle The entity handle
+     * @return The entity, or null if no entity has the handle
+     */
+    public Entity get(int handle) {
+        if (handle < 0 || handle >= count) {
+            return null;
+        }
+        return entities[handle];
+    }
+
+    /**
+     * Gets the number of handles assigned, which is one more than the highest handle.
+     * Arrays indexed by handle should be at least this long.
+     *
+     * @return The handle count
+     */
+    public int getHandleCount() {
+        return count;
+    }
+
+    /**
+     * Gets the store the registered entities keep their state in, indexed by handle.
+     *
+     * @return The component store
+     */
+    public ComponentStore getComponents() {
+        return components;
+    }
+
+    /**
+     * Associates a name with an entity's handle.
+     *
+     * @param name The name
+     * @param entity The registered entity
+     */
+    public void setName(String name, Entity entity) {
+        names.put(name, entity.getHandle());
+    }
+
+    /**
+     * Looks up the handle for a name. Intended for level setup.
+     *
+     * @param name The name
+     * @return The handle, or {@link #NO_HANDLE} if the name isn't known
+     */
+    public int getHandle(String name) {
+        Integer handle = names.get(name);
+        return handle != null ? handle : NO_HANDLE;
+    }
+
+    /**
+     * Sets the event bus the registered entities publish state changes to.
+     *
+     * @param eventBus The event bus, or null to stop publishing events
+     */
+    public void setEventBus(EventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    /**
+     * Gets the event bus the registered entities publish state changes to.
+     *
+     * @return The event bus, or null if there is none
+     */
+    public EventBus getEventBus() {
+        return eventBus;
+    }
+
+    /**
+     * Removes all entities and names.
+     */
+    public void clear() {
+        for (int i = 0; i < count; i++) {
+            if (entities[i] != null) {
+                entities[i].detach();
+                entities[i] = null;
+            }
+        }
+        count = 0;
+        components.clear();
+        names.clear();
+    }
+}
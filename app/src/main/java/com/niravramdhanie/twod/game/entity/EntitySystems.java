@@ -0,0 +1,164 @@
+package com.niravramdhanie.twod.game.entity;
+
+import com.niravramdhanie.twod.game.graphics.Camera;
+
+/**
+ * The passes that run over every entity in a {@link ComponentStore} at once. Each one
+ * walks the store's arrays from the first slot to the last and reads only the
+ * components it needs, so it doesn't call into the entity objects at all.
+ * Passes that find entities write their slots to an array the caller owns and reuses.
+ * <p>
+ * The trigger pass, which {@link ParallelSystems} splits across threads once a store
+ * is bigger than one of its chunks, also takes a range of slots. A slot's result only depends on what the pass reads, never on what
+ * it writes, so the ranges can run in any order or at the same time.
+ */
+public final class EntitySystems {
+    private EntitySystems() {
+    }
+
+    /**
+     * Moves every active entity flagged {@link ComponentStore#MOVING} by its velocity.
+     * Entities that aren't moving aren't written.
+     *
+     * @param store The store
+     */
+    public static void move(ComponentStore store) {
+        int required = ComponentStore.ACTIVE | ComponentStore.MOVING;
+        int[] flags = store.flags;
+        float[] x = store.x;
+        float[] y = store.y;
+        float[] velX = store.velX;
+        float[] velY = store.velY;
+        for (int slot = 0; slot < store.count; slot++) {
+            if ((flags[slot] & required) == required) {
+                x[slot] += velX[slot];
+                y[slot] += velY[slot];
+            }
+        }
+    }
+
+    /**
+     * Finds the active entities with a flag whose bounds overlap a rectangle.
+     *
+     * @param store The store
+     * @param left The rectangle's left edge
+     * @param top The rectangle's top edge
+     * @param width The rectangle's width
+     * @param height The rectangle's height
+     * @param flag The flag to look for, such as {@link ComponentStore#SOLID}
+     * @param found Where to write the slots found
+     * @return The number of slots written; no more than fit in the array
+     */
+    public static int findOverlapping(ComponentStore store, float left, float top, int width, int height,
+                                      int flag, int[] found) {
+        int required = ComponentStore.ACTIVE | flag;
+        float right = left + width;
+        float bottom = top + height;
+        int count = 0;
+        for (int slot = 0; slot < store.count && count < found.length; slot++) {
+            if ((store.flags[slot] & required) != required) {
+                continue;
+            }
+            float x = store.x[slot];
+            float y = store.y[slot];
+            if (x < right && x + store.width[slot] > left && y < bottom && y + store.height[slot] > top) {
+                found[count++] = slot;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the active {@link ComponentStore#LOAD} entities, the ones that can press a
+     * trigger, in slot order.
+     *
+     * @param store The store
+     * @param found Where to write the slots found
+     * @return The number of slots written; no more than fit in the array
+     */
+    public static int collectLoads(ComponentStore store, int[] found) {
+        int load = ComponentStore.ACTIVE | ComponentStore.LOAD;
+        int count = 0;
+        for (int slot = 0; slot < store.count && count < found.length; slot++) {
+            if ((store.flags[slot] & load) == load) {
+                found[count++] = slot;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Works out which triggers have a load on them: a trigger is pressed while the center
+     * of an active {@link ComponentStore#LOAD} entity is inside its bounds. The loads are
+     * found once, so each trigger is only tested against them rather than every entity.
+     *
+     * @param store The store
+     * @param pressed Set for each slot, true for the pressed triggers; must be at least
+     *                {@link ComponentStore#size()} long
+     * @param loads Space for the slots of the loads; must be at least {@link ComponentStore#size()} long
+     */
+    public static void findPressedTriggers(ComponentStore store, boolean[] pressed, int[] loads) {
+        int loadCount = collectLoads(store, loads);
+        findPressedTriggers(store, pressed, loads, loadCount, 0, store.count);
+    }
+
+    /**
+     * Works out which triggers in a range of slots have one of the given loads on them;
+     * the loads can be anywhere in the store.
+     *
+     * @param store The store
+     * @param pressed Set for each slot in the range, true for the pressed triggers
+     * @param loads The slots of the loads, as {@link #collectLoads(ComponentStore, int[])} finds them
+     * @param loadCount The number of loads
+     * @param from The first slot
+     * @param to The slot after the last
+     */
+    static void findPressedTriggers(ComponentStore store, boolean[] pressed, int[] loads, int loadCount,
+                                    int from, int to) {
+        int[] flags = store.flags;
+        int trigger = ComponentStore.ACTIVE | ComponentStore.TRIGGER;
+        for (int slot = from; slot < to; slot++) {
+            pressed[slot] = false;
+            if ((flags[slot] & trigger) != trigger) {
+                continue;
+            }
+
+            // Same test as WeightedButton: the load's center within half a button of the button's
+            float halfWidth = store.width[slot] / 2;
+            float halfHeight = store.height[slot] / 2;
+            float centerX = store.x[slot] + halfWidth;
+            float centerY = store.y[slot] + halfHeight;
+            for (int i = 0; i < loadCount; i++) {
+                int other = loads[i];
+                float loadX = store.x[other] + store.width[other] / 2;
+                float loadY = store.y[other] + store.height[other] / 2;
+                if (Math.abs(centerX - loadX) < halfWidth && Math.abs(centerY - loadY) < halfHeight) {
+                    pressed[slot] = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the active entities in a render layer that the camera can see, in slot order.
+     *
+     * @param store The store
+     * @param camera The camera, or null to take every entity in the layer
+     * @param layer The layer, such as {@link ComponentStore#LAYER_ITEMS}
+     * @param found Where to write the slots found
+     * @return The number of slots written; no more than fit in the array
+     */
+    public static int collectVisible(ComponentStore store, Camera camera, byte layer, int[] found) {
+        int count = 0;
+        for (int slot = 0; slot < store.count && count < found.length; slot++) {
+            if ((store.flags[slot] & ComponentStore.ACTIVE) == 0 || store.layers[slot] != layer) {
+                continue;
+            }
+            if (camera == null || camera.isVisible(store.x[slot], store.y[slot], store.width[slot], store.height[slot])) {
+                found[count++] = slot;
+            }
+        }
+        return count;
+    }
+}
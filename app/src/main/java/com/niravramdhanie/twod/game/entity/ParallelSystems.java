@@ -0,0 +1,142 @@
+package com.niravramdhanie.twod.game.entity;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the {@link EntitySystems} trigger pass over a {@link ComponentStore} split into
+ * chunks of slots, one task per chunk on a {@link ForkJoinPool}.
+ * <p>
+ * The pass only writes its own slots of the caller's result array, which it doesn't
+ * read. So which thread runs which chunk, and when, doesn't matter; the results are
+ * bit for bit the ones {@link EntitySystems} gets on a single thread.
+ * Chunks are a fixed number of slots, and a store that fits in one, as every level does
+ * so far, runs on the calling thread without touching the pool.
+ * <p>
+ * The tasks are kept and reused from pass to pass, so a pass doesn't allocate. A pass
+ * has to finish before the next is started, which is how a tick runs them.
+ */
+public class ParallelSystems {
+    // Slots per task; a store no bigger than this isn't split
+    public static final int CHUNK_SIZE = 1024;
+
+    private final ForkJoinPool pool;
+    private final PassTask root = new PassTask();
+    private ChunkTask[] chunks = new ChunkTask[0];
+    private int chunkCount;
+
+    // What the pass being run works on
+    private ComponentStore store;
+    private boolean[] pressed;
+
+    // The slots of the loads, found once per trigger pass and shared by its chunks
+    private int[] loads = new int[64];
+    private int loadCount;
+
+    /**
+     * Creates systems that run on the common pool.
+     */
+    public ParallelSystems() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates systems that run on a pool.
+     *
+     * @param pool The pool
+     */
+    public ParallelSystems(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Works out which triggers have a load on them, as
+     * {@link EntitySystems#findPressedTriggers(ComponentStore, boolean[], int[])} does. The
+     * loads are found on the calling thread before the triggers are split into chunks.
+     *
+     * @param store The store
+     * @param pressed Set for each slot, true for the pressed triggers; must be at least
+     *                {@link ComponentStore#size()} long
+     */
+    public void findPressedTriggers(ComponentStore store, boolean[] pressed) {
+        if (loads.length < store.count) {
+            loads = new int[Math.max(store.count, loads.length * 2)];
+        }
+        loadCount = EntitySystems.collectLoads(store, loads);
+        run(store, pressed);
+    }
+
+    /**
+     * Runs the pass over every slot of a store, split into chunks if there's more than one.
+     */
+    private void run(ComponentStore store, boolean[] pressed) {
+        this.store = store;
+        this.pressed = pressed;
+        try {
+            if (store.count <= CHUNK_SIZE) {
+                runChunk(0, store.count);
+                return;
+            }
+
+            chunkCount = (store.count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            if (chunks.length < chunkCount) {
+                ChunkTask[] grown = new ChunkTask[chunkCount];
+                System.arraycopy(chunks, 0, grown, 0, chunks.length);
+                for (int i = chunks.length; i < chunkCount; i++) {
+                    grown[i] = new ChunkTask();
+                }
+                chunks = grown;
+            }
+            for (int i = 0; i < chunkCount; i++) {
+                chunks[i].reinitialize();
+                chunks[i].from = i * CHUNK_SIZE;
+                chunks[i].to = Math.min(store.count, (i + 1) * CHUNK_SIZE);
+            }
+            root.reinitialize();
+            pool.invoke(root);
+        } finally {
+            this.store = null;
+            this.pressed = null;
+        }
+    }
+
+    /**
+     * Runs the pass over a range of slots.
+     */
+    private void runChunk(int from, int to) {
+        EntitySystems.findPressedTriggers(store, pressed, loads, loadCount, from, to);
+    }
+
+    /**
+     * Starts a task for every chunk but the first, runs the first itself, then waits for the rest.
+     */
+    private class PassTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            for (int i = 1; i < chunkCount; i++) {
+                chunks[i].fork();
+            }
+            chunks[0].invoke();
+            for (int i = 1; i < chunkCount; i++) {
+                chunks[i].join();
+            }
+        }
+    }
+
+    /**
+     * Runs the pass over one chunk of slots.
+     */
+    private class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private int from;
+        private int to;
+
+        @Override
+        protected void compute() {
+            runChunk(from, to);
+        }
+    }
+}
@@ -5,7 +5,6 @@ import java.awt.Graphics2D;
 import java.util.List;
 
 import com.niravramdhanie.twod.game.actions.Action;
-import com.niravramdhanie.twod.game.actions.DoorAction;
 
 /**
  * A button that can only be activated by boxes being placed on top of it.
@@ -20,6 +19,15 @@ public class WeightedButton extends Button {
         // Override the default button colors with weighted button colors
         setColor(WEIGHTED_BUTTON_COLOR);
         setActiveColor(WEIGHTED_BUTTON_ACTIVE_COLOR);
+        setFlag(ComponentStore.TRIGGER, true);
+    }
+    
+    @Override
+    public void reset() {
+        super.reset();
+        setColor(WEIGHTED_BUTTON_COLOR);
+        setActiveColor(WEIGHTED_BUTTON_ACTIVE_COLOR);
+        setFlag(ComponentStore.TRIGGER, true);
     }
     
     /**
@@ -37,7 +45,6 @@ public class WeightedButton extends Button {
      * @param boxes List of boxes to check for collision
      */
     public void update(List<Box> boxes) {
-        boolean wasActivated = isActivated();
         boolean isBoxOnTop = false;
         
         // Check if any box is on top of the button
@@ -48,23 +55,32 @@ public class WeightedButton extends Button {
             }
         }
         
+        setPressed(isBoxOnTop);
+    }
+    
+    /**
+     * Presses or releases the button, as worked out for every weighted button at once by
+     * {@link EntitySystems#findPressedTriggers(ComponentStore, boolean[], int[])}.
+     * @param isBoxOnTop True if a box is on top of the button
+     */
+    public void setPressed(boolean isBoxOnTop) {
+        boolean wasActivated = isActivated();
+        
         // Update activation state
         if (isBoxOnTop && !wasActivated) {
             // Use the parent class's activate method directly to bypass our override
             super.activate();
             
-            // If this is a door action, set the door to open
-            Action action = getAction();
-            if (action instanceof DoorAction) {
-                ((DoorAction) action).setDoorOpen(true);
+            // Doors controlled by this button stay open while it's held down
+            if (getProgram() != null) {
+                getProgram().setDoorsOpen(true);
             }
         } else if (!isBoxOnTop && wasActivated) {
             deactivate();
             
-            // If this is a door action, set the door to closed
-            Action action = getAction();
-            if (action instanceof DoorAction) {
-                ((DoorAction) action).setDoorOpen(false);
+            // And close when it's released
+            if (getProgram() != null) {
+                getProgram().setDoorsOpen(false);
             }
         }
     }
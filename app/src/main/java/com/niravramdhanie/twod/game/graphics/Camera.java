@@ -0,0 +1,212 @@
+package com.niravramdhanie.twod.game.graphics;
+
+import java.awt.Graphics2D;
+
+import com.niravramdhanie.twod.game.entity.Entity;
+
+/**
+ * A view onto the world that follows a target around levels bigger than the screen.
+ * The camera only scrolls once the target leaves a dead zone in the middle of the view,
+ * and never shows anything past the edges of the world; a world smaller than the view
+ * stays in its top-left corner, the way levels were drawn before they could scroll.
+ * <p>
+ * World space is what entities are positioned in; screen space is pixels on the window.
+ * Draw world objects between {@link #begin(Graphics2D)} and {@link #end(Graphics2D)},
+ * and skip the ones {@link #isVisible(float, float, int, int)} rejects.
+ */
+public class Camera {
+    // Default size of the dead zone, as a fraction of the view
+    private static final float DEFAULT_DEAD_ZONE = 0.3f;
+    
+    private float x;
+    private float y;
+    private int viewWidth;
+    private int viewHeight;
+    private int worldWidth;
+    private int worldHeight;
+    private float deadZoneWidth;
+    private float deadZoneHeight;
+    
+    /**
+     * Creates a camera at the origin with a world the same size as the view.
+     * 
+     * @param viewWidth The width of the view in pixels
+     * @param viewHeight The height of the view in pixels
+     */
+    public Camera(int viewWidth, int viewHeight) {
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.worldWidth = viewWidth;
+        this.worldHeight = viewHeight;
+        this.deadZoneWidth = viewWidth * DEFAULT_DEAD_ZONE;
+        this.deadZoneHeight = viewHeight * DEFAULT_DEAD_ZONE;
+    }
+    
+    /**
+     * Sets the size of the world the camera is kept inside.
+     * 
+     * @param worldWidth The width of the world in pixels
+     * @param worldHeight The height of the world in pixels
+     */
+    public void setWorldSize(int worldWidth, int worldHeight) {
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+        clamp();
+    }
+    
+    /**
+     * Sets the size of the dead zone the target can move in without the camera scrolling.
+     * 
+     * @param width The width in pixels
+     * @param height The height in pixels
+     */
+    public void setDeadZone(float width, float height) {
+        this.deadZoneWidth = Math.min(width, viewWidth);
+        this.deadZoneHeight = Math.min(height, viewHeight);
+    }
+    
+    /**
+     * Scrolls just far enough to bring the target's center back inside the dead zone.
+     * 
+     * @param target The entity to follow
+     */
+    public void follow(Entity target) {
+        float targetX = target.getX() + target.getWidth() / 2f;
+        float targetY = target.getY() + target.getHeight() / 2f;
+        
+        float left = x + (viewWidth - deadZoneWidth) / 2f;
+        float top = y + (viewHeight - deadZoneHeight) / 2f;
+        if (targetX < left) {
+            x -= left - targetX;
+        } else if (targetX > left + deadZoneWidth) {
+            x += targetX - (left + deadZoneWidth);
+        }
+        if (targetY < top) {
+            y -= top - targetY;
+        } else if (targetY > top + deadZoneHeight) {
+            y += targetY - (top + deadZoneHeight);
+        }
+        
+        clamp();
+    }
+    
+    /**
+     * Jumps straight to the target, for when a level starts.
+     * 
+     * @param target The entity to center on
+     */
+    public void centerOn(Entity target) {
+        x = target.getX() + target.getWidth() / 2f - viewWidth / 2f;
+        y = target.getY() + target.getHeight() / 2f - viewHeight / 2f;
+        clamp();
+    }
+    
+    /**
+     * Moves the graphics origin so world coordinates draw in the right place on screen.
+     * 
+     * @param g The Graphics2D object being rendered to
+     */
+    public void begin(Graphics2D g) {
+        g.translate(-getX(), -getY());
+    }
+    
+    /**
+     * Undoes {@link #begin(Graphics2D)}, so screen-space overlays can be drawn.
+     * 
+     * @param g The Graphics2D object being rendered to
+     */
+    public void end(Graphics2D g) {
+        g.translate(getX(), getY());
+    }
+    
+    /**
+     * Checks if a rectangle in world space can be seen.
+     * 
+     * @param worldX The X position of the rectangle
+     * @param worldY The Y position of the rectangle
+     * @param width The width of the rectangle
+     * @param height The height of the rectangle
+     * @return True if any of the rectangle is in view, false otherwise
+     */
+    public boolean isVisible(float worldX, float worldY, int width, int height) {
+        int left = getX();
+        int top = getY();
+        return worldX + width > left && worldX < left + viewWidth &&
+               worldY + height > top && worldY < top + viewHeight;
+    }
+    
+    /**
+     * Converts a world X position to screen space.
+     * 
+     * @param worldX The X position in the world
+     * @return The X position on screen
+     */
+    public int worldToScreenX(float worldX) {
+        return Math.round(worldX) - getX();
+    }
+    
+    /**
+     * Converts a world Y position to screen space.
+     * 
+     * @param worldY The Y position in the world
+     * @return The Y position on screen
+     */
+    public int worldToScreenY(float worldY) {
+        return Math.round(worldY) - getY();
+    }
+    
+    /**
+     * Converts a screen X position to world space.
+     * 
+     * @param screenX The X position on screen
+     * @return The X position in the world
+     */
+    public int screenToWorldX(int screenX) {
+        return screenX + getX();
+    }
+    
+    /**
+     * Converts a screen Y position to world space.
+     * 
+     * @param screenY The Y position on screen
+     * @return The Y position in the world
+     */
+    public int screenToWorldY(int screenY) {
+        return screenY + getY();
+    }
+    
+    /**
+     * Gets the left edge of the view in the world. Rounded to a whole pixel,
+     * so tiles don't shimmer as the camera scrolls.
+     * 
+     * @return The X position in pixels
+     */
+    public int getX() {
+        return Math.round(x);
+    }
+    
+    /**
+     * Gets the top edge of the view in the world, rounded to a whole pixel.
+     * 
+     * @return The Y position in pixels
+     */
+    public int getY() {
+        return Math.round(y);
+    }
+    
+    public int getViewWidth() {
+        return viewWidth;
+    }
+    
+    public int getViewHeight() {
+        return viewHeight;
+    }
+    
+    /**
+     * Keeps the view inside the world.
+     */
+    private void clamp() {
+        x = Math.max(0, Math.min(worldWidth - viewWidth, x));
+        y = Math.max(0, Math.min(worldHeight - viewHeight, y));
+    }
+}
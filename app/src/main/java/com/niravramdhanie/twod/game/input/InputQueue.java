@@ -0,0 +1,153 @@
+package com.niravramdhanie.twod.game.input;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Carries key and mouse events from the Swing event thread to the game thread.
+ * The key and mouse handlers add each event as it happens, stamped with when it
+ * happened, and the game thread drains everything waiting at the start of a tick,
+ * so the game only ever sees input between ticks and always on its own thread.
+ * <p>
+ * The queue is a ring of primitive arrays for one producer and one consumer. The
+ * producer publishes an event by moving the tail past it, and the consumer frees slots
+ * by moving the head; each side only writes its own index, so neither has to lock.
+ * If the game falls so far behind that the ring is full, new events are dropped and
+ * counted rather than blocking the event thread.
+ */
+public class InputQueue {
+    // Event types
+    public static final int KEY_PRESSED = 0;
+    public static final int KEY_RELEASED = 1;
+    public static final int MOUSE_PRESSED = 2;
+    public static final int MOUSE_RELEASED = 3;
+    public static final int MOUSE_MOVED = 4;
+    public static final int MOUSE_DRAGGED = 5;
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final int[] types;
+    private final int[] codes;
+    private final int[] xs;
+    private final int[] ys;
+    private final long[] times;
+    private final int mask;
+
+    // The next event to drain, written only by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // Where the next event goes, written only by the producer
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile long droppedCount;
+
+    /**
+     * Listener told about each event as the queue is drained.
+     */
+    public interface Listener {
+        /**
+         * Called for each event, in the order they happened.
+         *
+         * @param type The event type
+         * @param code The key code, for key events
+         * @param x The mouse X position, for mouse events
+         * @param y The mouse Y position, for mouse events
+         * @param time When the event happened, from {@link System#nanoTime()}
+         */
+        void onInput(int type, int code, int x, int y, long time);
+    }
+
+    /**
+     * Creates a queue that holds up to 1024 events between drains.
+     */
+    public InputQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a queue.
+     *
+     * @param capacity The most events held between drains, rounded up to a power of two
+     */
+    public InputQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        types = new int[size];
+        codes = new int[size];
+        xs = new int[size];
+        ys = new int[size];
+        times = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Adds a key event. Only the event thread may add events.
+     *
+     * @param type {@link #KEY_PRESSED} or {@link #KEY_RELEASED}
+     * @param keyCode The key code
+     * @return True if the event was added, false if the queue was full
+     */
+    public boolean addKey(int type, int keyCode) {
+        return add(type, keyCode, 0, 0);
+    }
+
+    /**
+     * Adds a mouse event. Only the event thread may add events.
+     *
+     * @param type One of the mouse event types
+     * @param x The mouse X position
+     * @param y The mouse Y position
+     * @return True if the event was added, false if the queue was full
+     */
+    public boolean addMouse(int type, int x, int y) {
+        return add(type, 0, x, y);
+    }
+
+    private boolean add(int type, int code, int x, int y) {
+        long index = tail.get();
+        if (index - head.get() > mask) {
+            droppedCount++;
+            return false;
+        }
+        int slot = (int) index & mask;
+        types[slot] = type;
+        codes[slot] = code;
+        xs[slot] = x;
+        ys[slot] = y;
+        times[slot] = System.nanoTime();
+
+        // Publish the event; the consumer reads the tail before it reads the slot
+        tail.lazySet(index + 1);
+        return true;
+    }
+
+    /**
+     * Hands every waiting event to a listener, oldest first. Only the game thread may drain.
+     * Events added while draining wait for the next drain.
+     *
+     * @param listener The listener
+     * @return The number of events drained
+     */
+    public int drain(Listener listener) {
+        long index = head.get();
+        long end = tail.get();
+        if (index == end) {
+            return 0;
+        }
+
+        for (long i = index; i < end; i++) {
+            int slot = (int) i & mask;
+            listener.onInput(types[slot], codes[slot], xs[slot], ys[slot], times[slot]);
+        }
+
+        // Give the slots back to the producer
+        head.lazySet(end);
+        return (int) (end - index);
+    }
+
+    /**
+     * Gets the number of events dropped because the queue was full.
+     *
+     * @return The dropped event count
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+}
@@ -5,12 +5,14 @@ import java.awt.event.KeyListener;
 
 import com.niravramdhanie.twod.game.core.GameStateManager;
 
+/**
+ * Puts key events on the game state manager's input queue. Runs on the Swing event
+ * thread, so it only adds events; the game thread handles them at the start of a tick.
+ */
 public class KeyHandler implements KeyListener {
-    private boolean[] keys;
     private GameStateManager gsm;
     
     public KeyHandler() {
-        keys = new boolean[256];
     }
     
     public void setGameStateManager(GameStateManager gsm) {
@@ -18,24 +20,20 @@ public class KeyHandler implements KeyListener {
     }
     
     public void update() {
-        // This could be used to track key states
+        // Key states are tracked by the game state manager as it drains the input queue
     }
     
     @Override
     public void keyPressed(KeyEvent e) {
-        keys[e.getKeyCode()] = true;
-        
         if (gsm != null) {
-            gsm.keyPressed(e.getKeyCode());
+            gsm.getInputQueue().addKey(InputQueue.KEY_PRESSED, e.getKeyCode());
         }
     }
     
     @Override
     public void keyReleased(KeyEvent e) {
-        keys[e.getKeyCode()] = false;
-        
         if (gsm != null) {
-            gsm.keyReleased(e.getKeyCode());
+            gsm.getInputQueue().addKey(InputQueue.KEY_RELEASED, e.getKeyCode());
         }
     }
     
@@ -43,8 +41,4 @@ public class KeyHandler implements KeyListener {
     public void keyTyped(KeyEvent e) {
         // Not used
     }
-    
-    public boolean isKeyDown(int keyCode) {
-        return keys[keyCode];
-    }
-}
\ No newline at end of file
+}
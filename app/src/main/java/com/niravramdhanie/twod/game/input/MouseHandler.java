@@ -6,16 +6,14 @@ import java.awt.event.MouseMotionListener;
 
 import com.niravramdhanie.twod.game.core.GameStateManager;
 
+/**
+ * Puts mouse events on the game state manager's input queue. Runs on the Swing event
+ * thread, so it only adds events; the game thread handles them at the start of a tick.
+ */
 public class MouseHandler implements MouseListener, MouseMotionListener {
-    private int mouseX;
-    private int mouseY;
-    private boolean clicked;
     private GameStateManager gsm;
     
     public MouseHandler() {
-        mouseX = 0;
-        mouseY = 0;
-        clicked = false;
     }
     
     public void setGameStateManager(GameStateManager gsm) {
@@ -24,51 +22,22 @@ public class MouseHandler implements MouseListener, MouseMotionListener {
     
     @Override
     public void mousePressed(MouseEvent e) {
-        int x = e.getX();
-        int y = e.getY();
-        
-        clicked = true;
-        
-        if (gsm != null) {
-            gsm.mousePressed(x, y);
-            
-            gsm.requestRedraw();
-        }
+        add(InputQueue.MOUSE_PRESSED, e);
     }
     
     @Override
     public void mouseReleased(MouseEvent e) {
-        int x = e.getX();
-        int y = e.getY();
-        
-        clicked = false;
-        
-        if (gsm != null) {
-            gsm.mouseReleased(x, y);
-            
-            gsm.requestRedraw();
-        }
+        add(InputQueue.MOUSE_RELEASED, e);
     }
     
     @Override
     public void mouseMoved(MouseEvent e) {
-        int x = e.getX();
-        int y = e.getY();
-        
-        mouseX = x;
-        mouseY = y;
-        
-        if (gsm != null) {
-            gsm.mouseMoved(x, y);
-            
-            gsm.requestRedraw();
-        }
+        add(InputQueue.MOUSE_MOVED, e);
     }
     
     @Override
     public void mouseDragged(MouseEvent e) {
-        mouseX = e.getX();
-        mouseY = e.getY();
+        add(InputQueue.MOUSE_DRAGGED, e);
     }
     
     @Override
@@ -86,16 +55,9 @@ public class MouseHandler implements MouseListener, MouseMotionListener {
         // Not used
     }
     
-    // Getters
-    public int getMouseX() {
-        return mouseX;
-    }
-    
-    public int getMouseY() {
-        return mouseY;
-    }
-    
-    public boolean isClicked() {
-        return clicked;
+    private void add(int type, MouseEvent e) {
+        if (gsm != null) {
+            gsm.getInputQueue().addMouse(type, e.getX(), e.getY());
+        }
     }
-}
\ No newline at end of file
+}
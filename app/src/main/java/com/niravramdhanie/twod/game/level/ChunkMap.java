@@ -0,0 +1,488 @@
+package com.niravramdhanie.twod.game.level;
+
+import java.awt.Graphics2D;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.niravramdhanie.twod.game.entity.Block;
+import com.niravramdhanie.twod.game.entity.ComponentStore;
+import com.niravramdhanie.twod.game.entity.Entity;
+import com.niravramdhanie.twod.game.graphics.Camera;
+import com.niravramdhanie.twod.game.utils.GridSystem;
+
+/**
+ * Splits a level into square chunks of {@link LevelData#CHUNK_SIZE} cells and keeps
+ * only the chunks around the player in memory.
+ * <p>
+ * A chunk's walls are read from the level file on a background thread once the player
+ * is within {@link #PRELOAD_RADIUS} chunks of it, and join the collision world while
+ * the player is within {@link #ACTIVE_RADIUS}. A chunk the player needs that hasn't
+ * arrived yet is read on the spot, so the player can never walk into missing walls.
+ * Chunks further than {@link #UNLOAD_RADIUS} away are dropped.
+ * Doors and buttons are kept with the chunk they stand in and only updated and drawn
+ * while it's active; they stay in memory, since puzzle logic and rewind refer to them.
+ * <p>
+ * Walls are also kept by cell, so drawing only looks at the cells in view, and the
+ * walls of every loaded chunk are given to the level's grid, so navigation knows the
+ * walls around the player without the whole level's walls being read.
+ * <p>
+ * Chunks only change when the player crosses into another chunk or a background read
+ * finishes, so on other ticks {@link #update(float, float)} does nothing.
+ * Everything except reading and building walls runs on the game thread.
+ */
+public class ChunkMap {
+    /**
+     * Interface for objects that follow which walls are active.
+     */
+    public interface Listener {
+        /**
+         * Called when a chunk becomes active.
+         *
+         * @param walls The chunk's walls
+         */
+        void onChunkActivated(List<Block> walls);
+
+        /**
+         * Called when a chunk stops being active.
+         *
+         * @param walls The chunk's walls
+         */
+        void onChunkDeactivated(List<Block> walls);
+    }
+
+    // Chunks this close to the player are active; they must be loaded
+    public static final int ACTIVE_RADIUS = 1;
+
+    // Chunks this close to the player are read in the background
+    public static final int PRELOAD_RADIUS = 2;
+
+    // Chunks further than this are dropped; a chunk past the preload radius is kept
+    // a little longer so walking back and forth over a chunk border doesn't reread it
+    public static final int UNLOAD_RADIUS = PRELOAD_RADIUS + 1;
+
+    // Reads chunks for every chunk map, one at a time
+    private static ExecutorService loader;
+
+    /**
+     * A loaded chunk.
+     */
+    private static final class Chunk {
+        final int x;
+        final int y;
+        final long[] words;
+        final List<Block> walls;
+        final Block[] cells;
+        boolean active;
+
+        Chunk(int x, int y, long[] words, List<Block> walls, Block[] cells) {
+            this.x = x;
+            this.y = y;
+            this.words = words;
+            this.walls = walls;
+            this.cells = cells;
+        }
+    }
+
+    private final LevelData data;
+    private final GridSystem grid;
+    private final int cellSize;
+    private final int columns;
+    private final int rows;
+    private final Listener listener;
+
+    // Loaded chunks by index, and the chunks waiting on the background thread
+    private final Chunk[] chunks;
+    private final boolean[] requested;
+    private final List<Chunk> loaded = new ArrayList<>();
+    private final List<Chunk> active = new ArrayList<>();
+    private final ConcurrentLinkedQueue<Chunk> completed = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    // Doors and buttons by the chunk they stand in
+    private final List<List<Entity>> entities;
+
+    private int playerChunkX = -1;
+    private int playerChunkY = -1;
+
+    /**
+     * Creates a chunk map with no chunks loaded.
+     *
+     * @param data The level
+     * @param grid The level's grid, already sized to the level, which is given the walls of loaded chunks
+     * @param listener The listener told about active walls, or null
+     */
+    public ChunkMap(LevelData data, GridSystem grid, Listener listener) {
+        this.data = data;
+        this.grid = grid;
+        this.cellSize = grid.getCellSize();
+        this.columns = data.getChunkColumns();
+        this.rows = data.getChunkRows();
+        this.listener = listener;
+        this.chunks = new Chunk[columns * rows];
+        this.requested = new boolean[columns * rows];
+        this.entities = new ArrayList<>(columns * rows);
+        for (int i = 0; i < columns * rows; i++) {
+            entities.add(null);
+        }
+        grid.setChunks(LevelData.CHUNK_BITS, columns, rows);
+    }
+
+    /**
+     * Adds a stationary entity to the chunk that holds a cell.
+     *
+     * @param entity The entity
+     * @param gridX The X position on the grid
+     * @param gridY The Y position on the grid
+     */
+    public void addEntity(Entity entity, int gridX, int gridY) {
+        int index = index(clampColumn(gridX >> LevelData.CHUNK_BITS), clampRow(gridY >> LevelData.CHUNK_BITS));
+        List<Entity> chunkEntities = entities.get(index);
+        if (chunkEntities == null) {
+            chunkEntities = new ArrayList<>();
+            entities.set(index, chunkEntities);
+        }
+        chunkEntities.add(entity);
+    }
+
+    /**
+     * Loads and activates the chunks around the player, dropping the ones it has left behind.
+     *
+     * @param playerX The player's X position in pixels
+     * @param playerY The player's Y position in pixels
+     */
+    public void update(float playerX, float playerY) {
+        int chunkPixels = cellSize << LevelData.CHUNK_BITS;
+        int chunkX = clampColumn((int) Math.floor(playerX / chunkPixels));
+        int chunkY = clampRow((int) Math.floor(playerY / chunkPixels));
+        boolean moved = chunkX != playerChunkX || chunkY != playerChunkY;
+        if (!moved && completed.isEmpty()) {
+            return;
+        }
+        playerChunkX = chunkX;
+        playerChunkY = chunkY;
+
+        // Take in the chunks the background thread has read
+        Chunk chunk;
+        while ((chunk = completed.poll()) != null) {
+            int index = index(chunk.x, chunk.y);
+            requested[index] = false;
+            if (chunks[index] == null && distance(chunk.x, chunk.y) <= UNLOAD_RADIUS) {
+                install(chunk);
+            }
+        }
+
+        if (moved) {
+            unloadDistantChunks();
+            requestNearbyChunks();
+        }
+        updateActiveChunks();
+    }
+
+    /**
+     * Reads the chunks that will be active when the player starts at a position, without
+     * activating them, so the first {@link #update(float, float)} only has to activate them.
+     * Meant for a map that's being set up off the game thread and isn't in use yet.
+     *
+     * @param playerX The player's X position in pixels
+     * @param playerY The player's Y position in pixels
+     */
+    public void preload(float playerX, float playerY) {
+        int chunkPixels = cellSize << LevelData.CHUNK_BITS;
+        int chunkX = clampColumn((int) Math.floor(playerX / chunkPixels));
+        int chunkY = clampRow((int) Math.floor(playerY / chunkPixels));
+        for (int y = Math.max(0, chunkY - ACTIVE_RADIUS); y <= Math.min(rows - 1, chunkY + ACTIVE_RADIUS); y++) {
+            for (int x = Math.max(0, chunkX - ACTIVE_RADIUS); x <= Math.min(columns - 1, chunkX + ACTIVE_RADIUS); x++) {
+                int index = index(x, y);
+                if (chunks[index] == null) {
+                    install(loadChunk(x, y));
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the doors and buttons in the active chunks.
+     */
+    public void updateEntities() {
+        for (int i = 0; i < active.size(); i++) {
+            Chunk chunk = active.get(i);
+            List<Entity> chunkEntities = entities.get(index(chunk.x, chunk.y));
+            if (chunkEntities != null) {
+                for (int j = 0; j < chunkEntities.size(); j++) {
+                    chunkEntities.get(j).update();
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders the walls, then the doors and buttons, of the active chunks that are in view.
+     * Walls are looked up by the cells the camera covers rather than tested one by one.
+     *
+     * @param g The Graphics2D object to render to
+     * @param camera The camera, or null to draw everything that's active
+     */
+    public void render(Graphics2D g, Camera camera) {
+        int minX = 0;
+        int minY = 0;
+        int maxX = (columns << LevelData.CHUNK_BITS) - 1;
+        int maxY = (rows << LevelData.CHUNK_BITS) - 1;
+        if (camera != null) {
+            minX = Math.max(minX, Math.floorDiv(camera.getX(), cellSize));
+            minY = Math.max(minY, Math.floorDiv(camera.getY(), cellSize));
+            maxX = Math.min(maxX, Math.floorDiv(camera.getX() + camera.getViewWidth() - 1, cellSize));
+            maxY = Math.min(maxY, Math.floorDiv(camera.getY() + camera.getViewHeight() - 1, cellSize));
+        }
+
+        for (int i = 0; i < active.size(); i++) {
+            Chunk chunk = active.get(i);
+            int baseX = chunk.x << LevelData.CHUNK_BITS;
+            int baseY = chunk.y << LevelData.CHUNK_BITS;
+            int fromX = Math.max(minX, baseX) - baseX;
+            int fromY = Math.max(minY, baseY) - baseY;
+            int toX = Math.min(maxX, baseX + LevelData.CHUNK_SIZE - 1) - baseX;
+            int toY = Math.min(maxY, baseY + LevelData.CHUNK_SIZE - 1) - baseY;
+            for (int y = fromY; y <= toY; y++) {
+                int row = y << LevelData.CHUNK_BITS;
+                for (int x = fromX; x <= toX; x++) {
+                    Block wall = chunk.cells[row + x];
+                    if (wall != null) {
+                        wall.render(g);
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < active.size(); i++) {
+            Chunk chunk = active.get(i);
+            List<Entity> chunkEntities = entities.get(index(chunk.x, chunk.y));
+            if (chunkEntities == null) {
+                continue;
+            }
+            for (int j = 0; j < chunkEntities.size(); j++) {
+                Entity entity = chunkEntities.get(j);
+                if (camera == null || camera.isVisible(entity.getX(), entity.getY(), entity.getWidth(), entity.getHeight())) {
+                    entity.render(g);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the walls of the active chunks to a list.
+     *
+     * @param walls The list to add to
+     */
+    public void collectActiveWalls(List<Block> walls) {
+        for (Chunk chunk : active) {
+            walls.addAll(chunk.walls);
+        }
+    }
+
+    /**
+     * Gets the number of chunks in memory.
+     *
+     * @return The loaded chunk count
+     */
+    public int getLoadedChunkCount() {
+        return loaded.size();
+    }
+
+    /**
+     * Gets the number of chunks the player collides with.
+     *
+     * @return The active chunk count
+     */
+    public int getActiveChunkCount() {
+        return active.size();
+    }
+
+    /**
+     * Stops reading chunks for this map and drops the ones it has, when its level is
+     * replaced. The listener is told the active walls are gone, so it must be called
+     * on the thread the listener is used on.
+     */
+    public void close() {
+        closed = true;
+        completed.clear();
+        for (int i = active.size() - 1; i >= 0; i--) {
+            deactivate(active.get(i));
+        }
+        for (int i = loaded.size() - 1; i >= 0; i--) {
+            Chunk chunk = loaded.get(i);
+            chunks[index(chunk.x, chunk.y)] = null;
+            grid.setChunkWalls(chunk.x, chunk.y, null);
+        }
+        loaded.clear();
+    }
+
+    /**
+     * Drops chunks the player has moved well away from.
+     */
+    private void unloadDistantChunks() {
+        for (int i = loaded.size() - 1; i >= 0; i--) {
+            Chunk chunk = loaded.get(i);
+            if (distance(chunk.x, chunk.y) > UNLOAD_RADIUS) {
+                if (chunk.active) {
+                    deactivate(chunk);
+                }
+                chunks[index(chunk.x, chunk.y)] = null;
+                grid.setChunkWalls(chunk.x, chunk.y, null);
+                loaded.set(i, loaded.get(loaded.size() - 1));
+                loaded.remove(loaded.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Reads the chunks around the player: in the background for the ones it's heading
+     * towards, and right away for the ones it's about to collide with.
+     */
+    private void requestNearbyChunks() {
+        for (int y = playerChunkY - PRELOAD_RADIUS; y <= playerChunkY + PRELOAD_RADIUS; y++) {
+            for (int x = playerChunkX - PRELOAD_RADIUS; x <= playerChunkX + PRELOAD_RADIUS; x++) {
+                if (x < 0 || y < 0 || x >= columns || y >= rows) {
+                    continue;
+                }
+                int index = index(x, y);
+                if (chunks[index] != null) {
+                    continue;
+                }
+
+                if (distance(x, y) <= ACTIVE_RADIUS) {
+                    install(loadChunk(x, y));
+                } else if (!requested[index]) {
+                    requested[index] = true;
+                    requestChunk(x, y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Activates the loaded chunks near the player and deactivates the rest.
+     */
+    private void updateActiveChunks() {
+        for (int i = active.size() - 1; i >= 0; i--) {
+            Chunk chunk = active.get(i);
+            if (distance(chunk.x, chunk.y) > ACTIVE_RADIUS) {
+                deactivate(chunk);
+            }
+        }
+
+        for (int y = playerChunkY - ACTIVE_RADIUS; y <= playerChunkY + ACTIVE_RADIUS; y++) {
+            for (int x = playerChunkX - ACTIVE_RADIUS; x <= playerChunkX + ACTIVE_RADIUS; x++) {
+                if (x < 0 || y < 0 || x >= columns || y >= rows) {
+                    continue;
+                }
+                Chunk chunk = chunks[index(x, y)];
+                if (chunk != null && !chunk.active) {
+                    chunk.active = true;
+                    active.add(chunk);
+                    if (listener != null) {
+                        listener.onChunkActivated(chunk.walls);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps a chunk that has been read and gives its walls to the grid.
+     */
+    private void install(Chunk chunk) {
+        chunks[index(chunk.x, chunk.y)] = chunk;
+        loaded.add(chunk);
+        grid.setChunkWalls(chunk.x, chunk.y, chunk.words);
+    }
+
+    private void deactivate(Chunk chunk) {
+        chunk.active = false;
+        active.remove(chunk);
+        if (listener != null) {
+            listener.onChunkDeactivated(chunk.walls);
+        }
+    }
+
+    /**
+     * Queues a chunk to be read on the background thread.
+     */
+    private void requestChunk(int x, int y) {
+        synchronized (ChunkMap.class) {
+            if (loader == null) {
+                loader = Executors.newSingleThreadExecutor(task -> {
+                    Thread thread = new Thread(task, "Chunk loader");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+
+        loader.execute(() -> {
+            if (!closed) {
+                completed.add(loadChunk(x, y));
+            }
+        });
+    }
+
+    /**
+     * Reads a chunk's walls and builds a block for each. Safe to call from any thread.
+     */
+    private Chunk loadChunk(int chunkX, int chunkY) {
+        long[] words = new long[LevelData.CHUNK_WORDS];
+        try {
+            data.readChunk(chunkX, chunkY, words);
+        } catch (IOException e) {
+            System.err.println("Error loading chunk " + chunkX + "," + chunkY + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        // The chunk's walls keep their components side by side in one store
+        int wallCount = 0;
+        for (long word : words) {
+            wallCount += Long.bitCount(word);
+        }
+        ComponentStore components = new ComponentStore(wallCount);
+
+        List<Block> walls = new ArrayList<>(wallCount);
+        Block[] cells = new Block[LevelData.CHUNK_SIZE * LevelData.CHUNK_SIZE];
+        int baseX = chunkX << LevelData.CHUNK_BITS;
+        int baseY = chunkY << LevelData.CHUNK_BITS;
+        for (int word = 0; word < words.length; word++) {
+            long bits = words[word];
+            while (bits != 0) {
+                int bit = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                int gridX = baseX + (bit & (LevelData.CHUNK_SIZE - 1));
+                int gridY = baseY + (bit >> LevelData.CHUNK_BITS);
+                Block wall = new Block(components, gridX * cellSize, gridY * cellSize, cellSize, cellSize);
+                walls.add(wall);
+                cells[bit] = wall;
+            }
+        }
+        return new Chunk(chunkX, chunkY, words, walls, cells);
+    }
+
+    /**
+     * Gets how many chunks away from the player's chunk a chunk is, diagonals counting as one.
+     */
+    private int distance(int x, int y) {
+        return Math.max(Math.abs(x - playerChunkX), Math.abs(y - playerChunkY));
+    }
+
+    private int index(int x, int y) {
+        return y * columns + x;
+    }
+
+    private int clampColumn(int x) {
+        return Math.max(0, Math.min(columns - 1, x));
+    }
+
+    private int clampRow(int y) {
+        return Math.max(0, Math.min(rows - 1, y));
+    }
+}
@@ -0,0 +1,252 @@
+package com.niravramdhanie.twod.game.level;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.niravramdhanie.twod.game.entity.Block;
+import com.niravramdhanie.twod.game.entity.Box;
+import com.niravramdhanie.twod.game.entity.Door;
+import com.niravramdhanie.twod.game.entity.Entity;
+import com.niravramdhanie.twod.game.entity.EntityRegistry;
+import com.niravramdhanie.twod.game.utils.EventBus;
+import com.niravramdhanie.twod.game.utils.GridSystem;
+
+/**
+ * Keeps the lists of what the player collides with: the static colliders, which are
+ * the level's blocks, its closed doors and the walls of its active chunks, and the
+ * dynamic ones, which are the boxes nobody is carrying. Boxes are kept apart because
+ * they move: they're carried, dropped and put back by rewinds, while nothing else in
+ * the static list ever leaves its cell.
+ * The lists are built once when a level is loaded and then patched from door and box
+ * events, so a tick where nothing opens, closes, is picked up or is dropped does no
+ * work on them at all.
+ * Walls aren't entities; they join and leave the set as the level's chunk map
+ * activates and deactivates the chunks around the player, and are found by their cell.
+ * Entries are removed by swapping the last entry into their place, so the order of
+ * the lists isn't meaningful.
+ */
+public class ColliderSet implements EventBus.Listener, ChunkMap.Listener {
+    private final List<Block> colliders;
+    private final List<Block> boxes;
+    private EventBus eventBus;
+    private EntityRegistry registry;
+
+    // Index of each entity's entry in its list, by handle; -1 if it isn't in a list
+    private int[] positionByHandle;
+
+    // Index of each wall's entry in the collider list, by the cell it fills; walls have no handle
+    private int[] wallPositionByCell;
+    private int cellSize = 1;
+    private int columns;
+
+    /**
+     * Creates an empty collider set that follows door and box events on an event bus.
+     *
+     * @param eventBus The event bus
+     */
+    public ColliderSet(EventBus eventBus) {
+        this.colliders = new ArrayList<>();
+        this.boxes = new ArrayList<>();
+        this.positionByHandle = new int[64];
+        Arrays.fill(positionByHandle, -1);
+        this.wallPositionByCell = new int[0];
+        this.eventBus = eventBus;
+        eventBus.subscribe(EventBus.EventType.DOOR_OPENED, this);
+        eventBus.subscribe(EventBus.EventType.DOOR_CLOSED, this);
+        eventBus.subscribe(EventBus.EventType.BOX_PICKED_UP, this);
+        eventBus.subscribe(EventBus.EventType.BOX_DROPPED, this);
+    }
+
+    /**
+     * Rebuilds the set from a level's current state. Called when a level is loaded
+     * and when a saved state is restored, since neither publishes events. Walls that
+     * become active afterwards are added as their chunks report them.
+     *
+     * @param level The level
+     */
+    public void rebuild(Level level) {
+        // The old blocks may have lost their handles already, so forget every position
+        Arrays.fill(positionByHandle, -1);
+        colliders.clear();
+        boxes.clear();
+        registry = level.getRegistry();
+
+        GridSystem grid = level.getGrid();
+        cellSize = grid.getCellSize();
+        columns = grid.getHorizontalCells();
+        int cells = columns * grid.getVerticalCells();
+        if (wallPositionByCell.length < cells) {
+            wallPositionByCell = new int[cells];
+        }
+        Arrays.fill(wallPositionByCell, -1);
+
+        for (Block block : level.getBlocks()) {
+            if (collides(block)) {
+                add(block);
+            }
+        }
+    }
+
+    /**
+     * Gets the static blocks to collide with. The same list is kept up to date for the
+     * life of the collider set, so it only needs to be handed to the player once.
+     *
+     * @return The live collider list
+     */
+    public List<Block> getBlocks() {
+        return colliders;
+    }
+
+    /**
+     * Gets the boxes to collide with, which are the ones nobody is carrying. Like
+     * {@link #getBlocks()}, the list is kept up to date for the life of the set.
+     *
+     * @return The live box list
+     */
+    public List<Block> getBoxes() {
+        return boxes;
+    }
+
+    /**
+     * Checks if a block is currently in the set.
+     *
+     * @param block The block
+     * @return True if the player collides with the block, false otherwise
+     */
+    public boolean contains(Block block) {
+        return getPosition(block) >= 0;
+    }
+
+    /**
+     * Stops listening to the event bus.
+     */
+    public void detach() {
+        if (eventBus != null) {
+            eventBus.unsubscribe(this);
+            eventBus = null;
+        }
+    }
+
+    @Override
+    public void onChunkActivated(List<Block> walls) {
+        for (Block wall : walls) {
+            add(wall);
+        }
+    }
+
+    @Override
+    public void onChunkDeactivated(List<Block> walls) {
+        for (Block wall : walls) {
+            remove(wall);
+        }
+    }
+
+    @Override
+    public void onEvent(EventBus.EventType type, int handle) {
+        if (registry == null) {
+            return;
+        }
+
+        // Events are queued, so check the block's state now rather than trusting the event type
+        Entity entity = registry.get(handle);
+        if (entity instanceof Door || entity instanceof Box) {
+            Block block = (Block) entity;
+            if (collides(block)) {
+                add(block);
+            } else {
+                remove(block);
+            }
+        }
+    }
+
+    /**
+     * Checks if the player should collide with a block in its current state.
+     */
+    private boolean collides(Block block) {
+        if (block instanceof Door) {
+            return !((Door) block).isOpen();
+        }
+        if (block instanceof Box) {
+            return !((Box) block).isBeingCarried();
+        }
+        return true;
+    }
+
+    /**
+     * Adds a block to the end of its list if it isn't already in it.
+     */
+    private void add(Block block) {
+        if (contains(block)) {
+            return;
+        }
+        List<Block> list = listOf(block);
+        setPosition(block, list.size());
+        list.add(block);
+    }
+
+    /**
+     * Removes a block by moving the last entry of its list into its place.
+     */
+    private void remove(Block block) {
+        if (!contains(block)) {
+            return;
+        }
+        List<Block> list = listOf(block);
+        int position = getPosition(block);
+        int lastIndex = list.size() - 1;
+        Block last = list.remove(lastIndex);
+        if (position != lastIndex) {
+            list.set(position, last);
+            setPosition(last, position);
+        }
+        setPosition(block, -1);
+    }
+
+    /**
+     * Gets the list a block belongs in.
+     */
+    private List<Block> listOf(Block block) {
+        return block instanceof Box ? boxes : colliders;
+    }
+
+    /**
+     * Gets the cell a wall fills, or -1 if it's outside the level.
+     */
+    private int cellOf(Block wall) {
+        int cell = (int) wall.getY() / cellSize * columns + (int) wall.getX() / cellSize;
+        return cell < wallPositionByCell.length ? cell : -1;
+    }
+
+    /**
+     * Gets where a block's entry is, or -1 if it isn't in its list.
+     */
+    private int getPosition(Block block) {
+        int handle = block.getHandle();
+        if (handle < 0) {
+            int cell = cellOf(block);
+            return cell >= 0 ? wallPositionByCell[cell] : -1;
+        }
+        return handle < positionByHandle.length ? positionByHandle[handle] : -1;
+    }
+
+    /**
+     * Records where a block's entry is, growing the index for new handles.
+     */
+    private void setPosition(Block block, int position) {
+        int handle = block.getHandle();
+        if (handle < 0) {
+            int cell = cellOf(block);
+            if (cell >= 0) {
+                wallPositionByCell[cell] = position;
+            }
+            return;
+        }
+        if (handle >= positionByHandle.length) {
+            int oldLength = positionByHandle.length;
+            positionByHandle = Arrays.copyOf(positionByHandle, Math.max(handle + 1, oldLength * 2));
+            Arrays.fill(positionByHandle, oldLength, positionByHandle.length, -1);
+        }
+        positionByHandle[handle] = position;
+    }
+}
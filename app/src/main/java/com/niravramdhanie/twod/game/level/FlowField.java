@@ -0,0 +1,276 @@
+package com.niravramdhanie.twod.game.level;
+
+import java.util.Arrays;
+
+import com.niravramdhanie.twod.game.utils.GridSystem;
+
+/**
+ * The way to one goal cell from every cell of a grid, worked out once and shared by
+ * every agent heading there.
+ * <p>
+ * The field is built by a Dijkstra search outward from the goal over the grid's
+ * walkable cells, moving in eight directions; a diagonal step costs
+ * {@value #DIAGONAL_COST} to a straight step's {@value #STRAIGHT_COST} and isn't
+ * allowed past the corner of a blocked cell. Each cell keeps its distance to the goal
+ * and the direction of the next cell on the way there, so an agent finds its next step
+ * with one lookup however many agents there are.
+ * <p>
+ * A field describes the grid as it was when it was built; see {@link #getVersion()}.
+ */
+public class FlowField {
+    // Distance of a cell that can't reach the goal
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    // Step costs, so a diagonal is close to the square root of two straight steps
+    public static final int STRAIGHT_COST = 10;
+    public static final int DIAGONAL_COST = 14;
+
+    // The eight directions: up, right, down, left, then the diagonals clockwise from up-right
+    static final int[] DIRECTION_X = { 0, 1, 0, -1, 1, 1, -1, -1 };
+    static final int[] DIRECTION_Y = { -1, 0, 1, 0, -1, 1, 1, -1 };
+
+    // Direction of a cell that has nowhere to go: the goal itself, or a cell that can't reach it
+    private static final byte NONE = -1;
+
+    private final int goalX;
+    private final int goalY;
+    private final int width;
+    private final int height;
+    private final int version;
+    private final int[] distances;
+    private final byte[] directions;
+
+    /**
+     * Builds the field for a goal on the grid as it is now.
+     *
+     * @param grid The grid
+     * @param goalX The goal's X position on the grid
+     * @param goalY The goal's Y position on the grid
+     */
+    FlowField(GridSystem grid, int goalX, int goalY) {
+        this.goalX = goalX;
+        this.goalY = goalY;
+        this.width = grid.getHorizontalCells();
+        this.height = grid.getVerticalCells();
+        this.version = grid.getCollisionVersion();
+        this.distances = new int[width * height];
+        this.directions = new byte[width * height];
+        Arrays.fill(distances, UNREACHABLE);
+        Arrays.fill(directions, NONE);
+
+        if (grid.isBlocked(goalX, goalY)) {
+            return;
+        }
+
+        // Moves are the same both ways, so searching out from the goal gives every cell's way in
+        CellQueue queue = new CellQueue(64);
+        int goal = goalY * width + goalX;
+        distances[goal] = 0;
+        queue.add(0, goal);
+        while (!queue.isEmpty()) {
+            long entry = queue.poll();
+            int distance = CellQueue.distanceOf(entry);
+            int cell = CellQueue.cellOf(entry);
+            if (distance > distances[cell]) {
+                continue;
+            }
+
+            int x = cell % width;
+            int y = cell / width;
+            for (int direction = 0; direction < DIRECTION_X.length; direction++) {
+                if (!canStep(grid, x, y, direction)) {
+                    continue;
+                }
+                int next = cell + DIRECTION_Y[direction] * width + DIRECTION_X[direction];
+                int nextDistance = distance + stepCost(direction);
+                if (nextDistance < distances[next]) {
+                    distances[next] = nextDistance;
+                    directions[next] = (byte) opposite(direction);
+                    queue.add(nextDistance, next);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the X step of the way to the goal from a cell.
+     *
+     * @param gridX The X position on the grid
+     * @param gridY The Y position on the grid
+     * @return -1, 0 or 1; 0 in both axes at the goal and where the goal can't be reached
+     */
+    public int getDirectionX(int gridX, int gridY) {
+        int direction = getDirection(gridX, gridY);
+        return direction != NONE ? DIRECTION_X[direction] : 0;
+    }
+
+    /**
+     * Gets the Y step of the way to the goal from a cell.
+     *
+     * @param gridX The X position on the grid
+     * @param gridY The Y position on the grid
+     * @return -1, 0 or 1; 0 in both axes at the goal and where the goal can't be reached
+     */
+    public int getDirectionY(int gridX, int gridY) {
+        int direction = getDirection(gridX, gridY);
+        return direction != NONE ? DIRECTION_Y[direction] : 0;
+    }
+
+    /**
+     * Gets the cost of the way to the goal from a cell.
+     *
+     * @param gridX The X position on the grid
+     * @param gridY The Y position on the grid
+     * @return The cost, in tenths of a straight step, or {@link #UNREACHABLE}
+     */
+    public int getDistance(int gridX, int gridY) {
+        if (!isInside(gridX, gridY)) {
+            return UNREACHABLE;
+        }
+        return distances[gridY * width + gridX];
+    }
+
+    /**
+     * Checks if the goal can be reached from a cell.
+     *
+     * @param gridX The X position on the grid
+     * @param gridY The Y position on the grid
+     * @return True if there's a way to the goal, false otherwise
+     */
+    public boolean isReachable(int gridX, int gridY) {
+        return getDistance(gridX, gridY) != UNREACHABLE;
+    }
+
+    /**
+     * Gets the goal's X position on the grid.
+     *
+     * @return The goal X
+     */
+    public int getGoalX() {
+        return goalX;
+    }
+
+    /**
+     * Gets the goal's Y position on the grid.
+     *
+     * @return The goal Y
+     */
+    public int getGoalY() {
+        return goalY;
+    }
+
+    /**
+     * Gets the grid's collision version the field was built from. Once the grid's
+     * version moves on, a door may have opened or closed and the field may lead agents
+     * into it.
+     *
+     * @return The collision version
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    private int getDirection(int gridX, int gridY) {
+        if (!isInside(gridX, gridY)) {
+            return NONE;
+        }
+        return directions[gridY * width + gridX];
+    }
+
+    private boolean isInside(int gridX, int gridY) {
+        return gridX >= 0 && gridY >= 0 && gridX < width && gridY < height;
+    }
+
+    /**
+     * Checks if a step from a cell is allowed: the cell it leads to must be walkable,
+     * and a diagonal step can't cut the corner of a blocked cell.
+     */
+    static boolean canStep(GridSystem grid, int x, int y, int direction) {
+        int stepX = DIRECTION_X[direction];
+        int stepY = DIRECTION_Y[direction];
+        if (grid.isBlocked(x + stepX, y + stepY)) {
+            return false;
+        }
+        return direction < 4 || (!grid.isBlocked(x + stepX, y) && !grid.isBlocked(x, y + stepY));
+    }
+
+    static int stepCost(int direction) {
+        return direction < 4 ? STRAIGHT_COST : DIAGONAL_COST;
+    }
+
+    /**
+     * Gets the direction that undoes a step in another.
+     */
+    private static int opposite(int direction) {
+        return direction < 4 ? (direction + 2) & 3 : 4 + ((direction - 2) & 3);
+    }
+
+    /**
+     * A binary min-heap of cells by cost. Each entry is a cost and a cell packed into
+     * one long, so the queue doesn't allocate per cell; a cell whose cost drops is added
+     * again and the stale entry skipped when it comes out.
+     */
+    static final class CellQueue {
+        private long[] entries;
+        private int size;
+
+        CellQueue(int capacity) {
+            entries = new long[capacity];
+        }
+
+        void add(int cost, int cell) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            long entry = ((long) cost << 32) | cell;
+            int index = size++;
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (entries[parent] <= entry) {
+                    break;
+                }
+                entries[index] = entries[parent];
+                index = parent;
+            }
+            entries[index] = entry;
+        }
+
+        long poll() {
+            long first = entries[0];
+            long last = entries[--size];
+            int index = 0;
+            while (true) {
+                int child = index * 2 + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && entries[child + 1] < entries[child]) {
+                    child++;
+                }
+                if (last <= entries[child]) {
+                    break;
+                }
+                entries[index] = entries[child];
+                index = child;
+            }
+            entries[index] = last;
+            return first;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        static int distanceOf(long entry) {
+            return (int) (entry >>> 32);
+        }
+
+        static int cellOf(long entry) {
+            return (int) entry;
+        }
+    }
+}
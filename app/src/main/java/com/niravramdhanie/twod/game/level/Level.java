@@ -1,5 +1,6 @@
 package com.niravramdhanie.twod.game.level;
 
+import java.awt.Color;
 import java.awt.Graphics2D;
 import java.util.ArrayList;
 import java.util.List;
@@ -8,15 +9,49 @@ import java.util.Random;
 import com.niravramdhanie.twod.game.entity.Block;
 import com.niravramdhanie.twod.game.entity.Box;
 import com.niravramdhanie.twod.game.entity.Button;
+import com.niravramdhanie.twod.game.entity.ComponentStore;
+import com.niravramdhanie.twod.game.entity.Door;
 import com.niravramdhanie.twod.game.entity.Entity;
+import com.niravramdhanie.twod.game.entity.EntityRegistry;
+import com.niravramdhanie.twod.game.entity.EntitySystems;
+import com.niravramdhanie.twod.game.entity.ParallelSystems;
+import com.niravramdhanie.twod.game.entity.WeightedButton;
+import com.niravramdhanie.twod.game.graphics.Camera;
+import com.niravramdhanie.twod.game.utils.EventBus;
 import com.niravramdhanie.twod.game.utils.GridSystem;
+import com.niravramdhanie.twod.game.utils.ObjectPool;
 
 /**
  * Represents a game level with entities placed on a grid.
+ * A level built from a {@link LevelData} keeps its walls in a {@link ChunkMap}, so
+ * only the walls, doors and buttons near the player are updated, drawn and collided
+ * with; boxes can be carried anywhere, so they're always live.
+ * <p>
+ * The entities a level makes for itself come from pools and go back to them when the
+ * level is cleared, so moving to another level or restarting one reuses the doors,
+ * buttons and boxes of the last instead of loading their sprites again.
  */
 public class Level {
     private GridSystem grid;
     private List<Entity> entities;
+    private List<Entity> mobileEntities;
+    private ChunkMap chunkMap;
+    private ChunkMap.Listener chunkListener;
+    private EntityRegistry registry;
+    
+    // Runs the trigger pass over every registered entity, split across threads for big levels
+    private final ParallelSystems systems = new ParallelSystems();
+    
+    // Pools of the entities the level makes itself, and the ones it has taken out of them
+    private final ObjectPool<Block> blockPool;
+    private final ObjectPool<Door> doorPool;
+    private final ObjectPool<Button> buttonPool;
+    private final ObjectPool<WeightedButton> weightedButtonPool;
+    private final ObjectPool<Box> boxPool;
+    private final List<Entity> pooledEntities = new ArrayList<>();
+    
+    // Slots the render system found in view, reused every frame
+    private int[] visibleSlots = new int[64];
     private Random random;
     private int screenWidth;
     private int screenHeight;
@@ -33,7 +68,30 @@ public class Level {
         this.screenHeight = screenHeight;
         this.grid = new GridSystem(gridCellSize, gridCellSize, screenWidth, screenHeight);
         this.entities = new ArrayList<>();
+        this.mobileEntities = new ArrayList<>();
+        this.registry = new EntityRegistry();
         this.random = new Random();
+        
+        this.blockPool = new ObjectPool<>(() -> new Block(0, 0, gridCellSize, gridCellSize), Entity::reset);
+        this.doorPool = new ObjectPool<>(() -> new Door(0, 0, gridCellSize, gridCellSize, null), Entity::reset);
+        this.buttonPool = new ObjectPool<>(() -> new Button(0, 0, gridCellSize, gridCellSize), Entity::reset);
+        this.weightedButtonPool = new ObjectPool<>(() -> new WeightedButton(0, 0, gridCellSize, gridCellSize, null),
+                                                   Entity::reset);
+        this.boxPool = new ObjectPool<>(() -> new Box(0, 0, gridCellSize, gridCellSize, true, true), Entity::reset);
+    }
+    
+    /**
+     * Adds an entity to the level and gives it a handle.
+     * Doors are also registered under their ID so they can be looked up by name during setup.
+     * 
+     * @param entity The entity to add
+     */
+    private void register(Entity entity) {
+        entities.add(entity);
+        registry.register(entity);
+        if (entity instanceof Door) {
+            registry.setName(((Door) entity).getId(), entity);
+        }
     }
     
     /**
@@ -45,13 +103,18 @@ public class Level {
      */
     public boolean addBlock(int gridX, int gridY) {
         int cellSize = grid.getCellSize();
-        Block block = new Block(0, 0, cellSize, cellSize);
+        Block block = blockPool.acquire();
+        block.setWidth(cellSize);
+        block.setHeight(cellSize);
         
         if (grid.placeEntity(block, gridX, gridY)) {
-            entities.add(block);
+            register(block);
+            pooledEntities.add(block);
+            grid.setBlocked(gridX, gridY, true);
             return true;
         }
         
+        blockPool.release(block);
         return false;
     }
     
@@ -69,7 +132,7 @@ public class Level {
         entity.setHeight(cellSize);
         
         if (grid.placeEntity(entity, gridX, gridY)) {
-            entities.add(entity);
+            register(entity);
             return true;
         }
         
@@ -108,7 +171,7 @@ public class Level {
         entity.setY(entityY);
         
         // Add the entity to our list just once
-        entities.add(entity);
+        register(entity);
         
         // Register the entity in all cells it occupies
         for (int x = gridX; x < gridX + gridWidth; x++) {
@@ -131,6 +194,8 @@ public class Level {
         Entity entity = grid.removeEntity(gridX, gridY);
         if (entity != null) {
             entities.remove(entity);
+            pooledEntities.remove(entity);
+            registry.unregister(entity);
             return true;
         }
         return false;
@@ -168,129 +233,193 @@ public class Level {
     }
     
     /**
-     * Creates the first level layout with blocks and designated areas.
-     */
-    public void createLevel1() {
-        clearLevel();
-        
-        // Add border blocks
-        addBorderBlocks();
-    }
-    
-    /**
-     * Creates the second level layout with blocks and designated areas.
+     * Builds the level from its compiled description, replacing whatever was there.
+     * The grid is sized to the level rather than the screen. Walls aren't added as entities;
+     * the level's chunk map loads them around the player once {@link #updateChunks(float, float)} is called,
+     * and marks the walls of the chunks it has loaded on the grid for navigation.
+     * 
+     * @param data The compiled level
+     * @return The level's entities by their index in the description; walls aren't included
      */
-    public void createLevel2() {
+    public Entity[] build(LevelData data) {
         clearLevel();
         
-        // Add border blocks for level 2
-        addBorderBlocks();
-        
-        // Get grid dimensions
-        int horizontalCells = grid.getHorizontalCells();
-        int verticalCells = grid.getVerticalCells();
         int cellSize = grid.getCellSize();
+        resize(data.getWidth() * cellSize, data.getHeight() * cellSize);
+        chunkMap = new ChunkMap(data, grid, chunkListener);
         
-        // Create horizontal wall from (10,6) to the end of row 6
-        for (int x = 10; x < horizontalCells - 1; x++) {
-            float wallX = grid.gridToScreenX(x);
-            float wallY = grid.gridToScreenY(6);
-            entities.add(new Block(wallX, wallY, cellSize, cellSize));
-        }
-        
-        // Create vertical wall from (10,6) down to the bottom
-        // Skip the space for the door (around row 6)
-        for (int y = 6; y < verticalCells - 1; y++) {
-            // Skip the position where door1 is located (7 cells below button1)
-            if (y == 9) continue; // Skip this position to leave space for door1
+        // Add the doors, buttons and boxes
+        Entity[] built = new Entity[data.getEntityCount()];
+        for (int i = 0; i < built.length; i++) {
+            int gridX = data.getEntityX(i);
+            int gridY = data.getEntityY(i);
+            String name = data.getEntityName(i);
             
-            float wallX = grid.gridToScreenX(10);
-            float wallY = grid.gridToScreenY(y);
-            entities.add(new Block(wallX, wallY, cellSize, cellSize));
-        }
-        
-        // Create vertical wall from (20,6) down to the bottom
-        for (int y = 6; y < verticalCells - 1; y++) {
-            // Skip the position where door2 is located (7 cells below button2)
-            if (y == 9) continue; // Skip this position to leave space for door2
+            Entity entity;
+            switch (data.getEntityType(i)) {
+                case LevelData.ENTITY_DOOR:
+                    Door door = doorPool.acquire();
+                    door.setId(name);
+                    if (data.hasEntityFlag(i, LevelData.FLAG_OPEN)) {
+                        door.open();
+                    }
+                    entity = door;
+                    break;
+                case LevelData.ENTITY_BUTTON:
+                    entity = buttonPool.acquire();
+                    break;
+                case LevelData.ENTITY_WEIGHTED_BUTTON:
+                    entity = weightedButtonPool.acquire();
+                    break;
+                case LevelData.ENTITY_BOX:
+                    Box box = boxPool.acquire();
+                    box.setFullRewindTracking(true);
+                    entity = box;
+                    break;
+                default:
+                    System.out.println("Skipping entity " + name + " of unknown type " + data.getEntityType(i));
+                    continue;
+            }
+            
+            if (entity instanceof Button && data.hasEntityFlag(i, LevelData.FLAG_COLORED)) {
+                ((Button) entity).setColor(new Color(data.getEntityColor(i)));
+                ((Button) entity).setActiveColor(new Color(data.getEntityActiveColor(i)));
+            }
             
-            float wallX = grid.gridToScreenX(20);
-            float wallY = grid.gridToScreenY(y);
-            entities.add(new Block(wallX, wallY, cellSize, cellSize));
+            if (!addEntity(entity, gridX, gridY)) {
+                System.out.println("Cannot place " + name + " - cell " + gridX + "," + gridY + " is occupied");
+                release(entity);
+                continue;
+            }
+            pooledEntities.add(entity);
+            registry.setName(name, entity);
+            built[i] = entity;
+            
+            // Boxes move between chunks, everything else stays in the chunk it starts in
+            if (entity instanceof Box) {
+                mobileEntities.add(entity);
+            } else {
+                chunkMap.addEntity(entity, gridX, gridY);
+            }
         }
         
-        System.out.println("Level 2 created with border blocks and walls");
+        System.out.println("Level built with " + entities.size() + " entities in " +
+                          data.getChunkColumns() + "x" + data.getChunkRows() + " chunks");
+        return built;
     }
     
     /**
-     * Creates a simple level 3 layout with just border blocks
+     * Loads and activates the chunks around the player. Does nothing for a level
+     * that wasn't built from a level description.
+     * 
+     * @param playerX The player's X position in pixels
+     * @param playerY The player's Y position in pixels
      */
-    public void createLevel3() {
-        // Clear any existing blocks
-        entities.clear();
-        
-        // Get grid dimensions
-        int horizontalCells = grid.getHorizontalCells();
-        int verticalCells = grid.getVerticalCells();
-        int cellSize = grid.getCellSize();
-        
-        // Create border blocks
-        // Top and bottom borders
-        for (int x = 0; x < horizontalCells; x++) {
-            // Top border
-            float topX = grid.gridToScreenX(x);
-            float topY = grid.gridToScreenY(0);
-            entities.add(new Block(topX, topY, cellSize, cellSize));
-            
-            // Bottom border
-            float bottomX = grid.gridToScreenX(x);
-            float bottomY = grid.gridToScreenY(verticalCells - 1);
-            entities.add(new Block(bottomX, bottomY, cellSize, cellSize));
+    public void updateChunks(float playerX, float playerY) {
+        if (chunkMap != null) {
+            chunkMap.update(playerX, playerY);
         }
-        
-        // Left and right borders
-        for (int y = 1; y < verticalCells - 1; y++) {
-            // Left border
-            float leftX = grid.gridToScreenX(0);
-            float leftY = grid.gridToScreenY(y);
-            entities.add(new Block(leftX, leftY, cellSize, cellSize));
-            
-            // Right border
-            float rightX = grid.gridToScreenX(horizontalCells - 1);
-            float rightY = grid.gridToScreenY(y);
-            entities.add(new Block(rightX, rightY, cellSize, cellSize));
+    }
+    
+    /**
+     * Reads the walls around where the player will start, without activating them.
+     * Does nothing for a level that wasn't built from a level description.
+     * 
+     * @param playerX The player's X position in pixels
+     * @param playerY The player's Y position in pixels
+     */
+    public void preloadChunks(float playerX, float playerY) {
+        if (chunkMap != null) {
+            chunkMap.preload(playerX, playerY);
         }
-        
-        System.out.println("Level 3 created with border blocks");
     }
     
     /**
-     * Updates all entities in the level.
+     * Sets the event bus the level's entities publish state changes to.
+     * 
+     * @param eventBus The event bus, or null for a level that isn't being played
+     */
+    public void setEventBus(EventBus eventBus) {
+        registry.setEventBus(eventBus);
+    }
+    
+    /**
+     * Sets the listener told when walls become active or inactive, for levels built after this call.
+     * 
+     * @param chunkListener The listener
+     */
+    public void setChunkListener(ChunkMap.Listener chunkListener) {
+        this.chunkListener = chunkListener;
+    }
+    
+    /**
+     * Gets the chunk map of a level built from a level description.
+     * 
+     * @return The chunk map, or null if the level wasn't built from a description
+     */
+    public ChunkMap getChunkMap() {
+        return chunkMap;
+    }
+    
+    /**
+     * Moves the entities that move by their velocity, then updates the entities in the
+     * active chunks and the boxes. Moving is one pass over the registry's store that only
+     * writes the entities flagged as moving; the entity updates run in order after it.
      */
     public void update() {
-        for (Entity entity : entities) {
-            entity.update();
+        EntitySystems.move(registry.getComponents());
+        
+        if (chunkMap == null) {
+            for (Entity entity : entities) {
+                entity.update();
+            }
+            return;
+        }
+        
+        chunkMap.updateEntities();
+        for (int i = 0; i < mobileEntities.size(); i++) {
+            mobileEntities.get(i).update();
         }
     }
     
     /**
-     * Renders all entities in the level.
+     * Renders the entities in the active chunks and the boxes.
      * 
      * @param g The Graphics2D object to render to
      */
     public void render(Graphics2D g) {
-        // First render all non-box entities
-        for (Entity entity : entities) {
-            if (!(entity instanceof Box)) {
-                entity.render(g);
-            }
+        render(g, null);
+    }
+    
+    /**
+     * Renders the entities in the active chunks and the boxes that the camera can see.
+     * 
+     * @param g The Graphics2D object to render to, already moved into world space
+     * @param camera The camera, or null to draw everything
+     */
+    public void render(Graphics2D g, Camera camera) {
+        // The chunk map draws the floor around the player; without one, every floor entity is in the registry
+        if (chunkMap != null) {
+            chunkMap.render(g, camera);
+        } else {
+            renderLayer(g, camera, ComponentStore.LAYER_FLOOR);
         }
         
-        // Then render all boxes
-        for (Entity entity : entities) {
-            if (entity instanceof Box) {
-                entity.render(g);
-            }
+        // Boxes go over the floor
+        renderLayer(g, camera, ComponentStore.LAYER_ITEMS);
+    }
+    
+    /**
+     * Draws the registered entities of a layer that are in view, in the order they were added.
+     */
+    private void renderLayer(Graphics2D g, Camera camera, byte layer) {
+        ComponentStore components = registry.getComponents();
+        if (visibleSlots.length < components.size()) {
+            visibleSlots = new int[Math.max(components.size(), visibleSlots.length * 2)];
+        }
+        int count = EntitySystems.collectVisible(components, camera, layer, visibleSlots);
+        for (int i = 0; i < count; i++) {
+            registry.get(visibleSlots[i]).render(g);
         }
     }
     
@@ -304,9 +433,27 @@ public class Level {
     }
     
     /**
-     * Gets all blocks in the level.
+     * Gets the registry that maps entity handles to entities.
+     * 
+     * @return The entity registry
+     */
+    public EntityRegistry getRegistry() {
+        return registry;
+    }
+    
+    /**
+     * Gets the systems that run over every registered entity.
+     * 
+     * @return The systems
+     */
+    public ParallelSystems getSystems() {
+        return systems;
+    }
+    
+    /**
+     * Gets all blocks in the level; for a chunked level, only the walls of the active chunks.
      * 
-     * @return A list of all blocks
+     * @return A list of the blocks
      */
     public List<Block> getBlocks() {
         List<Block> blocks = new ArrayList<>();
@@ -315,6 +462,9 @@ public class Level {
                 blocks.add((Block) entity);
             }
         }
+        if (chunkMap != null) {
+            chunkMap.collectActiveWalls(blocks);
+        }
         return blocks;
     }
     
@@ -355,11 +505,67 @@ public class Level {
     }
     
     /**
-     * Clears all entities from the level.
+     * Drops the level's chunks, telling the chunk listener its active walls are gone. The
+     * rest of the level is kept until it's cleared. Called on the game thread before the
+     * level is handed to a background preload, so the listener only hears from the game thread.
+     */
+    public void closeChunks() {
+        if (chunkMap != null) {
+            chunkMap.close();
+            chunkMap = null;
+        }
+    }
+    
+    /**
+     * Clears all entities from the level. The entities the level made itself go back to
+     * their pools, so they mustn't be used after this.
      */
     public void clearLevel() {
+        closeChunks();
         entities.clear();
+        mobileEntities.clear();
+        registry.clear();
         grid.clearGrid();
+        
+        for (Entity entity : pooledEntities) {
+            release(entity);
+        }
+        pooledEntities.clear();
+    }
+    
+    /**
+     * Puts an entity the level made back in the pool it came from.
+     */
+    private void release(Entity entity) {
+        if (entity instanceof Box) {
+            boxPool.release((Box) entity);
+        } else if (entity instanceof Door) {
+            doorPool.release((Door) entity);
+        } else if (entity instanceof WeightedButton) {
+            weightedButtonPool.release((WeightedButton) entity);
+        } else if (entity instanceof Button) {
+            buttonPool.release((Button) entity);
+        } else if (entity instanceof Block) {
+            blockPool.release((Block) entity);
+        }
+    }
+    
+    /**
+     * Gets the width of the level.
+     * 
+     * @return The width in pixels
+     */
+    public int getWidth() {
+        return screenWidth;
+    }
+    
+    /**
+     * Gets the height of the level.
+     * 
+     * @return The height in pixels
+     */
+    public int getHeight() {
+        return screenHeight;
     }
     
     /**
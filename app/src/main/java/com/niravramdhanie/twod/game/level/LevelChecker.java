@@ -0,0 +1,462 @@
+package com.niravramdhanie.twod.game.level;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.niravramdhanie.twod.game.actions.LogicGraph;
+
+/**
+ * Decides whether a level can be finished by carrying boxes onto weighted buttons,
+ * and how many moves it takes at least.
+ * <p>
+ * The level is reduced to rooms: the areas the player can walk around without going
+ * through a door. A state is the player's room, and for each box the room it's lying
+ * in, the button it's on, or that it's being carried; boxes are interchangeable, so
+ * their locations are kept sorted. One move walks through an open door, picks a box up
+ * or puts it down. A breadth-first search over these states finds the shortest way to
+ * reach the exit door while it's open, without using rewind, so any level it solves
+ * can be finished by a player who never rewinds.
+ * <p>
+ * Doors are open if they start open, or while a logic output that drives them is on.
+ * Levels that need more than that - button actions, latches, timers, or buttons the
+ * player presses - aren't checked.
+ */
+public final class LevelChecker {
+    // Results other than a move count
+    public static final int UNSOLVABLE = -1;
+    public static final int UNCHECKED = -2;
+
+    // Give up on levels with more states than this; they're not worth the time
+    public static final int MAX_STATES = 200_000;
+
+    // Box locations are packed 5 bits each into a long, along with the player's room
+    private static final int LOCATION_BITS = 5;
+    private static final int CARRIED = (1 << LOCATION_BITS) - 1;
+    private static final int MAX_BOXES = 11;
+
+    private final int roomCount;
+    private final int[] buttonRoom;
+    private final int[] boxStart;
+    private final int spawnRoom;
+
+    // Each door's rooms and whether it's the exit
+    private final int[][] doorRooms;
+    private final int exitDoor;
+
+    // Which doors are always open, and which outputs drive each door
+    private final boolean[] doorStartsOpen;
+    private final int[][] doorOutputs;
+
+    // The logic, by node; inputs are button indices for INPUT nodes
+    private final LogicGraph.NodeType[] nodeTypes;
+    private final int[][] nodeInputs;
+    private final int[] outputNodes;
+
+    private LevelChecker(int roomCount, int[] buttonRoom, int[] boxStart, int spawnRoom,
+                         int[][] doorRooms, int exitDoor, boolean[] doorStartsOpen, int[][] doorOutputs,
+                         LogicGraph.NodeType[] nodeTypes, int[][] nodeInputs, int[] outputNodes) {
+        this.roomCount = roomCount;
+        this.buttonRoom = buttonRoom;
+        this.boxStart = boxStart;
+        this.spawnRoom = spawnRoom;
+        this.doorRooms = doorRooms;
+        this.exitDoor = exitDoor;
+        this.doorStartsOpen = doorStartsOpen;
+        this.doorOutputs = doorOutputs;
+        this.nodeTypes = nodeTypes;
+        this.nodeInputs = nodeInputs;
+        this.outputNodes = outputNodes;
+    }
+
+    /**
+     * Finds the fewest moves that finish a level.
+     *
+     * @param level The level
+     * @return The number of moves, {@link #UNSOLVABLE} if the exit can't be reached,
+     *         or {@link #UNCHECKED} if the level uses things the checker doesn't model
+     */
+    public static int solve(LevelData level) {
+        LevelChecker checker;
+        try {
+            checker = create(level);
+        } catch (IOException e) {
+            System.err.println("Error reading level walls: " + e.getMessage());
+            return UNCHECKED;
+        }
+        return checker != null ? checker.search() : UNCHECKED;
+    }
+
+    /**
+     * Reduces a level to rooms, doors, buttons and boxes.
+     *
+     * @return The checker, or null if the level can't be checked
+     */
+    private static LevelChecker create(LevelData level) throws IOException {
+        if (level.getActionCount() > 0 || level.getExitDoor() < 0) {
+            return null;
+        }
+
+        int width = level.getWidth();
+        int height = level.getHeight();
+        boolean[] blocked = readWalls(level);
+
+        // Doors split rooms, so treat every door as a wall while finding them
+        int[] doorEntities = entitiesOfType(level, LevelData.ENTITY_DOOR);
+        for (int entity : doorEntities) {
+            blocked[level.getEntityY(entity) * width + level.getEntityX(entity)] = true;
+        }
+
+        int[] room = new int[width * height];
+        Arrays.fill(room, -1);
+        int roomCount = 0;
+        int[] stack = new int[width * height];
+        for (int start = 0; start < room.length; start++) {
+            if (blocked[start] || room[start] >= 0) {
+                continue;
+            }
+            int size = 0;
+            stack[size++] = start;
+            room[start] = roomCount;
+            while (size > 0) {
+                int cell = stack[--size];
+                int x = cell % width;
+                int y = cell / width;
+                if (x > 0 && !blocked[cell - 1] && room[cell - 1] < 0) {
+                    room[cell - 1] = roomCount;
+                    stack[size++] = cell - 1;
+                }
+                if (x < width - 1 && !blocked[cell + 1] && room[cell + 1] < 0) {
+                    room[cell + 1] = roomCount;
+                    stack[size++] = cell + 1;
+                }
+                if (y > 0 && !blocked[cell - width] && room[cell - width] < 0) {
+                    room[cell - width] = roomCount;
+                    stack[size++] = cell - width;
+                }
+                if (y < height - 1 && !blocked[cell + width] && room[cell + width] < 0) {
+                    room[cell + width] = roomCount;
+                    stack[size++] = cell + width;
+                }
+            }
+            roomCount++;
+        }
+
+        // Each door joins the rooms on its sides
+        int[][] doorRooms = new int[doorEntities.length][];
+        int exitDoor = -1;
+        boolean[] doorStartsOpen = new boolean[doorEntities.length];
+        for (int i = 0; i < doorEntities.length; i++) {
+            int entity = doorEntities[i];
+            int x = level.getEntityX(entity);
+            int y = level.getEntityY(entity);
+            int[] sides = new int[4];
+            int count = 0;
+            int[][] neighbours = { { x - 1, y }, { x + 1, y }, { x, y - 1 }, { x, y + 1 } };
+            for (int[] neighbour : neighbours) {
+                if (neighbour[0] < 0 || neighbour[1] < 0 || neighbour[0] >= width || neighbour[1] >= height) {
+                    continue;
+                }
+                int side = room[neighbour[1] * width + neighbour[0]];
+                if (side >= 0 && !contains(sides, count, side)) {
+                    sides[count++] = side;
+                }
+            }
+            doorRooms[i] = Arrays.copyOf(sides, count);
+            doorStartsOpen[i] = level.hasEntityFlag(entity, LevelData.FLAG_OPEN);
+            if (entity == level.getExitDoor()) {
+                exitDoor = i;
+            }
+        }
+
+        // Only weighted buttons can be pressed without the player standing on them
+        int[] buttonEntities = entitiesOfType(level, LevelData.ENTITY_WEIGHTED_BUTTON);
+        int[] buttonRoom = new int[buttonEntities.length];
+        for (int i = 0; i < buttonEntities.length; i++) {
+            buttonRoom[i] = room[level.getEntityY(buttonEntities[i]) * width + level.getEntityX(buttonEntities[i])];
+        }
+
+        int[] boxEntities = entitiesOfType(level, LevelData.ENTITY_BOX);
+        int[] boxStart = new int[boxEntities.length];
+        for (int i = 0; i < boxEntities.length; i++) {
+            boxStart[i] = room[level.getEntityY(boxEntities[i]) * width + level.getEntityX(boxEntities[i])];
+        }
+
+        if (boxEntities.length > MAX_BOXES || roomCount + buttonEntities.length >= CARRIED) {
+            return null;
+        }
+
+        int spawn = level.getSpawnY() * width + level.getSpawnX();
+        if (spawn < 0 || spawn >= room.length || room[spawn] < 0) {
+            return null;
+        }
+
+        // The logic, with input nodes pointing at weighted buttons
+        LogicGraph.NodeType[] types = LogicGraph.NodeType.values();
+        LogicGraph.NodeType[] nodeTypes = new LogicGraph.NodeType[level.getNodeCount()];
+        int[][] nodeInputs = new int[nodeTypes.length][];
+        for (int node = 0; node < nodeTypes.length; node++) {
+            nodeTypes[node] = types[level.getNodeType(node)];
+            if (nodeTypes[node] == LogicGraph.NodeType.INPUT) {
+                int button = indexOf(buttonEntities, level.getNodeButton(node));
+                if (button < 0) {
+                    return null;
+                }
+                nodeInputs[node] = new int[] { button };
+            } else if (nodeTypes[node] == LogicGraph.NodeType.LATCH || nodeTypes[node] == LogicGraph.NodeType.TIMER) {
+                return null;
+            } else {
+                nodeInputs[node] = level.getNodeInputs(node);
+            }
+        }
+
+        int[] outputNodes = new int[level.getOutputCount()];
+        int[][] doorOutputs = new int[doorEntities.length][0];
+        for (int output = 0; output < outputNodes.length; output++) {
+            outputNodes[output] = level.getOutputNode(output);
+            for (int door : level.getOutputDoors(output)) {
+                int i = indexOf(doorEntities, door);
+                doorOutputs[i] = Arrays.copyOf(doorOutputs[i], doorOutputs[i].length + 1);
+                doorOutputs[i][doorOutputs[i].length - 1] = output;
+            }
+        }
+
+        return new LevelChecker(roomCount, buttonRoom, boxStart, room[spawn], doorRooms, exitDoor,
+                                doorStartsOpen, doorOutputs, nodeTypes, nodeInputs, outputNodes);
+    }
+
+    /**
+     * Searches outward from the start until the exit is reached.
+     */
+    private int search() {
+        int boxCount = boxStart.length;
+        int[] boxes = Arrays.copyOf(boxStart, boxCount);
+        Arrays.sort(boxes);
+
+        long[] queue = new long[1024];
+        int head = 0;
+        int tail = 0;
+        Set<Long> visited = new HashSet<>();
+
+        long start = pack(spawnRoom, boxes);
+        queue[tail++] = start;
+        visited.add(start);
+
+        // States are queued a whole depth at a time, so the depth is known when the exit is found
+        int depth = 0;
+        int depthEnd = tail;
+        int[] next = new int[boxCount];
+        while (head < tail) {
+            if (head == depthEnd) {
+                depth++;
+                depthEnd = tail;
+            }
+            long state = queue[head++];
+            int playerRoom = unpack(state, boxes);
+            boolean[] open = openDoors(boxes);
+
+            if (open[exitDoor] && contains(doorRooms[exitDoor], doorRooms[exitDoor].length, playerRoom)) {
+                return depth;
+            }
+
+            // Each successor is packed and queued if it's new
+            boolean carrying = boxCount > 0 && boxes[boxCount - 1] == CARRIED;
+            for (int door = 0; door < doorRooms.length; door++) {
+                if (door == exitDoor || !open[door]
+                        || !contains(doorRooms[door], doorRooms[door].length, playerRoom)) {
+                    continue;
+                }
+                for (int side : doorRooms[door]) {
+                    if (side != playerRoom) {
+                        long successor = pack(side, boxes);
+                        if (visited.add(successor)) {
+                            queue = push(queue, tail++, successor);
+                        }
+                    }
+                }
+            }
+
+            for (int box = 0; box < boxCount; box++) {
+                int location = boxes[box];
+                if (location == CARRIED) {
+                    continue;
+                }
+                if (!carrying && (box == 0 || boxes[box - 1] != location) && locationRoom(location) == playerRoom) {
+                    // Pick up the box
+                    System.arraycopy(boxes, 0, next, 0, boxCount);
+                    next[box] = CARRIED;
+                    Arrays.sort(next);
+                    long successor = pack(playerRoom, next);
+                    if (visited.add(successor)) {
+                        queue = push(queue, tail++, successor);
+                    }
+                }
+            }
+
+            if (carrying) {
+                // Put the box down on the floor or on a free button in the room
+                for (int location = 0; location < roomCount + buttonRoom.length; location++) {
+                    if (locationRoom(location) != playerRoom || (location >= roomCount && occupied(boxes, location))) {
+                        continue;
+                    }
+                    System.arraycopy(boxes, 0, next, 0, boxCount);
+                    next[boxCount - 1] = location;
+                    Arrays.sort(next);
+                    long successor = pack(playerRoom, next);
+                    if (visited.add(successor)) {
+                        queue = push(queue, tail++, successor);
+                    }
+                }
+            }
+
+            if (visited.size() > MAX_STATES) {
+                return UNCHECKED;
+            }
+        }
+        return UNSOLVABLE;
+    }
+
+    /**
+     * Works out which doors are open with the boxes in these locations.
+     */
+    private boolean[] openDoors(int[] boxes) {
+        boolean[] values = new boolean[nodeTypes.length];
+        for (int node = 0; node < values.length; node++) {
+            int[] inputs = nodeInputs[node];
+            switch (nodeTypes[node]) {
+                case INPUT:
+                    values[node] = occupied(boxes, roomCount + inputs[0]);
+                    break;
+                case AND:
+                    values[node] = true;
+                    for (int input : inputs) {
+                        values[node] &= values[input];
+                    }
+                    break;
+                case OR:
+                    for (int input : inputs) {
+                        values[node] |= values[input];
+                    }
+                    break;
+                case XOR:
+                    for (int input : inputs) {
+                        values[node] ^= values[input];
+                    }
+                    break;
+                case NOT:
+                    values[node] = !values[inputs[0]];
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        boolean[] open = new boolean[doorRooms.length];
+        for (int door = 0; door < open.length; door++) {
+            open[door] = doorStartsOpen[door] && doorOutputs[door].length == 0;
+            for (int output : doorOutputs[door]) {
+                open[door] |= values[outputNodes[output]];
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Gets the room a box location is in; buttons are in the room they stand in.
+     */
+    private int locationRoom(int location) {
+        return location < roomCount ? location : buttonRoom[location - roomCount];
+    }
+
+    private long pack(int playerRoom, int[] boxes) {
+        long state = playerRoom;
+        for (int location : boxes) {
+            state = (state << LOCATION_BITS) | location;
+        }
+        return state;
+    }
+
+    /**
+     * Unpacks a state's box locations into an array and returns the player's room.
+     */
+    private int unpack(long state, int[] boxes) {
+        for (int box = boxes.length - 1; box >= 0; box--) {
+            boxes[box] = (int) (state & CARRIED);
+            state >>>= LOCATION_BITS;
+        }
+        return (int) state;
+    }
+
+    private static long[] push(long[] queue, int index, long state) {
+        if (index == queue.length) {
+            queue = Arrays.copyOf(queue, queue.length * 2);
+        }
+        queue[index] = state;
+        return queue;
+    }
+
+    private static boolean occupied(int[] boxes, int location) {
+        for (int box : boxes) {
+            if (box == location) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static int[] entitiesOfType(LevelData level, byte type) {
+        int[] entities = new int[level.getEntityCount()];
+        int count = 0;
+        for (int entity = 0; entity < entities.length; entity++) {
+            if (level.getEntityType(entity) == type) {
+                entities[count++] = entity;
+            }
+        }
+        return Arrays.copyOf(entities, count);
+    }
+
+    /**
+     * Reads the whole level's walls into one flag per cell.
+     */
+    static boolean[] readWalls(LevelData level) throws IOException {
+        int width = level.getWidth();
+        int height = level.getHeight();
+        boolean[] walls = new boolean[width * height];
+        long[] words = new long[LevelData.CHUNK_WORDS];
+        for (int chunkY = 0; chunkY < level.getChunkRows(); chunkY++) {
+            for (int chunkX = 0; chunkX < level.getChunkColumns(); chunkX++) {
+                level.readChunk(chunkX, chunkY, words);
+                for (int bit = 0; bit < LevelData.CHUNK_SIZE * LevelData.CHUNK_SIZE; bit++) {
+                    if ((words[bit >>> 6] & (1L << bit)) == 0) {
+                        continue;
+                    }
+                    int x = (chunkX << LevelData.CHUNK_BITS) + (bit & (LevelData.CHUNK_SIZE - 1));
+                    int y = (chunkY << LevelData.CHUNK_BITS) + (bit >> LevelData.CHUNK_BITS);
+                    if (x < width && y < height) {
+                        walls[y * width + x] = true;
+                    }
+                }
+            }
+        }
+        return walls;
+    }
+}
@@ -0,0 +1,454 @@
+package com.niravramdhanie.twod.game.level;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.niravramdhanie.twod.game.actions.LogicGraph;
+
+/**
+ * Compiles the text form of a level into {@link LevelData}.
+ * <p>
+ * A level is a list of lines, one declaration per line; blank lines and text after
+ * a '#' at the start of a line are ignored. Cells are grid positions, with (0, 0)
+ * in the top left.
+ * <pre>
+ *   grid W H                      size of the level in cells, before any tiles or entities
+ *   time SECONDS                  time limit
+ *   spawn X Y                     the cell the player starts in
+ *   next LEVEL                    the level the exit door leads to; without it the exit door wins
+ *   tiles                         followed by H rows of W characters, '#' for a wall, then "end"
+ *   door NAME X Y [open] [exit]   a door, closed unless open; the exit door leaves the level
+ *   button NAME X Y [color R G B R G B]    a button the player presses, with optional
+ *   weighted NAME X Y [color R G B R G B]  inactive and active colors, or one pressed by a box
+ *   box NAME X Y                  a box the player can carry
+ *   action BUTTON door DOOR       pressing the button toggles a door
+ *   action BUTTON timed MS [door DOOR]    pressing keeps the button down for a while
+ *   input NODE BUTTON             a logic node that follows a button
+ *   and|or|xor|not NODE INPUT...  a logic gate over earlier nodes
+ *   latch NODE SET [RESET]        a node that stays on once SET is, until RESET is
+ *   delay NODE INPUT TICKS        a node that stays on for a while after INPUT turns off
+ *   output NODE DOOR...           the doors are open while the node is on
+ * </pre>
+ * Entities and nodes have separate names, and must be declared before they're used.
+ */
+public final class LevelCompiler {
+    private final String source;
+    private int lineNumber;
+
+    private int width = -1;
+    private int height = -1;
+    private int timeLimit = 60;
+    private int spawnX = 2;
+    private int spawnY = -1;
+    private int nextLevel = -1;
+    private int exitDoor = -1;
+    private final Set<Integer> wallCells = new HashSet<>();
+
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> nameIndex = new HashMap<>();
+    private final Map<String, Integer> entityIndex = new HashMap<>();
+    private final Map<String, Integer> nodeIndex = new HashMap<>();
+
+    // One row per element, in the order of the LevelData section it goes into
+    private final List<int[]> entities = new ArrayList<>();
+    private final List<int[]> actions = new ArrayList<>();
+    private final List<int[]> nodes = new ArrayList<>();
+    private final List<int[]> nodeInputs = new ArrayList<>();
+    private final List<int[]> outputs = new ArrayList<>();
+    private int nodeInputCount;
+    private int outputDoorCount;
+
+    private LevelCompiler(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Compiles a level.
+     *
+     * @param reader The text of the level
+     * @param source A name for the text, used in error messages
+     * @return The compiled level
+     * @throws IOException If the text can't be read or isn't a valid level
+     */
+    public static LevelData compile(BufferedReader reader, String source) throws IOException {
+        LevelCompiler compiler = new LevelCompiler(source);
+        compiler.parse(reader);
+        return compiler.build();
+    }
+
+    private void parse(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] words = line.split("\\s+");
+            switch (words[0]) {
+                case "grid":
+                    expect(words, 3, 3);
+                    if (width >= 0) {
+                        throw error("The grid size is already set");
+                    }
+                    width = number(words[1], 1, Short.MAX_VALUE);
+                    height = number(words[2], 1, Short.MAX_VALUE);
+                    break;
+                case "time":
+                    expect(words, 2, 2);
+                    timeLimit = number(words[1], 1, 0xFFFF);
+                    break;
+                case "spawn":
+                    expect(words, 3, 3);
+                    spawnX = column(words[1]);
+                    spawnY = row(words[2]);
+                    break;
+                case "next":
+                    expect(words, 2, 2);
+                    nextLevel = number(words[1], 1, Short.MAX_VALUE);
+                    break;
+                case "tiles":
+                    expect(words, 1, 1);
+                    parseTiles(reader);
+                    break;
+                case "door":
+                    parseDoor(words);
+                    break;
+                case "button":
+                    parseButton(words, LevelData.ENTITY_BUTTON);
+                    break;
+                case "weighted":
+                    parseButton(words, LevelData.ENTITY_WEIGHTED_BUTTON);
+                    break;
+                case "box":
+                    expect(words, 4, 4);
+                    addEntity(LevelData.ENTITY_BOX, words[1], column(words[2]), row(words[3]), 0, 0, 0);
+                    break;
+                case "action":
+                    parseAction(words);
+                    break;
+                case "input":
+                    expect(words, 3, 3);
+                    addNode(LogicGraph.NodeType.INPUT, words[1], button(words[2]), 0, new int[0]);
+                    break;
+                case "and":
+                case "or":
+                case "xor":
+                case "not":
+                    expect(words, 3, 2 + LogicGraph.MAX_GATE_INPUTS);
+                    addNode(LogicGraph.NodeType.valueOf(words[0].toUpperCase()), words[1], -1, 0,
+                            nodes(words, 2, words.length));
+                    break;
+                case "latch":
+                    expect(words, 3, 4);
+                    addNode(LogicGraph.NodeType.LATCH, words[1], -1, 0, nodes(words, 2, words.length));
+                    break;
+                case "delay":
+                    expect(words, 4, 4);
+                    addNode(LogicGraph.NodeType.TIMER, words[1], -1, number(words[3], 0, Integer.MAX_VALUE),
+                            nodes(words, 2, 3));
+                    break;
+                case "output":
+                    parseOutput(words);
+                    break;
+                default:
+                    throw error("Unknown declaration '" + words[0] + "'");
+            }
+        }
+    }
+
+    private void parseTiles(BufferedReader reader) throws IOException {
+        requireGrid();
+        for (int y = 0; y < height; y++) {
+            String row = reader.readLine();
+            lineNumber++;
+            if (row == null) {
+                throw error("The tiles end after " + y + " of " + height + " rows");
+            }
+            row = row.trim();
+            if (row.length() != width) {
+                throw error("Tile row is " + row.length() + " cells wide instead of " + width);
+            }
+            for (int x = 0; x < width; x++) {
+                if (row.charAt(x) == '#') {
+                    wallCells.add(y * width + x);
+                }
+            }
+        }
+
+        String end = reader.readLine();
+        lineNumber++;
+        if (end == null || !end.trim().equals("end")) {
+            throw error("Expected 'end' after " + height + " rows of tiles");
+        }
+    }
+
+    private void parseDoor(String[] words) throws IOException {
+        expect(words, 4, 6);
+        int flags = 0;
+        boolean exit = false;
+        for (int i = 4; i < words.length; i++) {
+            if (words[i].equals("open")) {
+                flags |= LevelData.FLAG_OPEN;
+            } else if (words[i].equals("exit")) {
+                exit = true;
+            } else {
+                throw error("Unknown door option '" + words[i] + "'");
+            }
+        }
+
+        int door = addEntity(LevelData.ENTITY_DOOR, words[1], column(words[2]), row(words[3]), flags, 0, 0);
+        if (exit) {
+            if (exitDoor >= 0) {
+                throw error("The level already has an exit door");
+            }
+            exitDoor = door;
+        }
+    }
+
+    private void parseButton(String[] words, byte type) throws IOException {
+        if (words.length == 4) {
+            addEntity(type, words[1], column(words[2]), row(words[3]), 0, 0, 0);
+            return;
+        }
+
+        expect(words, 11, 11);
+        if (!words[4].equals("color")) {
+            throw error("Unknown button option '" + words[4] + "'");
+        }
+        addEntity(type, words[1], column(words[2]), row(words[3]), LevelData.FLAG_COLORED,
+                  color(words, 5), color(words, 8));
+    }
+
+    private void parseAction(String[] words) throws IOException {
+        expect(words, 4, 6);
+        int button = button(words[1]);
+        if (words[2].equals("door")) {
+            expect(words, 4, 4);
+            actions.add(new int[] { button, LevelData.ACTION_DOOR, door(words[3]), 0 });
+        } else if (words[2].equals("timed")) {
+            int millis = number(words[3], 1, Integer.MAX_VALUE);
+            int door = -1;
+            if (words.length > 4) {
+                expect(words, 6, 6);
+                if (!words[4].equals("door")) {
+                    throw error("Unknown timed action option '" + words[4] + "'");
+                }
+                door = door(words[5]);
+            }
+            actions.add(new int[] { button, LevelData.ACTION_TIMED, door, millis });
+        } else {
+            throw error("Unknown action type '" + words[2] + "'");
+        }
+    }
+
+    private void parseOutput(String[] words) throws IOException {
+        expect(words, 3, 2 + 255);
+        int node = node(words[1]);
+        int[] doors = new int[words.length - 2];
+        for (int i = 0; i < doors.length; i++) {
+            doors[i] = door(words[i + 2]);
+        }
+
+        int[] output = new int[doors.length + 1];
+        output[0] = node;
+        System.arraycopy(doors, 0, output, 1, doors.length);
+        outputs.add(output);
+        outputDoorCount += doors.length;
+    }
+
+    private int addEntity(byte type, String name, int x, int y, int flags, int color, int activeColor)
+            throws IOException {
+        if (entityIndex.containsKey(name)) {
+            throw error("There is already an entity named '" + name + "'");
+        }
+        if (wallCells.contains(y * width + x)) {
+            throw error("'" + name + "' is inside a wall at " + x + "," + y);
+        }
+        int entity = entities.size();
+        entities.add(new int[] { type, flags, x, y, intern(name), color, activeColor });
+        entityIndex.put(name, entity);
+        return entity;
+    }
+
+    private void addNode(LogicGraph.NodeType type, String name, int button, int delay, int[] inputs)
+            throws IOException {
+        if (nodeIndex.containsKey(name)) {
+            throw error("There is already a node named '" + name + "'");
+        }
+        nodeIndex.put(name, nodes.size());
+        nodes.add(new int[] { type.ordinal(), intern(name), button, delay });
+        nodeInputs.add(inputs);
+        nodeInputCount += inputs.length;
+    }
+
+    private LevelData build() throws IOException {
+        requireGrid();
+        if (spawnY < 0) {
+            spawnY = height / 2;
+        }
+
+        LevelData level = new LevelData(width, height, names.size(), entities.size(), actions.size(),
+                                        nodes.size(), nodeInputCount, outputs.size(), outputDoorCount);
+        level.timeLimit = timeLimit;
+        level.spawnX = spawnX;
+        level.spawnY = spawnY;
+        level.nextLevel = nextLevel;
+        level.exitDoor = exitDoor;
+        names.toArray(level.names);
+
+        level.tiles = new long[level.getTileWordCount()];
+        for (int cell : wallCells) {
+            level.setWall(cell % width, cell / width);
+        }
+
+        for (int i = 0; i < entities.size(); i++) {
+            int[] entity = entities.get(i);
+            level.entityTypes[i] = (byte) entity[0];
+            level.entityFlags[i] = (byte) entity[1];
+            level.entityX[i] = (short) entity[2];
+            level.entityY[i] = (short) entity[3];
+            level.entityNames[i] = (short) entity[4];
+            level.entityColors[i] = entity[5];
+            level.entityActiveColors[i] = entity[6];
+        }
+
+        for (int i = 0; i < actions.size(); i++) {
+            int[] action = actions.get(i);
+            level.actionButtons[i] = (short) action[0];
+            level.actionTypes[i] = (byte) action[1];
+            level.actionDoors[i] = (short) action[2];
+            level.actionMillis[i] = action[3];
+        }
+
+        int input = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            int[] node = nodes.get(i);
+            level.nodeTypes[i] = (byte) node[0];
+            level.nodeNames[i] = (short) node[1];
+            level.nodeButtons[i] = (short) node[2];
+            level.nodeDelays[i] = node[3];
+            level.nodeInputStart[i] = input;
+            for (int inputNode : nodeInputs.get(i)) {
+                level.nodeInputs[input++] = (short) inputNode;
+            }
+        }
+        level.nodeInputStart[nodes.size()] = input;
+
+        int door = 0;
+        for (int i = 0; i < outputs.size(); i++) {
+            int[] output = outputs.get(i);
+            level.outputNodes[i] = (short) output[0];
+            level.outputDoorStart[i] = door;
+            for (int j = 1; j < output.length; j++) {
+                level.outputDoors[door++] = (short) output[j];
+            }
+        }
+        level.outputDoorStart[outputs.size()] = door;
+        return level;
+    }
+
+    private int intern(String name) {
+        Integer index = nameIndex.get(name);
+        if (index == null) {
+            index = names.size();
+            names.add(name);
+            nameIndex.put(name, index);
+        }
+        return index;
+    }
+
+    private int button(String name) throws IOException {
+        int entity = entity(name);
+        int type = entities.get(entity)[0];
+        if (type != LevelData.ENTITY_BUTTON && type != LevelData.ENTITY_WEIGHTED_BUTTON) {
+            throw error("'" + name + "' is not a button");
+        }
+        return entity;
+    }
+
+    private int door(String name) throws IOException {
+        int entity = entity(name);
+        if (entities.get(entity)[0] != LevelData.ENTITY_DOOR) {
+            throw error("'" + name + "' is not a door");
+        }
+        return entity;
+    }
+
+    private int entity(String name) throws IOException {
+        Integer entity = entityIndex.get(name);
+        if (entity == null) {
+            throw error("No entity named '" + name + "' has been declared");
+        }
+        return entity;
+    }
+
+    private int node(String name) throws IOException {
+        Integer node = nodeIndex.get(name);
+        if (node == null) {
+            throw error("No node named '" + name + "' has been declared");
+        }
+        return node;
+    }
+
+    private int[] nodes(String[] words, int from, int to) throws IOException {
+        int[] result = new int[to - from];
+        for (int i = from; i < to; i++) {
+            result[i - from] = node(words[i]);
+        }
+        return result;
+    }
+
+    private int color(String[] words, int from) throws IOException {
+        int red = number(words[from], 0, 255);
+        int green = number(words[from + 1], 0, 255);
+        int blue = number(words[from + 2], 0, 255);
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    private int column(String word) throws IOException {
+        requireGrid();
+        return number(word, 0, width - 1);
+    }
+
+    private int row(String word) throws IOException {
+        requireGrid();
+        return number(word, 0, height - 1);
+    }
+
+    private int number(String word, int min, int max) throws IOException {
+        int value;
+        try {
+            value = Integer.parseInt(word);
+        } catch (NumberFormatException e) {
+            throw error("Expected a number but found '" + word + "'");
+        }
+        if (value < min || value > max) {
+            throw error(value + " is outside the range " + min + " to " + max);
+        }
+        return value;
+    }
+
+    private void requireGrid() throws IOException {
+        if (width < 0) {
+            throw error("The grid size must be declared first");
+        }
+    }
+
+    private void expect(String[] words, int min, int max) throws IOException {
+        if (words.length < min || words.length > max) {
+            throw error("Wrong number of values for '" + words[0] + "'");
+        }
+    }
+
+    private IOException error(String message) {
+        return new IOException(source + " line " + lineNumber + ": " + message);
+    }
+}
@@ -0,0 +1,789 @@
+package com.niravramdhanie.twod.game.level;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compiled level: its walls, entities, button actions and puzzle logic.
+ * <p>
+ * Levels are written as text (see {@link LevelCompiler}) and compiled to a compact
+ * binary form. Layout of a binary level:
+ * <pre>
+ *   header     fixed {@link #HEADER_SIZE} bytes: magic, version, grid size, time limit,
+ *              spawn cell, next level, exit door, offset of the tiles, then the count
+ *              of every section below
+ *   names      the entity and node names, as modified UTF-8
+ *   entities   type, flags, cell, name and colors
+ *   actions    button, type, door and duration
+ *   nodes      logic node type, name, button, delay and inputs
+ *   outputs    logic node and the doors it drives
+ *   tiles      one bit per grid cell, chunk by chunk; set bits are walls
+ * </pre>
+ * The header holds every count, so a level is read in a single pass straight into
+ * arrays allocated to the right size up front.
+ * Entities, nodes and doors are referred to by their index in their section.
+ * <p>
+ * Walls are grouped into square chunks of {@link #CHUNK_SIZE} cells, each stored as
+ * {@link #CHUNK_WORDS} longs, so one chunk can be read on its own. Levels loaded from
+ * a compiled file or a {@link LevelPack} leave the tiles on disk and {@link ChunkMap}
+ * reads chunks as the player nears them.
+ */
+public final class LevelData {
+    // "TNLV" - TENET level
+    public static final int MAGIC = 0x544E4C56;
+    public static final short VERSION = 2;
+    public static final int HEADER_SIZE = 38;
+
+    // Walls are stored in square chunks of cells, one bit per cell
+    public static final int CHUNK_BITS = 5;
+    public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    public static final int CHUNK_WORDS = CHUNK_SIZE * CHUNK_SIZE / 64;
+
+    // Entity types
+    public static final byte ENTITY_DOOR = 1;
+    public static final byte ENTITY_BUTTON = 2;
+    public static final byte ENTITY_WEIGHTED_BUTTON = 3;
+    public static final byte ENTITY_BOX = 4;
+
+    // Entity flags
+    public static final int FLAG_OPEN = 1;      // Door starts open
+    public static final int FLAG_COLORED = 2;   // Button has its own colors
+
+    // Action types
+    public static final byte ACTION_DOOR = 1;   // Toggles a door
+    public static final byte ACTION_TIMED = 2;  // Keeps the button pressed for a while, optionally toggling a door
+
+    // Where levels are kept on the classpath
+    public static final String RESOURCE_DIRECTORY = "/levels/";
+    public static final String TEXT_EXTENSION = ".lvl";
+    public static final String BINARY_EXTENSION = ".lvb";
+
+    final int width;
+    final int height;
+    int timeLimit;
+    int spawnX;
+    int spawnY;
+    int nextLevel = -1;
+    int exitDoor = -1;
+
+    final String[] names;
+
+    // The walls, chunk by chunk; null while they're left in the compiled file or level pack
+    long[] tiles;
+    private String tileResource;
+    private ByteBuffer tileBuffer;
+    private int tileOffset;
+
+    final byte[] entityTypes;
+    final byte[] entityFlags;
+    final short[] entityX;
+    final short[] entityY;
+    final short[] entityNames;
+    final int[] entityColors;
+    final int[] entityActiveColors;
+
+    final short[] actionButtons;
+    final byte[] actionTypes;
+    final short[] actionDoors;
+    final int[] actionMillis;
+
+    final byte[] nodeTypes;
+    final short[] nodeNames;
+    final short[] nodeButtons;
+    final int[] nodeDelays;
+    final int[] nodeInputStart;
+    final short[] nodeInputs;
+
+    final short[] outputNodes;
+    final int[] outputDoorStart;
+    final short[] outputDoors;
+
+    /**
+     * Allocates a level with room for exactly the given number of each element.
+     */
+    LevelData(int width, int height, int nameCount, int entityCount, int actionCount,
+              int nodeCount, int nodeInputCount, int outputCount, int outputDoorCount) {
+        this.width = width;
+        this.height = height;
+        this.names = new String[nameCount];
+
+        this.entityTypes = new byte[entityCount];
+        this.entityFlags = new byte[entityCount];
+        this.entityX = new short[entityCount];
+        this.entityY = new short[entityCount];
+        this.entityNames = new short[entityCount];
+        this.entityColors = new int[entityCount];
+        this.entityActiveColors = new int[entityCount];
+
+        this.actionButtons = new short[actionCount];
+        this.actionTypes = new byte[actionCount];
+        this.actionDoors = new short[actionCount];
+        this.actionMillis = new int[actionCount];
+
+        this.nodeTypes = new byte[nodeCount];
+        this.nodeNames = new short[nodeCount];
+        this.nodeButtons = new short[nodeCount];
+        this.nodeDelays = new int[nodeCount];
+        this.nodeInputStart = new int[nodeCount + 1];
+        this.nodeInputs = new short[nodeInputCount];
+
+        this.outputNodes = new short[outputCount];
+        this.outputDoorStart = new int[outputCount + 1];
+        this.outputDoors = new short[outputDoorCount];
+    }
+
+    /**
+     * Loads a level, preferring the game's level pack, then a compiled binary on the
+     * classpath, and falling back to compiling the text form.
+     *
+     * @param name The level name, such as "level1"
+     * @return The level, or null if it can't be found or is invalid
+     */
+    public static LevelData load(String name) {
+        String binaryPath = RESOURCE_DIRECTORY + name + BINARY_EXTENSION;
+        String textPath = RESOURCE_DIRECTORY + name + TEXT_EXTENSION;
+        try {
+            LevelPack pack = LevelPack.getDefault();
+            if (pack != null) {
+                LevelData level = pack.getLevel(name);
+                if (level != null) {
+                    return level;
+                }
+            }
+
+            InputStream binary = LevelData.class.getResourceAsStream(binaryPath);
+            if (binary != null) {
+                // The walls stay in the file until the player comes near them
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(binary))) {
+                    LevelData level = read(in, false);
+                    level.tileResource = binaryPath;
+                    return level;
+                }
+            }
+
+            InputStream text = LevelData.class.getResourceAsStream(textPath);
+            if (text != null) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(text, StandardCharsets.UTF_8))) {
+                    return LevelCompiler.compile(reader, name + TEXT_EXTENSION);
+                }
+            }
+
+            System.err.println("Level not found: " + name);
+        } catch (IOException e) {
+            System.err.println("Error loading level " + name + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Reads a compiled level, walls included.
+     *
+     * @param in The stream to read from
+     * @return The level
+     * @throws IOException If the stream can't be read or isn't a compiled level
+     */
+    public static LevelData read(InputStream in) throws IOException {
+        return read(new DataInputStream(new BufferedInputStream(in)), true);
+    }
+
+    /**
+     * Reads a compiled level from a buffer, such as a slice of a mapped level pack.
+     * The walls aren't copied; they're read from the buffer a chunk at a time.
+     *
+     * @param buffer The buffer holding exactly one compiled level
+     * @return The level
+     * @throws IOException If the buffer doesn't hold a compiled level
+     */
+    static LevelData read(ByteBuffer buffer) throws IOException {
+        LevelData level = read(new DataInputStream(new BufferInputStream(buffer.duplicate())), false);
+        if (level.tileOffset + (long) level.getTileWordCount() * 8 > buffer.limit()) {
+            throw new IOException("Compiled level is missing some of its walls");
+        }
+        level.tileBuffer = buffer;
+        return level;
+    }
+
+    /**
+     * Reads a compiled level.
+     *
+     * @param data The stream to read from
+     * @param includeTiles Whether to read the walls too, or stop before them
+     * @return The level
+     * @throws IOException If the stream can't be read or isn't a compiled level
+     */
+    private static LevelData read(DataInputStream data, boolean includeTiles) throws IOException {
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a compiled level");
+        }
+        short version = data.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported level version " + version);
+        }
+
+        int width = data.readUnsignedShort();
+        int height = data.readUnsignedShort();
+        int timeLimit = data.readUnsignedShort();
+        int spawnX = data.readShort();
+        int spawnY = data.readShort();
+        int nextLevel = data.readShort();
+        int exitDoor = data.readShort();
+        int tileOffset = data.readInt();
+
+        LevelData level = new LevelData(width, height,
+                data.readUnsignedShort(), data.readUnsignedShort(), data.readUnsignedShort(),
+                data.readUnsignedShort(), data.readUnsignedShort(), data.readUnsignedShort(),
+                data.readUnsignedShort());
+        level.timeLimit = timeLimit;
+        level.spawnX = spawnX;
+        level.spawnY = spawnY;
+        level.nextLevel = nextLevel;
+        level.exitDoor = exitDoor;
+        level.tileOffset = tileOffset;
+
+        for (int i = 0; i < level.names.length; i++) {
+            level.names[i] = data.readUTF();
+        }
+
+        for (int i = 0; i < level.entityTypes.length; i++) {
+            level.entityTypes[i] = data.readByte();
+            level.entityFlags[i] = data.readByte();
+            level.entityX[i] = data.readShort();
+            level.entityY[i] = data.readShort();
+            level.entityNames[i] = data.readShort();
+            level.entityColors[i] = data.readInt();
+            level.entityActiveColors[i] = data.readInt();
+        }
+
+        for (int i = 0; i < level.actionTypes.length; i++) {
+            level.actionButtons[i] = data.readShort();
+            level.actionTypes[i] = data.readByte();
+            level.actionDoors[i] = data.readShort();
+            level.actionMillis[i] = data.readInt();
+        }
+
+        int input = 0;
+        for (int i = 0; i < level.nodeTypes.length; i++) {
+            level.nodeTypes[i] = data.readByte();
+            level.nodeNames[i] = data.readShort();
+            level.nodeButtons[i] = data.readShort();
+            level.nodeDelays[i] = data.readInt();
+            int inputCount = data.readUnsignedByte();
+            level.nodeInputStart[i] = input;
+            for (int j = 0; j < inputCount; j++) {
+                level.nodeInputs[input++] = data.readShort();
+            }
+        }
+        level.nodeInputStart[level.nodeTypes.length] = input;
+
+        int door = 0;
+        for (int i = 0; i < level.outputNodes.length; i++) {
+            level.outputNodes[i] = data.readShort();
+            int doorCount = data.readUnsignedByte();
+            level.outputDoorStart[i] = door;
+            for (int j = 0; j < doorCount; j++) {
+                level.outputDoors[door++] = data.readShort();
+            }
+        }
+        level.outputDoorStart[level.outputNodes.length] = door;
+
+        if (input != level.nodeInputs.length || door != level.outputDoors.length) {
+            throw new IOException("Compiled level section sizes don't match its header");
+        }
+
+        if (includeTiles) {
+            level.tiles = new long[level.getTileWordCount()];
+            for (int i = 0; i < level.tiles.length; i++) {
+                level.tiles[i] = data.readLong();
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Writes the level in compiled form.
+     *
+     * @param out The stream to write to
+     * @throws IOException If the stream can't be written
+     */
+    public void write(OutputStream out) throws IOException {
+        long[] allTiles = tiles;
+        if (allTiles == null) {
+            allTiles = new long[getTileWordCount()];
+            long[] chunk = new long[CHUNK_WORDS];
+            for (int cy = 0; cy < getChunkRows(); cy++) {
+                for (int cx = 0; cx < getChunkColumns(); cx++) {
+                    readChunk(cx, cy, chunk);
+                    System.arraycopy(chunk, 0, allTiles, (cy * getChunkColumns() + cx) * CHUNK_WORDS, CHUNK_WORDS);
+                }
+            }
+        }
+
+        // The sections go through a buffer first so the header can say where the tiles start
+        ByteArrayOutputStream sections = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(sections);
+
+        for (String name : names) {
+            data.writeUTF(name);
+        }
+
+        for (int i = 0; i < entityTypes.length; i++) {
+            data.writeByte(entityTypes[i]);
+            data.writeByte(entityFlags[i]);
+            data.writeShort(entityX[i]);
+            data.writeShort(entityY[i]);
+            data.writeShort(entityNames[i]);
+            data.writeInt(entityColors[i]);
+            data.writeInt(entityActiveColors[i]);
+        }
+
+        for (int i = 0; i < actionTypes.length; i++) {
+            data.writeShort(actionButtons[i]);
+            data.writeByte(actionTypes[i]);
+            data.writeShort(actionDoors[i]);
+            data.writeInt(actionMillis[i]);
+        }
+
+        for (int i = 0; i < nodeTypes.length; i++) {
+            data.writeByte(nodeTypes[i]);
+            data.writeShort(nodeNames[i]);
+            data.writeShort(nodeButtons[i]);
+            data.writeInt(nodeDelays[i]);
+            data.writeByte(nodeInputStart[i + 1] - nodeInputStart[i]);
+            for (int j = nodeInputStart[i]; j < nodeInputStart[i + 1]; j++) {
+                data.writeShort(nodeInputs[j]);
+            }
+        }
+
+        for (int i = 0; i < outputNodes.length; i++) {
+            data.writeShort(outputNodes[i]);
+            data.writeByte(outputDoorStart[i + 1] - outputDoorStart[i]);
+            for (int j = outputDoorStart[i]; j < outputDoorStart[i + 1]; j++) {
+                data.writeShort(outputDoors[j]);
+            }
+        }
+        data.flush();
+
+        DataOutputStream file = new DataOutputStream(out);
+        file.writeInt(MAGIC);
+        file.writeShort(VERSION);
+        file.writeShort(width);
+        file.writeShort(height);
+        file.writeShort(timeLimit);
+        file.writeShort(spawnX);
+        file.writeShort(spawnY);
+        file.writeShort(nextLevel);
+        file.writeShort(exitDoor);
+        file.writeInt(HEADER_SIZE + sections.size());
+        file.writeShort(names.length);
+        file.writeShort(entityTypes.length);
+        file.writeShort(actionTypes.length);
+        file.writeShort(nodeTypes.length);
+        file.writeShort(nodeInputs.length);
+        file.writeShort(outputNodes.length);
+        file.writeShort(outputDoors.length);
+        sections.writeTo(file);
+
+        for (long tileWord : allTiles) {
+            file.writeLong(tileWord);
+        }
+        file.flush();
+    }
+
+    /**
+     * Gets the width of the level.
+     *
+     * @return The width in grid cells
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the height of the level.
+     *
+     * @return The height in grid cells
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of chunk columns, counting a partly filled chunk at the right edge.
+     *
+     * @return The chunk column count
+     */
+    public int getChunkColumns() {
+        return (width + CHUNK_SIZE - 1) >> CHUNK_BITS;
+    }
+
+    /**
+     * Gets the number of chunk rows, counting a partly filled chunk at the bottom edge.
+     *
+     * @return The chunk row count
+     */
+    public int getChunkRows() {
+        return (height + CHUNK_SIZE - 1) >> CHUNK_BITS;
+    }
+
+    /**
+     * Gets the size of the walls of the whole level.
+     *
+     * @return The number of longs the walls take up
+     */
+    int getTileWordCount() {
+        return getChunkColumns() * getChunkRows() * CHUNK_WORDS;
+    }
+
+    /**
+     * Reads the walls of one chunk. Bit {@code y * CHUNK_SIZE + x} is set if the cell
+     * at (x, y) within the chunk is a wall. Safe to call from any thread.
+     *
+     * @param chunkX The chunk column
+     * @param chunkY The chunk row
+     * @param words The array to fill, at least {@link #CHUNK_WORDS} long
+     * @throws IOException If the walls are in a file that can't be read
+     */
+    public void readChunk(int chunkX, int chunkY, long[] words) throws IOException {
+        int chunk = chunkY * getChunkColumns() + chunkX;
+        long[] loadedTiles = tiles;
+        if (loadedTiles != null) {
+            System.arraycopy(loadedTiles, chunk * CHUNK_WORDS, words, 0, CHUNK_WORDS);
+            return;
+        }
+
+        if (tileBuffer != null) {
+            // Absolute reads leave the buffer's position alone, so they're safe alongside other threads
+            int offset = tileOffset + chunk * CHUNK_WORDS * 8;
+            for (int i = 0; i < CHUNK_WORDS; i++) {
+                words[i] = tileBuffer.getLong(offset + i * 8);
+            }
+            return;
+        }
+
+        InputStream resource = LevelData.class.getResourceAsStream(tileResource);
+        if (resource == null) {
+            throw new IOException("Level file " + tileResource + " is no longer available");
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(resource, CHUNK_WORDS * 8))) {
+            in.skipNBytes(tileOffset + (long) chunk * CHUNK_WORDS * 8);
+            for (int i = 0; i < CHUNK_WORDS; i++) {
+                words[i] = in.readLong();
+            }
+        }
+    }
+
+    /**
+     * Marks a cell as a wall.
+     */
+    void setWall(int x, int y) {
+        int chunk = (y >> CHUNK_BITS) * getChunkColumns() + (x >> CHUNK_BITS);
+        int bit = ((y & (CHUNK_SIZE - 1)) << CHUNK_BITS) | (x & (CHUNK_SIZE - 1));
+        tiles[chunk * CHUNK_WORDS + (bit >>> 6)] |= 1L << bit;
+    }
+
+    /**
+     * Gets the time limit of the level.
+     *
+     * @return The time limit in seconds
+     */
+    public int getTimeLimit() {
+        return timeLimit;
+    }
+
+    /**
+     * Gets the cell the player starts in.
+     *
+     * @return The grid X position
+     */
+    public int getSpawnX() {
+        return spawnX;
+    }
+
+    /**
+     * Gets the cell the player starts in.
+     *
+     * @return The grid Y position
+     */
+    public int getSpawnY() {
+        return spawnY;
+    }
+
+    /**
+     * Gets the level the exit door leads to.
+     *
+     * @return The next level number, or -1 if the exit door wins the game
+     */
+    public int getNextLevel() {
+        return nextLevel;
+    }
+
+    /**
+     * Gets the door that leaves the level.
+     *
+     * @return The entity index of the exit door, or -1 if there isn't one
+     */
+    public int getExitDoor() {
+        return exitDoor;
+    }
+
+    /**
+     * Gets the number of entities, not counting walls.
+     *
+     * @return The entity count
+     */
+    public int getEntityCount() {
+        return entityTypes.length;
+    }
+
+    /**
+     * Gets an entity's type.
+     *
+     * @param entity The entity index
+     * @return One of the ENTITY_ constants
+     */
+    public byte getEntityType(int entity) {
+        return entityTypes[entity];
+    }
+
+    /**
+     * Checks an entity flag.
+     *
+     * @param entity The entity index
+     * @param flag One of the FLAG_ constants
+     * @return True if the flag is set
+     */
+    public boolean hasEntityFlag(int entity, int flag) {
+        return (entityFlags[entity] & flag) != 0;
+    }
+
+    /**
+     * Gets the cell an entity is placed in.
+     *
+     * @param entity The entity index
+     * @return The grid X position
+     */
+    public int getEntityX(int entity) {
+        return entityX[entity];
+    }
+
+    /**
+     * Gets the cell an entity is placed in.
+     *
+     * @param entity The entity index
+     * @return The grid Y position
+     */
+    public int getEntityY(int entity) {
+        return entityY[entity];
+    }
+
+    /**
+     * Gets an entity's name.
+     *
+     * @param entity The entity index
+     * @return The name, or null for an unnamed entity
+     */
+    public String getEntityName(int entity) {
+        return entityNames[entity] >= 0 ? names[entityNames[entity]] : null;
+    }
+
+    /**
+     * Gets a button's inactive color, if it has the {@link #FLAG_COLORED} flag.
+     *
+     * @param entity The entity index
+     * @return The color as 0xRRGGBB
+     */
+    public int getEntityColor(int entity) {
+        return entityColors[entity];
+    }
+
+    /**
+     * Gets a button's active color, if it has the {@link #FLAG_COLORED} flag.
+     *
+     * @param entity The entity index
+     * @return The color as 0xRRGGBB
+     */
+    public int getEntityActiveColor(int entity) {
+        return entityActiveColors[entity];
+    }
+
+    /**
+     * Gets the number of button actions.
+     *
+     * @return The action count
+     */
+    public int getActionCount() {
+        return actionTypes.length;
+    }
+
+    /**
+     * Gets the button an action belongs to.
+     *
+     * @param action The action index
+     * @return The entity index of the button
+     */
+    public int getActionButton(int action) {
+        return actionButtons[action];
+    }
+
+    /**
+     * Gets an action's type.
+     *
+     * @param action The action index
+     * @return One of the ACTION_ constants
+     */
+    public byte getActionType(int action) {
+        return actionTypes[action];
+    }
+
+    /**
+     * Gets the door an action toggles.
+     *
+     * @param action The action index
+     * @return The entity index of the door, or -1 if the action doesn't toggle one
+     */
+    public int getActionDoor(int action) {
+        return actionDoors[action];
+    }
+
+    /**
+     * Gets how long a timed action keeps its button pressed.
+     *
+     * @param action The action index
+     * @return The duration in milliseconds
+     */
+    public int getActionMillis(int action) {
+        return actionMillis[action];
+    }
+
+    /**
+     * Gets the number of logic nodes. Nodes only read nodes with a lower index.
+     *
+     * @return The node count
+     */
+    public int getNodeCount() {
+        return nodeTypes.length;
+    }
+
+    /**
+     * Gets a logic node's type.
+     *
+     * @param node The node index
+     * @return The ordinal of the node's {@link com.niravramdhanie.twod.game.actions.LogicGraph.NodeType}
+     */
+    public int getNodeType(int node) {
+        return nodeTypes[node];
+    }
+
+    /**
+     * Gets a logic node's name.
+     *
+     * @param node The node index
+     * @return The name
+     */
+    public String getNodeName(int node) {
+        return names[nodeNames[node]];
+    }
+
+    /**
+     * Gets the button an input node follows.
+     *
+     * @param node The node index
+     * @return The entity index of the button, or -1 for other nodes
+     */
+    public int getNodeButton(int node) {
+        return nodeButtons[node];
+    }
+
+    /**
+     * Gets how long a timer node stays on after its input turns off.
+     *
+     * @param node The node index
+     * @return The delay in ticks
+     */
+    public int getNodeDelay(int node) {
+        return nodeDelays[node];
+    }
+
+    /**
+     * Gets the nodes a logic node reads. A latch reads its set node, then its reset node if it has one.
+     *
+     * @param node The node index
+     * @return The input node indices
+     */
+    public int[] getNodeInputs(int node) {
+        int[] inputs = new int[nodeInputStart[node + 1] - nodeInputStart[node]];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = nodeInputs[nodeInputStart[node] + i];
+        }
+        return inputs;
+    }
+
+    /**
+     * Gets the number of logic outputs.
+     *
+     * @return The output count
+     */
+    public int getOutputCount() {
+        return outputNodes.length;
+    }
+
+    /**
+     * Gets the node an output follows.
+     *
+     * @param output The output index
+     * @return The node index
+     */
+    public int getOutputNode(int output) {
+        return outputNodes[output];
+    }
+
+    /**
+     * Gets the doors an output opens while its node is true.
+     *
+     * @param output The output index
+     * @return The entity indices of the doors
+     */
+    public int[] getOutputDoors(int output) {
+        int[] doors = new int[outputDoorStart[output + 1] - outputDoorStart[output]];
+        for (int i = 0; i < doors.length; i++) {
+            doors[i] = outputDoors[outputDoorStart[output] + i];
+        }
+        return doors;
+    }
+
+    /**
+     * Reads a byte buffer as a stream, so buffers can share the stream decoder.
+     */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package com.niravramdhanie.twod.game.level;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Generates box-and-button puzzle levels from a seed.
+ * <p>
+ * A level is a room split into smaller rooms by walls, each wall with one doorway.
+ * Some doorways are left open; the rest get a door held open by a weighted button
+ * somewhere in the level, and the exit door in the outer wall needs one or two more.
+ * Boxes and the player's spawn are scattered over the remaining floor.
+ * <p>
+ * Most random layouts are either impossible or too easy, so every candidate goes
+ * through {@link LevelChecker} and is only kept if it can be finished and takes at
+ * least a minimum number of moves. Candidates are independent, so a batch of seeds
+ * is split across a {@link ForkJoinPool}. The same seed always gives the same level.
+ */
+public class LevelGenerator {
+    // Levels fit on the screen by default, like the hand-written ones
+    public static final int DEFAULT_WIDTH = 31;
+    public static final int DEFAULT_HEIGHT = 23;
+
+    // Fewest checker moves for a level not to count as trivial
+    public static final int DEFAULT_MIN_MOVES = 8;
+
+    // Smallest room side, in cells
+    private static final int MIN_ROOM = 4;
+
+    // Chance that a doorway gets a door rather than being left open
+    private static final double DOOR_CHANCE = 0.7;
+
+    // Tries at finding a free cell before giving up on a candidate
+    private static final int PLACEMENT_TRIES = 200;
+
+    // Seeds a fork-join task checks itself rather than splitting further
+    private static final int BATCH_SIZE = 16;
+
+    private final int width;
+    private final int height;
+    private final int minMoves;
+
+    /**
+     * Creates a generator for screen-sized levels.
+     */
+    public LevelGenerator() {
+        this(DEFAULT_WIDTH, DEFAULT_HEIGHT, DEFAULT_MIN_MOVES);
+    }
+
+    /**
+     * Creates a generator.
+     *
+     * @param width The width of the levels in cells
+     * @param height The height of the levels in cells
+     * @param minMoves The fewest checker moves a level may take
+     */
+    public LevelGenerator(int width, int height, int minMoves) {
+        this.width = width;
+        this.height = height;
+        this.minMoves = minMoves;
+    }
+
+    /**
+     * Generates the level for a seed if it's solvable and not trivial.
+     *
+     * @param seed The seed
+     * @return The level, or null if the seed's level was rejected
+     */
+    public LevelData generate(long seed) {
+        LevelData level = generateCandidate(seed);
+        if (level == null) {
+            return null;
+        }
+        int moves = LevelChecker.solve(level);
+        return moves >= minMoves ? level : null;
+    }
+
+    /**
+     * Generates the levels for a range of seeds in parallel, keeping the ones that pass the checker.
+     *
+     * @param firstSeed The first seed
+     * @param candidates The number of seeds to try
+     * @param pool The pool to run on
+     * @return The accepted levels, in seed order
+     */
+    public List<LevelData> generate(long firstSeed, int candidates, ForkJoinPool pool) {
+        return pool.invoke(new Batch(firstSeed, candidates));
+    }
+
+    /**
+     * Checks a range of seeds, splitting it in half until the pieces are small.
+     */
+    private final class Batch extends RecursiveTask<List<LevelData>> {
+        private static final long serialVersionUID = 1L;
+
+        private final long firstSeed;
+        private final int count;
+
+        Batch(long firstSeed, int count) {
+            this.firstSeed = firstSeed;
+            this.count = count;
+        }
+
+        @Override
+        protected List<LevelData> compute() {
+            if (count <= BATCH_SIZE) {
+                List<LevelData> levels = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    LevelData level = generate(firstSeed + i);
+                    if (level != null) {
+                        levels.add(level);
+                    }
+                }
+                return levels;
+            }
+
+            int half = count / 2;
+            Batch first = new Batch(firstSeed, half);
+            Batch second = new Batch(firstSeed + half, count - half);
+            first.fork();
+            List<LevelData> levels = second.compute();
+            List<LevelData> firstLevels = first.join();
+            firstLevels.addAll(levels);
+            return firstLevels;
+        }
+    }
+
+    /**
+     * Builds the level for a seed without checking it.
+     *
+     * @param seed The seed
+     * @return The level, or null if the layout didn't leave room for everything
+     */
+    public LevelData generateCandidate(long seed) {
+        Random random = new Random(seed);
+        boolean[] walls = new boolean[width * height];
+        boolean[] used = new boolean[width * height];
+        for (int x = 0; x < width; x++) {
+            walls[x] = true;
+            walls[(height - 1) * width + x] = true;
+        }
+        for (int y = 0; y < height; y++) {
+            walls[y * width] = true;
+            walls[y * width + width - 1] = true;
+        }
+
+        // Split the inside into rooms; each split is a line of wall
+        List<int[]> splits = new ArrayList<>();
+        split(random, walls, splits, 1, 1, width - 2, height - 2, 2 + random.nextInt(2));
+
+        StringBuilder entities = new StringBuilder();
+        StringBuilder logic = new StringBuilder();
+
+        // Give each split a doorway where both sides are floor
+        int doorCount = 0;
+        List<Integer> doorwayCells = new ArrayList<>();
+        for (int[] line : splits) {
+            int cell = pickDoorway(random, walls, line);
+            if (cell < 0) {
+                return null;
+            }
+            walls[cell] = false;
+            doorwayCells.add(cell);
+            reserveAround(used, cell);
+        }
+
+        // Put the exit in the outer wall, next to floor
+        int exit = pickExit(random, walls);
+        if (exit < 0) {
+            return null;
+        }
+        walls[exit] = false;
+        reserveAround(used, exit);
+        entities.append("door exit ").append(exit % width).append(' ').append(exit / width).append(" exit\n");
+
+        // Most doorways get a door with its own weighted button
+        int buttonCount = 0;
+        for (int cell : doorwayCells) {
+            if (random.nextDouble() >= DOOR_CHANCE) {
+                continue;
+            }
+            int button = pickFree(random, walls, used);
+            if (button < 0) {
+                return null;
+            }
+            String door = "door" + doorCount++;
+            String buttonName = "button" + buttonCount++;
+            entities.append("door ").append(door).append(' ').append(cell % width).append(' ').append(cell / width).append('\n');
+            entities.append("weighted ").append(buttonName).append(' ')
+                    .append(button % width).append(' ').append(button / width).append('\n');
+            logic.append("input ").append(buttonName).append(' ').append(buttonName).append('\n');
+            logic.append("output ").append(buttonName).append(' ').append(door).append('\n');
+        }
+
+        // The exit needs one or two red buttons held down at once
+        int exitButtons = 1 + random.nextInt(2);
+        StringBuilder exitInputs = new StringBuilder();
+        for (int i = 0; i < exitButtons; i++) {
+            int button = pickFree(random, walls, used);
+            if (button < 0) {
+                return null;
+            }
+            String buttonName = "exit_button" + i;
+            entities.append("weighted ").append(buttonName).append(' ')
+                    .append(button % width).append(' ').append(button / width)
+                    .append(" color 220 20 20 255 60 60\n");
+            logic.append("input ").append(buttonName).append(' ').append(buttonName).append('\n');
+            exitInputs.append(' ').append(buttonName);
+        }
+        if (exitButtons > 1) {
+            logic.append("and exit_open").append(exitInputs).append('\n');
+            logic.append("output exit_open exit\n");
+        } else {
+            logic.append("output exit_button0 exit\n");
+        }
+        // Enough boxes for the exit, plus some for the doors on the way
+        int boxCount = Math.min(4, exitButtons + random.nextInt(buttonCount + 1));
+        for (int i = 0; i < boxCount; i++) {
+            int box = pickFree(random, walls, used);
+            if (box < 0) {
+                return null;
+            }
+            entities.append("box box").append(i).append(' ').append(box % width).append(' ').append(box / width).append('\n');
+        }
+
+        int spawn = pickFree(random, walls, used);
+        if (spawn < 0) {
+            return null;
+        }
+
+        StringBuilder text = new StringBuilder();
+        text.append("# Generated from seed ").append(seed).append('\n');
+        text.append("grid ").append(width).append(' ').append(height).append('\n');
+        text.append("spawn ").append(spawn % width).append(' ').append(spawn / width).append('\n');
+        text.append("tiles\n");
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                text.append(walls[y * width + x] ? '#' : '.');
+            }
+            text.append('\n');
+        }
+        text.append("end\n");
+        text.append(entities).append(logic);
+
+        try {
+            return LevelCompiler.compile(new BufferedReader(new StringReader(text.toString())), "seed " + seed);
+        } catch (IOException e) {
+            System.err.println("Error compiling generated level: " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Splits a rectangle of floor with a line of wall and recurses into both sides,
+     * until the depth runs out or the rectangle is too small to split.
+     */
+    private void split(Random random, boolean[] walls, List<int[]> splits,
+                       int x0, int y0, int x1, int y1, int depth) {
+        int roomWidth = x1 - x0 + 1;
+        int roomHeight = y1 - y0 + 1;
+        boolean canSplitX = roomWidth >= 2 * MIN_ROOM + 1;
+        boolean canSplitY = roomHeight >= 2 * MIN_ROOM + 1;
+        if (depth == 0 || (!canSplitX && !canSplitY)) {
+            return;
+        }
+
+        // Cut across the longer side, so rooms don't end up as corridors
+        boolean vertical = canSplitX && (!canSplitY || roomWidth > roomHeight ||
+                                         (roomWidth == roomHeight && random.nextBoolean()));
+        if (vertical) {
+            int x = x0 + MIN_ROOM + random.nextInt(roomWidth - 2 * MIN_ROOM);
+            for (int y = y0; y <= y1; y++) {
+                walls[y * width + x] = true;
+            }
+            splits.add(new int[] { x, y0, x, y1 });
+            split(random, walls, splits, x0, y0, x - 1, y1, depth - 1);
+            split(random, walls, splits, x + 1, y0, x1, y1, depth - 1);
+        } else {
+            int y = y0 + MIN_ROOM + random.nextInt(roomHeight - 2 * MIN_ROOM);
+            for (int x = x0; x <= x1; x++) {
+                walls[y * width + x] = true;
+            }
+            splits.add(new int[] { x0, y, x1, y });
+            split(random, walls, splits, x0, y0, x1, y - 1, depth - 1);
+            split(random, walls, splits, x0, y + 1, x1, y1, depth - 1);
+        }
+    }
+
+    /**
+     * Picks a cell on a split line with floor on both sides of it.
+     *
+     * @return The cell, or -1 if later splits walled off every spot
+     */
+    private int pickDoorway(Random random, boolean[] walls, int[] line) {
+        List<Integer> candidates = new ArrayList<>();
+        boolean vertical = line[0] == line[2];
+        for (int y = line[1]; y <= line[3]; y++) {
+            for (int x = line[0]; x <= line[2]; x++) {
+                int before = vertical ? y * width + x - 1 : (y - 1) * width + x;
+                int after = vertical ? y * width + x + 1 : (y + 1) * width + x;
+                if (!walls[before] && !walls[after]) {
+                    candidates.add(y * width + x);
+                }
+            }
+        }
+        return candidates.isEmpty() ? -1 : candidates.get(random.nextInt(candidates.size()));
+    }
+
+    /**
+     * Picks a cell in the outer wall, away from the corners, with floor on the inside.
+     *
+     * @return The cell, or -1 if there isn't one
+     */
+    private int pickExit(Random random, boolean[] walls) {
+        List<Integer> candidates = new ArrayList<>();
+        for (int x = 2; x < width - 2; x++) {
+            if (!walls[width + x]) {
+                candidates.add(x);
+            }
+            if (!walls[(height - 2) * width + x]) {
+                candidates.add((height - 1) * width + x);
+            }
+        }
+        for (int y = 2; y < height - 2; y++) {
+            if (!walls[y * width + 1]) {
+                candidates.add(y * width);
+            }
+            if (!walls[y * width + width - 2]) {
+                candidates.add(y * width + width - 1);
+            }
+        }
+        return candidates.isEmpty() ? -1 : candidates.get(random.nextInt(candidates.size()));
+    }
+
+    /**
+     * Picks a floor cell that nothing has been placed on or near, and marks it used.
+     *
+     * @return The cell, or -1 if none was found
+     */
+    private int pickFree(Random random, boolean[] walls, boolean[] used) {
+        for (int i = 0; i < PLACEMENT_TRIES; i++) {
+            int cell = random.nextInt(walls.length);
+            if (!walls[cell] && !used[cell]) {
+                used[cell] = true;
+                return cell;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Keeps entities off a doorway and the cells next to it, so nothing blocks the way through.
+     */
+    private void reserveAround(boolean[] used, int cell) {
+        int x = cell % width;
+        int y = cell / width;
+        used[cell] = true;
+        if (x > 0) used[cell - 1] = true;
+        if (x < width - 1) used[cell + 1] = true;
+        if (y > 0) used[cell - width] = true;
+        if (y < height - 1) used[cell + width] = true;
+    }
+
+    /**
+     * Generates levels from the command line and reports how fast it went, optionally
+     * writing the accepted levels to a level pack as level1, level2 and so on, each
+     * leading to the next.
+     *
+     * @param args The number of seeds to try, optionally the first seed, then optionally the pack file
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: LevelGenerator <candidates> [first seed] [pack file]");
+            System.exit(2);
+        }
+
+        int candidates = Integer.parseInt(args[0]);
+        long firstSeed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        LevelGenerator generator = new LevelGenerator();
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        long start = System.nanoTime();
+        List<LevelData> levels = generator.generate(firstSeed, candidates, pool);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Accepted %d of %d candidates in %.2f s on %d threads (%.0f levels/s)%n",
+                          levels.size(), candidates, seconds, pool.getParallelism(), levels.size() / seconds);
+
+        if (args.length > 2) {
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < levels.size(); i++) {
+                names.add("level" + (i + 1));
+                levels.get(i).nextLevel = i + 1 < levels.size() ? i + 2 : -1;
+            }
+
+            Path packFile = Paths.get(args[2]);
+            try {
+                if (packFile.getParent() != null) {
+                    Files.createDirectories(packFile.getParent());
+                }
+                try (OutputStream out = Files.newOutputStream(packFile)) {
+                    LevelPack.write(names, levels, out);
+                }
+                System.out.println("Wrote " + levels.size() + " levels to " + packFile);
+            } catch (IOException e) {
+                System.err.println("Error writing level pack: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.niravramdhanie.twod.game.level;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of compiled levels in one file, read through a memory-mapped buffer.
+ * <p>
+ * The pack is built ahead of time by running this class (the {@code packLevels}
+ * Gradle task does), so the game never compiles level text. Layout:
+ * <pre>
+ *   header     magic, version, level count
+ *   directory  each level's name, offset and length
+ *   levels     each level in the compiled form described by {@link LevelData}
+ * </pre>
+ * Opening a level only decodes its entity table and puzzle logic, which are small;
+ * its walls, the bulk of a big level, are read chunk by chunk straight out of the
+ * mapping as {@link ChunkMap} needs them. Opened levels are kept, so going back to
+ * a level costs nothing.
+ */
+public class LevelPack {
+    // "TNLP" - TENET level pack
+    public static final int MAGIC = 0x544E4C50;
+    public static final short VERSION = 1;
+
+    // System property holding the path of the pack the game should use
+    public static final String PATH_PROPERTY = "twod.levelPack";
+
+    private static LevelPack defaultPack;
+    private static boolean defaultPackOpened;
+
+    private final Path path;
+    private final MappedByteBuffer data;
+    private final Map<String, Integer> indexByName;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final LevelData[] levels;
+
+    /**
+     * Gets the pack named by the {@value #PATH_PROPERTY} system property, opening it the first time.
+     *
+     * @return The pack, or null if none is set or it can't be opened
+     */
+    public static synchronized LevelPack getDefault() {
+        if (!defaultPackOpened) {
+            defaultPackOpened = true;
+            String packPath = System.getProperty(PATH_PROPERTY);
+            if (packPath != null && Files.exists(Paths.get(packPath))) {
+                try {
+                    defaultPack = open(Paths.get(packPath));
+                    System.out.println("Using level pack " + packPath + " with " + defaultPack.getLevelCount() + " levels");
+                } catch (IOException e) {
+                    System.err.println("Error opening level pack " + packPath + ": " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        }
+        return defaultPack;
+    }
+
+    /**
+     * Opens and maps a level pack.
+     *
+     * @param path The file to read
+     * @return The pack
+     * @throws IOException If the file cannot be read or is not a level pack
+     */
+    public static LevelPack open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Level pack " + path + " is too large to map (" + size + " bytes)");
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new LevelPack(path, data);
+        }
+    }
+
+    private LevelPack(Path path, MappedByteBuffer data) throws IOException {
+        this.path = path;
+        this.data = data;
+
+        if (data.capacity() < 8 || data.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a level pack");
+        }
+        short version = data.getShort(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported level pack version " + version + " in " + path);
+        }
+
+        int count = data.getShort(6) & 0xFFFF;
+        indexByName = new HashMap<>();
+        offsets = new int[count];
+        lengths = new int[count];
+        levels = new LevelData[count];
+
+        // A directory that runs past the end of the file reads as truncated too
+        data.position(8);
+        try {
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[data.getShort() & 0xFFFF];
+                data.get(name);
+                indexByName.put(new String(name, StandardCharsets.UTF_8), i);
+                offsets[i] = data.getInt();
+                lengths[i] = data.getInt();
+                if (offsets[i] < 0 || lengths[i] < 0 || (long) offsets[i] + lengths[i] > data.capacity()) {
+                    throw new IOException("Level pack " + path + " is truncated");
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Level pack " + path + " is truncated", e);
+        }
+    }
+
+    /**
+     * Gets a level from the pack.
+     *
+     * @param name The level name, such as "level1"
+     * @return The level, or null if the pack doesn't have it
+     * @throws IOException If the level's entry is invalid
+     */
+    public synchronized LevelData getLevel(String name) throws IOException {
+        Integer index = indexByName.get(name);
+        if (index == null) {
+            return null;
+        }
+
+        if (levels[index] == null) {
+            ByteBuffer level = data.duplicate();
+            level.position(offsets[index]).limit(offsets[index] + lengths[index]);
+            levels[index] = LevelData.read(level.slice());
+        }
+        return levels[index];
+    }
+
+    /**
+     * Gets the number of levels in the pack.
+     *
+     * @return The level count
+     */
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * Gets the file the pack was read from.
+     *
+     * @return The path
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Compiles every level in a directory and writes them as a pack.
+     * Each level is named after its file, without the extension.
+     *
+     * @param sourceDirectory The directory of level text files
+     * @param out The stream to write the pack to
+     * @return The number of levels written
+     * @throws IOException If a level doesn't compile or the pack can't be written
+     */
+    public static int write(Path sourceDirectory, OutputStream out) throws IOException {
+        List<Path> sources = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(sourceDirectory, "*" + LevelData.TEXT_EXTENSION)) {
+            for (Path file : files) {
+                sources.add(file);
+            }
+        }
+        Collections.sort(sources);
+
+        List<String> names = new ArrayList<>();
+        List<LevelData> levels = new ArrayList<>();
+        for (Path source : sources) {
+            String fileName = source.getFileName().toString();
+            try (BufferedReader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+                levels.add(LevelCompiler.compile(reader, fileName));
+            }
+            names.add(fileName.substring(0, fileName.length() - LevelData.TEXT_EXTENSION.length()));
+        }
+        write(names, levels, out);
+        return names.size();
+    }
+
+    /**
+     * Writes compiled levels as a pack.
+     *
+     * @param names The name of each level
+     * @param levelData The levels, in the same order as their names
+     * @param out The stream to write the pack to
+     * @throws IOException If the levels don't fit in a pack or the pack can't be written
+     */
+    public static void write(List<String> names, List<LevelData> levelData, OutputStream out) throws IOException {
+        // The directory stores the level count and name lengths in 16 bits
+        if (names.size() != levelData.size()) {
+            throw new IOException(names.size() + " level names for " + levelData.size() + " levels");
+        }
+        if (names.size() > 0xFFFF) {
+            throw new IOException("A level pack holds at most 65535 levels, not " + names.size());
+        }
+        for (String name : names) {
+            if (name.getBytes(StandardCharsets.UTF_8).length > 0xFFFF) {
+                throw new IOException("Level name is too long for a level pack: " + name.substring(0, 40) + "...");
+            }
+        }
+
+        List<byte[]> levels = new ArrayList<>();
+        for (LevelData level : levelData) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            level.write(bytes);
+            levels.add(bytes.toByteArray());
+        }
+
+        // The directory comes first, so work out its size to know where the levels start
+        int offset = 8;
+        for (String name : names) {
+            offset += 2 + name.getBytes(StandardCharsets.UTF_8).length + 8;
+        }
+
+        DataOutputStream file = new DataOutputStream(out);
+        file.writeInt(MAGIC);
+        file.writeShort(VERSION);
+        file.writeShort(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            byte[] name = names.get(i).getBytes(StandardCharsets.UTF_8);
+            file.writeShort(name.length);
+            file.write(name);
+            file.writeInt(offset);
+            file.writeInt(levels.get(i).length);
+            offset += levels.get(i).length;
+        }
+        for (byte[] level : levels) {
+            file.write(level);
+        }
+        file.flush();
+    }
+
+    /**
+     * Builds a level pack from the command line.
+     *
+     * @param args The directory of level text files, then the pack file to write
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: LevelPack <level directory> <pack file>");
+            System.exit(2);
+        }
+
+        Path sourceDirectory = Paths.get(args[0]);
+        Path packFile = Paths.get(args[1]);
+        try {
+            if (packFile.getParent() != null) {
+                Files.createDirectories(packFile.getParent());
+            }
+            int count;
+            try (OutputStream out = Files.newOutputStream(packFile)) {
+                count = write(sourceDirectory, out);
+            }
+            System.out.println("Packed " + count + " levels into " + packFile + " (" + Files.size(packFile) + " bytes)");
+        } catch (IOException e) {
+            System.err.println("Error packing levels: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.niravramdhanie.twod.game.level;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.niravramdhanie.twod.game.entity.Entity;
+
+/**
+ * Builds the next level on a background thread while the current one is played, so
+ * moving through the exit door only has to swap the built level in.
+ * <p>
+ * A preload takes a spare {@link Level} that nothing else is using, clears it, loads
+ * the level description, builds the entities and reads the chunks around the spawn
+ * cell, which loads any textures they need on the way. The spare belongs to the
+ * background thread until it's taken back with {@link #take(int)} or {@link #cancel()},
+ * which wait for the build if it hasn't finished. Nothing a preload touches is seen by the game until
+ * then: entities only publish events once the game has them, and the chunks read
+ * ahead aren't activated until the game updates them.
+ */
+public class LevelPreloader {
+    /**
+     * A level built in the background.
+     */
+    public static final class Result {
+        private final Level level;
+        private final LevelData data;
+        private final Entity[] entities;
+
+        private Result(Level level, LevelData data, Entity[] entities) {
+            this.level = level;
+            this.data = data;
+            this.entities = entities;
+        }
+
+        /**
+         * Gets the level the entities were built into.
+         *
+         * @return The level
+         */
+        public Level getLevel() {
+            return level;
+        }
+
+        /**
+         * Gets the level's description.
+         *
+         * @return The level description
+         */
+        public LevelData getData() {
+            return data;
+        }
+
+        /**
+         * Gets the level's entities by their index in the description, as
+         * {@link Level#build(LevelData)} returns them.
+         *
+         * @return The entities
+         */
+        public Entity[] getEntities() {
+            return entities;
+        }
+    }
+
+    // Builds levels for every preloader, one at a time
+    private static ExecutorService builder;
+
+    private Future<Result> pending;
+    private int pendingLevel = -1;
+
+    /**
+     * Starts building a level into a spare level in the background. The spare mustn't be
+     * touched until it's been taken back or the preload cancelled. A preload already
+     * running is finished first, and its level is dropped.
+     *
+     * @param spare The level to build into; whatever it held is cleared
+     * @param levelNumber The level to build
+     */
+    public void preload(Level spare, int levelNumber) {
+        synchronized (LevelPreloader.class) {
+            if (builder == null) {
+                builder = Executors.newSingleThreadExecutor(task -> {
+                    Thread thread = new Thread(task, "Level preloader");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+            }
+        }
+
+        cancel();
+        pendingLevel = levelNumber;
+        pending = builder.submit(() -> build(spare, levelNumber));
+    }
+
+    /**
+     * Takes the level being preloaded if it's the one wanted, waiting for it to be built
+     * if it hasn't been yet. A preload of a different level is left running.
+     *
+     * @param levelNumber The level wanted
+     * @return The built level, with the spare given back, or null if that level isn't
+     *         being preloaded or couldn't be built
+     */
+    public Result take(int levelNumber) {
+        if (pending == null || pendingLevel != levelNumber) {
+            return null;
+        }
+        return finish();
+    }
+
+    /**
+     * Waits for the preload running, if any, and drops what it built, giving the spare back.
+     */
+    public void cancel() {
+        if (pending != null) {
+            finish();
+        }
+    }
+
+    /**
+     * Gets the level being preloaded.
+     *
+     * @return The level number, or -1 if none is
+     */
+    public int getPendingLevel() {
+        return pendingLevel;
+    }
+
+    /**
+     * Waits for the preload running and forgets it.
+     */
+    private Result finish() {
+        Result result = null;
+        try {
+            result = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Error preloading level " + pendingLevel + ": " + e.getCause().getMessage());
+            e.getCause().printStackTrace();
+        }
+        pending = null;
+        pendingLevel = -1;
+        return result;
+    }
+
+    /**
+     * Clears the spare and builds the level into it; runs on the background thread.
+     */
+    private static Result build(Level spare, int levelNumber) {
+        spare.clearLevel();
+
+        LevelData data = LevelData.load("level" + levelNumber);
+        if (data == null) {
+            return null;
+        }
+        Entity[] entities = spare.build(data);
+
+        // Read the walls the player will collide with first, from the spawn cell
+        float spawnX = spare.getGrid().gridToScreenX(data.getSpawnX());
+        float spawnY = spare.getGrid().gridToScreenY(data.getSpawnY());
+        spare.preloadChunks(spawnX, spawnY);
+        return new Result(spare, data, entities);
+    }
+}
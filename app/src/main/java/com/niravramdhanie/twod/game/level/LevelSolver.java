@@ -0,0 +1,1113 @@
+package com.niravramdhanie.twod.game.level;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.niravramdhanie.twod.game.actions.LogicGraph;
+import com.niravramdhanie.twod.game.utils.ConcurrentLongSet;
+import com.niravramdhanie.twod.game.utils.GameClock;
+
+/**
+ * Finds the fewest steps that finish a level, rewinding included, by going through
+ * the states the level can get into.
+ * <p>
+ * Where {@link LevelChecker} thinks in rooms, the solver plays the level on its grid.
+ * A step is moving one cell, waiting, pressing E or pressing R. A player at full speed
+ * crosses a cell in {@value #TICKS_PER_STEP} ticks, so a button held for a second stays
+ * down for five steps. A world is the player's cell, where each box is (on one of the
+ * cells boxes are put down on, or carried), and the steps left on each button the
+ * player presses; doors and weighted buttons aren't stored, as they follow from the rest.
+ * <p>
+ * Rewinding is searched as two worlds side by side. Pressing R copies the world; the
+ * player then moves in one copy, the recording, and the other copy, the replay, gets
+ * the same presses and box moves at the same step. Each step of the recording is
+ * followed by a step of the player in the replay, so the search doesn't have to
+ * remember a recording's history, only both worlds as they are. Pressing R again
+ * drops the recording, as the replay has caught up with it. A state is packed into one long:
+ * <pre>
+ *   world       the world the player is in, the replay while rewinding
+ *   latches     the logic's latches, which rewinding doesn't reset
+ *   rewind      whether a recording is being replayed, and whose turn it is
+ *   recording   the recording's world while rewinding
+ * </pre>
+ * <p>
+ * The search is breadth-first, a depth at a time, and stops at the first depth that
+ * reaches the exit. Each depth's states are split across a {@link ForkJoinPool}, and the
+ * states they lead to are added to a {@link ConcurrentLongSet} along with the state they
+ * came from, so the solution can be read back from the exit. Levels are searched without
+ * rewinding first, which is much quicker, and with it only if they can't be finished otherwise.
+ * <p>
+ * Some things are simpler than in the game, which only ever costs the solver solutions,
+ * never makes it find one the game doesn't allow: boxes are only put down on buttons or
+ * where a box started, recordings can't end with a box carried, and levels with logic
+ * timers aren't solved.
+ */
+public final class LevelSolver {
+    // Results other than a step count
+    public static final int UNSOLVABLE = LevelChecker.UNSOLVABLE;
+    public static final int UNCHECKED = LevelChecker.UNCHECKED;
+
+    // Stop searching levels with more states than this
+    public static final int MAX_STATES = 1 << 23;
+
+    // A player at full speed moves 2.8 pixels a tick, so crosses a 32 pixel cell in 12 ticks
+    public static final int TICKS_PER_STEP = 12;
+
+    // Moves, as they're written in a solution
+    private static final char UP = '^';
+    private static final char DOWN = 'v';
+    private static final char LEFT = '<';
+    private static final char RIGHT = '>';
+    private static final char WAIT = '.';
+    private static final char INTERACT = 'E';
+    private static final char REWIND = 'R';
+
+    // States a fork-join task expands itself rather than splitting further
+    private static final int BATCH_SIZE = 1024;
+
+    // States expanded between checks that the visited set has room for what they lead to
+    private static final int SLICE_SIZE = 1 << 16;
+
+    private static final LogicGraph.NodeType[] NODE_TYPES = LogicGraph.NodeType.values();
+
+    /**
+     * What a search found.
+     */
+    public static final class Result {
+        private final int steps;
+        private final String moves;
+        private final int stateCount;
+        private final boolean complete;
+        private final long nanos;
+        private final int threads;
+
+        private Result(int steps, String moves, int stateCount, boolean complete, long nanos, int threads) {
+            this.steps = steps;
+            this.moves = moves;
+            this.stateCount = stateCount;
+            this.complete = complete;
+            this.nanos = nanos;
+            this.threads = threads;
+        }
+
+        /**
+         * Gets the length of the solution.
+         *
+         * @return The number of steps, {@link #UNSOLVABLE} if there is no way to the exit,
+         *         or {@link #UNCHECKED} if the level couldn't be searched
+         */
+        public int getSteps() {
+            return steps;
+        }
+
+        /**
+         * Gets the solution in the order the keys are pressed, one character a step:
+         * {@code ^ v < >} to move, {@code .} to wait, {@code E} to interact and
+         * {@code R} to start or end a recording.
+         *
+         * @return The moves, or null if no solution was found
+         */
+        public String getMoves() {
+            return moves;
+        }
+
+        /**
+         * Gets the number of states the search reached.
+         *
+         * @return The state count
+         */
+        public int getStateCount() {
+            return stateCount;
+        }
+
+        /**
+         * Checks if every reachable state was searched, which is only needed when there's no solution.
+         *
+         * @return True if the search ran out of states rather than hitting its limit
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Gets how long the search took.
+         *
+         * @return The time in seconds
+         */
+        public double getSeconds() {
+            return nanos / 1e9;
+        }
+
+        /**
+         * Gets the search speed.
+         *
+         * @return States reached per second
+         */
+        public double getStatesPerSecond() {
+            return nanos > 0 ? stateCount / (nanos / 1e9) : 0;
+        }
+
+        /**
+         * Gets the number of threads that searched.
+         *
+         * @return The pool's parallelism
+         */
+        public int getThreads() {
+            return threads;
+        }
+    }
+
+    /**
+     * Takes each state a move leads to.
+     */
+    private interface Successors {
+        void accept(long state, char move);
+    }
+
+    // The grid
+    private final int width;
+    private final boolean[] blocked;
+    private final int[] doorAt;
+    private final int exitCell;
+    private final int spawnCell;
+
+    // Buttons the player presses: steps each stays down for (0 for good), and those in reach of each cell
+    private final int[] pressSteps;
+    private final int[][] pressesNear;
+
+    // Weighted buttons by cell
+    private final int[] weightAt;
+    private final int weightCount;
+
+    // Cells boxes can lie on, and which of them each box starts on
+    private final int[] spotCell;
+    private final int[] spotAt;
+    private final int[] boxStart;
+
+    // What opens each door: logic outputs, or buttons that toggle or hold it
+    private final boolean[] doorStartsOpen;
+    private final int[][] doorOutputs;
+    private final int[][] doorToggles;
+    private final int[][] doorHolds;
+
+    // The logic, by node
+    private final int[] nodeTypes;
+    private final int[][] nodeInputs;
+    private final int[] nodePress;
+    private final int[] nodeWeight;
+    private final int[] nodeLatch;
+
+    // Box locations past the spots
+    private final int carried;
+    private final int ghost;
+
+    // Where each part of a world is in its bits, and where the parts of a state are
+    private final int cellBits;
+    private final int spotBits;
+    private final int buttonsShift;
+    private final int[] buttonShift;
+    private final int[] buttonBits;
+    private final int worldBits;
+    private final int latchShift;
+    private final int latchCount;
+    private final boolean rewindUseful;
+    private final int phaseShift;
+    private final int turnShift;
+    private final int recordingShift;
+    private final int stateBits;
+
+    private final int maxSuccessors;
+
+    // Whether this search lets the player rewind
+    private boolean rewinding;
+
+    private LevelSolver(LevelData level, boolean[] blocked) {
+        int width = level.getWidth();
+        int cells = width * level.getHeight();
+        this.width = width;
+        this.blocked = blocked;
+
+        int[] doorEntities = LevelChecker.entitiesOfType(level, LevelData.ENTITY_DOOR);
+        int[] pressEntities = LevelChecker.entitiesOfType(level, LevelData.ENTITY_BUTTON);
+        int[] weightEntities = LevelChecker.entitiesOfType(level, LevelData.ENTITY_WEIGHTED_BUTTON);
+        int[] boxEntities = LevelChecker.entitiesOfType(level, LevelData.ENTITY_BOX);
+
+        doorAt = new int[cells];
+        Arrays.fill(doorAt, -1);
+        doorStartsOpen = new boolean[doorEntities.length];
+        for (int door = 0; door < doorEntities.length; door++) {
+            doorAt[cellOf(level, doorEntities[door])] = door;
+            doorStartsOpen[door] = level.hasEntityFlag(doorEntities[door], LevelData.FLAG_OPEN);
+        }
+        exitCell = cellOf(level, level.getExitDoor());
+        spawnCell = level.getSpawnY() * width + level.getSpawnX();
+
+        // Actions decide how long pressed buttons stay down and which doors buttons move
+        pressSteps = new int[pressEntities.length];
+        int[] pressDoor = new int[pressEntities.length];
+        int[] weightDoor = new int[weightEntities.length];
+        Arrays.fill(pressDoor, -1);
+        Arrays.fill(weightDoor, -1);
+        for (int action = 0; action < level.getActionCount(); action++) {
+            int entity = level.getActionButton(action);
+            int door = level.getActionDoor(action) >= 0 ? indexOf(doorEntities, level.getActionDoor(action)) : -1;
+            int press = indexOf(pressEntities, entity);
+            if (press >= 0) {
+                pressDoor[press] = door;
+                if (level.getActionType(action) == LevelData.ACTION_TIMED) {
+                    long ticks = ((long) level.getActionMillis(action) * GameClock.TICKS_PER_SECOND + 999) / 1000;
+                    pressSteps[press] = (int) Math.max(1, ticks / TICKS_PER_STEP);
+                }
+            }
+            int weight = indexOf(weightEntities, entity);
+            if (weight >= 0) {
+                weightDoor[weight] = door;
+            }
+        }
+
+        pressesNear = new int[cells][];
+        for (int cell = 0; cell < cells; cell++) {
+            int[] near = new int[pressEntities.length];
+            int count = 0;
+            for (int press = 0; press < pressEntities.length; press++) {
+                if (Math.abs(level.getEntityX(pressEntities[press]) - cell % width) <= 1
+                        && Math.abs(level.getEntityY(pressEntities[press]) - cell / width) <= 1) {
+                    near[count++] = press;
+                }
+            }
+            pressesNear[cell] = count > 0 ? Arrays.copyOf(near, count) : null;
+        }
+
+        // Boxes lie on weighted buttons or where a box started
+        weightAt = new int[cells];
+        Arrays.fill(weightAt, -1);
+        weightCount = weightEntities.length;
+        spotAt = new int[cells];
+        Arrays.fill(spotAt, -1);
+        int[] spots = new int[weightEntities.length + boxEntities.length];
+        int spotCount = 0;
+        for (int weight = 0; weight < weightEntities.length; weight++) {
+            int cell = cellOf(level, weightEntities[weight]);
+            weightAt[cell] = weight;
+            if (spotAt[cell] < 0) {
+                spotAt[cell] = spotCount;
+                spots[spotCount++] = cell;
+            }
+        }
+        boxStart = new int[boxEntities.length];
+        for (int box = 0; box < boxEntities.length; box++) {
+            int cell = cellOf(level, boxEntities[box]);
+            if (spotAt[cell] < 0) {
+                spotAt[cell] = spotCount;
+                spots[spotCount++] = cell;
+            }
+            boxStart[box] = spotAt[cell];
+        }
+        Arrays.sort(boxStart);
+        spotCell = Arrays.copyOf(spots, spotCount);
+        carried = spotCount;
+        ghost = spotCount + 1;
+
+        // The logic, with inputs pointing at the buttons they read
+        int nodeCount = level.getNodeCount();
+        nodeTypes = new int[nodeCount];
+        nodeInputs = new int[nodeCount][];
+        nodePress = new int[nodeCount];
+        nodeWeight = new int[nodeCount];
+        nodeLatch = new int[nodeCount];
+        int latches = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            nodeTypes[node] = level.getNodeType(node);
+            nodeInputs[node] = level.getNodeInputs(node);
+            nodePress[node] = indexOf(pressEntities, level.getNodeButton(node));
+            nodeWeight[node] = indexOf(weightEntities, level.getNodeButton(node));
+            nodeLatch[node] = NODE_TYPES[nodeTypes[node]] == LogicGraph.NodeType.LATCH ? latches++ : -1;
+        }
+        latchCount = latches;
+
+        doorOutputs = new int[doorEntities.length][0];
+        for (int output = 0; output < level.getOutputCount(); output++) {
+            for (int entity : level.getOutputDoors(output)) {
+                int door = indexOf(doorEntities, entity);
+                doorOutputs[door] = append(doorOutputs[door], level.getOutputNode(output));
+            }
+        }
+        doorToggles = new int[doorEntities.length][0];
+        for (int press = 0; press < pressDoor.length; press++) {
+            if (pressDoor[press] >= 0) {
+                doorToggles[pressDoor[press]] = append(doorToggles[pressDoor[press]], press);
+            }
+        }
+        doorHolds = new int[doorEntities.length][0];
+        for (int weight = 0; weight < weightDoor.length; weight++) {
+            if (weightDoor[weight] >= 0) {
+                doorHolds[weightDoor[weight]] = append(doorHolds[weightDoor[weight]], weight);
+            }
+        }
+
+        // A world is the player's cell, then the boxes, then the buttons
+        cellBits = bitsFor(cells - 1);
+        spotBits = bitsFor(ghost);
+        buttonsShift = cellBits + spotBits * boxStart.length;
+        buttonShift = new int[pressSteps.length];
+        buttonBits = new int[pressSteps.length];
+        int shift = buttonsShift;
+        for (int press = 0; press < pressSteps.length; press++) {
+            buttonShift[press] = shift;
+            buttonBits[press] = bitsFor(Math.max(1, pressSteps[press]));
+            shift += buttonBits[press];
+        }
+        worldBits = shift;
+
+        // The replay only repeats presses and box moves, so rewinding is no use without either
+        latchShift = worldBits;
+        phaseShift = latchShift + latchCount;
+        turnShift = phaseShift + 1;
+        recordingShift = turnShift + 1;
+        rewindUseful = pressSteps.length > 0 || boxStart.length > 0;
+        stateBits = rewindUseful ? recordingShift + worldBits : phaseShift;
+
+        // Four moves, waiting, pressing E with each box in reach or none, and R
+        maxSuccessors = 4 + 1 + boxStart.length + 1 + 1;
+    }
+
+    /**
+     * Searches a level on the common fork-join pool.
+     *
+     * @param level The level
+     * @return What the search found
+     */
+    public static Result solve(LevelData level) {
+        return solve(level, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds the shortest way through a level that doesn't rewind, or if there's none,
+     * the shortest that does.
+     *
+     * @param level The level
+     * @param pool The pool to search on
+     * @return What the search found; the step count is {@link #UNCHECKED} if the level
+     *         uses things the solver doesn't model or has too many states
+     */
+    public static Result solve(LevelData level, ForkJoinPool pool) {
+        LevelSolver solver;
+        try {
+            solver = create(level);
+        } catch (IOException e) {
+            System.err.println("Error reading level walls: " + e.getMessage());
+            solver = null;
+        }
+        if (solver == null) {
+            return new Result(UNCHECKED, null, 0, false, 0, pool.getParallelism());
+        }
+
+        Result result = solver.search(pool);
+        if (result.getSteps() == UNSOLVABLE && solver.rewindUseful) {
+            solver.rewinding = true;
+            Result rewound = solver.search(pool);
+            result = new Result(rewound.steps, rewound.moves, result.stateCount + rewound.stateCount,
+                                rewound.complete, result.nanos + rewound.nanos, rewound.threads);
+        }
+        return result;
+    }
+
+    /**
+     * Works out how a level's states are laid out.
+     *
+     * @return The solver, or null if the level can't be solved
+     */
+    private static LevelSolver create(LevelData level) throws IOException {
+        if (level.getExitDoor() < 0) {
+            return null;
+        }
+        for (int node = 0; node < level.getNodeCount(); node++) {
+            if (NODE_TYPES[level.getNodeType(node)] == LogicGraph.NodeType.TIMER) {
+                return null;
+            }
+        }
+
+        boolean[] blocked = LevelChecker.readWalls(level);
+        int spawn = level.getSpawnY() * level.getWidth() + level.getSpawnX();
+        if (spawn < 0 || spawn >= blocked.length || blocked[spawn]) {
+            return null;
+        }
+
+        // Every state has to fit in a long with the sign bit clear
+        LevelSolver solver = new LevelSolver(level, blocked);
+        return solver.stateBits <= 63 ? solver : null;
+    }
+
+    /**
+     * Searches outward from the start a depth at a time until the exit is reached
+     * or no new states turn up.
+     */
+    private Result search(ForkJoinPool pool) {
+        long startTime = System.nanoTime();
+        ConcurrentLongSet visited = new ConcurrentLongSet(SLICE_SIZE);
+
+        State first = new State(boxStart.length, pressSteps.length);
+        first.world.player = spawnCell;
+        System.arraycopy(boxStart, 0, first.world.boxes, 0, boxStart.length);
+        Scratch scratch = new Scratch();
+        first.latches = evaluate(first.world, -1, 0, scratch);
+        long start = encode(first);
+        visited.add(start, ConcurrentLongSet.EMPTY);
+
+        long[] frontier = { start };
+        long goal = -1;
+        boolean complete = true;
+        while (frontier.length > 0 && goal < 0 && complete) {
+            long[] next = new long[0];
+            int nextCount = 0;
+            for (int from = 0; from < frontier.length; from += SLICE_SIZE) {
+                if (visited.size() > MAX_STATES) {
+                    complete = false;
+                    break;
+                }
+                int to = Math.min(frontier.length, from + SLICE_SIZE);
+                visited.ensureCapacity(visited.size() + (to - from) * maxSuccessors);
+                Expansion expansion = pool.invoke(new Expand(frontier, from, to, visited));
+                if (nextCount + expansion.count > next.length) {
+                    next = Arrays.copyOf(next, Math.max(nextCount + expansion.count, next.length * 2));
+                }
+                System.arraycopy(expansion.states, 0, next, nextCount, expansion.count);
+                nextCount += expansion.count;
+                if (goal < 0) {
+                    goal = expansion.goal;
+                }
+            }
+            frontier = Arrays.copyOf(next, nextCount);
+        }
+
+        String moves = goal >= 0 ? readMoves(visited, goal) : null;
+        int steps = goal >= 0 ? moves.length() : complete ? UNSOLVABLE : UNCHECKED;
+        return new Result(steps, moves, visited.size(), complete && goal < 0,
+                          System.nanoTime() - startTime, pool.getParallelism());
+    }
+
+    /**
+     * Expands a range of one depth's states, splitting it in half until the pieces are small.
+     */
+    private final class Expand extends RecursiveTask<Expansion> {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] frontier;
+        private final int from;
+        private final int to;
+        private final transient ConcurrentLongSet visited;
+
+        Expand(long[] frontier, int from, int to, ConcurrentLongSet visited) {
+            this.frontier = frontier;
+            this.from = from;
+            this.to = to;
+            this.visited = visited;
+        }
+
+        @Override
+        protected Expansion compute() {
+            if (to - from <= BATCH_SIZE) {
+                Expansion expansion = new Expansion(visited, (to - from) * 2);
+                Scratch scratch = new Scratch();
+                for (int i = from; i < to; i++) {
+                    expansion.parent = frontier[i];
+                    expand(frontier[i], scratch, expansion);
+                }
+                return expansion;
+            }
+
+            int middle = (from + to) >>> 1;
+            Expand first = new Expand(frontier, from, middle, visited);
+            Expand second = new Expand(frontier, middle, to, visited);
+            first.fork();
+            Expansion expansion = second.compute();
+            expansion.prepend(first.join());
+            return expansion;
+        }
+    }
+
+    /**
+     * The new states found by expanding some states, and any that reached the exit.
+     */
+    private final class Expansion implements Successors {
+        private final ConcurrentLongSet visited;
+        private long parent;
+        private long[] states;
+        private int count;
+        private long goal = -1;
+
+        Expansion(ConcurrentLongSet visited, int capacity) {
+            this.visited = visited;
+            this.states = new long[Math.max(16, capacity)];
+        }
+
+        @Override
+        public void accept(long state, char move) {
+            if (!visited.add(state, parent)) {
+                return;
+            }
+            // The player has left the level, so there's nothing more to expand
+            if (isFinished(state)) {
+                if (goal < 0) {
+                    goal = state;
+                }
+                return;
+            }
+            if (count == states.length) {
+                states = Arrays.copyOf(states, count * 2);
+            }
+            states[count++] = state;
+        }
+
+        /**
+         * Puts another expansion's states ahead of these ones.
+         */
+        void prepend(Expansion other) {
+            long[] merged = new long[other.count + count];
+            System.arraycopy(other.states, 0, merged, 0, other.count);
+            System.arraycopy(states, 0, merged, other.count, count);
+            states = merged;
+            count = merged.length;
+            if (other.goal >= 0) {
+                goal = other.goal;
+            }
+        }
+    }
+
+    /**
+     * Checks if the player is in the exit with no recording left to end.
+     */
+    private boolean isFinished(long state) {
+        return (state & ((1L << cellBits) - 1)) == exitCell && ((state >>> phaseShift) & 1) == 0;
+    }
+
+    /**
+     * Follows the links back from the exit to the start, then writes the moves out in
+     * the order they're played: a recording's moves come before the replay's.
+     */
+    private String readMoves(ConcurrentLongSet visited, long goal) {
+        Scratch scratch = new Scratch();
+        long[] target = new long[1];
+        char[] found = new char[1];
+        Successors finder = (state, move) -> {
+            if (state == target[0]) {
+                found[0] = move;
+            }
+        };
+
+        // Each step's move, and whether it was a step of the recording or the replay, from the exit back
+        StringBuilder moves = new StringBuilder();
+        StringBuilder turns = new StringBuilder();
+        long state = goal;
+        long parent = visited.getLink(state);
+        while (parent != ConcurrentLongSet.EMPTY) {
+            target[0] = state;
+            found[0] = '?';
+            expand(parent, scratch, finder);
+            moves.append(found[0]);
+            boolean replaying = ((parent >>> phaseShift) & 1) != 0;
+            turns.append(!replaying ? 'w' : ((parent >>> turnShift) & 1) == 0 ? 'r' : 'p');
+            state = parent;
+            parent = visited.getLink(state);
+        }
+        moves.reverse();
+        turns.reverse();
+
+        StringBuilder played = new StringBuilder();
+        StringBuilder recording = new StringBuilder();
+        StringBuilder replay = new StringBuilder();
+        for (int step = 0; step < moves.length(); step++) {
+            char move = moves.charAt(step);
+            switch (turns.charAt(step)) {
+                case 'r':
+                    if (move == REWIND) {
+                        played.append(REWIND).append(recording).append(REWIND).append(replay);
+                        recording.setLength(0);
+                        replay.setLength(0);
+                    } else {
+                        recording.append(move);
+                    }
+                    break;
+                case 'p':
+                    replay.append(move);
+                    break;
+                default:
+                    // Starting a recording is written out with the rest of it once it ends
+                    if (move != REWIND) {
+                        played.append(move);
+                    }
+                    break;
+            }
+        }
+        return played.toString();
+    }
+
+    /**
+     * Passes every state one step away from a state to a consumer.
+     */
+    private void expand(long packed, Scratch scratch, Successors out) {
+        State state = scratch.state;
+        decode(packed, state);
+
+        if (!state.replaying) {
+            act(state, state.world, false, scratch, out);
+            if (rewinding) {
+                // Start recording: the recording and the replay both begin as this world
+                State next = scratch.next;
+                next.copyFrom(state);
+                next.replaying = true;
+                next.recordingTurn = true;
+                next.recording.copyFrom(state.world);
+                out.accept(encode(next), REWIND);
+            }
+            return;
+        }
+
+        if (!state.recordingTurn) {
+            act(state, state.world, true, scratch, out);
+            return;
+        }
+
+        // Once the player is out, all that's left is to end the recording
+        boolean exited = state.world.player == exitCell;
+        if (!exited) {
+            act(state, state.recording, true, scratch, out);
+        }
+        if (exited || !isCarrying(state.recording)) {
+            State next = scratch.next;
+            next.copyFrom(state);
+            next.replaying = false;
+            next.recordingTurn = false;
+            next.recording.clear();
+            Arrays.sort(next.world.boxes);
+            out.accept(encode(next), REWIND);
+        }
+    }
+
+    /**
+     * Passes on the states one move of the player in a world leads to.
+     *
+     * @param state The state the player moves in
+     * @param world The world the player moves in: the state's world, or its recording
+     * @param replaying True if a recording is being replayed
+     */
+    private void act(State state, World world, boolean replaying, Scratch scratch, Successors out) {
+        boolean recording = world == state.recording;
+        int ghostCell = replaying && !recording ? state.recording.player : -1;
+        boolean[] open = doors(world, ghostCell, state.latches, scratch);
+
+        int cell = world.player;
+        int x = cell % width;
+        move(state, recording, x > 0 ? cell - 1 : -1, LEFT, open, scratch, out);
+        move(state, recording, x < width - 1 ? cell + 1 : -1, RIGHT, open, scratch, out);
+        move(state, recording, cell - width, UP, open, scratch, out);
+        move(state, recording, cell + width, DOWN, open, scratch, out);
+
+        State next = scratch.next;
+        next.copyFrom(state);
+        finish(next, recording, WAIT, scratch, out);
+
+        interact(state, recording, scratch, out);
+    }
+
+    /**
+     * Moves the player into a cell if it isn't a wall or a closed door.
+     */
+    private void move(State state, boolean recording, int cell, char move, boolean[] open,
+                      Scratch scratch, Successors out) {
+        if (cell < 0 || cell >= blocked.length || blocked[cell]) {
+            return;
+        }
+        if (doorAt[cell] >= 0 && !open[doorAt[cell]]) {
+            return;
+        }
+        // Leaving during a recording would end the level before the replay
+        if (recording && cell == exitCell) {
+            return;
+        }
+        State next = scratch.next;
+        next.copyFrom(state);
+        (recording ? next.recording : next.world).player = cell;
+        finish(next, recording, move, scratch, out);
+    }
+
+    /**
+     * Presses E: presses the buttons in reach, and puts down the carried box or picks
+     * one up. What the player does while recording happens in the replay too.
+     */
+    private void interact(State state, boolean recording, Scratch scratch, Successors out) {
+        State next = scratch.next;
+        next.copyFrom(state);
+        World world = recording ? next.recording : next.world;
+        boolean pressed = false;
+        int[] near = pressesNear[world.player];
+        if (near != null) {
+            for (int press : near) {
+                if (press(world, press)) {
+                    pressed = true;
+                    if (recording) {
+                        press(next.world, press);
+                    }
+                }
+            }
+        }
+
+        int[] boxes = world.boxes;
+        int carriedBox = indexOf(boxes, carried);
+        if (carriedBox >= 0) {
+            int spot = spotAt[world.player];
+            if (spot >= 0 && indexOf(boxes, spot) < 0) {
+                boxes[carriedBox] = spot;
+                if (recording) {
+                    next.world.boxes[carriedBox] = spot;
+                }
+                finish(next, recording, INTERACT, scratch, out);
+            } else if (pressed) {
+                finish(next, recording, INTERACT, scratch, out);
+            }
+            return;
+        }
+
+        // Any box in reach could be the one picked up
+        State pickup = scratch.pickup;
+        boolean picked = false;
+        int x = world.player % width;
+        int y = world.player / width;
+        for (int box = 0; box < boxes.length; box++) {
+            int spot = boxes[box];
+            if (spot >= carried || indexOf(boxes, spot) < box) {
+                continue;
+            }
+            int cell = spotCell[spot];
+            if (Math.abs(cell % width - x) > 1 || Math.abs(cell / width - y) > 1) {
+                continue;
+            }
+            // The replay takes the box wherever it is, unless the player is holding it
+            if (recording && next.world.boxes[box] == carried) {
+                continue;
+            }
+            pickup.copyFrom(next);
+            (recording ? pickup.recording : pickup.world).boxes[box] = carried;
+            if (recording) {
+                pickup.world.boxes[box] = ghost;
+            }
+            finish(pickup, recording, INTERACT, scratch, out);
+            picked = true;
+        }
+        if (!picked && pressed) {
+            finish(next, recording, INTERACT, scratch, out);
+        }
+    }
+
+    /**
+     * Presses a button, which does nothing if it's already down.
+     *
+     * @return True if the button went down
+     */
+    private boolean press(World world, int press) {
+        if (world.buttons[press] > 0) {
+            return false;
+        }
+        world.buttons[press] = pressSteps[press] > 0 ? pressSteps[press] : 1;
+        return true;
+    }
+
+    /**
+     * Finishes a step and passes on the state it ends in. A recording's step waits for
+     * the replay's; after the replay's step, or any step without a recording, the logic
+     * runs and time moves on.
+     */
+    private void finish(State state, boolean recording, char move, Scratch scratch, Successors out) {
+        if (recording) {
+            state.recordingTurn = false;
+            out.accept(encode(state), move);
+            return;
+        }
+
+        if (state.replaying) {
+            state.latches = evaluate(state.recording, -1, state.latches, scratch);
+            tick(state.recording);
+            state.latches = evaluate(state.world, state.recording.player, state.latches, scratch);
+            state.recordingTurn = true;
+        } else {
+            state.latches = evaluate(state.world, -1, state.latches, scratch);
+            Arrays.sort(state.world.boxes);
+        }
+        tick(state.world);
+        out.accept(encode(state), move);
+    }
+
+    /**
+     * Counts down the buttons that stay pressed for a while.
+     */
+    private void tick(World world) {
+        for (int press = 0; press < pressSteps.length; press++) {
+            if (pressSteps[press] > 0 && world.buttons[press] > 0) {
+                world.buttons[press]--;
+            }
+        }
+    }
+
+    /**
+     * Runs the logic on a world. The node values and weighted buttons are left in the scratch space.
+     *
+     * @param ghostCell Where the recording's player is, carrying any box taken by the replay, or -1
+     * @return The latches afterwards
+     */
+    private int evaluate(World world, int ghostCell, int latches, Scratch scratch) {
+        boolean[] weighted = scratch.weighted;
+        Arrays.fill(weighted, false);
+        for (int location : world.boxes) {
+            // Boxes press buttons while carried over them too
+            int cell = location < carried ? spotCell[location] : location == carried ? world.player : ghostCell;
+            if (cell >= 0 && weightAt[cell] >= 0) {
+                weighted[weightAt[cell]] = true;
+            }
+        }
+
+        boolean[] values = scratch.values;
+        for (int node = 0; node < values.length; node++) {
+            int[] inputs = nodeInputs[node];
+            boolean value = false;
+            switch (NODE_TYPES[nodeTypes[node]]) {
+                case INPUT:
+                    value = (nodePress[node] >= 0 && world.buttons[nodePress[node]] > 0)
+                            || (nodeWeight[node] >= 0 && weighted[nodeWeight[node]]);
+                    break;
+                case AND:
+                    value = true;
+                    for (int input : inputs) {
+                        value &= values[input];
+                    }
+                    break;
+                case OR:
+                    for (int input : inputs) {
+                        value |= values[input];
+                    }
+                    break;
+                case XOR:
+                    for (int input : inputs) {
+                        value ^= values[input];
+                    }
+                    break;
+                case NOT:
+                    value = !values[inputs[0]];
+                    break;
+                case LATCH:
+                    int bit = 1 << nodeLatch[node];
+                    boolean reset = inputs.length > 1 && values[inputs[1]];
+                    value = !reset && (values[inputs[0]] || (latches & bit) != 0);
+                    latches = value ? latches | bit : latches & ~bit;
+                    break;
+                default:
+                    break;
+            }
+            values[node] = value;
+        }
+        return latches;
+    }
+
+    /**
+     * Works out which doors are open in a world.
+     */
+    private boolean[] doors(World world, int ghostCell, int latches, Scratch scratch) {
+        evaluate(world, ghostCell, latches, scratch);
+        boolean[] open = scratch.open;
+        for (int door = 0; door < open.length; door++) {
+            if (doorOutputs[door].length > 0) {
+                // The logic overrides whatever buttons do to the door
+                open[door] = false;
+                for (int node : doorOutputs[door]) {
+                    open[door] |= scratch.values[node];
+                }
+                continue;
+            }
+            open[door] = doorStartsOpen[door];
+            for (int press : doorToggles[door]) {
+                if (world.buttons[press] > 0) {
+                    open[door] = !open[door];
+                }
+            }
+            for (int weight : doorHolds[door]) {
+                open[door] |= scratch.weighted[weight];
+            }
+        }
+        return open;
+    }
+
+    private boolean isCarrying(World world) {
+        return indexOf(world.boxes, carried) >= 0;
+    }
+
+    private long encode(State state) {
+        long packed = encode(state.world);
+        packed |= (long) state.latches << latchShift;
+        if (state.replaying) {
+            packed |= 1L << phaseShift;
+            packed |= (state.recordingTurn ? 0L : 1L) << turnShift;
+            packed |= encode(state.recording) << recordingShift;
+        }
+        return packed;
+    }
+
+    private long encode(World world) {
+        long packed = world.player;
+        for (int box = 0; box < world.boxes.length; box++) {
+            packed |= (long) world.boxes[box] << (cellBits + spotBits * box);
+        }
+        for (int press = 0; press < world.buttons.length; press++) {
+            packed |= (long) world.buttons[press] << buttonShift[press];
+        }
+        return packed;
+    }
+
+    private void decode(long packed, State state) {
+        decode(packed, state.world);
+        state.latches = (int) ((packed >>> latchShift) & ((1L << latchCount) - 1));
+        state.replaying = ((packed >>> phaseShift) & 1) != 0;
+        if (state.replaying) {
+            state.recordingTurn = ((packed >>> turnShift) & 1) == 0;
+            decode(packed >>> recordingShift, state.recording);
+        } else {
+            state.recordingTurn = false;
+            state.recording.clear();
+        }
+    }
+
+    private void decode(long packed, World world) {
+        world.player = (int) (packed & ((1L << cellBits) - 1));
+        for (int box = 0; box < world.boxes.length; box++) {
+            world.boxes[box] = (int) ((packed >>> (cellBits + spotBits * box)) & ((1L << spotBits) - 1));
+        }
+        for (int press = 0; press < world.buttons.length; press++) {
+            world.buttons[press] = (int) ((packed >>> buttonShift[press]) & ((1L << buttonBits[press]) - 1));
+        }
+    }
+
+    /**
+     * One copy of the level: the player, the boxes and the pressed buttons.
+     */
+    private static final class World {
+        private int player;
+        private final int[] boxes;
+        private final int[] buttons;
+
+        World(int boxCount, int buttonCount) {
+            boxes = new int[boxCount];
+            buttons = new int[buttonCount];
+        }
+
+        void copyFrom(World other) {
+            player = other.player;
+            System.arraycopy(other.boxes, 0, boxes, 0, boxes.length);
+            System.arraycopy(other.buttons, 0, buttons, 0, buttons.length);
+        }
+
+        void clear() {
+            player = 0;
+            Arrays.fill(boxes, 0);
+            Arrays.fill(buttons, 0);
+        }
+    }
+
+    /**
+     * A state unpacked for changing.
+     */
+    private static final class State {
+        private final World world;
+        private final World recording;
+        private int latches;
+        private boolean replaying;
+        private boolean recordingTurn;
+
+        State(int boxCount, int buttonCount) {
+            world = new World(boxCount, buttonCount);
+            recording = new World(boxCount, buttonCount);
+        }
+
+        void copyFrom(State other) {
+            world.copyFrom(other.world);
+            recording.copyFrom(other.recording);
+            latches = other.latches;
+            replaying = other.replaying;
+            recordingTurn = other.recordingTurn;
+        }
+    }
+
+    /**
+     * The working space of one thread's expansions, so expanding doesn't allocate.
+     */
+    private final class Scratch {
+        private final State state = new State(boxStart.length, pressSteps.length);
+        private final State next = new State(boxStart.length, pressSteps.length);
+        private final State pickup = new State(boxStart.length, pressSteps.length);
+        private final boolean[] values = new boolean[nodeTypes.length];
+        private final boolean[] weighted = new boolean[weightCount];
+        private final boolean[] open = new boolean[doorStartsOpen.length];
+    }
+
+    private static int bitsFor(int maxValue) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(maxValue));
+    }
+
+    private static int cellOf(LevelData level, int entity) {
+        return level.getEntityY(entity) * level.getWidth() + level.getEntityX(entity);
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] append(int[] values, int value) {
+        int[] appended = Arrays.copyOf(values, values.length + 1);
+        appended[values.length] = value;
+        return appended;
+    }
+
+    /**
+     * Solves levels from the command line and reports how many states it took.
+     *
+     * @param args The level names, level1 to level3 if none are given
+     */
+    public static void main(String[] args) {
+        String[] names = args.length > 0 ? args : new String[] { "level1", "level2", "level3" };
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        boolean failed = false;
+        for (String name : names) {
+            LevelData level = LevelData.load(name);
+            if (level == null) {
+                failed = true;
+                continue;
+            }
+
+            Result result = solve(level, pool);
+            if (result.getSteps() >= 0) {
+                System.out.println(name + ": solved in " + result.getSteps() + " steps: " + result.getMoves());
+            } else if (result.getSteps() == UNSOLVABLE) {
+                System.out.println(name + ": no way to the exit");
+                failed = true;
+            } else if (result.getStateCount() == 0) {
+                System.out.println(name + ": uses logic the solver doesn't model");
+            } else {
+                System.out.println(name + ": gave up after " + MAX_STATES + " states");
+                failed = true;
+            }
+            if (result.getStateCount() > 0) {
+                System.out.printf("  %d states%s in %.2f s on %d threads (%.0f states/s)%n",
+                                  result.getStateCount(), result.isComplete() ? ", all reachable," : "",
+                                  result.getSeconds(), result.getThreads(), result.getStatesPerSecond());
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
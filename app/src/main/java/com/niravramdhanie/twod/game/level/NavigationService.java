@@ -0,0 +1,296 @@
+package com.niravramdhanie.twod.game.level;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.niravramdhanie.twod.game.entity.Door;
+import com.niravramdhanie.twod.game.entity.Entity;
+import com.niravramdhanie.twod.game.entity.EntityRegistry;
+import com.niravramdhanie.twod.game.utils.EventBus;
+import com.niravramdhanie.twod.game.utils.GridSystem;
+
+/**
+ * Finds ways around a level for agents, over the blocked cells of its {@link GridSystem}.
+ * <p>
+ * Agents heading for the same place share one {@link FlowField}, so steering a crowd
+ * costs a lookup per agent per tick rather than a search. One-off trips use an A*
+ * search instead, and the paths it finds are kept for the next agent making the same trip.
+ * Both caches keep the most recently used entries and are dropped whenever the grid's
+ * collision version changes, which happens when a door opens or closes or a chunk
+ * of walls is loaded or dropped.
+ * <p>
+ * Walls are marked on the grid by the level's chunk map as it loads the chunks around
+ * the player; cells in chunks that aren't loaded count as blocked, so agents keep to
+ * the part of the level around the player. Doors are followed from the
+ * event bus, the same way the {@link ColliderSet} follows them; boxes are left out,
+ * since they're carried around and agents can walk around one locally.
+ * Runs on the game thread only.
+ */
+public class NavigationService implements EventBus.Listener {
+    // Flow fields and paths kept at once; the least recently used are dropped first
+    public static final int MAX_FLOW_FIELDS = 16;
+    public static final int MAX_PATHS = 256;
+
+    private EventBus eventBus;
+    private EntityRegistry registry;
+    private GridSystem grid;
+
+    // Collision version the caches were filled at
+    private int cachedVersion;
+
+    private final Map<Integer, FlowField> flowFields;
+    private final Map<Long, int[]> paths;
+
+    // A* working space, reused between searches; a cell's entries are only valid
+    // while its stamp matches the current search
+    private int[] costs = new int[0];
+    private int[] parents = new int[0];
+    private int[] stamps = new int[0];
+    private int stamp;
+    private final FlowField.CellQueue open = new FlowField.CellQueue(64);
+
+    /**
+     * Creates a navigation service that follows door events on an event bus.
+     *
+     * @param eventBus The event bus
+     */
+    public NavigationService(EventBus eventBus) {
+        this.flowFields = new LinkedHashMap<Integer, FlowField>(MAX_FLOW_FIELDS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, FlowField> eldest) {
+                return size() > MAX_FLOW_FIELDS;
+            }
+        };
+        this.paths = new LinkedHashMap<Long, int[]>(MAX_PATHS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+                return size() > MAX_PATHS;
+            }
+        };
+        this.eventBus = eventBus;
+        eventBus.subscribe(EventBus.EventType.DOOR_OPENED, this);
+        eventBus.subscribe(EventBus.EventType.DOOR_CLOSED, this);
+    }
+
+    /**
+     * Marks a level's doors on its grid from their current state. Called when a level
+     * is loaded and when a saved state is restored, since neither publishes events.
+     *
+     * @param level The level
+     */
+    public void rebuild(Level level) {
+        registry = level.getRegistry();
+        grid = level.getGrid();
+        for (Entity entity : level.getEntities()) {
+            if (entity instanceof Door) {
+                markDoor((Door) entity);
+            }
+        }
+        clearCaches();
+    }
+
+    /**
+     * Gets the flow field leading to a cell, building it if it isn't cached.
+     *
+     * @param goalX The goal's X position on the grid
+     * @param goalY The goal's Y position on the grid
+     * @return The flow field, or null if there's no level or the goal is off the grid
+     */
+    public FlowField getFlowField(int goalX, int goalY) {
+        if (grid == null || !grid.isInside(goalX, goalY)) {
+            return null;
+        }
+        checkVersion();
+
+        Integer goal = goalY * grid.getHorizontalCells() + goalX;
+        FlowField field = flowFields.get(goal);
+        if (field == null) {
+            field = new FlowField(grid, goalX, goalY);
+            flowFields.put(goal, field);
+        }
+        return field;
+    }
+
+    /**
+     * Finds the cheapest way from one cell to another with an A* search, or takes it
+     * from the cache. Steps are the same as in a {@link FlowField}.
+     *
+     * @param startX The start's X position on the grid
+     * @param startY The start's Y position on the grid
+     * @param goalX The goal's X position on the grid
+     * @param goalY The goal's Y position on the grid
+     * @return The cells from the start to the goal as X and Y pairs, which are shared
+     *         and must not be changed, or null if the goal can't be reached
+     */
+    public int[] findPath(int startX, int startY, int goalX, int goalY) {
+        if (grid == null || grid.isBlocked(startX, startY) || grid.isBlocked(goalX, goalY)) {
+            return null;
+        }
+        checkVersion();
+
+        int width = grid.getHorizontalCells();
+        int start = startY * width + startX;
+        int goal = goalY * width + goalX;
+        Long key = ((long) start << 32) | goal;
+        if (paths.containsKey(key)) {
+            return paths.get(key);
+        }
+
+        int[] path = search(start, goal);
+        paths.put(key, path);
+        return path;
+    }
+
+    /**
+     * Drops every cached flow field and path.
+     */
+    public void clearCaches() {
+        flowFields.clear();
+        paths.clear();
+        if (grid != null) {
+            cachedVersion = grid.getCollisionVersion();
+        }
+    }
+
+    /**
+     * Gets the number of cached flow fields.
+     *
+     * @return The flow field count
+     */
+    public int getFlowFieldCount() {
+        return flowFields.size();
+    }
+
+    /**
+     * Gets the number of cached paths, counting trips with no way through.
+     *
+     * @return The path count
+     */
+    public int getPathCount() {
+        return paths.size();
+    }
+
+    /**
+     * Stops listening to the event bus.
+     */
+    public void detach() {
+        if (eventBus != null) {
+            eventBus.unsubscribe(this);
+            eventBus = null;
+        }
+    }
+
+    @Override
+    public void onEvent(EventBus.EventType type, int handle) {
+        if (registry == null) {
+            return;
+        }
+
+        // Events are queued, so check the door's state now rather than trusting the event type
+        Entity entity = registry.get(handle);
+        if (entity instanceof Door) {
+            markDoor((Door) entity);
+        }
+    }
+
+    /**
+     * Blocks or clears the cells a door covers.
+     */
+    private void markDoor(Door door) {
+        int cellSize = grid.getCellSize();
+        int left = Math.round(door.getX()) / cellSize;
+        int top = Math.round(door.getY()) / cellSize;
+        int columns = Math.max(1, door.getWidth() / cellSize);
+        int rows = Math.max(1, door.getHeight() / cellSize);
+        for (int y = top; y < top + rows; y++) {
+            for (int x = left; x < left + columns; x++) {
+                grid.setBlocked(x, y, !door.isOpen());
+            }
+        }
+    }
+
+    /**
+     * Drops the caches if the grid has changed since they were filled.
+     */
+    private void checkVersion() {
+        if (grid.getCollisionVersion() != cachedVersion) {
+            clearCaches();
+        }
+    }
+
+    /**
+     * Searches from the start toward the goal, guided by the octile distance, which
+     * never overestimates the cost with these steps.
+     */
+    private int[] search(int start, int goal) {
+        int width = grid.getHorizontalCells();
+        int cells = width * grid.getVerticalCells();
+        if (stamps.length != cells) {
+            costs = new int[cells];
+            parents = new int[cells];
+            stamps = new int[cells];
+            stamp = 0;
+        }
+        if (++stamp == 0) {
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+
+        int goalX = goal % width;
+        int goalY = goal / width;
+        open.clear();
+        costs[start] = 0;
+        parents[start] = -1;
+        stamps[start] = stamp;
+        open.add(estimate(start % width, start / width, goalX, goalY), start);
+        while (!open.isEmpty()) {
+            int cell = FlowField.CellQueue.cellOf(open.poll());
+            if (cell == goal) {
+                return readPath(goal, width);
+            }
+
+            int x = cell % width;
+            int y = cell / width;
+            for (int direction = 0; direction < FlowField.DIRECTION_X.length; direction++) {
+                if (!FlowField.canStep(grid, x, y, direction)) {
+                    continue;
+                }
+                int nextX = x + FlowField.DIRECTION_X[direction];
+                int nextY = y + FlowField.DIRECTION_Y[direction];
+                int next = nextY * width + nextX;
+                int cost = costs[cell] + FlowField.stepCost(direction);
+                if (stamps[next] == stamp && cost >= costs[next]) {
+                    continue;
+                }
+                costs[next] = cost;
+                parents[next] = cell;
+                stamps[next] = stamp;
+                open.add(cost + estimate(nextX, nextY, goalX, goalY), next);
+            }
+        }
+        return null;
+    }
+
+    private int[] readPath(int goal, int width) {
+        int length = 0;
+        for (int cell = goal; cell >= 0; cell = parents[cell]) {
+            length++;
+        }
+        int[] path = new int[length * 2];
+        int index = length;
+        for (int cell = goal; cell >= 0; cell = parents[cell]) {
+            index--;
+            path[index * 2] = cell % width;
+            path[index * 2 + 1] = cell / width;
+        }
+        return path;
+    }
+
+    private static int estimate(int x, int y, int goalX, int goalY) {
+        int dx = Math.abs(x - goalX);
+        int dy = Math.abs(y - goalY);
+        return FlowField.STRAIGHT_COST * Math.max(dx, dy)
+                + (FlowField.DIAGONAL_COST - FlowField.STRAIGHT_COST) * Math.min(dx, dy);
+    }
+}
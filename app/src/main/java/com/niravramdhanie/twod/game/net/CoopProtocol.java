@@ -0,0 +1,82 @@
+package com.niravramdhanie.twod.game.net;
+
+import com.niravramdhanie.twod.game.utils.InputLog;
+
+/**
+ * The messages the co-op server and its clients exchange over UDP, one per datagram.
+ * Every message starts with a type byte; the rest is big-endian ints and bytes.
+ * <p>
+ * Client to server:
+ * <ul>
+ * <li>{@link #HELLO}: session ID, role. Sent until the server welcomes the client.</li>
+ * <li>{@link #INPUT}: the newest snapshot tick the client has, the sequence number of its
+ * newest input, a count, then that many input bytes, oldest first. Each input is sent
+ * {@link #INPUT_REDUNDANCY} times over, so a lost datagram doesn't lose input.</li>
+ * <li>{@link #BYE}: nothing else.</li>
+ * </ul>
+ * Server to client:
+ * <ul>
+ * <li>{@link #WELCOME}: the role the client plays, or {@link #ROLE_NONE} if the session
+ * already has a player in that role.</li>
+ * <li>{@link #SNAPSHOT}: the server tick, the tick of the snapshot it's encoded against
+ * or {@link #NO_BASELINE}, the sequence number of the client's last input in it, the
+ * level number, then the world state encoded by {@link SnapshotCodec}.</li>
+ * </ul>
+ * Peer to peer, between two {@link RollbackSession}s:
+ * <ul>
+ * <li>{@link #PEER_INPUT}: the sender's role, the newest tick up to which the sender has
+ * every input of the receiver, the tick of the first input, a count, then that many input
+ * bytes. Every input the receiver hasn't acknowledged is sent again each frame.</li>
+ * </ul>
+ */
+public final class CoopProtocol {
+    // Message types
+    public static final byte HELLO = 1;
+    public static final byte INPUT = 2;
+    public static final byte BYE = 3;
+    public static final byte WELCOME = 4;
+    public static final byte SNAPSHOT = 5;
+    public static final byte PEER_INPUT = 6;
+
+    // Roles: the present player moves the ball, the past player works the rewind
+    public static final byte ROLE_NONE = -1;
+    public static final byte ROLE_PRESENT = 0;
+    public static final byte ROLE_PAST = 1;
+    public static final int ROLE_COUNT = 2;
+
+    // Input bits of the past player; the present player sends InputLog bits
+    public static final int REWIND = 1;
+    public static final int SCRUB_BACK = 2;
+    public static final int SCRUB_FORWARD = 4;
+
+    // Input bits that last for one input rather than being held
+    public static final int PRESENT_EDGE_BITS = InputLog.INTERACT;
+    public static final int PAST_EDGE_BITS = REWIND;
+
+    // Baseline tick of a snapshot that isn't encoded against another
+    public static final int NO_BASELINE = -1;
+
+    // How many times each input is sent
+    public static final int INPUT_REDUNDANCY = 8;
+
+    // Server ticks per snapshot sent to each client
+    public static final int SNAPSHOT_INTERVAL = 2;
+
+    // Snapshots and inputs kept to encode against and apply; must be powers of two
+    public static final int SNAPSHOT_HISTORY = 64;
+    public static final int INPUT_HISTORY = 64;
+
+    // Ticks a peer may run ahead of the other's input on predictions, and the world
+    // states it keeps to roll back to; the history must be a power of two above the window
+    public static final int MAX_PREDICTION = 8;
+    public static final int ROLLBACK_HISTORY = 16;
+
+    // Ticks without hearing from a client before it's dropped
+    public static final int TIMEOUT_TICKS = 5 * 60;
+
+    public static final int DEFAULT_PORT = 7777;
+    public static final int MAX_DATAGRAM = 65507;
+
+    private CoopProtocol() {
+    }
+}
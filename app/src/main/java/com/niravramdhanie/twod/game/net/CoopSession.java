@@ -0,0 +1,244 @@
+package com.niravramdhanie.twod.game.net;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import com.niravramdhanie.twod.game.core.GameStateManager;
+import com.niravramdhanie.twod.game.state.PlayState;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
+/**
+ * One co-op game on the server: a play state simulated with the input of up to one
+ * player in each role. The present player's input moves the ball; the past player's
+ * starts and stops the rewind and scrubs the timeline.
+ * <p>
+ * The level still has a single {@link com.niravramdhanie.twod.game.entity.BallPlayer},
+ * so the past player has no ball of their own and is not in the snapshots beyond the
+ * rewind state they drive. The rewind is where the past already acts on the level: its
+ * recorded boxes replay and press buttons, and that is what the past player controls.
+ * A second ball would have to be taught to the play state's collisions, buttons, boxes,
+ * rewind recording and saved world state first.
+ * <p>
+ * Each tick takes the next input of each player in sequence order, so every input is
+ * applied exactly once, interactions and rewind toggles included. If a player's next
+ * input hasn't arrived, the keys it was holding stay held. Every
+ * {@link CoopProtocol#SNAPSHOT_INTERVAL} ticks the world is saved and kept, and each
+ * player is sent it encoded against the newest snapshot they have acknowledged.
+ */
+final class CoopSession {
+    /**
+     * A player connected to the session.
+     */
+    static final class Peer {
+        final SocketAddress address;
+        final byte role;
+
+        // Inputs received by sequence number, the newest, and the next to apply
+        final int[] inputs = new int[CoopProtocol.INPUT_HISTORY];
+        int newestSeq;
+        int nextSeq = 1;
+        int appliedSeq;
+        int heldInput;
+
+        // Newest snapshot the player has, and the tick they were last heard from
+        int ackedTick = CoopProtocol.NO_BASELINE;
+        int lastHeardTick;
+        long bytesSent;
+
+        Peer(SocketAddress address, byte role, int tick) {
+            this.address = address;
+            this.role = role;
+            this.lastHeardTick = tick;
+        }
+    }
+
+    private final int id;
+    private final PlayState playState;
+    private final Peer[] peers = new Peer[CoopProtocol.ROLE_COUNT];
+    private final WorldSnapshot snapshot = new WorldSnapshot();
+    private final SnapshotHistory history = new SnapshotHistory(CoopProtocol.SNAPSHOT_HISTORY);
+
+    private int tick;
+
+    /**
+     * Creates a session playing level 1.
+     *
+     * @param id The session ID the players join with
+     * @param gsm The state manager the play state belongs to
+     * @param width The screen width the play state is laid out for
+     * @param height The screen height the play state is laid out for
+     */
+    CoopSession(int id, GameStateManager gsm, int width, int height) {
+        this.id = id;
+        playState = new PlayState(gsm, width, height);
+        playState.init();
+        playState.setRecordingPath(null);
+    }
+
+    /**
+     * Adds a player, or finds them again if they've already joined.
+     *
+     * @param address Where the player's datagrams come from
+     * @param role The role the player wants
+     * @return The player, or null if someone else has that role
+     */
+    Peer join(SocketAddress address, byte role) {
+        if (role < 0 || role >= peers.length) {
+            return null;
+        }
+        Peer peer = peers[role];
+        if (peer == null) {
+            peer = new Peer(address, role, tick);
+            peers[role] = peer;
+            System.out.println("Session " + id + ": player joined as " + (role == CoopProtocol.ROLE_PRESENT ? "present" : "past"));
+        }
+        return peer.address.equals(address) ? peer : null;
+    }
+
+    /**
+     * Removes a player.
+     *
+     * @param peer The player
+     */
+    void leave(Peer peer) {
+        if (peers[peer.role] == peer) {
+            peers[peer.role] = null;
+            System.out.println("Session " + id + ": player left");
+        }
+    }
+
+    /**
+     * Takes in an input message's acknowledgement and inputs; the buffer is just past the type byte.
+     *
+     * @param peer The player it came from
+     * @param in The message
+     */
+    void receiveInput(Peer peer, ByteBuffer in) {
+        peer.lastHeardTick = tick;
+        peer.ackedTick = Math.max(peer.ackedTick, in.getInt());
+        int newestSeq = in.getInt();
+        int count = in.get() & 0xFF;
+        for (int i = 0; i < count; i++) {
+            int seq = newestSeq - count + 1 + i;
+            int input = in.get() & 0xFF;
+            if (seq >= peer.nextSeq) {
+                peer.inputs[seq & (CoopProtocol.INPUT_HISTORY - 1)] = input;
+            }
+        }
+        peer.newestSeq = Math.max(peer.newestSeq, newestSeq);
+
+        // A player this far ahead skips the inputs that no longer fit
+        if (peer.newestSeq - peer.nextSeq >= CoopProtocol.INPUT_HISTORY) {
+            peer.nextSeq = peer.newestSeq - CoopProtocol.INPUT_HISTORY + 1;
+        }
+    }
+
+    /**
+     * Applies each player's next input and runs one tick of the game.
+     *
+     * @return True if a snapshot was taken this tick and should be sent
+     */
+    boolean tick() {
+        int present = nextInput(peers[CoopProtocol.ROLE_PRESENT], CoopProtocol.PRESENT_EDGE_BITS);
+        int past = nextInput(peers[CoopProtocol.ROLE_PAST], CoopProtocol.PAST_EDGE_BITS);
+        playState.setInput(present);
+        playState.setRewindInput((past & CoopProtocol.REWIND) != 0, (past & CoopProtocol.SCRUB_BACK) != 0,
+                                 (past & CoopProtocol.SCRUB_FORWARD) != 0);
+        playState.update();
+        tick++;
+
+        if (tick % CoopProtocol.SNAPSHOT_INTERVAL != 0) {
+            return false;
+        }
+        snapshot.clear();
+        playState.saveWorldState(snapshot);
+        history.put(tick, snapshot);
+        return true;
+    }
+
+    /**
+     * Takes a player's next input, or the keys they were holding if it hasn't arrived.
+     */
+    private static int nextInput(Peer peer, int edgeBits) {
+        if (peer == null) {
+            return 0;
+        }
+        if (peer.newestSeq < peer.nextSeq) {
+            return peer.heldInput;
+        }
+        int input = peer.inputs[peer.nextSeq & (CoopProtocol.INPUT_HISTORY - 1)];
+        peer.appliedSeq = peer.nextSeq++;
+        peer.heldInput = input & ~edgeBits;
+        return input;
+    }
+
+    /**
+     * Writes the snapshot taken this tick for a player, encoded against the newest one
+     * they've acknowledged if it's still kept.
+     *
+     * @param peer The player
+     * @param out The buffer to write the message to
+     */
+    void writeSnapshot(Peer peer, ByteBuffer out) {
+        int slot = history.find(tick);
+        int baselineSlot = history.find(peer.ackedTick);
+
+        out.put(CoopProtocol.SNAPSHOT);
+        out.putInt(tick);
+        out.putInt(baselineSlot >= 0 ? peer.ackedTick : CoopProtocol.NO_BASELINE);
+        out.putInt(peer.appliedSeq);
+        out.putInt(playState.getCurrentLevel());
+        if (baselineSlot >= 0) {
+            SnapshotCodec.encode(history.getValues(slot), history.getLength(slot),
+                                 history.getValues(baselineSlot), history.getLength(baselineSlot), out);
+        } else {
+            SnapshotCodec.encode(history.getValues(slot), history.getLength(slot), null, 0, out);
+        }
+    }
+
+    /**
+     * Checks if a player hasn't been heard from for too long.
+     *
+     * @param peer The player
+     * @return True if the player should be dropped
+     */
+    boolean isSilent(Peer peer) {
+        return tick - peer.lastHeardTick > CoopProtocol.TIMEOUT_TICKS;
+    }
+
+    /**
+     * Gets a player by role.
+     *
+     * @param role The role
+     * @return The player, or null if nobody has the role
+     */
+    Peer getPeer(int role) {
+        return peers[role];
+    }
+
+    /**
+     * Checks if every player has left.
+     *
+     * @return True if the session has no players
+     */
+    boolean isEmpty() {
+        for (Peer peer : peers) {
+            if (peer != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    int getTick() {
+        return tick;
+    }
+
+    PlayState getPlayState() {
+        return playState;
+    }
+}
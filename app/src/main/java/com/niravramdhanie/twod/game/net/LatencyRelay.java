@@ -0,0 +1,181 @@
+package com.niravramdhanie.twod.game.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Passes datagrams between two peers on this machine as a slow network would: each is
+ * held for a delay, a random jitter on top, which can reorder them, and some are lost.
+ * Each peer sends to its own side of the relay, and hears the other peer from it.
+ * <p>
+ * The relay keeps no time of its own; {@link #pump(long)} is given the time, so a test
+ * can run a network with a tenth of a second's delay faster than real time.
+ */
+public class LatencyRelay {
+    /**
+     * A datagram being held.
+     */
+    private static final class Held {
+        final ByteBuffer data;
+        final boolean toB;
+        final long due;
+        final long order;
+
+        Held(ByteBuffer data, boolean toB, long due, long order) {
+            this.data = data;
+            this.toB = toB;
+            this.due = due;
+            this.order = order;
+        }
+    }
+
+    private final DatagramChannel sideA;
+    private final DatagramChannel sideB;
+    private final Random random;
+    private final ByteBuffer in = ByteBuffer.allocate(CoopProtocol.MAX_DATAGRAM);
+    private final PriorityQueue<Held> held = new PriorityQueue<>(
+            (a, b) -> a.due != b.due ? Long.compare(a.due, b.due) : Long.compare(a.order, b.order));
+
+    // Where each peer was last heard from
+    private SocketAddress peerA;
+    private SocketAddress peerB;
+
+    private long delayNanos;
+    private long jitterNanos;
+    private double loss;
+    private long received;
+    private long dropped;
+
+    /**
+     * Creates a relay listening on two free ports on the loopback address.
+     *
+     * @param seed The seed for the jitter and losses, so a run can be repeated
+     * @throws IOException If the sockets can't be opened
+     */
+    public LatencyRelay(long seed) throws IOException {
+        sideA = open();
+        sideB = open();
+        random = new Random(seed);
+    }
+
+    private static DatagramChannel open() throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        channel.configureBlocking(false);
+        return channel;
+    }
+
+    /**
+     * Sets how the relay holds datagrams.
+     *
+     * @param delayMillis The delay each way
+     * @param jitterMillis The most random delay added on top
+     * @param loss The share of datagrams lost, from 0 to 1
+     */
+    public void setConditions(int delayMillis, int jitterMillis, double loss) {
+        this.delayNanos = delayMillis * 1_000_000L;
+        this.jitterNanos = jitterMillis * 1_000_000L;
+        this.loss = loss;
+    }
+
+    /**
+     * Takes in the datagrams both peers have sent and passes on the ones that are due.
+     *
+     * @param now The time in nanoseconds
+     * @throws IOException If a socket fails
+     */
+    public void pump(long now) throws IOException {
+        hold(sideA, true, now);
+        hold(sideB, false, now);
+
+        while (!held.isEmpty() && held.peek().due <= now) {
+            Held datagram = held.poll();
+            SocketAddress to = datagram.toB ? peerB : peerA;
+            if (to != null) {
+                (datagram.toB ? sideB : sideA).send(datagram.data, to);
+            }
+        }
+    }
+
+    private void hold(DatagramChannel side, boolean toB, long now) throws IOException {
+        SocketAddress from;
+        while ((from = receive(side)) != null) {
+            if (toB) {
+                peerA = from;
+            } else {
+                peerB = from;
+            }
+            received++;
+            if (random.nextDouble() < loss) {
+                dropped++;
+                continue;
+            }
+
+            long jitter = jitterNanos > 0 ? (long) (random.nextDouble() * jitterNanos) : 0;
+            ByteBuffer data = ByteBuffer.allocate(in.remaining());
+            data.put(in).flip();
+            held.add(new Held(data, toB, now + delayNanos + jitter, received));
+        }
+    }
+
+    private SocketAddress receive(DatagramChannel side) throws IOException {
+        in.clear();
+        SocketAddress from = side.receive(in);
+        in.flip();
+        return from;
+    }
+
+    /**
+     * Gets the address the first peer sends to.
+     *
+     * @return The address
+     * @throws IOException If the socket has been closed
+     */
+    public InetSocketAddress getAddressA() throws IOException {
+        return (InetSocketAddress) sideA.getLocalAddress();
+    }
+
+    /**
+     * Gets the address the second peer sends to.
+     *
+     * @return The address
+     * @throws IOException If the socket has been closed
+     */
+    public InetSocketAddress getAddressB() throws IOException {
+        return (InetSocketAddress) sideB.getLocalAddress();
+    }
+
+    /**
+     * Gets the number of datagrams lost on purpose so far.
+     *
+     * @return The count
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Gets the number of datagrams taken in so far.
+     *
+     * @return The count
+     */
+    public long getReceivedCount() {
+        return received;
+    }
+
+    /**
+     * Stops listening.
+     *
+     * @throws IOException If a socket can't be closed
+     */
+    public void close() throws IOException {
+        sideA.close();
+        sideB.close();
+    }
+}
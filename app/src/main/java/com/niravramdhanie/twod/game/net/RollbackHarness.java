@@ -0,0 +1,182 @@
+package com.niravramdhanie.twod.game.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+
+import com.niravramdhanie.twod.game.core.GameStateManager;
+import com.niravramdhanie.twod.game.utils.GameClock;
+import com.niravramdhanie.twod.game.utils.InputLog;
+
+/**
+ * Plays two {@link RollbackSession} peers against each other on this machine, through a
+ * {@link LatencyRelay} that delays, jitters and loses their datagrams, and checks they
+ * end up with the same world. The present player wanders the level, pressing E now and
+ * then; the past player records a rewind, plays it back and scrubs the timeline, which
+ * the peers play in lockstep.
+ * <p>
+ * Frames are run back to back with the relay kept on game time, so a minute of play
+ * over a slow network takes a few seconds. After each run the rollback metrics of both
+ * peers are reported.
+ */
+public class RollbackHarness {
+    private static final int SCREEN_WIDTH = 1000;
+    private static final int SCREEN_HEIGHT = 750;
+    private static final long FRAME_NANOS = 1_000_000_000L / GameClock.TICKS_PER_SECOND;
+
+    // Frames the peers get to agree after the last input before the run fails
+    private static final int SETTLE_FRAMES = 10 * GameClock.TICKS_PER_SECOND;
+
+    private static final int[] DIRECTIONS = {
+        0, InputLog.LEFT, InputLog.RIGHT, InputLog.UP, InputLog.DOWN,
+        InputLog.LEFT | InputLog.UP, InputLog.RIGHT | InputLog.DOWN
+    };
+
+    private final int frames;
+    private final Random random;
+    private int direction;
+    private int directionFrames;
+
+    /**
+     * Creates a harness.
+     *
+     * @param frames The frames each run plays
+     * @param seed The seed for the present player's wandering
+     */
+    public RollbackHarness(int frames, long seed) {
+        this.frames = frames;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Plays one run over a network with the given conditions.
+     *
+     * @param delayMillis The delay each way
+     * @param jitterMillis The most random delay added on top
+     * @param loss The share of datagrams lost
+     * @param console Where to report
+     * @return True if the peers ended with the same world
+     * @throws IOException If a socket fails
+     */
+    public boolean run(int delayMillis, int jitterMillis, double loss, PrintStream console) throws IOException {
+        LatencyRelay relay = new LatencyRelay(delayMillis);
+        relay.setConditions(delayMillis, jitterMillis, loss);
+        InetSocketAddress any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        GameStateManager gsm = GameStateManager.createHeadless(SCREEN_WIDTH, SCREEN_HEIGHT);
+        RollbackSession present = new RollbackSession(gsm, SCREEN_WIDTH, SCREEN_HEIGHT, any,
+                                                      relay.getAddressA(), CoopProtocol.ROLE_PRESENT);
+        RollbackSession past = new RollbackSession(gsm, SCREEN_WIDTH, SCREEN_HEIGHT, any,
+                                                   relay.getAddressB(), CoopProtocol.ROLE_PAST);
+
+        try {
+            long now = 0;
+            for (int frame = 0; frame < frames; frame++, now += FRAME_NANOS) {
+                relay.pump(now);
+                present.advance(presentInput());
+                relay.pump(now);
+                past.advance(pastInput(frame));
+            }
+
+            // Play out the input both players have given, then compare the worlds
+            int end = Math.max(present.getInputCount(), past.getInputCount());
+            boolean settled = false;
+            for (int frame = 0; frame < SETTLE_FRAMES && !settled; frame++, now += FRAME_NANOS) {
+                relay.pump(now);
+                settle(present, end);
+                relay.pump(now);
+                settle(past, end);
+                settled = present.getTick() == end && past.getTick() == end
+                          && present.getConfirmedTick() >= end - 1 && past.getConfirmedTick() >= end - 1;
+            }
+
+            boolean inSync = settled && present.checksum() == past.checksum();
+            console.printf("delay %d ms, jitter %d ms, %.0f%% lost: %s at tick %d%n", delayMillis, jitterMillis,
+                           loss * 100, !settled ? "DIDN'T SETTLE" : inSync ? "in sync" : "OUT OF SYNC", end);
+            report("present", present, console);
+            report("past", past, console);
+            return inSync;
+        } finally {
+            present.close();
+            past.close();
+            relay.close();
+        }
+    }
+
+    private static void settle(RollbackSession session, int end) throws IOException {
+        if (session.getInputCount() < end) {
+            session.advance(0);
+        } else {
+            session.poll();
+        }
+    }
+
+    private static void report(String name, RollbackSession session, PrintStream console) {
+        console.printf("  %-8s %5d rollbacks, depth %.1f avg %d max, resimulation %d us avg %d us max,"
+                       + " %.1f%% mispredicted, %d stalls%n", name, session.getRollbackCount(),
+                       session.getAverageRollbackDepth(), session.getMaxRollbackDepth(),
+                       session.getAverageResimulationNanos() / 1000, session.getMaxResimulationNanos() / 1000,
+                       session.getMispredictionRate() * 100, session.getStallCount());
+    }
+
+    /**
+     * Wanders: holds a direction for a random while, and now and then presses E.
+     */
+    private int presentInput() {
+        if (--directionFrames <= 0) {
+            direction = DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+            directionFrames = 10 + random.nextInt(50);
+        }
+        int input = direction;
+        if (random.nextInt(90) == 0) {
+            input |= InputLog.INTERACT;
+        }
+        return input;
+    }
+
+    /**
+     * Starts recording a third of the way in, plays it back a little later, and scrubs
+     * back for a moment near the end.
+     */
+    private int pastInput(int frame) {
+        if (frame == frames / 3 || frame == frames / 2) {
+            return CoopProtocol.REWIND;
+        }
+        if (frame >= frames * 4 / 5 && frame < frames * 4 / 5 + 30) {
+            return CoopProtocol.SCRUB_BACK;
+        }
+        return 0;
+    }
+
+    /**
+     * Plays a run for each delay and exits with an error if any ended out of sync.
+     *
+     * @param args The seconds each run plays, the delays each way in milliseconds such as 0,20,50,100,
+     *             and the share of datagrams lost; 60 seconds, those delays and 0.02 if not given
+     */
+    public static void main(String[] args) throws IOException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+        String[] delays = (args.length > 1 ? args[1] : "0,20,50,100").split(",");
+        double loss = args.length > 2 ? Double.parseDouble(args[2]) : 0.02;
+
+        // The game's own logging would drown out the report
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        boolean failed = false;
+        try {
+            for (String delay : delays) {
+                int delayMillis = Integer.parseInt(delay.trim());
+                RollbackHarness harness = new RollbackHarness(seconds * GameClock.TICKS_PER_SECOND, 1);
+                failed |= !harness.run(delayMillis, delayMillis / 4, loss, console);
+            }
+        } finally {
+            System.setOut(console);
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
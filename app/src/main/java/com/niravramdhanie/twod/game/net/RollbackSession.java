@@ -0,0 +1,511 @@
+package com.niravramdhanie.twod.game.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+
+import com.niravramdhanie.twod.game.core.GameStateManager;
+import com.niravramdhanie.twod.game.state.PlayState;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
+/**
+ * One of two peers playing co-op directly with each other, without a server. Both peers
+ * simulate the whole game; each sends the other its input for every tick, and a tick is
+ * simulated with both players' input for it.
+ * <p>
+ * Waiting for the other player's input would make every key feel the round trip, so a
+ * peer doesn't: it predicts the other player is still holding what they held last and
+ * simulates on, saving the world before each tick it simulates on a prediction. When the
+ * real input arrives and differs, the peer rolls back: it puts the world back to the
+ * tick the prediction went wrong on and simulates up to the present again, all within
+ * one frame. A peer only predicts {@link CoopProtocol#MAX_PREDICTION} ticks ahead of the
+ * other player's input; past that it waits.
+ * <p>
+ * The rewind keeps state of its own that a saved world doesn't hold, so a tick that
+ * works the rewind, or runs while it's recording, rewinding or scrubbing, is only
+ * simulated once both players' input for it has arrived. The peers play in lockstep
+ * then, and go back to predicting once the rewind is idle again.
+ */
+public class RollbackSession {
+    private static final int INPUT_MASK = CoopProtocol.INPUT_HISTORY - 1;
+    private static final int STATE_MASK = CoopProtocol.ROLLBACK_HISTORY - 1;
+
+    // Inputs that fit in one message; unacknowledged inputs are all sent every frame
+    private static final int MAX_INPUTS_SENT = Math.min(255, CoopProtocol.INPUT_HISTORY);
+
+    private final DatagramChannel channel;
+    private final SocketAddress remote;
+    private final PlayState playState;
+    private final byte role;
+    private final byte remoteRole;
+    private final ByteBuffer in = ByteBuffer.allocate(CoopProtocol.MAX_DATAGRAM);
+    private final ByteBuffer out = ByteBuffer.allocate(16 + MAX_INPUTS_SENT);
+
+    // This player's inputs by tick, how many there are, and the newest the other peer has
+    private final int[] localInputs = new int[CoopProtocol.INPUT_HISTORY];
+    private int localCount;
+    private int localAcked = -1;
+    private int pendingEdgeBits;
+
+    // The other player's inputs by tick, and the newest tick up to which all have arrived
+    private final int[] remoteInputs = new int[CoopProtocol.INPUT_HISTORY];
+    private final int[] remoteTicks = new int[CoopProtocol.INPUT_HISTORY];
+    private int remoteConfirmed = -1;
+
+    // The world before each tick simulated on a prediction, and the prediction
+    private final WorldSnapshot[] states = new WorldSnapshot[CoopProtocol.ROLLBACK_HISTORY];
+    private final int[] stateTicks = new int[CoopProtocol.ROLLBACK_HISTORY];
+    private final int[] stateLevels = new int[CoopProtocol.ROLLBACK_HISTORY];
+    private final int[] predictedInputs = new int[CoopProtocol.ROLLBACK_HISTORY];
+    private final WorldSnapshot checksumSnapshot = new WorldSnapshot();
+
+    // Ticks simulated, and the first one to simulate again, or MAX_VALUE if none
+    private int tick;
+    private int rollbackFrom = Integer.MAX_VALUE;
+
+
+    // Metrics
+    private int rollbacks;
+    private long rollbackTicks;
+    private int maxRollbackDepth;
+    private long lastResimulationNanos;
+    private long maxResimulationNanos;
+    private long resimulationNanos;
+    private int predictionsChecked;
+    private int mispredictions;
+    private int stalls;
+    private long bytesSent;
+    private long bytesReceived;
+
+    /**
+     * Creates a peer and starts it on level 1. Both peers must start on the same level,
+     * so the worlds they simulate are the same.
+     *
+     * @param gsm The state manager the peer's play state belongs to
+     * @param width The screen width
+     * @param height The screen height
+     * @param local The address to listen on, such as localhost with port 0 for any free port
+     * @param remote The other peer's address
+     * @param role {@link CoopProtocol#ROLE_PRESENT} or {@link CoopProtocol#ROLE_PAST}; the other peer plays the other
+     * @throws IOException If the socket can't be opened
+     */
+    public RollbackSession(GameStateManager gsm, int width, int height, InetSocketAddress local,
+                           InetSocketAddress remote, byte role) throws IOException {
+        if (role != CoopProtocol.ROLE_PRESENT && role != CoopProtocol.ROLE_PAST) {
+            throw new IllegalArgumentException("Unknown role: " + role);
+        }
+        this.remote = remote;
+        this.role = role;
+        this.remoteRole = role == CoopProtocol.ROLE_PRESENT ? CoopProtocol.ROLE_PAST : CoopProtocol.ROLE_PRESENT;
+
+        // Not connected, so the other peer not listening yet doesn't fail receives
+        channel = DatagramChannel.open();
+        channel.bind(local);
+        channel.configureBlocking(false);
+
+        Arrays.fill(remoteTicks, -1);
+        Arrays.fill(stateTicks, -1);
+        for (int i = 0; i < states.length; i++) {
+            states[i] = new WorldSnapshot();
+        }
+
+        playState = new PlayState(gsm, width, height);
+        playState.init();
+        playState.setRecordingPath(null);
+    }
+
+    /**
+     * Runs one frame: takes in the other player's input, rolls back if it was predicted
+     * wrong, then adds this frame's input and simulates every tick that can be.
+     *
+     * @param input The input bitmask: {@link com.niravramdhanie.twod.game.utils.InputLog} bits
+     *              for the present player, {@link CoopProtocol} past bits for the past player
+     * @throws IOException If the socket fails
+     */
+    public void advance(int input) throws IOException {
+        receive();
+        rollBack();
+
+        if (canTakeInput()) {
+            localInputs[localCount & INPUT_MASK] = input | pendingEdgeBits;
+            localCount++;
+            pendingEdgeBits = 0;
+        } else {
+            // A key pressed while waiting still counts once the peer can take input
+            pendingEdgeBits |= input & edgeBits(role);
+        }
+
+        int before = tick;
+        simulateAvailable();
+        if (tick == before) {
+            stalls++;
+        }
+        sendInputs();
+    }
+
+    /**
+     * Runs a frame without adding input, such as while paused: takes in the other
+     * player's input, rolls back if needed, simulates the ticks this player already has
+     * input for, and sends the other peer what they're missing.
+     *
+     * @throws IOException If the socket fails
+     */
+    public void poll() throws IOException {
+        receive();
+        rollBack();
+        simulateAvailable();
+        sendInputs();
+    }
+
+    /**
+     * Stops listening.
+     *
+     * @throws IOException If the socket can't be closed
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Handles the datagrams waiting on the socket.
+     */
+    private void receive() throws IOException {
+        SocketAddress from;
+        while (true) {
+            in.clear();
+            from = channel.receive(in);
+            if (from == null) {
+                return;
+            }
+            if (!from.equals(remote)) {
+                continue;
+            }
+            in.flip();
+            bytesReceived += in.remaining();
+
+            try {
+                if (in.get() == CoopProtocol.PEER_INPUT) {
+                    receiveInputs();
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Dropping bad datagram from the other peer: " + e);
+            }
+        }
+    }
+
+    /**
+     * Keeps the other player's inputs from a message and moves up to the newest tick
+     * they've all arrived for, noting the first one that was predicted wrong.
+     */
+    private void receiveInputs() {
+        byte sender = in.get();
+        if (sender != remoteRole) {
+            System.err.println("The other peer is playing the same role");
+            return;
+        }
+        localAcked = Math.max(localAcked, in.getInt());
+        int first = in.getInt();
+        int count = in.get() & 0xFF;
+        for (int i = 0; i < count; i++) {
+            int t = first + i;
+            int input = in.get() & 0xFF;
+            if (t > remoteConfirmed && t <= remoteConfirmed + CoopProtocol.INPUT_HISTORY) {
+                remoteInputs[t & INPUT_MASK] = input;
+                remoteTicks[t & INPUT_MASK] = t;
+            }
+        }
+
+        while (remoteTicks[(remoteConfirmed + 1) & INPUT_MASK] == remoteConfirmed + 1) {
+            int t = ++remoteConfirmed;
+            int slot = t & STATE_MASK;
+            if (t < tick && stateTicks[slot] == t) {
+                predictionsChecked++;
+                if (predictedInputs[slot] != remoteInputs[t & INPUT_MASK]) {
+                    mispredictions++;
+                    rollbackFrom = Math.min(rollbackFrom, t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts the world back to the first tick that was predicted wrong and simulates up to
+     * where it was again, as far as the input that has arrived allows.
+     */
+    private void rollBack() {
+        if (rollbackFrom >= tick) {
+            rollbackFrom = Integer.MAX_VALUE;
+            return;
+        }
+        int from = rollbackFrom;
+        rollbackFrom = Integer.MAX_VALUE;
+
+        long start = System.nanoTime();
+        int slot = from & STATE_MASK;
+        int depth = tick - from;
+        if (stateTicks[slot] != from || !playState.rollBack(stateLevels[slot], states[slot], depth)) {
+            System.err.println("Can't roll back to tick " + from + "; the peers are out of sync");
+            return;
+        }
+
+        int target = tick;
+        tick = from;
+        while (tick < target && canSimulate(tick)) {
+            simulate(tick);
+        }
+
+        long nanos = System.nanoTime() - start;
+        rollbacks++;
+        rollbackTicks += depth;
+        maxRollbackDepth = Math.max(maxRollbackDepth, depth);
+        lastResimulationNanos = nanos;
+        maxResimulationNanos = Math.max(maxResimulationNanos, nanos);
+        resimulationNanos += nanos;
+    }
+
+    /**
+     * Simulates every tick this player has input for, as far as the other player's allows.
+     */
+    private void simulateAvailable() {
+        while (canSimulate(tick)) {
+            simulate(tick);
+        }
+    }
+
+    /**
+     * Checks if this frame's input can be added: the other player's input mustn't be too
+     * far behind, and every input the other peer hasn't acknowledged must still be sendable.
+     */
+    private boolean canTakeInput() {
+        return localCount <= remoteConfirmed + CoopProtocol.MAX_PREDICTION
+               && localCount - localAcked <= MAX_INPUTS_SENT;
+    }
+
+    /**
+     * Checks if a tick can be simulated now: with both players' input, or on a prediction
+     * if it's close enough and the world can be rolled back over it.
+     */
+    private boolean canSimulate(int t) {
+        if (t >= localCount || t > remoteConfirmed + CoopProtocol.MAX_PREDICTION) {
+            return false;
+        }
+        if (t <= remoteConfirmed) {
+            return true;
+        }
+        int past = role == CoopProtocol.ROLE_PAST ? localInputs[t & INPUT_MASK] : predictRemote();
+        return past == 0 && playState.canRollBack();
+    }
+
+    /**
+     * Simulates a tick with both players' input for it, predicting the other player's if
+     * it hasn't arrived and saving the world first so the tick can be simulated again.
+     */
+    private void simulate(int t) {
+        int remoteInput;
+        if (t <= remoteConfirmed) {
+            remoteInput = remoteInputs[t & INPUT_MASK];
+        } else {
+            remoteInput = predictRemote();
+            int slot = t & STATE_MASK;
+            states[slot].clear();
+            playState.saveWorldState(states[slot]);
+            stateTicks[slot] = t;
+            stateLevels[slot] = playState.getCurrentLevel();
+            predictedInputs[slot] = remoteInput;
+        }
+
+        int localInput = localInputs[t & INPUT_MASK];
+        int present = role == CoopProtocol.ROLE_PRESENT ? localInput : remoteInput;
+        int past = role == CoopProtocol.ROLE_PAST ? localInput : remoteInput;
+        playState.setInput(present);
+        playState.setRewindInput((past & CoopProtocol.REWIND) != 0, (past & CoopProtocol.SCRUB_BACK) != 0,
+                                 (past & CoopProtocol.SCRUB_FORWARD) != 0);
+        playState.update();
+        tick = t + 1;
+    }
+
+    /**
+     * Predicts the other player's next input: the keys they held in their newest input.
+     */
+    private int predictRemote() {
+        if (remoteConfirmed < 0) {
+            return 0;
+        }
+        return remoteInputs[remoteConfirmed & INPUT_MASK] & ~edgeBits(remoteRole);
+    }
+
+    private static int edgeBits(byte role) {
+        return role == CoopProtocol.ROLE_PRESENT ? CoopProtocol.PRESENT_EDGE_BITS : CoopProtocol.PAST_EDGE_BITS;
+    }
+
+    /**
+     * Sends every input the other peer hasn't acknowledged, and the newest tick up to
+     * which this peer has theirs.
+     */
+    private void sendInputs() throws IOException {
+        int first = localAcked + 1;
+        int count = Math.max(0, Math.min(localCount - first, MAX_INPUTS_SENT));
+        out.clear();
+        out.put(CoopProtocol.PEER_INPUT);
+        out.put(role);
+        out.putInt(remoteConfirmed);
+        out.putInt(first);
+        out.put((byte) count);
+        for (int t = first; t < first + count; t++) {
+            out.put((byte) localInputs[t & INPUT_MASK]);
+        }
+        out.flip();
+        bytesSent += out.remaining();
+        channel.send(out, remote);
+    }
+
+    /**
+     * Computes a hash of the world as it is now, to check two peers at the same tick agree.
+     *
+     * @return The hash
+     */
+    public int checksum() {
+        checksumSnapshot.clear();
+        playState.saveWorldState(checksumSnapshot);
+        return checksumSnapshot.hash();
+    }
+
+    /**
+     * Gets the play state showing the world, for drawing.
+     *
+     * @return The play state
+     */
+    public PlayState getPlayState() {
+        return playState;
+    }
+
+    /**
+     * Gets the role this peer plays.
+     *
+     * @return The role
+     */
+    public byte getRole() {
+        return role;
+    }
+
+    /**
+     * Gets the number of ticks simulated.
+     *
+     * @return The tick count
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * Gets the number of ticks this player has input for.
+     *
+     * @return The input count
+     */
+    public int getInputCount() {
+        return localCount;
+    }
+
+    /**
+     * Gets the newest tick up to which all of the other player's input has arrived.
+     *
+     * @return The tick, or -1 if none has
+     */
+    public int getConfirmedTick() {
+        return remoteConfirmed;
+    }
+
+    /**
+     * Gets the number of times the world was rolled back.
+     *
+     * @return The rollback count
+     */
+    public int getRollbackCount() {
+        return rollbacks;
+    }
+
+    /**
+     * Gets the average number of ticks undone by a rollback.
+     *
+     * @return The average depth, or 0 if there were none
+     */
+    public double getAverageRollbackDepth() {
+        return rollbacks > 0 ? (double) rollbackTicks / rollbacks : 0;
+    }
+
+    /**
+     * Gets the most ticks undone by one rollback.
+     *
+     * @return The depth
+     */
+    public int getMaxRollbackDepth() {
+        return maxRollbackDepth;
+    }
+
+    /**
+     * Gets how long the last rollback took, restoring the world and simulating again.
+     *
+     * @return The time in nanoseconds
+     */
+    public long getLastResimulationNanos() {
+        return lastResimulationNanos;
+    }
+
+    /**
+     * Gets how long the longest rollback took.
+     *
+     * @return The time in nanoseconds
+     */
+    public long getMaxResimulationNanos() {
+        return maxResimulationNanos;
+    }
+
+    /**
+     * Gets how long a rollback took on average.
+     *
+     * @return The time in nanoseconds, or 0 if there were none
+     */
+    public long getAverageResimulationNanos() {
+        return rollbacks > 0 ? resimulationNanos / rollbacks : 0;
+    }
+
+    /**
+     * Gets the share of the other player's inputs that were predicted wrong, out of
+     * those that were predicted and later arrived.
+     *
+     * @return The rate, from 0 to 1
+     */
+    public double getMispredictionRate() {
+        return predictionsChecked > 0 ? (double) mispredictions / predictionsChecked : 0;
+    }
+
+    /**
+     * Gets the number of frames in which no tick could be simulated, waiting for the other player.
+     *
+     * @return The stall count
+     */
+    public int getStallCount() {
+        return stalls;
+    }
+
+    /**
+     * Gets the number of bytes sent to the other peer so far.
+     *
+     * @return The bytes sent
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Gets the number of bytes received from the other peer so far.
+     *
+     * @return The bytes received
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+}
@@ -0,0 +1,308 @@
+package com.niravramdhanie.twod.game.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import com.niravramdhanie.twod.game.core.GameStateManager;
+import com.niravramdhanie.twod.game.state.PlayState;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
+/**
+ * A player in a co-op game on a {@link SimulationServer}. The client keeps its own play
+ * state for drawing; the server's snapshots say what the world is, and the client's own
+ * input only reaches the world through the server.
+ * <p>
+ * A present player would feel the round trip on every key, so the client predicts:
+ * when a snapshot arrives, the play state is set to it and the inputs the server hadn't
+ * applied yet are played again on top, and every tick after that is simulated with the
+ * new input straight away. The next snapshot corrects anything the prediction got wrong.
+ * A past player's input only starts and scrubs the rewind, which the client can't
+ * predict, so the past player's play state just shows the snapshots.
+ */
+public class SimulationClient {
+    private final DatagramChannel channel;
+    private final PlayState playState;
+    private final int sessionId;
+    private final byte requestedRole;
+    private final ByteBuffer in = ByteBuffer.allocate(CoopProtocol.MAX_DATAGRAM);
+    private final ByteBuffer out = ByteBuffer.allocate(64);
+
+    // The role the server gave, or ROLE_NONE until welcomed or if turned away
+    private byte role = CoopProtocol.ROLE_NONE;
+    private boolean rejected;
+
+    // Inputs sent, by sequence number
+    private final int[] inputs = new int[CoopProtocol.INPUT_HISTORY];
+    private int seq;
+
+    // Snapshots decoded, and the newest one waiting to be applied
+    private final SnapshotHistory history = new SnapshotHistory(CoopProtocol.SNAPSHOT_HISTORY);
+    private final WorldSnapshot snapshot = new WorldSnapshot();
+    private int[] decoded = new int[256];
+    private int newestTick = CoopProtocol.NO_BASELINE;
+    private int newestLevel;
+    private int newestAppliedSeq;
+    private boolean snapshotWaiting;
+    private boolean hasWorld;
+
+
+    private long bytesSent;
+    private long bytesReceived;
+
+    /**
+     * Creates a client and starts asking the server to join a session.
+     *
+     * @param gsm The state manager the client's play state belongs to
+     * @param width The screen width
+     * @param height The screen height
+     * @param server The server's address
+     * @param sessionId The session to join
+     * @param role {@link CoopProtocol#ROLE_PRESENT} or {@link CoopProtocol#ROLE_PAST}
+     * @throws IOException If the socket can't be opened
+     */
+    public SimulationClient(GameStateManager gsm, int width, int height, InetSocketAddress server,
+                            int sessionId, byte role) throws IOException {
+        this.sessionId = sessionId;
+        this.requestedRole = role;
+        channel = DatagramChannel.open();
+        channel.connect(server);
+        channel.configureBlocking(false);
+
+        playState = new PlayState(gsm, width, height);
+        playState.init();
+        playState.setRecordingPath(null);
+    }
+
+    /**
+     * Runs one client tick: takes in what the server has sent, sends this tick's input
+     * and, for a present player, predicts the world with it.
+     *
+     * @param input The input bitmask: {@link com.niravramdhanie.twod.game.utils.InputLog} bits
+     *              for the present player, {@link CoopProtocol} past bits for the past player
+     * @throws IOException If the socket fails
+     */
+    public void tick(int input) throws IOException {
+        receive();
+        if (role == CoopProtocol.ROLE_NONE) {
+            if (!rejected) {
+                sendHello();
+            }
+            return;
+        }
+
+        seq++;
+        inputs[seq & (CoopProtocol.INPUT_HISTORY - 1)] = input;
+        sendInput();
+
+        boolean predicting = role == CoopProtocol.ROLE_PRESENT;
+        if (snapshotWaiting) {
+            applySnapshot(predicting);
+        }
+        if (hasWorld && predicting) {
+            playState.setInput(input);
+            playState.update();
+        }
+    }
+
+    /**
+     * Tells the server the client is leaving and stops listening.
+     *
+     * @throws IOException If the socket can't be closed
+     */
+    public void close() throws IOException {
+        if (role != CoopProtocol.ROLE_NONE) {
+            out.clear();
+            out.put(CoopProtocol.BYE);
+            send();
+        }
+        channel.close();
+    }
+
+    /**
+     * Handles the datagrams waiting on the socket.
+     */
+    private void receive() throws IOException {
+        while (true) {
+            in.clear();
+            if (channel.receive(in) == null) {
+                return;
+            }
+            in.flip();
+            bytesReceived += in.remaining();
+
+            try {
+                byte type = in.get();
+                if (type == CoopProtocol.WELCOME && role == CoopProtocol.ROLE_NONE) {
+                    role = in.get();
+                    rejected = role == CoopProtocol.ROLE_NONE;
+                    if (rejected) {
+                        System.err.println("Session " + sessionId + " already has a player in that role");
+                    }
+                } else if (type == CoopProtocol.SNAPSHOT) {
+                    receiveSnapshot();
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Dropping bad datagram from the server: " + e);
+            }
+        }
+    }
+
+    /**
+     * Decodes a snapshot against the one it names as its baseline and keeps it, if it's
+     * newer than any so far.
+     */
+    private void receiveSnapshot() {
+        int tick = in.getInt();
+        int baselineTick = in.getInt();
+        int appliedSeq = in.getInt();
+        int level = in.getInt();
+        if (tick <= newestTick) {
+            return;
+        }
+
+        int baselineSlot = -1;
+        if (baselineTick != CoopProtocol.NO_BASELINE) {
+            baselineSlot = history.find(baselineTick);
+            if (baselineSlot < 0) {
+                // The server will fall back to a full snapshot once our acknowledgements move on
+                return;
+            }
+        }
+
+        int length = SnapshotCodec.peekLength(in);
+        if (decoded.length < length) {
+            decoded = new int[Math.max(length, decoded.length * 2)];
+        }
+        if (baselineSlot >= 0) {
+            SnapshotCodec.decode(in, history.getValues(baselineSlot), history.getLength(baselineSlot), decoded);
+        } else {
+            SnapshotCodec.decode(in, null, 0, decoded);
+        }
+
+        int slot = history.reserve(tick, length);
+        System.arraycopy(decoded, 0, history.getValues(slot), 0, length);
+        newestTick = tick;
+        newestLevel = level;
+        newestAppliedSeq = appliedSeq;
+        snapshotWaiting = true;
+    }
+
+    /**
+     * Sets the play state to the newest snapshot, then plays the inputs the server
+     * hadn't applied yet again on top of it.
+     */
+    private void applySnapshot(boolean predicting) {
+        snapshotWaiting = false;
+        if (playState.getCurrentLevel() != newestLevel) {
+            playState.setLevelLayout(newestLevel);
+        }
+
+        int slot = history.find(newestTick);
+        snapshot.setValues(history.getValues(slot), history.getLength(slot));
+        if (!playState.loadWorldState(snapshot)) {
+            System.err.println("Snapshot " + newestTick + " doesn't match level " + newestLevel);
+            return;
+        }
+        hasWorld = true;
+
+        if (predicting) {
+            // The newest input isn't included; the caller simulates it next
+            for (int s = Math.max(newestAppliedSeq + 1, seq - CoopProtocol.INPUT_HISTORY + 1); s < seq; s++) {
+                playState.setInput(inputs[s & (CoopProtocol.INPUT_HISTORY - 1)]);
+                playState.update();
+            }
+        }
+    }
+
+    private void sendHello() throws IOException {
+        out.clear();
+        out.put(CoopProtocol.HELLO);
+        out.putInt(sessionId);
+        out.put(requestedRole);
+        send();
+    }
+
+    private void sendInput() throws IOException {
+        int count = Math.min(seq, CoopProtocol.INPUT_REDUNDANCY);
+        out.clear();
+        out.put(CoopProtocol.INPUT);
+        out.putInt(newestTick);
+        out.putInt(seq);
+        out.put((byte) count);
+        for (int s = seq - count + 1; s <= seq; s++) {
+            out.put((byte) inputs[s & (CoopProtocol.INPUT_HISTORY - 1)]);
+        }
+        send();
+    }
+
+    private void send() throws IOException {
+        out.flip();
+        bytesSent += out.remaining();
+        channel.write(out);
+    }
+
+    /**
+     * Gets the play state showing the world, for drawing.
+     *
+     * @return The play state
+     */
+    public PlayState getPlayState() {
+        return playState;
+    }
+
+    /**
+     * Gets the role the server gave the client.
+     *
+     * @return The role, or {@link CoopProtocol#ROLE_NONE} if not welcomed yet or turned away
+     */
+    public byte getRole() {
+        return role;
+    }
+
+    /**
+     * Checks if the server turned the client away because its role was taken.
+     *
+     * @return True if rejected
+     */
+    public boolean isRejected() {
+        return rejected;
+    }
+
+    /**
+     * Checks if the client has had a snapshot of the world yet.
+     *
+     * @return True once the first snapshot has been applied
+     */
+    public boolean hasWorld() {
+        return hasWorld;
+    }
+
+    /**
+     * Gets the server tick of the newest snapshot received.
+     *
+     * @return The tick, or {@link CoopProtocol#NO_BASELINE} if none has arrived
+     */
+    public int getSnapshotTick() {
+        return newestTick;
+    }
+
+    /**
+     * Gets the number of bytes sent to the server so far.
+     *
+     * @return The bytes sent
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Gets the number of bytes received from the server so far.
+     *
+     * @return The bytes received
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+}
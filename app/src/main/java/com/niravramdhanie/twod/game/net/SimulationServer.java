@@ -0,0 +1,310 @@
+package com.niravramdhanie.twod.game.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.niravramdhanie.twod.game.core.GameStateManager;
+import com.niravramdhanie.twod.game.utils.GameClock;
+
+/**
+ * Runs co-op games authoritatively for players connecting over UDP. The server owns
+ * the simulation: players only send their input, and the world they see is the one
+ * in the snapshots the server sends back, which {@link SimulationClient} predicts ahead of.
+ * <p>
+ * Every session on the server is ticked by one thread, one after another, at
+ * {@link GameClock#TICKS_PER_SECOND}. A session is made the first time a player asks
+ * to join it, and dropped once its last player leaves or goes silent. Sessions are
+ * small and a tick of one is well under a millisecond, so one server thread holds many;
+ * run a server per core to use more.
+ */
+public class SimulationServer {
+    // Screen size the sessions' play states are laid out for; only the camera uses it
+    private static final int SCREEN_WIDTH = 1000;
+    private static final int SCREEN_HEIGHT = 750;
+
+    private final DatagramChannel channel;
+    private final GameStateManager gsm;
+    private final ByteBuffer in = ByteBuffer.allocate(CoopProtocol.MAX_DATAGRAM);
+    private final ByteBuffer out = ByteBuffer.allocate(CoopProtocol.MAX_DATAGRAM);
+
+    private final Map<Integer, CoopSession> sessions = new HashMap<>();
+    private final List<CoopSession> sessionList = new ArrayList<>();
+    private final Map<SocketAddress, CoopSession.Peer> peers = new HashMap<>();
+    private final Map<SocketAddress, CoopSession> peerSessions = new HashMap<>();
+
+    // Written by the server thread only; volatile so a report from another thread sees them
+    private volatile boolean running;
+    private volatile long bytesSent;
+    private volatile long lastTickNanos;
+
+    /**
+     * Creates a server listening on an address.
+     *
+     * @param address The address, such as localhost with port 0 for any free port
+     * @throws IOException If the socket can't be opened
+     */
+    public SimulationServer(InetSocketAddress address) throws IOException {
+        channel = DatagramChannel.open();
+        channel.bind(address);
+        channel.configureBlocking(false);
+        gsm = GameStateManager.createHeadless(SCREEN_WIDTH, SCREEN_HEIGHT);
+    }
+
+    /**
+     * Gets the port the server is listening on.
+     *
+     * @return The port
+     * @throws IOException If the socket has been closed
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Takes in every datagram waiting, then ticks every session and sends the snapshots due.
+     *
+     * @throws IOException If the socket fails
+     */
+    public void tick() throws IOException {
+        long start = System.nanoTime();
+        receive();
+
+        for (int i = sessionList.size() - 1; i >= 0; i--) {
+            CoopSession session = sessionList.get(i);
+            if (session.tick()) {
+                sendSnapshots(session);
+            }
+            dropSilentPeers(session);
+            if (session.isEmpty()) {
+                System.out.println("Session " + session.getId() + " ended after " + session.getTick() + " ticks");
+                sessions.remove(session.getId());
+                sessionList.set(i, sessionList.get(sessionList.size() - 1));
+                sessionList.remove(sessionList.size() - 1);
+            }
+        }
+        lastTickNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Ticks at a fixed rate until {@link #stop()} is called.
+     *
+     * @throws IOException If the socket fails
+     */
+    public void run() throws IOException {
+        running = true;
+        long tickNanos = 1_000_000_000L / GameClock.TICKS_PER_SECOND;
+        long nextTick = System.nanoTime();
+        while (running) {
+            tick();
+            nextTick += tickNanos;
+            long wait = nextTick - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            } else if (wait < -tickNanos * GameClock.TICKS_PER_SECOND) {
+                // More than a second behind; skip ahead rather than running ticks back to back
+                nextTick = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Stops {@link #run()} after the tick it's on.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Stops listening.
+     *
+     * @throws IOException If the socket can't be closed
+     */
+    public void close() throws IOException {
+        running = false;
+        channel.close();
+    }
+
+    /**
+     * Handles the datagrams waiting on the socket.
+     */
+    private void receive() throws IOException {
+        SocketAddress from;
+        while (true) {
+            in.clear();
+            from = channel.receive(in);
+            if (from == null) {
+                return;
+            }
+            in.flip();
+            if (!in.hasRemaining()) {
+                continue;
+            }
+
+            try {
+                byte type = in.get();
+                if (type == CoopProtocol.HELLO) {
+                    hello(from, in.getInt(), in.get());
+                } else if (type == CoopProtocol.INPUT) {
+                    CoopSession.Peer peer = peers.get(from);
+                    if (peer != null) {
+                        peerSessions.get(from).receiveInput(peer, in);
+                    }
+                } else if (type == CoopProtocol.BYE) {
+                    CoopSession.Peer peer = peers.get(from);
+                    if (peer != null) {
+                        peerSessions.get(from).leave(peer);
+                        forget(from);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // A short or garbled datagram is dropped like a lost one
+                System.err.println("Dropping bad datagram from " + from + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Joins a player to a session, making it if it doesn't exist, and welcomes them.
+     */
+    private void hello(SocketAddress from, int sessionId, byte role) throws IOException {
+        CoopSession.Peer peer = peers.get(from);
+        if (peer == null) {
+            CoopSession session = sessions.get(sessionId);
+            if (session == null) {
+                session = new CoopSession(sessionId, gsm, SCREEN_WIDTH, SCREEN_HEIGHT);
+                sessions.put(sessionId, session);
+                sessionList.add(session);
+                System.out.println("Session " + sessionId + " started");
+            }
+            peer = session.join(from, role);
+            if (peer != null) {
+                peers.put(from, peer);
+                peerSessions.put(from, session);
+            } else if (session.isEmpty()) {
+                // Asked for a role that doesn't exist in a session made just for them
+                sessions.remove(sessionId);
+                sessionList.remove(session);
+            }
+        }
+
+        out.clear();
+        out.put(CoopProtocol.WELCOME);
+        out.put(peer != null ? peer.role : CoopProtocol.ROLE_NONE);
+        send(out, from, peer);
+    }
+
+    /**
+     * Sends each player of a session the snapshot it just took.
+     */
+    private void sendSnapshots(CoopSession session) throws IOException {
+        for (int role = 0; role < CoopProtocol.ROLE_COUNT; role++) {
+            CoopSession.Peer peer = session.getPeer(role);
+            if (peer != null) {
+                out.clear();
+                session.writeSnapshot(peer, out);
+                send(out, peer.address, peer);
+            }
+        }
+    }
+
+    private void dropSilentPeers(CoopSession session) {
+        for (int role = 0; role < CoopProtocol.ROLE_COUNT; role++) {
+            CoopSession.Peer peer = session.getPeer(role);
+            if (peer != null && session.isSilent(peer)) {
+                System.out.println("Session " + session.getId() + ": player timed out");
+                session.leave(peer);
+                forget(peer.address);
+            }
+        }
+    }
+
+    private void forget(SocketAddress address) {
+        peers.remove(address);
+        peerSessions.remove(address);
+    }
+
+    private void send(ByteBuffer message, SocketAddress to, CoopSession.Peer peer) throws IOException {
+        message.flip();
+        int size = message.remaining();
+        channel.send(message, to);
+        bytesSent += size;
+        if (peer != null) {
+            peer.bytesSent += size;
+        }
+    }
+
+    /**
+     * Gets the number of sessions being played.
+     *
+     * @return The session count
+     */
+    public int getSessionCount() {
+        return sessionList.size();
+    }
+
+    /**
+     * Gets the number of bytes sent to all players so far.
+     *
+     * @return The bytes sent
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Gets how long the last tick took, for every session.
+     *
+     * @return The tick time in nanoseconds
+     */
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    /**
+     * Runs a server until the process is stopped, reporting its load every few seconds.
+     *
+     * @param args The port to listen on; {@link CoopProtocol#DEFAULT_PORT} if not given
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : CoopProtocol.DEFAULT_PORT;
+        SimulationServer server = new SimulationServer(new InetSocketAddress(port));
+
+        // The game's own logging of every session would drown out the report
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        console.println("Co-op server listening on port " + server.getPort());
+
+        Thread reporter = new Thread(() -> {
+            long lastBytes = 0;
+            while (true) {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long bytes = server.getBytesSent();
+                console.printf("%d sessions, last tick %d us, %d bytes/s out%n", server.getSessionCount(),
+                               server.getLastTickNanos() / 1000, (bytes - lastBytes) / 5);
+                lastBytes = bytes;
+            }
+        }, "Server report");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        server.run();
+    }
+}
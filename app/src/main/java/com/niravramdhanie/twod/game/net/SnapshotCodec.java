@@ -0,0 +1,126 @@
+package com.niravramdhanie.twod.game.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes a world snapshot's values against an older snapshot the receiver already has.
+ * Each value is XORed with the value at the same position in the baseline, so the
+ * values that haven't changed become zero. The result is written as runs: the number
+ * of zeros, the number of values that follow, then those values, all as varints.
+ * A player standing still changes little more than the clock and the timer, so a
+ * snapshot then is a handful of bytes.
+ * <p>
+ * Without a baseline, every value is encoded against zero. Values past the end of a
+ * shorter baseline are too, so a snapshot of a different level still encodes.
+ */
+public final class SnapshotCodec {
+    private static final int[] NO_VALUES = new int[0];
+
+    private SnapshotCodec() {
+    }
+
+    /**
+     * Encodes snapshot values.
+     *
+     * @param values The values
+     * @param length The number of values
+     * @param baseline The baseline values, or null to encode against zero
+     * @param baselineLength The number of baseline values
+     * @param out The buffer to write to
+     */
+    public static void encode(int[] values, int length, int[] baseline, int baselineLength, ByteBuffer out) {
+        if (baseline == null) {
+            baseline = NO_VALUES;
+            baselineLength = 0;
+        }
+        writeVarint(out, length);
+
+        int i = 0;
+        while (i < length) {
+            int zeroStart = i;
+            while (i < length && delta(values, baseline, baselineLength, i) == 0) {
+                i++;
+            }
+            int changedStart = i;
+            while (i < length && delta(values, baseline, baselineLength, i) != 0) {
+                i++;
+            }
+
+            writeVarint(out, changedStart - zeroStart);
+            writeVarint(out, i - changedStart);
+            for (int j = changedStart; j < i; j++) {
+                writeVarint(out, delta(values, baseline, baselineLength, j));
+            }
+        }
+    }
+
+    /**
+     * Gets how many values an encoded snapshot holds, without moving the buffer's position.
+     *
+     * @param in The buffer, at the start of the encoded snapshot
+     * @return The number of values
+     */
+    public static int peekLength(ByteBuffer in) {
+        int position = in.position();
+        int length = readVarint(in);
+        in.position(position);
+        return length;
+    }
+
+    /**
+     * Decodes snapshot values encoded by {@link #encode(int[], int, int[], int, ByteBuffer)}.
+     *
+     * @param in The buffer to read from
+     * @param baseline The baseline they were encoded against, or null for none
+     * @param baselineLength The number of baseline values
+     * @param values Where to write the values; must hold {@link #peekLength(ByteBuffer)} values
+     * @return The number of values
+     */
+    public static int decode(ByteBuffer in, int[] baseline, int baselineLength, int[] values) {
+        if (baseline == null) {
+            baseline = NO_VALUES;
+            baselineLength = 0;
+        }
+        int length = readVarint(in);
+
+        int i = 0;
+        while (i < length) {
+            int zeros = readVarint(in);
+            for (int end = i + zeros; i < end; i++) {
+                values[i] = i < baselineLength ? baseline[i] : 0;
+            }
+            int changed = readVarint(in);
+            for (int end = i + changed; i < end; i++) {
+                values[i] = readVarint(in) ^ (i < baselineLength ? baseline[i] : 0);
+            }
+        }
+        return length;
+    }
+
+    private static int delta(int[] values, int[] baseline, int baselineLength, int i) {
+        return i < baselineLength ? values[i] ^ baseline[i] : values[i];
+    }
+
+    /**
+     * Writes an int as an unsigned varint: seven bits a byte, low bits first.
+     */
+    static void writeVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int readVarint(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.get() & 0xFF;
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,96 @@
+package com.niravramdhanie.twod.game.net;
+
+import java.util.Arrays;
+
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
+/**
+ * The last few snapshots, by tick, kept to encode new snapshots against or decode them.
+ * Snapshots sit in a ring of reusable arrays, a new one replacing the oldest, so keeping
+ * one doesn't allocate once the arrays are big enough for the level. Finding one looks
+ * through the whole ring, which is only a few dozen ticks.
+ */
+final class SnapshotHistory {
+    private final int[] ticks;
+    private final int[][] values;
+    private final int[] lengths;
+    private final int mask;
+    private int next;
+
+    /**
+     * Creates an empty history.
+     *
+     * @param capacity The number of snapshots kept; a power of two
+     */
+    SnapshotHistory(int capacity) {
+        ticks = new int[capacity];
+        values = new int[capacity][];
+        lengths = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill(ticks, -1);
+        for (int i = 0; i < capacity; i++) {
+            values[i] = new int[256];
+        }
+    }
+
+    /**
+     * Keeps a copy of a snapshot, replacing the oldest.
+     *
+     * @param tick The snapshot's tick
+     * @param snapshot The snapshot
+     */
+    void put(int tick, WorldSnapshot snapshot) {
+        int slot = reserve(tick, snapshot.size());
+        snapshot.getValues(values[slot]);
+    }
+
+    /**
+     * Makes room for a snapshot's values, replacing the oldest.
+     *
+     * @param tick The snapshot's tick
+     * @param length The number of values
+     * @return The slot, whose values array holds at least that many
+     */
+    int reserve(int tick, int length) {
+        int slot = next++ & mask;
+        if (values[slot].length < length) {
+            values[slot] = new int[Math.max(length, values[slot].length * 2)];
+        }
+        ticks[slot] = tick;
+        lengths[slot] = length;
+        return slot;
+    }
+
+    /**
+     * Finds a kept snapshot.
+     *
+     * @param tick The snapshot's tick
+     * @return Its slot, or -1 if it isn't kept
+     */
+    int find(int tick) {
+        if (tick < 0) {
+            return -1;
+        }
+        for (int slot = 0; slot < ticks.length; slot++) {
+            if (ticks[slot] == tick) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    int[] getValues(int slot) {
+        return values[slot];
+    }
+
+    int getLength(int slot) {
+        return lengths[slot];
+    }
+
+    /**
+     * Forgets every snapshot.
+     */
+    void clear() {
+        Arrays.fill(ticks, -1);
+    }
+}
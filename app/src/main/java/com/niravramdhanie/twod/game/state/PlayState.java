@@ -8,6 +8,9 @@ import java.awt.RenderingHints;
 import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -17,23 +20,42 @@ import javax.imageio.ImageIO;
 import com.niravramdhanie.twod.game.actions.Action;
 import com.niravramdhanie.twod.game.actions.DoorAction;
 import com.niravramdhanie.twod.game.actions.DoorController;
-import com.niravramdhanie.twod.game.actions.MultiButtonAction;
+import com.niravramdhanie.twod.game.actions.LogicGraph;
 import com.niravramdhanie.twod.game.actions.TimedAction;
 import com.niravramdhanie.twod.game.core.GameStateManager;
 import com.niravramdhanie.twod.game.entity.BallPlayer;
 import com.niravramdhanie.twod.game.entity.Block;
 import com.niravramdhanie.twod.game.entity.Box;
 import com.niravramdhanie.twod.game.entity.Button;
+import com.niravramdhanie.twod.game.entity.ComponentStore;
 import com.niravramdhanie.twod.game.entity.Door;
 import com.niravramdhanie.twod.game.entity.Entity;
+import com.niravramdhanie.twod.game.entity.EntityRegistry;
+import com.niravramdhanie.twod.game.entity.ParallelSystems;
 import com.niravramdhanie.twod.game.entity.WeightedButton;
+import com.niravramdhanie.twod.game.graphics.Camera;
+import com.niravramdhanie.twod.game.level.ColliderSet;
 import com.niravramdhanie.twod.game.level.Level;
+import com.niravramdhanie.twod.game.level.LevelData;
+import com.niravramdhanie.twod.game.level.LevelPreloader;
+import com.niravramdhanie.twod.game.level.NavigationService;
+import com.niravramdhanie.twod.game.utils.EventBus;
+import com.niravramdhanie.twod.game.utils.GameClock;
+import com.niravramdhanie.twod.game.utils.InputLog;
+import com.niravramdhanie.twod.game.utils.ObjectPool;
 import com.niravramdhanie.twod.game.utils.RewindManager;
 import com.niravramdhanie.twod.game.utils.TimerManager;
+import com.niravramdhanie.twod.game.utils.TimerWheel;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
 
-public class PlayState extends GameState {
+public class PlayState extends GameState implements RewindManager.WorldStateProvider, EventBus.Listener, LogicGraph.OutputListener {
     private BallPlayer player;
     private Level level;
+    
+    // The level the exit door leads to is built into the spare while this one is played
+    private Level spareLevel;
+    private final LevelPreloader preloader = new LevelPreloader();
+    private Camera camera;
     private int screenWidth;
     private int screenHeight;
     private Random random;
@@ -58,22 +80,55 @@ public class PlayState extends GameState {
     
     // Rewind feature
     private RewindManager rewindManager;
+    
+    // File the last recording is saved to, replayed with the 'L' key
+    private static final Path RECORDING_FILE = Paths.get("recordings", "last_recording.tnr");
     private boolean rewindEnabled = true;
     
-    // Door controls
+    // Input from the key events handed over at the start of each tick, applied to the
+    // player in the input phase so recorded and replayed input line up with the same update
+    private int heldInput = 0;
+    private boolean interactRequested = false;
+    private boolean rewindToggleRequested = false;
+    
+    // Held keys for scrubbing the rewind timeline, and how many ticks to move per update
+    private static final int SCRUB_SPEED = 4;
+    private boolean scrubBackHeld = false;
+    private boolean scrubForwardHeld = false;
+    
+    // Door controls; door is the current level's exit
     private Door door;
-    private DoorController doorController;
-    private String doorId = "main_door";
+    private final DoorController doorController;
+    
+    // Pools of the actions given to buttons, and the ones the current level is using
+    private final ObjectPool<DoorAction> doorActionPool = new ObjectPool<>(() -> new DoorAction((String) null),
+                                                                           DoorAction::reset);
+    private final ObjectPool<TimedAction> timedActionPool;
+    private final List<DoorAction> levelDoorActions = new ArrayList<>();
+    private final List<TimedAction> levelTimedActions = new ArrayList<>();
+    
+    // Description of the current level, loaded from the levels resource directory
+    private LevelData levelData;
+    
+    // Counts the game's updates, and expires timed actions and other delayed effects
+    // on the tick they fall due
+    private final GameClock clock;
+    private final TimerWheel timerWheel;
     
-    // Button IDs
-    private String buttonTopId = "button_top";
-    private String buttonBottomId = "button_bottom";
+    // Puzzle logic for the current level, the node that opens the exit door,
+    // and the handles of the doors each output node opens, indexed by node
+    private LogicGraph logicGraph;
+    private int mainDoorNode = -1;
+    private int[][] outputDoorHandles = new int[0][];
     
-    // List for timed actions that need updates
-    private List<TimedAction> timedActions = new ArrayList<>();
+    // Carries button, door and box state changes to the objects that react to them
+    private final EventBus eventBus;
     
-    // Multi-button action for two buttons
-    private MultiButtonAction multiButtonAction;
+    // The blocks the player collides with, patched when doors and boxes change state
+    private final ColliderSet colliderSet;
+    
+    // Flow fields and paths for agents, over the level's walls and closed doors
+    private final NavigationService navigation;
     
     // New variables for button highlighting
     private List<Button> nearButtons = new ArrayList<>();
@@ -91,24 +146,11 @@ public class PlayState extends GameState {
     // Add this field at the class level
     private List<WeightedButton> weightedButtons = new ArrayList<>();
     
-    // Flag to track if the end door has been permanently opened
-    private boolean endDoorPermanentlyOpened = false;
-    
-    // Flag to track if the room 1 doors have been permanently opened
-    private boolean room1DoorsPermanentlyOpened = false;
+    // Which weighted buttons have a box on them, by handle, reused every update
+    private boolean[] pressedTriggers = new boolean[64];
     
     // Flag to track if the player has won the game
     private boolean playerWon = false;
-    
-    // Store references to blue buttons
-    private WeightedButton blueButton1;
-    private WeightedButton blueButton2;
-    
-    // Level 3 buttons that control doors
-    private WeightedButton button1;
-    private WeightedButton button2;
-    private WeightedButton button3;
-    private WeightedButton button4;
 
     public PlayState(GameStateManager gsm, int screenWidth, int screenHeight) {
         super(gsm);
@@ -116,17 +158,28 @@ public class PlayState extends GameState {
         this.screenHeight = screenHeight;
         this.random = new Random();
         this.timerFont = new Font("Arial", Font.BOLD, 24);
+        
+        // The clock, event bus and their listeners live as long as the state; init() resets them.
+        // Timed actions are made with this state's clock and timer wheel
+        this.clock = new GameClock();
+        this.timerWheel = new TimerWheel(clock.getTicks());
+        this.timedActionPool = new ObjectPool<>(() -> {
+            TimedAction timedAction = new TimedAction(null, 0, clock);
+            timedAction.setTimerWheel(timerWheel);
+            return timedAction;
+        }, TimedAction::reset);
+        this.eventBus = new EventBus();
+        this.colliderSet = new ColliderSet(eventBus);
+        this.navigation = new NavigationService(eventBus);
+        this.doorController = new DoorController(eventBus);
+        eventBus.subscribe(EventBus.EventType.DOOR_OPENED, this);
+        eventBus.subscribe(EventBus.EventType.DOOR_CLOSED, this);
         System.out.println("PlayState created with dimensions: " + screenWidth + "x" + screenHeight);
     }
     
     // Overload constructor for backward compatibility if needed
     public PlayState(GameStateManager gsm) {
-        super(gsm);
-        this.screenWidth = gsm.getWidth();
-        this.screenHeight = gsm.getHeight();
-        this.random = new Random();
-        this.timerFont = new Font("Arial", Font.BOLD, 24);
-        System.out.println("PlayState created with dimensions from GSM: " + screenWidth + "x" + screenHeight);
+        this(gsm, gsm.getWidth(), gsm.getHeight());
     }
     
     @Override
@@ -142,54 +195,100 @@ public class PlayState extends GameState {
             e.printStackTrace();
         }
         
-        // Create the level with a grid
-        level = new Level(screenWidth, screenHeight, GRID_CELL_SIZE);
+        // Create the level with a grid; a level kept from before still has its entity pools,
+        // and its old entities go back to them when level 1 is built. A level still being
+        // preloaded has to finish first, since its walls report to the old collider set
+        preloader.cancel();
+        if (level == null) {
+            level = new Level(screenWidth, screenHeight, GRID_CELL_SIZE);
+            level.setEventBus(eventBus);
+        }
+        carriedBox = null;
+        nearBoxes.clear();
+        nearButtons.clear();
         
         // Set current level to 1
         currentLevel = 1;
         
-        // Create level 1 layout with border blocks
-        level.createLevel1();
+        // Timed actions schedule their expiry on the timer wheel; a restarted game's
+        // timers are cancelled
+        timerWheel.reset(clock.getTicks());
+        
+        // The level's entities publish state changes to the event bus; listeners react once
+        // per update. The last game's events, doors, logic and rewind manager are dropped,
+        // so only the listeners made in the constructor are left subscribed
+        eventBus.clear();
+        doorController.clear();
+        if (logicGraph != null) {
+            eventBus.unsubscribe(logicGraph);
+            logicGraph = null;
+        }
+        if (rewindManager != null) {
+            eventBus.unsubscribe(rewindManager);
+        }
         
-        // Initialize door controller
-        doorController = new DoorController();
+        // Walls join and leave the collider set as the chunks around the player load
+        level.setChunkListener(colliderSet);
         
-        // Add the door and buttons
-        setupLevel1();
+        // Build level 1 with its doors and buttons
+        buildLevel(currentLevel, null);
         
         try {
-            // Create player in the middle left of the screen
+            // Create the player at the level's spawn cell, or put the one from the last
+            // game back there
             int gridCellSize = level.getGrid().getCellSize();
             int playerSize = gridCellSize; // Make player the same size as grid cells
             
-            // Position player at the middle left of the grid
-            int gridX = 2; // A few cells from the left border
-            int gridY = level.getGrid().getVerticalCells() / 2;
+            int gridX = getSpawnGridX();
+            int gridY = getSpawnGridY();
             int playerX = level.getGrid().gridToScreenX(gridX);
             int playerY = level.getGrid().gridToScreenY(gridY);
             
-            System.out.println("Creating player at: " + playerX + "," + playerY);
-            player = new BallPlayer(playerX, playerY, playerSize, playerSize, screenWidth, screenHeight);
+            if (player == null) {
+                System.out.println("Creating player at: " + playerX + "," + playerY);
+                player = new BallPlayer(playerX, playerY, playerSize, playerSize, screenWidth, screenHeight);
+            } else {
+                System.out.println("Respawning player at: " + playerX + "," + playerY);
+                player.respawn(playerX, playerY);
+            }
             
-            // Pass the blocks to the player for collision detection
-            player.setBlocks(level.getBlocks());
+            player.setBounds(level.getWidth(), level.getHeight());
             
-            // Add door to collision blocks if it's closed
-            updateDoorCollision();
+            // Start the camera on the player
+            if (camera == null) {
+                camera = new Camera(screenWidth, screenHeight);
+            }
+            camera.setWorldSize(level.getWidth(), level.getHeight());
+            camera.centerOn(player);
+            
+            // Pass the blocks and boxes to the player for collision detection; closed doors are
+            // included. The collider set is rebuilt first so the walls it's told about are this level's
+            colliderSet.rebuild(level);
+            level.updateChunks(player.getX(), player.getY());
+            navigation.rebuild(level);
+            player.setBlocks(colliderSet.getBlocks());
+            player.setBoxes(colliderSet.getBoxes());
+            updateDoorCollisionMessage();
             
             // Initialize the timer manager
-            timerManager = new TimerManager(timerDuration);
+            timerManager = new TimerManager(timerDuration, clock);
             timerManager.start();
             
             // Initialize the rewind manager
-            rewindManager = new RewindManager(player, level.getButtons(), timerManager);
+            rewindManager = new RewindManager(player, level.getButtons(), timerManager, clock);
+            rewindManager.setRecordingPath(RECORDING_FILE);
+            rewindManager.setWorldStateProvider(this);
+            rewindManager.setEntityRegistry(level.getRegistry());
             
-            // Set the rewind manager for buttons
-            Button.setRewindManager(rewindManager);
+            // Record button and box interactions from the event bus
+            rewindManager.setEventBus(eventBus);
             
             // Update rewind manager with boxes (if any)
             updateRewindManager();
             
+            // Start building the next level while this one is played
+            preloadNextLevel();
+            
             initialized = true;
             System.out.println("PlayState initialization complete");
         } catch (Exception e) {
@@ -199,149 +298,185 @@ public class PlayState extends GameState {
     }
     
     /**
-     * Sets up the level 1 layout with door and timed buttons
+     * Builds a level from its description in the levels resource directory,
+     * then wires up its doors, button actions and puzzle logic.
+     * A level that was preloaded is swapped in instead of being built again.
+     * 
+     * @param levelNumber The level to build
+     * @param preloaded The level built in the background, or null to build it now
      */
-    private void setupLevel1() {
-        int cellSize = level.getGrid().getCellSize();
-        int horizontalCells = level.getGrid().getHorizontalCells();
-        int verticalCells = level.getGrid().getVerticalCells();
-        
-        // Create the door in the middle of the right side
-        int doorGridX = horizontalCells - 2; // One cell from the right border
-        int doorGridY = verticalCells / 2;
-        
-        float doorX = level.getGrid().gridToScreenX(doorGridX);
-        float doorY = level.getGrid().gridToScreenY(doorGridY);
-        door = new Door(doorX, doorY, cellSize, cellSize, doorId);
-        level.addEntity(door, doorGridX, doorGridY);
-        
-        // Register door with controller
-        doorController.registerDoor(door);
-        
-        // Create a door action that the multi-button action will control
-        DoorAction doorAction = new DoorAction(doorId);
-        doorAction.setDoorStateChangeListener(doorController);
-        
-        // Create a multi-button action that requires both buttons
-        // Use permanent activation so door stays open once opened
-        multiButtonAction = new MultiButtonAction(doorAction, true);
-        multiButtonAction.addRequiredButton(buttonTopId);
-        multiButtonAction.addRequiredButton(buttonBottomId);
-        
-        // Create the top button (1-second timer)
-        int topButtonGridX = horizontalCells / 2;
-        int topButtonGridY = 2; // Two cells from the top
-        
-        float topButtonX = level.getGrid().gridToScreenX(topButtonGridX);
-        float topButtonY = level.getGrid().gridToScreenY(topButtonGridY);
-        
-        // Create a timed action for the top button
-        TimedAction topTimedAction = createTimedButtonAction(buttonTopId, 1000); // 1 second
-        
-        Button topButton = new Button(topButtonX, topButtonY, cellSize, cellSize, topTimedAction);
-        topButton.setColor(new Color(200, 80, 80)); // Red when inactive
-        topButton.setActiveColor(new Color(255, 100, 100)); // Brighter red when active
-        level.addEntity(topButton, topButtonGridX, topButtonGridY);
-        
-        // Register the timed action for updates
-        timedActions.add(topTimedAction);
-        
-        // Create the bottom button (1-second timer)
-        int bottomButtonGridX = horizontalCells / 2;
-        int bottomButtonGridY = verticalCells - 3; // Two cells from the bottom
-        
-        float bottomButtonX = level.getGrid().gridToScreenX(bottomButtonGridX);
-        float bottomButtonY = level.getGrid().gridToScreenY(bottomButtonGridY);
+    private void buildLevel(int levelNumber, LevelPreloader.Result preloaded) {
+        weightedButtons.clear();
+        door = null;
+        releaseLevelActions();
+        
+        Entity[] entities;
+        if (preloaded != null) {
+            // The old level becomes the spare that the level after this one is built into;
+            // its walls leave the collider set here rather than on the preloader's thread,
+            // and only the level being played publishes events
+            level.closeChunks();
+            level.setEventBus(null);
+            spareLevel = level;
+            level = preloaded.getLevel();
+            level.setEventBus(eventBus);
+            levelData = preloaded.getData();
+            entities = preloaded.getEntities();
+        } else {
+            levelData = LevelData.load("level" + levelNumber);
+            if (levelData == null) {
+                // Leave an empty room rather than no level at all
+                level.clearLevel();
+                level.resize(screenWidth, screenHeight);
+                level.addBorderBlocks();
+                return;
+            }
+            entities = level.build(levelData);
+        }
+        timerDuration = levelData.getTimeLimit();
         
-        // Create a timed action for the bottom button
-        TimedAction bottomTimedAction = createTimedButtonAction(buttonBottomId, 1000); // 1 second
+        // Register the doors and find the buttons that boxes press
+        for (Entity entity : entities) {
+            if (entity instanceof Door) {
+                doorController.registerDoor((Door) entity);
+            } else if (entity instanceof WeightedButton) {
+                weightedButtons.add((WeightedButton) entity);
+            }
+        }
         
-        Button bottomButton = new Button(bottomButtonX, bottomButtonY, cellSize, cellSize, bottomTimedAction);
-        bottomButton.setColor(new Color(80, 80, 200)); // Blue when inactive
-        bottomButton.setActiveColor(new Color(100, 100, 255)); // Brighter blue when active
-        level.addEntity(bottomButton, bottomButtonGridX, bottomButtonGridY);
+        if (levelData.getExitDoor() >= 0) {
+            door = (Door) entities[levelData.getExitDoor()];
+        }
         
-        // Register the timed action for updates
-        timedActions.add(bottomTimedAction);
+        // Give the buttons their actions
+        for (int i = 0; i < levelData.getActionCount(); i++) {
+            Button button = (Button) entities[levelData.getActionButton(i)];
+            if (button == null) continue;
+            
+            Action action = null;
+            int doorIndex = levelData.getActionDoor(i);
+            if (doorIndex >= 0 && entities[doorIndex] != null) {
+                DoorAction doorAction = doorActionPool.acquire();
+                doorAction.setDoor((Door) entities[doorIndex]);
+                doorAction.setEventBus(eventBus);
+                levelDoorActions.add(doorAction);
+                action = doorAction;
+            }
+            if (levelData.getActionType(i) == LevelData.ACTION_TIMED) {
+                TimedAction timedAction = timedActionPool.acquire();
+                timedAction.setWrappedAction(action);
+                timedAction.setDuration(levelData.getActionMillis(i));
+                levelTimedActions.add(timedAction);
+                action = timedAction;
+            }
+            button.setAction(action);
+        }
         
-        // Start with the door closed
-        door.close();
+        if (levelData.getNodeCount() > 0) {
+            buildLogicGraph(entities);
+        }
         
-        System.out.println("Level 1 setup complete with door and two timed buttons");
+        System.out.println("Level " + levelNumber + " setup complete");
     }
     
     /**
-     * Creates a timed action that updates the multi-button action when a button is pressed
+     * Starts building the level the exit door leads to in the background, unless it
+     * already is being built. The spare level is made the first time it's needed.
      */
-    private TimedAction createTimedButtonAction(String buttonId, long duration) {
-        // Create action that updates the multi-button action when activated
-        Action activateAction = new UpdateMultiButtonAction(buttonId, true);
+    private void preloadNextLevel() {
+        int nextLevel = levelData != null ? levelData.getNextLevel() : -1;
+        if (nextLevel <= 0 || preloader.getPendingLevel() == nextLevel) return;
         
-        // Create action that updates when deactivated
-        Action deactivateAction = new UpdateMultiButtonAction(buttonId, false);
-        
-        // Create timed action with both activate and deactivate actions
-        TimedAction timedAction = new TimedAction(activateAction, duration);
-        timedAction.setDeactivateAction(deactivateAction);
-        
-        return timedAction;
+        if (spareLevel == null) {
+            spareLevel = new Level(screenWidth, screenHeight, GRID_CELL_SIZE);
+        }
+        spareLevel.setChunkListener(colliderSet);
+        preloader.preload(spareLevel, nextLevel);
     }
     
     /**
-     * Inner class for actions that update the multi-button state
+     * Puts the actions given to the last level's buttons back in their pools.
+     * Only called before the level is rebuilt, which makes the old buttons let go of them.
      */
-    private class UpdateMultiButtonAction implements Action {
-        private String buttonId;
-        private boolean activated;
-        
-        public UpdateMultiButtonAction(String buttonId, boolean activated) {
-            this.buttonId = buttonId;
-            this.activated = activated;
-        }
-        
-        @Override
-        public void execute() {
-            // Update the multi-button action with this button's state
-            boolean changed = multiButtonAction.updateButtonState(buttonId, activated);
-            
-            // Always respect permanent activation - never close the door once it's been fully activated
-            if (multiButtonAction.isPermanentlyActivated()) {
-                // Ensure door stays open if permanently activated
-                if (door != null && !door.isOpen()) {
-                    door.open();
-                    updateDoorCollision(); // Immediately update door collision when opening
-                    System.out.println("Door will remain open permanently!");
-                }
-                return;
-            }
-            
-            // Only handle non-permanent state below this point
-            
-            // If a button is deactivated and we haven't achieved permanent activation yet,
-            // make sure the door is closed
-            if (!activated) {
-                // Manually update the door state to ensure it closes
-                if (door != null && door.isOpen()) {
-                    door.close();
-                    updateDoorCollision(); // Immediately update door collision when closing
-                    System.out.println("Door closed - both buttons must be pressed simultaneously!");
+    private void releaseLevelActions() {
+        for (TimedAction timedAction : levelTimedActions) {
+            timedActionPool.release(timedAction);
+        }
+        levelTimedActions.clear();
+        for (DoorAction doorAction : levelDoorActions) {
+            doorActionPool.release(doorAction);
+        }
+        levelDoorActions.clear();
+    }
+    
+    /**
+     * Builds the puzzle logic of the current level and connects its outputs to doors
+     * 
+     * @param entities The level's entities by their index in the level description
+     */
+    private void buildLogicGraph(Entity[] entities) {
+        LogicGraph.NodeType[] nodeTypes = LogicGraph.NodeType.values();
+        logicGraph = new LogicGraph(timerWheel);
+        
+        // Nodes only read earlier nodes, so adding them in order gives each the index the description uses
+        for (int node = 0; node < levelData.getNodeCount(); node++) {
+            LogicGraph.NodeType type = nodeTypes[levelData.getNodeType(node)];
+            String name = levelData.getNodeName(node);
+            int[] inputs = levelData.getNodeInputs(node);
+            
+            if (type == LogicGraph.NodeType.INPUT) {
+                int buttonIndex = levelData.getNodeButton(node);
+                Entity button = buttonIndex >= 0 ? entities[buttonIndex] : null;
+                if (button != null) {
+                    logicGraph.addButtonInput(name, button.getHandle());
+                } else {
+                    logicGraph.addInput(name);
                 }
+            } else if (type == LogicGraph.NodeType.LATCH) {
+                logicGraph.addLatch(name, inputs[0], inputs.length > 1 ? inputs[1] : -1);
+            } else if (type == LogicGraph.NodeType.TIMER) {
+                logicGraph.addTimer(name, inputs[0], levelData.getNodeDelay(node));
             } else {
-                // Check if the door should open (if both buttons are now active)
-                if (multiButtonAction.isPermanentlyActivated() || multiButtonAction.updateButtonState(buttonId, true)) {
-                    if (door != null && !door.isOpen()) {
-                        door.open();
-                        updateDoorCollision(); // Immediately update door collision when opening
-                        System.out.println("Door opened - both buttons pressed simultaneously!");
-                    }
-                }
+                logicGraph.addGate(type, name, inputs);
             }
         }
         
-        @Override
-        public String getDescription() {
-            return "Update " + buttonId + " to " + (activated ? "activated" : "deactivated");
+        // Remember the door handles of each output so output changes don't look them up
+        outputDoorHandles = new int[levelData.getNodeCount()][];
+        for (int i = 0; i < levelData.getOutputCount(); i++) {
+            int node = levelData.getOutputNode(i);
+            int[] doors = levelData.getOutputDoors(i);
+            int[] handles = new int[doors.length];
+            for (int j = 0; j < doors.length; j++) {
+                Entity outputDoor = entities[doors[j]];
+                handles[j] = outputDoor != null ? outputDoor.getHandle() : -1;
+                if (outputDoor != null && outputDoor == door) {
+                    mainDoorNode = node;
+                }
+            }
+            outputDoorHandles[node] = handles;
+            logicGraph.addOutput(node);
         }
+        
+        startLogicGraph();
+    }
+    
+    /**
+     * Gets the cell the player starts the current level in
+     * 
+     * @return The grid X position
+     */
+    private int getSpawnGridX() {
+        return levelData != null ? levelData.getSpawnX() : 2;
+    }
+    
+    /**
+     * Gets the cell the player starts the current level in
+     * 
+     * @return The grid Y position
+     */
+    private int getSpawnGridY() {
+        return levelData != null ? levelData.getSpawnY() : level.getGrid().getVerticalCells() / 2;
     }
     
     /**
@@ -354,465 +489,132 @@ public class PlayState extends GameState {
     }
     
     /**
-     * Sets up the level 2 layout
+     * Updates the RewindManager with the current boxes in the level
      */
-    private void setupLevel2() {
-        int cellSize = level.getGrid().getCellSize();
-        int horizontalCells = level.getGrid().getHorizontalCells();
-        int verticalCells = level.getGrid().getVerticalCells();
+    private void updateRewindManager() {
+        if (rewindManager != null) {
+            rewindManager.setButtons(level.getButtons());
+            
+            List<Box> boxes = getBoxesFromLevel();
+            rewindManager.setBoxes(boxes);
+            
+            // Provide the level blocks to the rewind manager for collision detection
+            List<Block> levelBlocks = level.getBlocks();
+            rewindManager.setLevelBlocks(levelBlocks);
+        }
+    }
+    
+    /**
+     * Saves the complete simulation state, for input-log recordings.
+     * 
+     * @param snapshot The snapshot to write to
+     */
+    @Override
+    public void saveWorldState(WorldSnapshot snapshot) {
+        List<Entity> entities = level.getEntities();
+        snapshot.writeInt(entities.size());
+        snapshot.writeLong(clock.getTicks());
+        timerManager.saveState(snapshot);
+        player.saveState(snapshot);
+        
+        for (int i = 0; i < entities.size(); i++) {
+            entities.get(i).saveState(snapshot);
+        }
+        snapshot.writeInt(carriedBox != null ? entities.indexOf(carriedBox) : -1);
+        
+        if (logicGraph != null) {
+            logicGraph.saveState(snapshot);
+        }
         
-        // Add active box near the bottom left
-        int boxGridX = 2; // Two cells from the left border
-        int boxGridY = verticalCells - 3; // Two cells from the bottom
+        snapshot.writeBoolean(doorWasClosed);
+    }
+    
+    /**
+     * Restores the simulation state saved by {@link #saveWorldState(WorldSnapshot)}.
+     * 
+     * @param snapshot The snapshot to read from
+     * @return True if restored, false if the level has changed since the snapshot was taken
+     */
+    @Override
+    public boolean loadWorldState(WorldSnapshot snapshot) {
+        // Events queued before the restore describe changes that no longer happened
+        eventBus.clear();
+        
+        List<Entity> entities = level.getEntities();
+        int entityCount = snapshot.readInt();
+        if (entityCount != entities.size()) {
+            System.out.println("Snapshot has " + entityCount + " entities but the level has " + entities.size());
+            return false;
+        }
         
-        float boxX = level.getGrid().gridToScreenX(boxGridX);
-        float boxY = level.getGrid().gridToScreenY(boxGridY);
+        clock.setTicks(snapshot.readLong());
         
-        Box box = new Box(boxX, boxY, cellSize, cellSize, true, true);
-        // Enable full rewind tracking for the active box
-        box.setFullRewindTracking(true);
-        level.addEntity(box, boxGridX, boxGridY);
+        // Timers pending now belong to the abandoned future; the restored
+        // timed actions schedule their own expiry again as they load
+        timerWheel.reset(clock.getTicks());
+        timerManager.loadState(snapshot);
+        player.loadState(snapshot);
         
-        // Clear existing weighted buttons
-        weightedButtons.clear();
+        for (Entity entity : entities) {
+            entity.loadState(snapshot);
+        }
+        int carriedIndex = snapshot.readInt();
+        carriedBox = carriedIndex >= 0 ? (Box) entities.get(carriedIndex) : null;
+        if (carriedBox != null) {
+            carriedBox.setCarrier(player);
+        }
         
-        // Add three weighted buttons near the top
-        // First button - 1/3 from left
-        int button1GridX = horizontalCells / 3;
-        int button1GridY = 2; // Two cells from top
-        float button1X = level.getGrid().gridToScreenX(button1GridX);
-        float button1Y = level.getGrid().gridToScreenY(button1GridY);
-        WeightedButton button1 = new WeightedButton(button1X, button1Y, cellSize, cellSize, null);
-        level.addEntity(button1, button1GridX, button1GridY);
-        weightedButtons.add(button1);
-        
-        // Second button - 2/3 from left
-        int button2GridX = (horizontalCells * 2) / 3;
-        int button2GridY = 2; // Two cells from top
-        float button2X = level.getGrid().gridToScreenX(button2GridX);
-        float button2Y = level.getGrid().gridToScreenY(button2GridY);
-        WeightedButton button2 = new WeightedButton(button2X, button2Y, cellSize, cellSize, null);
-        level.addEntity(button2, button2GridX, button2GridY);
-        weightedButtons.add(button2);
-        
-        // Third button - near right wall
-        int button3GridX = horizontalCells - 2; // Two cells from right
-        int button3GridY = 2; // Two cells from top
-        float button3X = level.getGrid().gridToScreenX(button3GridX);
-        float button3Y = level.getGrid().gridToScreenY(button3GridY);
-        WeightedButton button3 = new WeightedButton(button3X, button3Y, cellSize, cellSize, null);
-        level.addEntity(button3, button3GridX, button3GridY);
-        weightedButtons.add(button3);
-        
-        // Add three doors
-        // First door - under first button
-        int door1GridX = button1GridX;
-        int door1GridY = button1GridY + 7; // Seven cells below button (was +2)
-        float door1X = level.getGrid().gridToScreenX(door1GridX);
-        float door1Y = level.getGrid().gridToScreenY(door1GridY);
-        Door door1 = new Door(door1X, door1Y, cellSize, cellSize, "door1");
-        level.addEntity(door1, door1GridX, door1GridY);
-        doorController.registerDoor(door1);
-        
-        // Second door - under second button
-        int door2GridX = button2GridX;
-        int door2GridY = button2GridY + 7; // Seven cells below button (was +2)
-        float door2X = level.getGrid().gridToScreenX(door2GridX);
-        float door2Y = level.getGrid().gridToScreenY(door2GridY);
-        Door door2 = new Door(door2X, door2Y, cellSize, cellSize, "door2");
-        level.addEntity(door2, door2GridX, door2GridY);
-        doorController.registerDoor(door2);
-        
-        // Third door - under third button (level transition door)
-        int door3GridX = button3GridX;
-        int door3GridY = button3GridY + 7; // Seven cells below button (was +2)
-        float door3X = level.getGrid().gridToScreenX(door3GridX);
-        float door3Y = level.getGrid().gridToScreenY(door3GridY);
-        Door door3 = new Door(door3X, door3Y, cellSize, cellSize, "door3");
-        level.addEntity(door3, door3GridX, door3GridY);
-        doorController.registerDoor(door3);
-        
-        // Connect buttons to doors
-        // First button controls first door
-        DoorAction door1Action = new DoorAction("door1");
-        door1Action.setDoorStateChangeListener(doorController);
-        button1.setAction(door1Action);
-        
-        // Second button controls second door
-        DoorAction door2Action = new DoorAction("door2");
-        door2Action.setDoorStateChangeListener(doorController);
-        button2.setAction(door2Action);
-        
-        // Third button controls third door (level transition)
-        DoorAction door3Action = new DoorAction("door3");
-        door3Action.setDoorStateChangeListener(doorController);
-        button3.setAction(door3Action);
-        
-        // Set the level transition door
-        door = door3;
-        
-        // Update the rewind manager with the box list
-        updateRewindManager();
+        if (logicGraph != null) {
+            logicGraph.loadState(snapshot);
+        }
+        
+        doorWasClosed = snapshot.readBoolean();
         
-        System.out.println("Level 2 setup complete with one active box, three weighted buttons, and three doors");
+        // Rebuild the derived collision and interaction lists from the restored state
+        colliderSet.rebuild(level);
+        navigation.rebuild(level);
+        player.setCarriedBox(carriedBox);
+        checkButtonHighlights();
+        checkBoxHighlights();
+        return true;
     }
     
     /**
-     * Sets up the level 3 layout with rooms and end door
+     * Checks if {@link #saveWorldState(WorldSnapshot)} holds everything the next tick
+     * can change, so the world can be put back to it with {@link #rollBack(int, WorldSnapshot, int)}.
+     * It doesn't while the rewind is recording, rewinding or scrubbing, or once the
+     * game has ended, as those keep state of their own.
+     * 
+     * @return True if the world can be rolled back to its state now
      */
-    private void setupLevel3() {
-        int cellSize = level.getGrid().getCellSize();
-        int horizontalCells = level.getGrid().getHorizontalCells();
-        int verticalCells = level.getGrid().getVerticalCells();
-        
-        // Create the end door in the middle of the right side (same as level 1)
-        int doorGridX = horizontalCells - 2; // One cell from the right border
-        int doorGridY = verticalCells / 2;
-        
-        float doorX = level.getGrid().gridToScreenX(doorGridX);
-        float doorY = level.getGrid().gridToScreenY(doorGridY);
-        door = new Door(doorX, doorY, cellSize, cellSize, "end_door");
-        level.addEntity(door, doorGridX, doorGridY);
-        
-        // Register door with controller
-        doorController.registerDoor(door);
-        
-        // Create a room in the top right corner (expanded to touch outer walls)
-        int roomStartX = horizontalCells - 6; // 6 cells from right edge (expanded)
-        int roomStartY = 1; // 1 cell from top edge (expanded)
-        
-        // Create room walls
-        // Top wall
-        for (int x = roomStartX; x < roomStartX + 6; x++) {
-            float blockX = level.getGrid().gridToScreenX(x);
-            float blockY = level.getGrid().gridToScreenY(roomStartY);
-            Block block = new Block(blockX, blockY, cellSize, cellSize);
-            level.addEntity(block, x, roomStartY);
-        }
-        
-        // Bottom wall
-        for (int x = roomStartX; x < roomStartX + 6; x++) {
-            float blockX = level.getGrid().gridToScreenX(x);
-            float blockY = level.getGrid().gridToScreenY(roomStartY + 5);
-            Block block = new Block(blockX, blockY, cellSize, cellSize);
-            level.addEntity(block, x, roomStartY + 5);
-        }
-        
-        // Left wall (with three doors in a row)
-        for (int y = roomStartY; y < roomStartY + 6; y++) {
-            // Skip blocks for the three doors (the original middle door and two adjacent doors)
-            if (y == roomStartY + 2 || y == roomStartY + 3 || y == roomStartY + 4) continue;
-            
-            float blockX = level.getGrid().gridToScreenX(roomStartX);
-            float blockY = level.getGrid().gridToScreenY(y);
-            Block block = new Block(blockX, blockY, cellSize, cellSize);
-            level.addEntity(block, roomStartX, y);
-        }
-        
-        // Right wall
-        for (int y = roomStartY; y < roomStartY + 6; y++) {
-            float blockX = level.getGrid().gridToScreenX(roomStartX + 5);
-            float blockY = level.getGrid().gridToScreenY(y);
-            Block block = new Block(blockX, blockY, cellSize, cellSize);
-            level.addEntity(block, roomStartX + 5, y);
-        }
-        
-        // Add three doors to the room (on the left wall)
-        // Central door (original)
-        int roomDoorGridX = roomStartX;
-        int roomDoorGridY = roomStartY + 3; // Middle of left wall
-        float roomDoorX = level.getGrid().gridToScreenX(roomDoorGridX);
-        float roomDoorY = level.getGrid().gridToScreenY(roomDoorGridY);
-        Door roomDoor = new Door(roomDoorX, roomDoorY, cellSize, cellSize, "room_door");
-        level.addEntity(roomDoor, roomDoorGridX, roomDoorGridY);
-        doorController.registerDoor(roomDoor);
-        
-        // Upper adjacent door
-        int roomUpperDoorGridY = roomStartY + 2;
-        float roomUpperDoorY = level.getGrid().gridToScreenY(roomUpperDoorGridY);
-        Door roomUpperDoor = new Door(roomDoorX, roomUpperDoorY, cellSize, cellSize, "room_door_upper");
-        level.addEntity(roomUpperDoor, roomDoorGridX, roomUpperDoorGridY);
-        doorController.registerDoor(roomUpperDoor);
-        
-        // Lower adjacent door
-        int roomLowerDoorGridY = roomStartY + 4;
-        float roomLowerDoorY = level.getGrid().gridToScreenY(roomLowerDoorGridY);
-        Door roomLowerDoor = new Door(roomDoorX, roomLowerDoorY, cellSize, cellSize, "room_door_lower");
-        level.addEntity(roomLowerDoor, roomDoorGridX, roomLowerDoorGridY);
-        doorController.registerDoor(roomLowerDoor);
-        
-        // Create two connected rooms at the bottom left (shifted left by one tile)
-        // First room (left room)
-        int leftRoomStartX = 1; // 1 cell from left edge (shifted left)
-        int leftRoomStartY = verticalCells - 8; // 6 cells from bottom edge
-        
-        // Create left room walls
-        // Top wall (with three doors in a row)
-        for (int x = leftRoomStartX; x < leftRoomStartX + 6; x++) {
-            // Skip blocks for the three doors (the original middle door and two adjacent doors)
-            if (x == leftRoomStartX + 2 || x == leftRoomStartX + 3 || x == leftRoomStartX + 4) continue;
-            
-            float blockX = level.getGrid().gridToScreenX(x);
-            float blockY = level.getGrid().gridToScreenY(leftRoomStartY);
-            Block block = new Block(blockX, blockY, cellSize, cellSize);
-            level.addEntity(block, x, leftRoomStartY);
-        }
-        
-        // Bottom wall
-        for (int x = leftRoomStartX; x < leftRoomStartX + 6; x++) {
-            float blockX = level.getGrid().gridToScreenX(x);
-            float blockY = level.getGrid().gridToScreenY(leftRoomStartY + 6);
-            Block block = new Block(blockX, blockY, cellSize, cellSize);
-            level.addEntity(block, x, leftRoomStartY + 6);
-        }
-        
-        // Left wall
-        for (int y = leftRoomStartY; y < leftRoomStartY + 7; y++) {
-            float blockX = level.getGrid().gridToScreenX(leftRoomStartX);
-            float blockY = level.getGrid().gridToScreenY(y);
-            Block block = new Block(blockX, blockY, cellSize, cellSize);
-            level.addEntity(block, leftRoomStartX, y);
-        }
-        
-        // Right wall (shared with second room)
-        for (int y = leftRoomStartY; y < leftRoomStartY + 7; y++) {
-            float blockX = level.getGrid().gridToScreenX(leftRoomStartX + 6);
-            float blockY = level.getGrid().gridToScreenY(y);
-            Block block = new Block(blockX, blockY, cellSize, cellSize);
-            level.addEntity(block, leftRoomStartX + 6, y);
-        }
-        
-        // Add three doors to left room (on top wall)
-        // Central door (original)
-        int leftRoomDoorGridX = leftRoomStartX + 3;
-        int leftRoomDoorGridY = leftRoomStartY;
-        float leftRoomDoorX = level.getGrid().gridToScreenX(leftRoomDoorGridX);
-        float leftRoomDoorY = level.getGrid().gridToScreenY(leftRoomDoorGridY);
-        Door leftRoomDoor = new Door(leftRoomDoorX, leftRoomDoorY, cellSize, cellSize, "left_room_door");
-        level.addEntity(leftRoomDoor, leftRoomDoorGridX, leftRoomDoorGridY);
-        doorController.registerDoor(leftRoomDoor);
-        
-        // Left adjacent door
-        int leftRoomLeftDoorGridX = leftRoomStartX + 2;
-        float leftRoomLeftDoorX = level.getGrid().gridToScreenX(leftRoomLeftDoorGridX);
-        Door leftRoomLeftDoor = new Door(leftRoomLeftDoorX, leftRoomDoorY, cellSize, cellSize, "left_room_door_left");
-        level.addEntity(leftRoomLeftDoor, leftRoomLeftDoorGridX, leftRoomDoorGridY);
-        doorController.registerDoor(leftRoomLeftDoor);
-        
-        // Right adjacent door
-        int leftRoomRightDoorGridX = leftRoomStartX + 4;
-        float leftRoomRightDoorX = level.getGrid().gridToScreenX(leftRoomRightDoorGridX);
-        Door leftRoomRightDoor = new Door(leftRoomRightDoorX, leftRoomDoorY, cellSize, cellSize, "left_room_door_right");
-        level.addEntity(leftRoomRightDoor, leftRoomRightDoorGridX, leftRoomDoorGridY);  
-        doorController.registerDoor(leftRoomRightDoor);
-        
-        // Second room (right room)
-        int rightRoomStartX = leftRoomStartX + 6; // Connected to left room
-        int rightRoomStartY = leftRoomStartY; // Same Y as left room
-        
-        // Create right room walls
-        // Top wall (with three doors in a row)
-        for (int x = rightRoomStartX; x < rightRoomStartX + 6; x++) {
-            // Skip blocks for the three doors (the original middle door and two adjacent doors)
-            if (x == rightRoomStartX + 2 || x == rightRoomStartX + 3 || x == rightRoomStartX + 4) continue;
-            
-            float blockX = level.getGrid().gridToScreenX(x);
-            float blockY = level.getGrid().gridToScreenY(rightRoomStartY);
-            Block block = new Block(blockX, blockY, cellSize, cellSize);
-            level.addEntity(block, x, rightRoomStartY);
-        }
-        
-        // Bottom wall
-        for (int x = rightRoomStartX; x < rightRoomStartX + 6; x++) {
-            float blockX = level.getGrid().gridToScreenX(x);
-            float blockY = level.getGrid().gridToScreenY(rightRoomStartY + 6);
-            Block block = new Block(blockX, blockY, cellSize, cellSize);
-            level.addEntity(block, x, rightRoomStartY + 6);
-        }
-        
-        // Right wall
-        for (int y = rightRoomStartY; y < rightRoomStartY + 7; y++) {
-            float blockX = level.getGrid().gridToScreenX(rightRoomStartX + 6);
-            float blockY = level.getGrid().gridToScreenY(y);
-            Block block = new Block(blockX, blockY, cellSize, cellSize);
-            level.addEntity(block, rightRoomStartX + 6, y);
-        }
-        
-        // Add three doors to right room (on top wall)
-        // Central door (original)
-        int rightRoomDoorGridX = rightRoomStartX + 3;
-        int rightRoomDoorGridY = rightRoomStartY;
-        float rightRoomDoorX = level.getGrid().gridToScreenX(rightRoomDoorGridX);
-        float rightRoomDoorY = level.getGrid().gridToScreenY(rightRoomDoorGridY);
-        Door rightRoomDoor = new Door(rightRoomDoorX, rightRoomDoorY, cellSize, cellSize, "right_room_door");
-        level.addEntity(rightRoomDoor, rightRoomDoorGridX, rightRoomDoorGridY);
-        doorController.registerDoor(rightRoomDoor);
-        
-        // Left adjacent door
-        int rightRoomLeftDoorGridX = rightRoomStartX + 2;
-        float rightRoomLeftDoorX = level.getGrid().gridToScreenX(rightRoomLeftDoorGridX);
-        Door rightRoomLeftDoor = new Door(rightRoomLeftDoorX, rightRoomDoorY, cellSize, cellSize, "right_room_door_left");
-        level.addEntity(rightRoomLeftDoor, rightRoomLeftDoorGridX, rightRoomDoorGridY);
-        doorController.registerDoor(rightRoomLeftDoor);
-        
-        // Right adjacent door
-        int rightRoomRightDoorGridX = rightRoomStartX + 4;
-        float rightRoomRightDoorX = level.getGrid().gridToScreenX(rightRoomRightDoorGridX);
-        Door rightRoomRightDoor = new Door(rightRoomRightDoorX, rightRoomDoorY, cellSize, cellSize, "right_room_door_right");
-        level.addEntity(rightRoomRightDoor, rightRoomRightDoorGridX, rightRoomDoorGridY);
-        doorController.registerDoor(rightRoomRightDoor);
-        
-        // Add three weighted buttons
-        // First button (top left) - now a player-activated timed button instead of weighted
-        int button1GridX = 3; // 3 cells from left edge
-        int button1GridY = 3; // 3 cells from top
-        float button1X = level.getGrid().gridToScreenX(button1GridX);
-        float button1Y = level.getGrid().gridToScreenY(button1GridY);
-        
-        // Button1 doesn't need a specific action as we'll check its state directly
-        Action button1Action = null;
-        
-        // Create the weighted button that records time when activated
-        button1 = new WeightedButton(button1X, button1Y, cellSize, cellSize, button1Action);
-        button1.setColor(new Color(220, 20, 20)); // Bright red when inactive
-        button1.setActiveColor(new Color(255, 60, 60)); // Vibrant red when active
-        level.addEntity(button1, button1GridX, button1GridY);
-        weightedButtons.add(button1);
-        
-        // Second button (top right of first) - controls right bottom room door
-        int button2GridX = button1GridX + 5; // 5 cells to the right of first button
-        int button2GridY = button1GridY; // Same Y as first button
-        float button2X = level.getGrid().gridToScreenX(button2GridX);
-        float button2Y = level.getGrid().gridToScreenY(button2GridY);
-        button2 = new WeightedButton(button2X, button2Y, cellSize, cellSize, null);
-        level.addEntity(button2, button2GridX, button2GridY);
-        weightedButtons.add(button2);
-        
-        // Button2 has no direct action since door states are updated in the update loop
-        button2.setAction(null);
-        
-        // Third button (bottom right) - controls top right room door
-        int button3GridX = horizontalCells - 4; // 4 cells from right edge
-        int button3GridY = verticalCells - 4; // 4 cells from bottom
-        float button3X = level.getGrid().gridToScreenX(button3GridX);
-        float button3Y = level.getGrid().gridToScreenY(button3GridY);
-        button3 = new WeightedButton(button3X, button3Y, cellSize, cellSize, null);
-        level.addEntity(button3, button3GridX, button3GridY);
-        weightedButtons.add(button3);
-        
-        // Button3 has no direct action since door states are updated in the update loop
-        button3.setAction(null);
-        
-        // Add two movable boxes
-        // First box in the middle of the level
-        int centerBoxGridX = horizontalCells / 2;
-        int centerBoxGridY = verticalCells / 2;
-        float centerBoxX = level.getGrid().gridToScreenX(centerBoxGridX);
-        float centerBoxY = level.getGrid().gridToScreenY(centerBoxGridY);
-        Box centerBox = new Box(centerBoxX, centerBoxY, cellSize, cellSize, true, true);
-        centerBox.setFullRewindTracking(true);
-        level.addEntity(centerBox, centerBoxGridX, centerBoxGridY);
-        
-        // Second box in the middle of the right bottom room
-        int rightRoomBoxGridX = rightRoomStartX + 3; // Middle of the room horizontally
-        int rightRoomBoxGridY = rightRoomStartY + 3; // Middle of the room vertically
-        float rightRoomBoxX = level.getGrid().gridToScreenX(rightRoomBoxGridX);
-        float rightRoomBoxY = level.getGrid().gridToScreenY(rightRoomBoxGridY);
-        Box rightRoomBox = new Box(rightRoomBoxX, rightRoomBoxY, cellSize, cellSize, true, true);
-        rightRoomBox.setFullRewindTracking(true);
-        level.addEntity(rightRoomBox, rightRoomBoxGridX, rightRoomBoxGridY);
-        
-        // Add fourth button inside top right room (now part of the 2-button combination)
-        int button4GridX = roomStartX + 1; // 1 cell from left wall of top right room
-        int button4GridY = roomStartY + 1; // 1 cell from top wall of top right room
-        float button4X = level.getGrid().gridToScreenX(button4GridX);
-        float button4Y = level.getGrid().gridToScreenY(button4GridY);
-        // Button4 doesn't need a specific action as we'll check its state directly
-        button4 = new WeightedButton(button4X, button4Y, cellSize, cellSize, null);
-        // Set same red color scheme as button1 to show they're connected
-        button4.setColor(new Color(220, 20, 20)); // Bright red when inactive
-        button4.setActiveColor(new Color(255, 60, 60)); // Vibrant red when active
-        level.addEntity(button4, button4GridX, button4GridY);
-        weightedButtons.add(button4);
-        
-        // Add two blue weighted buttons for end door control
-        // First blue button (top right of top right room)
-        int blueButton1GridX = roomStartX + 4; // 4 cells from left wall of top right room
-        int blueButton1GridY = roomStartY + 1; // 1 cell from top wall of top right room
-        float blueButton1X = level.getGrid().gridToScreenX(blueButton1GridX);
-        float blueButton1Y = level.getGrid().gridToScreenY(blueButton1GridY);
-        this.blueButton1 = new WeightedButton(blueButton1X, blueButton1Y, cellSize, cellSize, null);
-        this.blueButton1.setColor(new Color(80, 80, 200)); // Blue when inactive
-        this.blueButton1.setActiveColor(new Color(100, 100, 255)); // Brighter blue when active
-        level.addEntity(this.blueButton1, blueButton1GridX, blueButton1GridY);
-        weightedButtons.add(this.blueButton1);
-        
-        // Second blue button (middle of left bottom room)
-        int blueButton2GridX = leftRoomStartX + 3; // Middle of left bottom room horizontally
-        int blueButton2GridY = leftRoomStartY + 3; // Middle of left bottom room vertically
-        float blueButton2X = level.getGrid().gridToScreenX(blueButton2GridX);
-        float blueButton2Y = level.getGrid().gridToScreenY(blueButton2GridY);
-        this.blueButton2 = new WeightedButton(blueButton2X, blueButton2Y, cellSize, cellSize, null);
-        this.blueButton2.setColor(new Color(80, 80, 200)); // Blue when inactive
-        this.blueButton2.setActiveColor(new Color(100, 100, 255)); // Brighter blue when active
-        level.addEntity(this.blueButton2, blueButton2GridX, blueButton2GridY);
-        weightedButtons.add(this.blueButton2);
-        
-        // Create a multi-button action for the end door
-        DoorAction endDoorAction = new DoorAction("end_door");
-        endDoorAction.setDoorStateChangeListener(doorController);
-        // We won't use MultiButtonAction as we'll handle this ourselves through direct button checking
-        // This ensures we have full control over the blue button behavior
-        
-        // Create timed actions for both blue buttons
-        TimedAction blueButton1Action = createTimedButtonAction("blue_button1", 1000); // 1 second
-        TimedAction blueButton2Action = createTimedButtonAction("blue_button2", 1000); // 1 second
-        
-        // Set the actions for the blue buttons
-        blueButton1.setAction(blueButton1Action);
-        blueButton2.setAction(blueButton2Action);
-        
-        // Add the timed actions to the list for updates
-        timedActions.add(blueButton1Action);
-        timedActions.add(blueButton2Action);
-        
-        // Start with all doors closed
-        door.close();
-        roomDoor.close();
-        // Close all three doors in the left room
-        leftRoomDoor.close();
-        leftRoomLeftDoor.close();
-        leftRoomRightDoor.close();
-        // Close all three doors in the right room
-        rightRoomDoor.close();
-        rightRoomLeftDoor.close();
-        rightRoomRightDoor.close();
-        // Close all three doors in the top room
-        roomDoor.close();
-        roomUpperDoor.close();
-        roomLowerDoor.close();
-        
-        // Update the rewind manager with the boxes
-        updateRewindManager();
-        
-        // Make sure end door is closed by default
-        doorController.closeDoor("end_door");
-        
-        System.out.println("Level 3 setup complete with three rooms, end door, and two movable boxes");
+    public boolean canRollBack() {
+        if (!initialized || gameOver || playerWon) {
+            return false;
+        }
+        return rewindManager == null || (rewindManager.getCurrentState() == RewindManager.RewindState.IDLE
+                                         && !rewindManager.isScrubbing() && !rewindManager.isReplayingInput()
+                                         && !rewindManager.isPlayingRecording());
     }
     
     /**
-     * Updates the RewindManager with the current boxes in the level
+     * Puts the world back to a state saved a few ticks ago, so those ticks can be
+     * simulated again, such as with input that arrived late over the network.
+     * The level is built again first if the ticks since went through the exit door.
+     * 
+     * @param levelNumber The level the state was saved on
+     * @param snapshot The state, saved by {@link #saveWorldState(WorldSnapshot)} when {@link #canRollBack()} was true
+     * @param ticks The number of ticks since the state was saved
+     * @return True if restored, false if the snapshot doesn't match the level
      */
-    private void updateRewindManager() {
-        if (rewindManager != null) {
-            List<Box> boxes = getBoxesFromLevel();
-            rewindManager.setBoxes(boxes);
-            
-            // Provide the level blocks to the rewind manager for collision detection
-            List<Block> levelBlocks = level.getBlocks();
-            rewindManager.setLevelBlocks(levelBlocks);
+    public boolean rollBack(int levelNumber, WorldSnapshot snapshot, int ticks) {
+        if (levelNumber != currentLevel) {
+            setLevelLayout(levelNumber);
+        } else if (rewindManager != null) {
+            // The timeline holds the ticks being undone; they're recorded again as they're simulated
+            rewindManager.discardTimelineTicks(ticks);
         }
+        snapshot.rewind();
+        return loadWorldState(snapshot);
     }
     
     /**
@@ -822,9 +624,11 @@ public class PlayState extends GameState {
      */
     private List<Box> getBoxesFromLevel() {
         List<Box> boxes = new ArrayList<>();
-        for (Entity entity : level.getEntities()) {
-            if (entity instanceof Box) {
-                boxes.add((Box) entity);
+        EntityRegistry registry = level.getRegistry();
+        ComponentStore components = registry.getComponents();
+        for (int handle = 0; handle < components.size(); handle++) {
+            if ((components.getFlags(handle) & ComponentStore.LOAD) != 0) {
+                boxes.add((Box) registry.get(handle));
             }
         }
         return boxes;
@@ -835,40 +639,79 @@ public class PlayState extends GameState {
      * @param layoutType The type of layout to create
      */
     public void setLevelLayout(int layoutType) {
-        // Clear the level
-        level.clearLevel();
+        long switchStart = System.nanoTime();
+        
+        // Events from the old level's entities are meaningless once it's gone
+        eventBus.clear();
         
-        // Clear the door controller and door actions
-        doorController = new DoorController();
-        timedActions.clear();
-        multiButtonAction = null;
+        // The old level's entities go back to their pools, so let go of the ones held here
+        carriedBox = null;
+        if (player != null) {
+            player.setCarriedBox(null);
+        }
+        nearBoxes.clear();
+        nearButtons.clear();
+        
+        // Take the level if it was built in the background; otherwise clear this one to build it here.
+        // A preloaded level swaps in without touching the old one, which is cleared in the background
+        LevelPreloader.Result preloaded = preloader.take(layoutType);
+        if (preloaded == null) {
+            level.clearLevel();
+        }
+        
+        // Clear the door controller, door actions and pending timers
+        doorController.clear();
+        timerWheel.clear();
+        if (logicGraph != null) {
+            eventBus.unsubscribe(logicGraph);
+        }
+        logicGraph = null;
+        mainDoorNode = -1;
+        outputDoorHandles = new int[0][];
         
         // Update current level
         currentLevel = layoutType;
         
-        // Create the appropriate level
-        if (currentLevel == 1) {
-            level.createLevel1();
-            setupLevel1();
-        } else if (currentLevel == 2) {
-            level.createLevel2();
-            setupLevel2();
-        } else if (currentLevel == 3) {
-            level.createLevel3();
-            setupLevel3();
-        }
+        // Create the level from its description
+        buildLevel(currentLevel, preloaded);
         
         // Reset player position to starting position
         resetPlayerPosition();
         
-        // Update player blocks
-        player.setBlocks(level.getBlocks());
+        // Load the walls around the player and update player blocks; the collider set is
+        // rebuilt first so the walls it's told about are the new level's
+        colliderSet.rebuild(level);
+        if (player != null) {
+            player.setBounds(level.getWidth(), level.getHeight());
+            level.updateChunks(player.getX(), player.getY());
+            if (camera != null) {
+                camera.setWorldSize(level.getWidth(), level.getHeight());
+                camera.centerOn(player);
+            }
+        }
+        navigation.rebuild(level);
+        player.setBlocks(colliderSet.getBlocks());
+        updateDoorCollisionMessage();
         
-        // Reset timer to 60 seconds
+        // The old level's buttons and boxes are gone, so point the rewind manager at the new ones
+        // and drop the timeline of the old level
+        updateRewindManager();
+        if (rewindManager != null) {
+            rewindManager.clearTimeline();
+        }
+        
+        // Reset timer to the level's time limit
         if (timerManager != null) {
+            timerManager.setMaxTime(timerDuration);
             timerManager.reset();
             timerManager.start();
         }
+        
+        // Start on the level after this one
+        preloadNextLevel();
+        
+        System.out.printf("Switched to level %d in %.2f ms (%s)%n", currentLevel,
+                          (System.nanoTime() - switchStart) / 1_000_000.0, preloaded != null ? "preloaded" : "built");
     }
     
     /**
@@ -877,9 +720,9 @@ public class PlayState extends GameState {
     private void resetPlayerPosition() {
         if (player == null) return;
         
-        // Position player at the middle left of the grid for any level
-        int gridX = 2; // A few cells from the left border
-        int gridY = level.getGrid().getVerticalCells() / 2;
+        // Position player at the level's spawn cell
+        int gridX = getSpawnGridX();
+        int gridY = getSpawnGridY();
         int playerX = level.getGrid().gridToScreenX(gridX);
         int playerY = level.getGrid().gridToScreenY(gridY);
         
@@ -890,177 +733,268 @@ public class PlayState extends GameState {
     }
     
     /**
-     * Updates the states of all doors based on weighted button activation
+     * Opens or closes a group of doors
+     * 
+     * @param doorHandles The handles of the doors
+     * @param open True to open the doors, false to close them
      */
-    private void updateDoorStates() {
-        // Don't update if buttons aren't initialized yet
-        if (button1 == null || button2 == null || button3 == null || button4 == null) return;
-        
-        // Check if both blue buttons are pressed simultaneously
-        checkBlueButtonsForEndDoor();
-        
-        // Check if the doors in room 1 should be permanently opened
-        if (!room1DoorsPermanentlyOpened) {
-            // Check if both buttons are activated simultaneously
-            if (button1 != null && button4 != null && button1.isActivated() && button4.isActivated()) {
-                room1DoorsPermanentlyOpened = true;
-                System.out.println("Room 1 doors permanently opened because both buttons were pressed simultaneously!");
+    private void setDoorsOpen(int[] doorHandles, boolean open) {
+        for (int doorHandle : doorHandles) {
+            if (open) {
+                doorController.openDoor(doorHandle);
+            } else {
+                doorController.closeDoor(doorHandle);
             }
         }
-        
-        // Update the left room triple door state
-        if (room1DoorsPermanentlyOpened) {
-            // If doors have been permanently opened, keep them open
-            doorController.openDoor("left_room_door");
-            doorController.openDoor("left_room_door_left");
-            doorController.openDoor("left_room_door_right");
-        } else {
-            // Otherwise, doors stay closed
-            doorController.closeDoor("left_room_door");
-            doorController.closeDoor("left_room_door_left");
-            doorController.closeDoor("left_room_door_right");
+    }
+    
+    @Override
+    public void onEvent(EventBus.EventType type, int handle) {
+        // Once the puzzle has opened the main door it stays open
+        if (type == EventBus.EventType.DOOR_CLOSED && door != null && handle == door.getHandle() &&
+            logicGraph != null && mainDoorNode >= 0 && logicGraph.getValue(mainDoorNode)) {
+            door.open();
+            System.out.println("Door permanently opened! It will not close again.");
         }
         
-        // Update the right room triple door state based on button2
-        if (button2.isActivated()) {
-            doorController.openDoor("right_room_door");
-            doorController.openDoor("right_room_door_left");
-            doorController.openDoor("right_room_door_right");
-        } else {
-            doorController.closeDoor("right_room_door");
-            doorController.closeDoor("right_room_door_left");
-            doorController.closeDoor("right_room_door_right");
+        if (door != null && handle == door.getHandle()) {
+            updateDoorCollisionMessage();
         }
+    }
+    
+    @Override
+    public void onOutputChanged(int node, boolean value) {
+        if (node >= outputDoorHandles.length || outputDoorHandles[node] == null) return;
         
-        // Update the top room triple door state based on button3
-        if (button3.isActivated()) {
-            doorController.openDoor("room_door");
-            doorController.openDoor("room_door_upper");
-            doorController.openDoor("room_door_lower");
-        } else {
-            doorController.closeDoor("room_door");
-            doorController.closeDoor("room_door_upper");
-            doorController.closeDoor("room_door_lower");
+        setDoorsOpen(outputDoorHandles[node], value);
+        if (node == mainDoorNode && value) {
+            System.out.println("Door " + door.getId() + " opened permanently");
         }
     }
     
     /**
-     * Checks if both blue buttons are pressed and opens the end door permanently if they are
+     * Connects the level's logic graph to the button events and compiles it.
      */
-    private void checkBlueButtonsForEndDoor() {
-        // If the end door is already permanently opened, keep it open
-        if (endDoorPermanentlyOpened) {
-            doorController.openDoor("end_door");
-            return;
-        }
-        
-        // If both blue buttons exist and are activated, open the end door permanently
-        if (blueButton1 != null && blueButton2 != null && 
-            blueButton1.isActivated() && blueButton2.isActivated()) {
-            doorController.openDoor("end_door");
-            endDoorPermanentlyOpened = true; // Once opened, keep it open permanently
-            System.out.println("End door opened permanently by both blue buttons");
-        } else {
-            // If the end door is not permanently opened and not all buttons are pressed, keep it closed
-            if (!endDoorPermanentlyOpened) {
-                doorController.closeDoor("end_door");
-            }
-        }
+    private void startLogicGraph() {
+        logicGraph.setOutputListener(this);
+        logicGraph.subscribe(eventBus);
+        logicGraph.compile();
     }
     
+    /**
+     * Runs one tick of the game, in phases: the tick's input and clock, then the rewind
+     * playback, timers and weighted buttons, then the level's entities, then the player's
+     * move, then the interaction checks and the timeline. Each phase finishes before the
+     * next starts, and every phase runs on the game thread. The weighted button pass goes
+     * through the level's {@link ParallelSystems}, which would split a level of more than
+     * {@link ParallelSystems#CHUNK_SIZE} entities across threads; no level is that big yet,
+     * and a split pass gets the same results anyway, so ticks stay deterministic for replays.
+     */
     @Override
     public void update() {
         if (!initialized) return;
         try {
-            // Update timer
-            timerManager.update();
-            
-            // Update door states based on button activation
-            updateDoorStates();
-            
-            // Check for game over condition
-            if (!gameOver && timerManager.getTime() <= 0) {
-                gameOver = true;
-                player.triggerExplosion();
-                
-                // Halt player movement when game over occurs
-                player.setLeft(false);
-                player.setRight(false);
-                player.setUp(false);
-                player.setDown(false);
-            }
-            
-            // Don't update game state if game over
-            if (gameOver) {
+            if (!applyInput()) {
                 return;
             }
-            
-            // Update rewind manager
-            if (rewindManager != null) {
-                // Check if rewind just started
-                boolean wasRewinding = rewindManager.getCurrentState() == RewindManager.RewindState.REWINDING;
-                rewindManager.update();
-                boolean isRewinding = rewindManager.getCurrentState() == RewindManager.RewindState.REWINDING;
-                
-                // If rewind just started, handle any carried boxes
-                if (!wasRewinding && isRewinding) {
-                    // Drop any carried box
-                    if (carriedBox != null) {
-                        System.out.println("Rewind started - dropping carried box");
-                        dropCarriedBox();
-                    }
-                }
-            }
-            
-            // Update timed actions
-            for (TimedAction timedAction : timedActions) {
-                timedAction.update();
+            updateTriggers();
+            updateLevel();
+            movePlayer();
+            finishTick();
+        } catch (Exception e) {
+            System.err.println("Error in PlayState.update(): " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Input phase: scrubs the timeline while a scrub key is held, otherwise applies this
+     * tick's input, advances the clock and checks the time limit.
+     * 
+     * @return True if the rest of the tick should run, false while scrubbing or after game over
+     */
+    private boolean applyInput() {
+        // While a scrub key is held the world follows the timeline instead of simulating
+        if (!gameOver && rewindManager != null && (scrubBackHeld || scrubForwardHeld)) {
+            if (rewindManager.scrub(scrubBackHeld ? -SCRUB_SPEED : SCRUB_SPEED)) {
+                return false;
             }
+        }
+        if (rewindManager != null && rewindManager.isScrubbing()) {
+            rewindManager.endScrub();
+        }
+        
+        // Handle queued rewind requests and apply this tick's input before anything moves
+        if (!gameOver) {
+            processRewindRequest();
+            applyTickInput(nextTickInput());
+        }
+        
+        // Advance the simulation clock
+        clock.tick();
+        
+        // Update timer
+        timerManager.update();
+        
+        // Check for game over condition
+        if (!gameOver && timerManager.getTime() <= 0) {
+            gameOver = true;
+            player.triggerExplosion();
             
-            // Update weighted buttons
-            List<Box> boxes = getBoxesFromLevel();
-            for (WeightedButton button : weightedButtons) {
-                button.update(boxes);
+            // Halt player movement when game over occurs
+            player.setLeft(false);
+            player.setRight(false);
+            player.setUp(false);
+            player.setDown(false);
+        }
+        
+        // Don't update game state if game over
+        return !gameOver;
+    }
+    
+    /**
+     * Trigger phase: runs the rewind playback, expires timed actions and presses the
+     * weighted buttons that have a box on them.
+     */
+    private void updateTriggers() {
+        // Update rewind manager
+        if (rewindManager != null) {
+            // Check if rewind just started
+            boolean wasRewinding = rewindManager.getCurrentState() == RewindManager.RewindState.REWINDING;
+            rewindManager.update();
+            boolean isRewinding = rewindManager.getCurrentState() == RewindManager.RewindState.REWINDING;
+            
+            // If rewind just started, handle any carried boxes
+            if (!wasRewinding && isRewinding) {
+                // Drop any carried box
+                if (carriedBox != null) {
+                    System.out.println("Rewind started - dropping carried box");
+                    dropCarriedBox();
+                }
             }
-            
-            // Update level (includes buttons, etc.)
-            level.update();
-            
-            // First, update box collision information before player movement
-            updateBoxCollision();
-            
-            // Update door collision before player movement
-            updateDoorCollision();
-            
-            // Second, update player position (this will handle collisions)
-            if (player != null) {
-                player.update();
+        }
+        
+        // Expire timed actions that fall due this tick
+        timerWheel.advanceTo(clock.getTicks());
+        
+        // Work out which weighted buttons have a box on them in one pass over the level,
+        // then press and release them here, in order, as that publishes events
+        ComponentStore components = level.getRegistry().getComponents();
+        if (pressedTriggers.length < components.size()) {
+            pressedTriggers = new boolean[Math.max(components.size(), pressedTriggers.length * 2)];
+        }
+        level.getSystems().findPressedTriggers(components, pressedTriggers);
+        for (int i = 0; i < weightedButtons.size(); i++) {
+            WeightedButton button = weightedButtons.get(i);
+            button.setPressed(pressedTriggers[button.getHandle()]);
+        }
+    }
+    
+    /**
+     * Level phase: brings in the walls around the player, updates the level's entities,
+     * then delivers the events from this tick so far.
+     */
+    private void updateLevel() {
+        // Bring in the walls around the player, then update the level (includes buttons, etc.)
+        if (player != null) {
+            level.updateChunks(player.getX(), player.getY());
+        }
+        level.update();
+        
+        // Deliver the button, door and box changes from this update to their listeners,
+        // which also brings the collider set up to date before the player moves
+        eventBus.dispatch();
+    }
+    
+    /**
+     * Player phase: moves the player against the blocks and boxes, then brings the carried box along.
+     */
+    private void movePlayer() {
+        // Update player position (this will handle collisions)
+        if (player != null) {
+            player.update();
+        }
+        
+        // Update carried box position AFTER player movement
+        updateCarriedBox();
+    }
+    
+    /**
+     * Last phase: works out what the player can reach and whether they're leaving
+     * through the exit, then keeps the finished tick on the timeline.
+     */
+    private void finishTick() {
+        // Check for interaction with buttons
+        checkButtonHighlights();
+        
+        // Check for interaction with boxes
+        checkBoxHighlights();
+        
+        // Check if player is entering an open door (level transition)
+        checkDoorEntry();
+        
+        // Keep the end of this update on the timeline for scrubbing
+        if (rewindManager != null) {
+            rewindManager.recordTimelineTick();
+        }
+    }
+    
+    /**
+     * Starts or stops recording if the rewind key was pressed since the last tick.
+     */
+    private void processRewindRequest() {
+        if (rewindToggleRequested) {
+            rewindToggleRequested = false;
+            if (rewindManager != null) {
+                rewindManager.toggleRewind();
             }
-            
-            // Third, update carried box position AFTER player movement
-            updateCarriedBox();
-            
-            // Check for interaction with buttons
-            checkButtonHighlights();
-            
-            // Check for interaction with boxes
-            checkBoxHighlights();
-            
-            // Check if door has been successfully opened for the first time
-            if (multiButtonAction != null && multiButtonAction.isPermanentlyActivated() && door != null && !door.isOpen()) {
-                // Force the door to open if it's not already open
-                door.open();
-                // Immediately update door collision
-                updateDoorCollision();
-                System.out.println("Door permanently opened! It will not close again.");
+        }
+    }
+    
+    /**
+     * Gets the player's input for this tick, either from the keyboard or from
+     * an input log being replayed. Keyboard input is logged if recording.
+     * 
+     * @return The input bitmask
+     */
+    private int nextTickInput() {
+        if (rewindManager != null && rewindManager.isReplayingInput()) {
+            // Live input is ignored while the recorded input plays back
+            interactRequested = false;
+            int replayedInput = rewindManager.nextReplayInput();
+            if (replayedInput >= 0) {
+                return replayedInput;
             }
-            
-            // Check if player is entering an open door (level transition)
-            checkDoorEntry();
-            
-        } catch (Exception e) {
-            System.err.println("Error in PlayState.update(): " + e.getMessage());
-            e.printStackTrace();
+        }
+        
+        int input = heldInput;
+        if (interactRequested) {
+            interactRequested = false;
+            input |= InputLog.INTERACT;
+        }
+        
+        if (rewindManager != null) {
+            rewindManager.recordInput(input);
+        }
+        return input;
+    }
+    
+    /**
+     * Applies an input bitmask to the player.
+     * 
+     * @param input The input bitmask
+     */
+    private void applyTickInput(int input) {
+        if (player == null) return;
+        
+        player.setLeft((input & InputLog.LEFT) != 0);
+        player.setRight((input & InputLog.RIGHT) != 0);
+        player.setUp((input & InputLog.UP) != 0);
+        player.setDown((input & InputLog.DOWN) != 0);
+        
+        if ((input & InputLog.INTERACT) != 0) {
+            activateNearbyButtons();
+            interactWithBoxes();
         }
     }
     
@@ -1076,13 +1010,6 @@ public class PlayState extends GameState {
             // Get the cell size from the level's grid
             int cellSize = level.getGrid().getCellSize();
             
-            // Check if box is near any doorways
-            List<Door> doors = new ArrayList<>();
-            for (Entity entity : level.getEntities()) {
-                if (entity instanceof Door) {
-                    doors.add((Door) entity);
-                }
-            }
             // Default to full size
             int boxWidth = cellSize;
             int boxHeight = cellSize;
@@ -1103,14 +1030,19 @@ public class PlayState extends GameState {
     private void checkBoxHighlights() {
         if (player == null) return;
         
-        // Get all boxes from the level
-        List<Box> boxes = getBoxesFromLevel();
+        // Find the boxes by their flags in the level's component store, rather than making a list of them
+        EntityRegistry registry = level.getRegistry();
+        ComponentStore components = registry.getComponents();
         
         // Clear the list of nearby boxes
         nearBoxes.clear();
         
         // Check each box to see if it's near the player
-        for (Box box : boxes) {
+        for (int handle = 0; handle < components.size(); handle++) {
+            if ((components.getFlags(handle) & ComponentStore.LOAD) == 0) {
+                continue;
+            }
+            Box box = (Box) registry.get(handle);
             // Calculate distance between player center and box center
             float playerCenterX = player.getX() + player.getWidth() / 2;
             float playerCenterY = player.getY() + player.getHeight() / 2;
@@ -1128,38 +1060,6 @@ public class PlayState extends GameState {
         }
     }
     
-    /**
-     * Updates collision blocks to include boxes
-     */
-    private void updateBoxCollision() {
-        if (player == null) return;
-        
-        // Get current blocks from the level
-        List<Block> blocks = new ArrayList<>(level.getBlocks());
-        
-        // Get all boxes from the level
-        List<Box> boxes = getBoxesFromLevel();
-        
-        // Add non-carried boxes as collision blocks
-        for (Box box : boxes) {
-            if (!box.isBeingCarried() && !box.equals(carriedBox)) {
-                blocks.add(box);
-            }
-        }
-        
-        // Update player's collision blocks - this only includes level blocks and non-carried boxes
-        player.setBlocks(blocks);
-        
-        // When carrying a box, modify the player's collision handling but don't add the box itself as a collision object
-        if (carriedBox != null) {
-            // Cast player to BallPlayer to use the setCarriedBox method
-            ((BallPlayer)player).setCarriedBox(carriedBox);
-        } else {
-            // Cast player to BallPlayer to use the setCarriedBox method
-            ((BallPlayer)player).setCarriedBox(null);
-        }
-    }
-
     /**
      * Handles box interactions (pick up or drop)
      */
@@ -1187,12 +1087,8 @@ public class PlayState extends GameState {
     private void pickUpBox(Box box) {
         if (box.pickUp(player.getX(), player.getY(), player)) {
             carriedBox = box;
+            player.setCarriedBox(carriedBox);
             System.out.println("Box picked up!");
-            
-            // Record box interaction in rewind manager
-            if (rewindManager != null && box.isActive()) {
-                rewindManager.recordBoxInteraction(box, true);
-            }
         }
     }
     
@@ -1214,12 +1110,8 @@ public class PlayState extends GameState {
             // Now drop the box
             carriedBox.drop();
             
-            // Record box interaction in rewind manager
-            if (rewindManager != null && carriedBox.isActive()) {
-                rewindManager.recordBoxInteraction(carriedBox, false);
-            }
-            
             carriedBox = null;
+            player.setCarriedBox(null);
             System.out.println("Box dropped!");
         }
     }
@@ -1228,47 +1120,32 @@ public class PlayState extends GameState {
      * Checks if the player is entering an open door to trigger level transition
      */
     private void checkDoorEntry() {
-        if (player == null) return;
-        
-        // Get all doors from the level
-        List<Door> doors = new ArrayList<>();
-        for (Entity entity : level.getEntities()) {
-            if (entity instanceof Door) {
-                doors.add((Door) entity);
-            }
-        }
-        
-        // Check each door
-        for (Door currentDoor : doors) {
-            if (!currentDoor.isOpen()) continue;
-            
-            // Check if player is overlapping the door
-            float playerCenterX = player.getX() + player.getWidth() / 2;
-            float playerCenterY = player.getY() + player.getHeight() / 2;
-            float doorCenterX = currentDoor.getX() + currentDoor.getWidth() / 2;
-            float doorCenterY = currentDoor.getY() + currentDoor.getHeight() / 2;
-            
-            // Calculate distance between centers
-            float distance = (float) Math.sqrt(
-                Math.pow(playerCenterX - doorCenterX, 2) + 
-                Math.pow(playerCenterY - doorCenterY, 2)
-            );
-            
-            // If the player's center is close enough to the door's center
-            if (distance < player.getWidth() / 2) {
-                // Check which level we're on and transition accordingly
-                if (currentLevel == 1) {
-                    System.out.println("Player entered the door! Transitioning to level 2...");
-                    setLevelLayout(2);
-                } else if (currentLevel == 2 && currentDoor.getId().equals("door3")) {
-                    System.out.println("Player entered the level transition door! Transitioning to level 3...");
-                    setLevelLayout(3);
-                } else if (currentLevel == 3 && currentDoor.getId().equals("end_door")) {
-                    System.out.println("Player entered the end door! You win!");
-                    playerWon = true;
-                    if (timerManager != null) {
-                        timerManager.stop();
-                    }
+        if (player == null || door == null || !door.isOpen()) return;
+        
+        // Check if player is overlapping the exit door
+        float playerCenterX = player.getX() + player.getWidth() / 2;
+        float playerCenterY = player.getY() + player.getHeight() / 2;
+        float doorCenterX = door.getX() + door.getWidth() / 2;
+        float doorCenterY = door.getY() + door.getHeight() / 2;
+        
+        // Calculate distance between centers
+        float distance = (float) Math.sqrt(
+            Math.pow(playerCenterX - doorCenterX, 2) + 
+            Math.pow(playerCenterY - doorCenterY, 2)
+        );
+        
+        // If the player's center is close enough to the door's center
+        if (distance < player.getWidth() / 2) {
+            // The level description says where the exit door leads
+            int nextLevel = levelData != null ? levelData.getNextLevel() : -1;
+            if (nextLevel > 0) {
+                System.out.println("Player entered the exit door! Transitioning to level " + nextLevel + "...");
+                setLevelLayout(nextLevel);
+            } else {
+                System.out.println("Player entered the end door! You win!");
+                playerWon = true;
+                if (timerManager != null) {
+                    timerManager.stop();
                 }
             }
         }
@@ -1281,12 +1158,17 @@ public class PlayState extends GameState {
     private void drawFloorBackground(Graphics2D g) {
         if (floorTexture == null) return;
         
-        // Initialize the buffer if needed
+        // Get the texture size (32x32)
+        int tileSize = 32;
+        
+        // Initialize the buffer if needed; it's a tile bigger than the screen so it can scroll with the camera
+        int bufferWidth = screenWidth + tileSize;
+        int bufferHeight = screenHeight + tileSize;
         if (floorBuffer == null || 
-            floorBuffer.getWidth() != screenWidth || 
-            floorBuffer.getHeight() != screenHeight) {
+            floorBuffer.getWidth() != bufferWidth || 
+            floorBuffer.getHeight() != bufferHeight) {
             
-            floorBuffer = new BufferedImage(screenWidth, screenHeight, BufferedImage.TYPE_INT_ARGB);
+            floorBuffer = new BufferedImage(bufferWidth, bufferHeight, BufferedImage.TYPE_INT_ARGB);
             floorBufferDirty = true;
         }
         
@@ -1296,18 +1178,15 @@ public class PlayState extends GameState {
             
             // Clear the buffer
             bg.setColor(new Color(0, 0, 0, 0));
-            bg.fillRect(0, 0, screenWidth, screenHeight);
+            bg.fillRect(0, 0, bufferWidth, bufferHeight);
             
             // Enable antialiasing for better quality
             bg.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
             bg.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
             
-            // Get the texture size (32x32)
-            int tileSize = 32;
-            
             // Calculate how many tiles we need in each direction
-            int tilesX = (screenWidth + tileSize - 1) / tileSize;
-            int tilesY = (screenHeight + tileSize - 1) / tileSize;
+            int tilesX = (bufferWidth + tileSize - 1) / tileSize;
+            int tilesY = (bufferHeight + tileSize - 1) / tileSize;
             
             // Draw the tiled background
             for (int y = 0; y < tilesY; y++) {
@@ -1325,8 +1204,10 @@ public class PlayState extends GameState {
             floorBufferDirty = false;
         }
         
-        // Draw the pre-rendered buffer
-        g.drawImage(floorBuffer, 0, 0, null);
+        // Draw the pre-rendered buffer, shifted by however far the camera is into a tile
+        int offsetX = camera != null ? Math.floorMod(camera.getX(), tileSize) : 0;
+        int offsetY = camera != null ? Math.floorMod(camera.getY(), tileSize) : 0;
+        g.drawImage(floorBuffer, -offsetX, -offsetY, null);
     }
     
     @Override
@@ -1343,29 +1224,40 @@ public class PlayState extends GameState {
             g.setColor(Color.BLACK);
             g.fillRect(0, 0, screenWidth, screenHeight);
             
+            // Keep the player in view
+            if (player != null) {
+                camera.follow(player);
+            }
+            
             // Draw the tiled floor background (double buffered)
             drawFloorBackground(g);
             
+            // Draw the world through the camera
+            camera.begin(g);
+            
             // Draw the grid (if needed for debugging)
             // level.getGrid().render(g);
             
-            // Draw the level blocks
-            level.render(g);
+            // Draw the level blocks that are in view
+            level.render(g, camera);
             
             // Draw player
             if (player != null) {
                 player.render(g);
             }
             
-            // Draw remaining time
-            renderTimer(g);
-            
             // Draw interaction indicator for buttons
             drawButtonHighlights(g);
             
             // Draw interaction indicator for boxes
             drawBoxHighlights(g);
             
+            // Back to screen space for the overlays
+            camera.end(g);
+            
+            // Draw remaining time
+            renderTimer(g);
+            
             // Draw rewind status indicator
             drawRewindStatusIndicator(g);
             
@@ -1449,7 +1341,11 @@ public class PlayState extends GameState {
                 // Red recording indicator
                 g.setColor(Color.RED);
                 g.fillOval(10, y, 15, 15);
-                g.drawString("Recording", 30, y + 12);
+                if (rewindManager.getRecordingMode() == RewindManager.RecordingMode.INPUT_LOG) {
+                    g.drawString("Recording Input", 30, y + 12);
+                } else {
+                    g.drawString("Recording", 30, y + 12);
+                }
                 break;
                 
             case REWINDING:
@@ -1464,14 +1360,33 @@ public class PlayState extends GameState {
                 int[] yPoints = {y + 7, y, y + 15};
                 g.fillPolygon(xPoints, yPoints, 3);
                 
-                g.drawString("Rewinding", 30, y + 12);
+                if (rewindManager.isReplayingInput()) {
+                    g.drawString("Replaying", 30, y + 12);
+                } else {
+                    g.drawString("Rewinding", 30, y + 12);
+                }
                 break;
                 
             case IDLE:
+                if (rewindManager.isScrubbing()) {
+                    // Rewind arrow with the position on the timeline
+                    g.setColor(Color.CYAN);
+                    int[] scrubXPoints = {20, 5, 5};
+                    int[] scrubYPoints = {y + 7, y, y + 15};
+                    g.fillPolygon(scrubXPoints, scrubYPoints, 3);
+                    g.drawString("Scrubbing x" + SCRUB_SPEED + "  " + (rewindManager.getScrubTick() + 1) +
+                                 "/" + rewindManager.getTimelineLength(), 30, y + 12);
+                    break;
+                }
+                
                 // Gray idle indicator
                 g.setColor(Color.GRAY);
                 g.drawOval(10, y, 15, 15);
-                g.drawString("Press 'R' to Record", 30, y + 12);
+                if (rewindManager.getRecordingMode() == RewindManager.RecordingMode.INPUT_LOG) {
+                    g.drawString("Press 'R' to Record Input ('M' to switch)", 30, y + 12);
+                } else {
+                    g.drawString("Press 'R' to Record", 30, y + 12);
+                }
                 break;
         }
         
@@ -1486,14 +1401,18 @@ public class PlayState extends GameState {
     private void checkButtonHighlights() {
         if (player == null) return;
         
-        // Get all buttons from the level
-        List<Button> buttons = level.getButtons();
+        // Go through the level's entities by index, so checking every tick doesn't make any garbage
+        List<Entity> entities = level.getEntities();
         
         // Clear the list of nearby buttons
         nearButtons.clear();
         
         // Check each button to see if it's near the player
-        for (Button button : buttons) {
+        for (int i = 0; i < entities.size(); i++) {
+            if (!(entities.get(i) instanceof Button)) {
+                continue;
+            }
+            Button button = (Button) entities.get(i);
             // Calculate distance between player center and button center
             float playerCenterX = player.getX() + player.getWidth() / 2;
             float playerCenterY = player.getY() + player.getHeight() / 2;
@@ -1666,44 +1585,18 @@ public class PlayState extends GameState {
     }
     
     /**
-     * Updates collision with the door based on its open/closed state
+     * Reports when the main door starts or stops blocking the player
      */
-    private void updateDoorCollision() {
-        if (player == null) return;
-        
-        // Get current blocks from the level
-        List<Block> blocks = new ArrayList<>(level.getBlocks());
-        
-        // Get all doors from the level
-        List<Door> doors = new ArrayList<>();
-        for (Entity entity : level.getEntities()) {
-            if (entity instanceof Door) {
-                doors.add((Door) entity);
-            }
+    private void updateDoorCollisionMessage() {
+        if (door == null) return;
+        
+        if (!door.isOpen() && !doorWasClosed) {
+            System.out.println("Door collision enabled - door is closed");
+            doorWasClosed = true;
+        } else if (door.isOpen() && doorWasClosed) {
+            System.out.println("Door collision disabled - door is open");
+            doorWasClosed = false;
         }
-        
-        // Remove all doors from blocks if they're in there
-        blocks.removeIf(block -> block instanceof Door);
-        
-        // Add doors only if they're closed
-        for (Door door : doors) {
-            if (!door.isOpen()) {
-                blocks.add(door);
-                
-                // Only print message if this is the main door and its state changed
-                if (door.equals(this.door) && !doorWasClosed) {
-                    System.out.println("Door collision enabled - door is closed");
-                    doorWasClosed = true;
-                }
-            } else if (door.equals(this.door) && doorWasClosed) {
-                // Only print message if this is the main door and its state changed
-                System.out.println("Door collision disabled - door is open");
-                doorWasClosed = false;
-            }
-        }
-        
-        // Update player's collision blocks
-        player.setBlocks(blocks);
     }
     
     @Override
@@ -1720,15 +1613,10 @@ public class PlayState extends GameState {
                 dropCarriedBox();
             }
             
-            // Reset any permanent states for the current level
-            if (currentLevel == 3) {
-                endDoorPermanentlyOpened = false;
-                room1DoorsPermanentlyOpened = false;
-            }
-            
             // If we're in game over, reset that state too
             if (gameOver) {
                 gameOver = false;
+                heldInput = 0;
                 // Restore player to normal state if needed
                 if (player != null) {
                     player.resetAfterExplosion();
@@ -1741,26 +1629,23 @@ public class PlayState extends GameState {
         // Don't process other input if game over
         if (gameOver) return;
         
-        // Handle player movement
-        if (player != null) {
-            if (k == KeyEvent.VK_LEFT || k == KeyEvent.VK_A) {
-                player.setLeft(true);
-            }
-            if (k == KeyEvent.VK_RIGHT || k == KeyEvent.VK_D) {
-                player.setRight(true);
-            }
-            if (k == KeyEvent.VK_UP || k == KeyEvent.VK_W) {
-                player.setUp(true);
-            }
-            if (k == KeyEvent.VK_DOWN || k == KeyEvent.VK_S) {
-                player.setDown(true);
-            }
+        // Handle player movement (applied to the player on the next tick)
+        if (k == KeyEvent.VK_LEFT || k == KeyEvent.VK_A) {
+            heldInput |= InputLog.LEFT;
+        }
+        if (k == KeyEvent.VK_RIGHT || k == KeyEvent.VK_D) {
+            heldInput |= InputLog.RIGHT;
+        }
+        if (k == KeyEvent.VK_UP || k == KeyEvent.VK_W) {
+            heldInput |= InputLog.UP;
+        }
+        if (k == KeyEvent.VK_DOWN || k == KeyEvent.VK_S) {
+            heldInput |= InputLog.DOWN;
         }
         
         // Handle interaction with 'E' key
         if (k == KeyEvent.VK_E) {
-            activateNearbyButtons();
-            interactWithBoxes();
+            interactRequested = true;
         }
         
         // Handle pause with Escape key
@@ -1770,7 +1655,34 @@ public class PlayState extends GameState {
         
         // Handle rewind feature with 'R' key
         if (k == KeyEvent.VK_R && rewindEnabled && rewindManager != null) {
-            rewindManager.toggleRewind();
+            rewindToggleRequested = true;
+        }
+        
+        // Switch between event and input log recording with 'M' key
+        if (k == KeyEvent.VK_M && rewindEnabled && rewindManager != null) {
+            if (rewindManager.getRecordingMode() == RewindManager.RecordingMode.EVENTS) {
+                rewindManager.setRecordingMode(RewindManager.RecordingMode.INPUT_LOG);
+            } else {
+                rewindManager.setRecordingMode(RewindManager.RecordingMode.EVENTS);
+            }
+        }
+        
+        // Hold 'Z' to scrub back through the timeline and 'X' to scrub forward
+        if (k == KeyEvent.VK_Z && rewindEnabled) {
+            scrubBackHeld = true;
+        }
+        if (k == KeyEvent.VK_X && rewindEnabled) {
+            scrubForwardHeld = true;
+        }
+        
+        // Replay the last saved recording with 'L' key
+        if (k == KeyEvent.VK_L && rewindEnabled && rewindManager != null &&
+                rewindManager.getCurrentState() == RewindManager.RewindState.IDLE) {
+            if (Files.exists(RECORDING_FILE)) {
+                rewindManager.playRecording(RECORDING_FILE);
+            } else {
+                System.out.println("No saved recording at " + RECORDING_FILE);
+            }
         }
         
         // Level switching shortcuts
@@ -1790,16 +1702,19 @@ public class PlayState extends GameState {
     
     @Override
     public void keyReleased(int k) {
-        if (k == KeyEvent.VK_LEFT) player.setLeft(false);
-        if (k == KeyEvent.VK_RIGHT) player.setRight(false);
-        if (k == KeyEvent.VK_UP) player.setUp(false);
-        if (k == KeyEvent.VK_DOWN) player.setDown(false);
+        if (k == KeyEvent.VK_LEFT) heldInput &= ~InputLog.LEFT;
+        if (k == KeyEvent.VK_RIGHT) heldInput &= ~InputLog.RIGHT;
+        if (k == KeyEvent.VK_UP) heldInput &= ~InputLog.UP;
+        if (k == KeyEvent.VK_DOWN) heldInput &= ~InputLog.DOWN;
         
         // Alternative WASD controls
-        if (k == KeyEvent.VK_A) player.setLeft(false);
-        if (k == KeyEvent.VK_D) player.setRight(false);
-        if (k == KeyEvent.VK_W) player.setUp(false);
-        if (k == KeyEvent.VK_S) player.setDown(false);
+        if (k == KeyEvent.VK_A) heldInput &= ~InputLog.LEFT;
+        if (k == KeyEvent.VK_D) heldInput &= ~InputLog.RIGHT;
+        if (k == KeyEvent.VK_W) heldInput &= ~InputLog.UP;
+        if (k == KeyEvent.VK_S) heldInput &= ~InputLog.DOWN;
+        
+        if (k == KeyEvent.VK_Z) scrubBackHeld = false;
+        if (k == KeyEvent.VK_X) scrubForwardHeld = false;
     }
     
     @Override
@@ -1837,4 +1752,98 @@ public class PlayState extends GameState {
         g.setFont(originalFont);
         g.setColor(originalColor);
     }
+    
+    /**
+     * Gets the navigation service agents steer by in the current level
+     * 
+     * @return The navigation service
+     */
+    public NavigationService getNavigation() {
+        return navigation;
+    }
+    
+    /**
+     * Gets the level being played
+     * 
+     * @return The level number
+     */
+    public int getCurrentLevel() {
+        return currentLevel;
+    }
+    
+    /**
+     * Sets the player's input from somewhere other than this keyboard, such as a network client.
+     * The movement bits are held from the next tick on, as the movement keys are;
+     * {@link InputLog#INTERACT} interacts once, on the next tick.
+     * 
+     * @param input The input bitmask
+     */
+    public void setInput(int input) {
+        heldInput = input & ~InputLog.INTERACT;
+        if ((input & InputLog.INTERACT) != 0) {
+            interactRequested = true;
+        }
+    }
+    
+    /**
+     * Sets the rewind controls from somewhere other than this keyboard, such as a network client.
+     * 
+     * @param toggle True to start or stop recording on the next tick, as the 'R' key does
+     * @param scrubBack True while scrubbing back through the timeline
+     * @param scrubForward True while scrubbing forward through the timeline
+     */
+    public void setRewindInput(boolean toggle, boolean scrubBack, boolean scrubForward) {
+        if (toggle && rewindEnabled && rewindManager != null) {
+            rewindToggleRequested = true;
+        }
+        scrubBackHeld = scrubBack && rewindEnabled;
+        scrubForwardHeld = scrubForward && rewindEnabled;
+    }
+    
+    /**
+     * Sets the file rewind recordings are saved to
+     * 
+     * @param path The file, or null to keep recordings in a temporary file
+     */
+    public void setRecordingPath(Path path) {
+        if (rewindManager != null) {
+            rewindManager.setRecordingPath(path);
+        }
+    }
+    
+    /**
+     * Gets the clock counting this game's updates.
+     * 
+     * @return The clock
+     */
+    public GameClock getClock() {
+        return clock;
+    }
+    
+    /**
+     * Gets the level being played, for harnesses that steer the player round it.
+     * 
+     * @return The level
+     */
+    Level getLevel() {
+        return level;
+    }
+    
+    /**
+     * Gets the player, for harnesses that steer it.
+     * 
+     * @return The player
+     */
+    BallPlayer getPlayer() {
+        return player;
+    }
+    
+    /**
+     * Gets the rewind manager, for harnesses that wait for a rewind to finish.
+     * 
+     * @return The rewind manager, or null before the state is initialized
+     */
+    RewindManager getRewindManager() {
+        return rewindManager;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,181 @@
+package com.niravramdhanie.twod.game.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A hash set of non-negative longs that many threads can add to at once.
+ * Keys live in one open-addressing table with linear probing; a thread claims an
+ * empty slot with a compare-and-set, so adding never locks and two threads adding
+ * the same key can't both succeed. Each key can carry a link, such as the key it
+ * was reached from, which is written by the thread that added the key.
+ * <p>
+ * Adding is the only operation safe to run concurrently. Growing the table and
+ * reading links are meant for the pauses between rounds of adding, such as between
+ * the depths of a breadth-first search.
+ */
+public class ConcurrentLongSet {
+    // Marks a free slot, and the link of a key added without one
+    public static final long EMPTY = -1;
+
+    // The table is grown to keep at most this fraction of it full
+    private static final double MAX_LOAD = 0.5;
+
+    private AtomicLongArray keys;
+    private long[] links;
+    private int mask;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Creates a set with room for some keys.
+     *
+     * @param expected The number of keys the set should hold before it has to grow
+     */
+    public ConcurrentLongSet(int expected) {
+        allocate(tableSizeFor(expected));
+    }
+
+    /**
+     * Adds a key. Safe to call from many threads at once.
+     *
+     * @param key The key, which must not be negative
+     * @param link The value kept with the key
+     * @return True if the key was added, false if it was already in the set
+     * @throws IllegalStateException If the table is full
+     */
+    public boolean add(long key, long link) {
+        int slot = hash(key) & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            long current = keys.get(slot);
+            if (current == EMPTY) {
+                if (keys.compareAndSet(slot, EMPTY, key)) {
+                    links[slot] = link;
+                    size.incrementAndGet();
+                    return true;
+                }
+                // Another thread took the slot first; it may have added the same key
+                current = keys.get(slot);
+            }
+            if (current == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        throw new IllegalStateException("Set is full at " + size.get() + " keys");
+    }
+
+    /**
+     * Checks if a key is in the set.
+     *
+     * @param key The key
+     * @return True if the key was added
+     */
+    public boolean contains(long key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Gets the link kept with a key.
+     *
+     * @param key The key
+     * @return The link, or {@link #EMPTY} if the key isn't in the set
+     */
+    public long getLink(long key) {
+        int slot = find(key);
+        return slot >= 0 ? links[slot] : EMPTY;
+    }
+
+    /**
+     * Gets the number of keys in the set.
+     *
+     * @return The key count
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Gets the number of slots in the table.
+     *
+     * @return The table size
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Grows the table, if needed, so it can take more keys without getting crowded.
+     * Must not be called while keys are being added.
+     *
+     * @param expected The number of keys the set should be able to hold
+     */
+    public void ensureCapacity(int expected) {
+        int tableSize = tableSizeFor(expected);
+        if (tableSize <= mask + 1) {
+            return;
+        }
+
+        AtomicLongArray oldKeys = keys;
+        long[] oldLinks = links;
+        allocate(tableSize);
+        for (int slot = 0; slot < oldLinks.length; slot++) {
+            long key = oldKeys.get(slot);
+            if (key == EMPTY) {
+                continue;
+            }
+            int index = hash(key) & mask;
+            while (keys.get(index) != EMPTY) {
+                index = (index + 1) & mask;
+            }
+            keys.set(index, key);
+            links[index] = oldLinks[slot];
+        }
+    }
+
+    private int find(long key) {
+        int slot = hash(key) & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            long current = keys.get(slot);
+            if (current == key) {
+                return slot;
+            }
+            if (current == EMPTY) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void allocate(int tableSize) {
+        keys = new AtomicLongArray(tableSize);
+        for (int slot = 0; slot < tableSize; slot++) {
+            keys.set(slot, EMPTY);
+        }
+        links = new long[tableSize];
+        mask = tableSize - 1;
+    }
+
+    /**
+     * Gets the power of two table size that keeps this many keys under the load limit.
+     */
+    private static int tableSizeFor(int expected) {
+        long wanted = Math.max(16, (long) Math.ceil(expected / MAX_LOAD));
+        if (wanted > 1 << 30) {
+            throw new IllegalArgumentException("Too many keys for one table: " + expected);
+        }
+        return Integer.highestOneBit((int) wanted - 1) << 1;
+    }
+
+    /**
+     * Spreads the key's bits so nearby keys land in different parts of the table.
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,193 @@
+package com.niravramdhanie.twod.game.utils;
+
+import java.util.Arrays;
+
+/**
+ * Queues game events and delivers them to subscribers at a fixed point in the game update.
+ * Events are an {@link EventType} and the entity handle they concern, stored in a
+ * ring buffer of ints, so publishing an event doesn't allocate. Events published
+ * while dispatching are delivered in the same dispatch, which lets one change
+ * (a button press) cascade into others (a door opening) within a single update.
+ */
+public class EventBus {
+    /**
+     * Types of game events. The handle delivered with an event is the entity's handle.
+     */
+    public enum EventType {
+        BUTTON_ACTIVATED,
+        BUTTON_DEACTIVATED,
+        DOOR_OPENED,
+        DOOR_CLOSED,
+        DOOR_OPEN_REQUESTED,   // A door action wants the door opened
+        DOOR_CLOSE_REQUESTED,  // A door action wants the door closed
+        BOX_PICKED_UP,
+        BOX_DROPPED
+    }
+
+    /**
+     * Interface for objects that receive events.
+     */
+    public interface Listener {
+        /**
+         * Called when an event the listener subscribed to is dispatched.
+         *
+         * @param type The event type
+         * @param handle The handle of the entity the event concerns
+         */
+        void onEvent(EventType type, int handle);
+    }
+
+    // Cached so dispatching doesn't allocate a new values() array
+    private static final EventType[] TYPES = EventType.values();
+
+    // Stops a dispatch if listeners keep publishing events in response to each other
+    private static final int MAX_EVENTS_PER_DISPATCH = 4096;
+
+    // Pending events; the capacity is always a power of two
+    private int[] types;
+    private int[] handles;
+    private int head;
+    private int count;
+
+    // Listeners for each event type
+    private final Listener[][] listeners;
+    private final int[] listenerCounts;
+
+    /**
+     * Creates an event bus with room for 256 pending events.
+     */
+    public EventBus() {
+        this(256);
+    }
+
+    /**
+     * Creates an event bus.
+     *
+     * @param capacity The number of pending events to make room for, rounded up to a power of two
+     */
+    public EventBus(int capacity) {
+        int size = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+        this.types = new int[size];
+        this.handles = new int[size];
+        this.listeners = new Listener[TYPES.length][4];
+        this.listenerCounts = new int[TYPES.length];
+    }
+
+    /**
+     * Subscribes a listener to one type of event.
+     *
+     * @param type The event type
+     * @param listener The listener
+     */
+    public void subscribe(EventType type, Listener listener) {
+        int index = type.ordinal();
+        int listenerCount = listenerCounts[index];
+        for (int i = 0; i < listenerCount; i++) {
+            if (listeners[index][i] == listener) {
+                return;
+            }
+        }
+
+        if (listenerCount == listeners[index].length) {
+            listeners[index] = Arrays.copyOf(listeners[index], listenerCount * 2);
+        }
+        listeners[index][listenerCount] = listener;
+        listenerCounts[index]++;
+    }
+
+    /**
+     * Removes a listener from every event type it subscribed to.
+     *
+     * @param listener The listener
+     */
+    public void unsubscribe(Listener listener) {
+        for (int index = 0; index < listeners.length; index++) {
+            Listener[] typeListeners = listeners[index];
+            int listenerCount = listenerCounts[index];
+            for (int i = 0; i < listenerCount; i++) {
+                if (typeListeners[i] == listener) {
+                    System.arraycopy(typeListeners, i + 1, typeListeners, i, listenerCount - i - 1);
+                    typeListeners[--listenerCount] = null;
+                    listenerCounts[index] = listenerCount;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues an event for the next dispatch.
+     *
+     * @param type The event type
+     * @param handle The handle of the entity the event concerns
+     */
+    public void publish(EventType type, int handle) {
+        if (count == types.length) {
+            grow();
+        }
+
+        int tail = (head + count) & (types.length - 1);
+        types[tail] = type.ordinal();
+        handles[tail] = handle;
+        count++;
+    }
+
+    /**
+     * Delivers all pending events, including ones published by listeners while dispatching.
+     */
+    public void dispatch() {
+        int delivered = 0;
+        while (count > 0) {
+            if (delivered == MAX_EVENTS_PER_DISPATCH) {
+                System.out.println("EventBus: Dropping " + count + " events, listeners are publishing in a loop");
+                clear();
+                return;
+            }
+
+            int typeIndex = types[head];
+            int handle = handles[head];
+            head = (head + 1) & (types.length - 1);
+            count--;
+            delivered++;
+
+            EventType type = TYPES[typeIndex];
+            Listener[] typeListeners = listeners[typeIndex];
+            for (int i = 0; i < listenerCounts[typeIndex]; i++) {
+                typeListeners[i].onEvent(type, handle);
+            }
+        }
+    }
+
+    /**
+     * Discards pending events without delivering them.
+     */
+    public void clear() {
+        head = 0;
+        count = 0;
+    }
+
+    /**
+     * Gets the number of events waiting to be dispatched.
+     *
+     * @return The pending event count
+     */
+    public int getPendingCount() {
+        return count;
+    }
+
+    /**
+     * Doubles the queue when more events are pending than it can hold.
+     */
+    private void grow() {
+        int[] newTypes = new int[types.length * 2];
+        int[] newHandles = new int[handles.length * 2];
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) & (types.length - 1);
+            newTypes[i] = types[index];
+            newHandles[i] = handles[index];
+        }
+        types = newTypes;
+        handles = newHandles;
+        head = 0;
+    }
+}
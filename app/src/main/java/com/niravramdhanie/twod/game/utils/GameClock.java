@@ -0,0 +1,51 @@
+package com.niravramdhanie.twod.game.utils;
+
+/**
+ * Simulation clock for the game.
+ * Advances by a fixed step once per game update instead of following the
+ * system clock, so anything timed against it behaves identically when the
+ * same inputs are replayed, regardless of frame hitches or pauses.
+ * Each play state owns its clock and hands it to what it times, so two worlds
+ * running side by side keep their own time.
+ * Rendering effects such as pulsing highlights can keep using the system clock.
+ */
+public final class GameClock {
+    // Game updates per second, matching the game loop
+    public static final int TICKS_PER_SECOND = 60;
+
+    private long ticks = 0;
+
+    /**
+     * Advances the clock by one game update.
+     */
+    public void tick() {
+        ticks++;
+    }
+
+    /**
+     * Gets the number of game updates since the clock started.
+     *
+     * @return The tick count
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Sets the tick count, used when restoring a saved game state.
+     *
+     * @param ticks The tick count
+     */
+    public void setTicks(long ticks) {
+        this.ticks = ticks;
+    }
+
+    /**
+     * Gets the simulated time in milliseconds.
+     *
+     * @return The simulated time
+     */
+    public long millis() {
+        return ticks * 1000 / TICKS_PER_SECOND;
+    }
+}
@@ -1,5 +1,6 @@
 package com.niravramdhanie.twod.game.utils;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -7,7 +8,16 @@ import com.niravramdhanie.twod.game.entity.Entity;
 
 /**
  * A grid system for organizing and placing game entities.
- * The grid spans the entire screen and scales to fit screens of any size.
+ * The grid spans the whole level, which is the screen for a room with no level
+ * description, and is sized again with {@link #resize(int, int)} when a level is built.
+ * <p>
+ * It also keeps which cells are blocked for walking, with a version that changes
+ * whenever a cell is blocked or cleared, so anything worked out from the blocked
+ * cells, such as a {@link com.niravramdhanie.twod.game.level.NavigationService}'s
+ * paths, can tell when it's out of date. Cells are blocked in two ways: one bit per
+ * cell for the blocks and closed doors placed on the grid, and, for a level that
+ * streams its walls in chunks, the wall bits of each chunk its chunk map has loaded.
+ * A cell in a chunk that isn't loaded counts as blocked, since its walls aren't known.
  */
 public class GridSystem {
     private int gridWidth;
@@ -19,6 +29,16 @@ public class GridSystem {
     private int verticalCells;
     private Map<String, Entity> gridEntities;
     
+    // One bit per cell, row by row, set where blocks and closed doors are
+    private long[] blockedCells;
+    private int collisionVersion;
+    
+    // The wall bits of each loaded chunk, row by row within the chunk, by chunk row by row;
+    // null for a chunk that isn't loaded, and null altogether for a level without chunks
+    private long[][] chunkWalls;
+    private int chunkBits;
+    private int chunkColumns;
+    
     /**
      * Creates a new grid system with the specified dimensions.
      * 
@@ -40,6 +60,7 @@ public class GridSystem {
         
         // Calculate the actual cell size after scaling to fit the screen
         this.cellSize = Math.min(screenWidth / horizontalCells, screenHeight / verticalCells);
+        this.blockedCells = new long[(horizontalCells * verticalCells + 63) >>> 6];
         
         System.out.println("Grid created: " + horizontalCells + "x" + verticalCells + 
                            " cells, cell size: " + cellSize + "px");
@@ -179,10 +200,122 @@ public class GridSystem {
     }
     
     /**
-     * Clears all entities from the grid.
+     * Clears all entities and blocked cells from the grid.
      */
     public void clearGrid() {
         gridEntities.clear();
+        Arrays.fill(blockedCells, 0);
+        chunkWalls = null;
+        collisionVersion++;
+    }
+    
+    /**
+     * Makes the grid take its walls from chunks, which are all unloaded until their
+     * walls are given with {@link #setChunkWalls(int, int, long[])}. Lasts until the
+     * grid is cleared or resized.
+     * 
+     * @param chunkBits The size of a chunk in cells, as a power of two
+     * @param chunkColumns The number of chunks across the grid
+     * @param chunkRows The number of chunks down the grid
+     */
+    public void setChunks(int chunkBits, int chunkColumns, int chunkRows) {
+        this.chunkBits = chunkBits;
+        this.chunkColumns = chunkColumns;
+        this.chunkWalls = new long[chunkColumns * chunkRows][];
+        collisionVersion++;
+    }
+    
+    /**
+     * Gives the walls of a chunk that has been loaded, or forgets them when it's dropped.
+     * 
+     * @param chunkX The chunk's X position, in chunks
+     * @param chunkY The chunk's Y position, in chunks
+     * @param walls One bit per cell of the chunk, row by row, set where there's a wall;
+     *              kept rather than copied. Null if the chunk isn't loaded
+     */
+    public void setChunkWalls(int chunkX, int chunkY, long[] walls) {
+        if (chunkWalls == null) {
+            return;
+        }
+        chunkWalls[chunkY * chunkColumns + chunkX] = walls;
+        collisionVersion++;
+    }
+    
+    /**
+     * Marks a cell as blocked or walkable. Cells outside the grid are ignored.
+     * 
+     * @param gridX The X position on the grid
+     * @param gridY The Y position on the grid
+     * @param blocked True if nothing can walk through the cell
+     */
+    public void setBlocked(int gridX, int gridY, boolean blocked) {
+        if (!isInside(gridX, gridY)) {
+            return;
+        }
+        
+        int cell = gridY * horizontalCells + gridX;
+        long bit = 1L << cell;
+        boolean wasBlocked = (blockedCells[cell >>> 6] & bit) != 0;
+        if (wasBlocked == blocked) {
+            return;
+        }
+        
+        if (blocked) {
+            blockedCells[cell >>> 6] |= bit;
+        } else {
+            blockedCells[cell >>> 6] &= ~bit;
+        }
+        collisionVersion++;
+    }
+    
+    /**
+     * Checks if a cell is blocked for walking. Cells outside the grid, and cells in chunks that
+     * aren't loaded, count as blocked.
+     * 
+     * @param gridX The X position on the grid
+     * @param gridY The Y position on the grid
+     * @return True if the cell is blocked, false otherwise
+     */
+    public boolean isBlocked(int gridX, int gridY) {
+        if (!isInside(gridX, gridY)) {
+            return true;
+        }
+        int cell = gridY * horizontalCells + gridX;
+        if ((blockedCells[cell >>> 6] & (1L << cell)) != 0) {
+            return true;
+        }
+        if (chunkWalls == null) {
+            return false;
+        }
+        
+        long[] walls = chunkWalls[(gridY >> chunkBits) * chunkColumns + (gridX >> chunkBits)];
+        if (walls == null) {
+            return true;
+        }
+        int mask = (1 << chunkBits) - 1;
+        int bit = ((gridY & mask) << chunkBits) + (gridX & mask);
+        return (walls[bit >>> 6] & (1L << bit)) != 0;
+    }
+    
+    /**
+     * Checks if a position is on the grid.
+     * 
+     * @param gridX The X position on the grid
+     * @param gridY The Y position on the grid
+     * @return True if the cell exists, false otherwise
+     */
+    public boolean isInside(int gridX, int gridY) {
+        return gridX >= 0 && gridY >= 0 && gridX < horizontalCells && gridY < verticalCells;
+    }
+    
+    /**
+     * Gets the version of the blocked cells, which changes every time a cell is
+     * blocked or cleared and when the grid is resized.
+     * 
+     * @return The collision version
+     */
+    public int getCollisionVersion() {
+        return collisionVersion;
     }
     
     /**
@@ -227,6 +360,11 @@ public class GridSystem {
         this.verticalCells = screenHeight / gridHeight;
         this.cellSize = Math.min(screenWidth / horizontalCells, screenHeight / verticalCells);
         
+        // The cells have moved, so whoever blocked them has to block them again
+        this.blockedCells = new long[(horizontalCells * verticalCells + 63) >>> 6];
+        this.chunkWalls = null;
+        collisionVersion++;
+        
         // Reposition all entities based on the new grid size
         Map<String, Entity> newPositions = new HashMap<>();
         for (Map.Entry<String, Entity> entry : gridEntities.entrySet()) {
@@ -0,0 +1,144 @@
+package com.niravramdhanie.twod.game.utils;
+
+import java.util.Arrays;
+
+/**
+ * A log of the player's input, one bitmask per game update.
+ * Consecutive updates with the same input are stored as a single run of
+ * (mask byte, varint run length), so holding a direction for a second costs
+ * two bytes instead of sixty entries.
+ */
+public class InputLog {
+    // Input bits
+    public static final int LEFT = 1;
+    public static final int RIGHT = 2;
+    public static final int UP = 4;
+    public static final int DOWN = 8;
+    public static final int INTERACT = 16;
+
+    private byte[] data;
+    private int length;
+    private int tickCount;
+
+    // Run being appended to, not yet written to the data
+    private int runMask;
+    private int runLength;
+
+    // Replay cursor
+    private int readPosition;
+    private int readMask;
+    private int readRemaining;
+
+    /**
+     * Creates an empty input log.
+     */
+    public InputLog() {
+        this.data = new byte[256];
+        clear();
+    }
+
+    /**
+     * Removes all logged input.
+     */
+    public void clear() {
+        length = 0;
+        tickCount = 0;
+        runMask = 0;
+        runLength = 0;
+        readPosition = 0;
+        readMask = 0;
+        readRemaining = 0;
+    }
+
+    /**
+     * Appends the input for one game update.
+     *
+     * @param mask The input bitmask
+     */
+    public void append(int mask) {
+        if (runLength > 0 && mask != runMask) {
+            writeRun();
+        }
+        runMask = mask;
+        runLength++;
+        tickCount++;
+    }
+
+    /**
+     * Moves the replay cursor back to the first logged update.
+     */
+    public void rewind() {
+        if (runLength > 0) {
+            writeRun();
+        }
+        readPosition = 0;
+        readRemaining = 0;
+    }
+
+    /**
+     * Checks if there is more input to replay.
+     *
+     * @return True if another update's input is available
+     */
+    public boolean hasNext() {
+        return readRemaining > 0 || readPosition < length;
+    }
+
+    /**
+     * Gets the input for the next game update being replayed.
+     *
+     * @return The input bitmask
+     */
+    public int next() {
+        if (readRemaining == 0) {
+            readMask = data[readPosition++] & 0xFF;
+
+            // Decode the varint run length
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = data[readPosition++] & 0xFF;
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            readRemaining = value;
+        }
+        readRemaining--;
+        return readMask;
+    }
+
+    /**
+     * Gets the number of game updates logged.
+     *
+     * @return The update count
+     */
+    public int getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Gets the encoded size of the log.
+     *
+     * @return The size in bytes
+     */
+    public int getByteSize() {
+        return length;
+    }
+
+    private void writeRun() {
+        // A mask byte plus up to five varint bytes
+        if (length + 6 > data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        data[length++] = (byte) runMask;
+
+        int value = runLength;
+        while ((value & ~0x7F) != 0) {
+            data[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[length++] = (byte) value;
+        runLength = 0;
+    }
+}
@@ -0,0 +1,95 @@
+package com.niravramdhanie.twod.game.utils;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A pool of objects of one type that are kept for reuse instead of being thrown away.
+ * Objects come from the factory only when the pool is empty; a released object is put
+ * back to its defaults by the reset hook and handed out again by the next acquire.
+ * <p>
+ * A released object must not be used by whoever released it, and mustn't be released
+ * twice. The pool isn't thread safe.
+ *
+ * @param <T> The type of object pooled
+ */
+public class ObjectPool<T> {
+    private final Supplier<? extends T> factory;
+    private final Consumer<? super T> reset;
+    private Object[] free;
+    private int freeCount;
+    private int createdCount;
+    private int reusedCount;
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param factory Makes a new object when the pool is empty
+     * @param reset Puts a released object back to its defaults, or null if there's nothing to reset
+     */
+    public ObjectPool(Supplier<? extends T> factory, Consumer<? super T> reset) {
+        this.factory = factory;
+        this.reset = reset;
+        this.free = new Object[16];
+    }
+
+    /**
+     * Takes an object from the pool, or makes one if the pool is empty.
+     *
+     * @return The object
+     */
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        if (freeCount == 0) {
+            createdCount++;
+            return factory.get();
+        }
+        T object = (T) free[--freeCount];
+        free[freeCount] = null;
+        reusedCount++;
+        return object;
+    }
+
+    /**
+     * Resets an object and puts it back in the pool.
+     *
+     * @param object The object, which must have come from this pool or its factory
+     */
+    public void release(T object) {
+        if (reset != null) {
+            reset.accept(object);
+        }
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCount++] = object;
+    }
+
+    /**
+     * Gets the number of objects waiting in the pool.
+     *
+     * @return The free object count
+     */
+    public int getFreeCount() {
+        return freeCount;
+    }
+
+    /**
+     * Gets the number of objects the factory has made.
+     *
+     * @return The created object count
+     */
+    public int getCreatedCount() {
+        return createdCount;
+    }
+
+    /**
+     * Gets the number of times an object was handed out again instead of being made.
+     *
+     * @return The reused object count
+     */
+    public int getReusedCount() {
+        return reusedCount;
+    }
+}
@@ -0,0 +1,119 @@
+package com.niravramdhanie.twod.game.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Constants and encoding helpers for the binary recording file format.
+ * <p>
+ * Layout of a recording file:
+ * <pre>
+ *   header        fixed {@link #HEADER_SIZE} bytes, patched when the file is closed
+ *   records       tagged records, each starting with a varint timestamp delta
+ *   string table  varint count, then (varint length, UTF-8 bytes) per entity id
+ * </pre>
+ * Timestamps are stored as deltas from the previous record and positions as
+ * zigzag deltas from the previous position of the same entity, in fixed point
+ * with {@link #POSITION_SCALE} steps per pixel. Most records fit in 4-6 bytes.
+ */
+public final class RecordingFormat {
+    // "TNRC" - TENET recording
+    public static final int MAGIC = 0x544E5243;
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 40;
+
+    // Header field offsets
+    static final int OFFSET_MAGIC = 0;
+    static final int OFFSET_VERSION = 4;
+    static final int OFFSET_FLAGS = 6;
+    static final int OFFSET_TIMER_START = 8;
+    static final int OFFSET_PLAYER_START_X = 12;
+    static final int OFFSET_PLAYER_START_Y = 16;
+    static final int OFFSET_STRING_TABLE = 20;
+    static final int OFFSET_RECORD_COUNT = 28;
+    static final int OFFSET_DURATION = 32;
+
+    // Record tags
+    public static final byte TAG_BUTTON_STATE = 1;   // Initial button state, applied without running actions
+    public static final byte TAG_BUTTON_EVENT = 2;   // Button activation or deactivation
+    public static final byte TAG_BOX_PICKUP = 3;     // Box picked up at a position
+    public static final byte TAG_BOX_DROP = 4;       // Box dropped at a position
+    public static final byte TAG_BOX_POSITION = 5;   // Per-tick box position sample
+
+    // Fixed-point steps per pixel for stored positions
+    public static final float POSITION_SCALE = 16f;
+
+    private RecordingFormat() {
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint.
+     *
+     * @param buffer The buffer to write to
+     * @param value The value to write (treated as unsigned)
+     */
+    public static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint.
+     *
+     * @param buffer The buffer to read from
+     * @return The decoded value
+     */
+    public static int getVarInt(ByteBuffer buffer) {
+        int result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 35);
+        return result;
+    }
+
+    /**
+     * Maps a signed value onto an unsigned one so small magnitudes stay small.
+     *
+     * @param value The signed value
+     * @return The zigzag-encoded value
+     */
+    public static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Reverses {@link #zigZag(int)}.
+     *
+     * @param value The zigzag-encoded value
+     * @return The signed value
+     */
+    public static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Converts a pixel coordinate to the stored fixed-point form.
+     *
+     * @param pixels The coordinate in pixels
+     * @return The fixed-point coordinate
+     */
+    public static int toFixed(float pixels) {
+        return Math.round(pixels * POSITION_SCALE);
+    }
+
+    /**
+     * Converts a stored fixed-point coordinate back to pixels.
+     *
+     * @param fixed The fixed-point coordinate
+     * @return The coordinate in pixels
+     */
+    public static float fromFixed(int fixed) {
+        return fixed / POSITION_SCALE;
+    }
+}
@@ -0,0 +1,279 @@
+package com.niravramdhanie.twod.game.utils;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a recording file through a memory-mapped buffer.
+ * Records are decoded one at a time with a cursor, so replaying a long
+ * recording only keeps the current record on the heap; the operating system
+ * pages the file in as the cursor advances.
+ */
+public class RecordingReader {
+    private final Path path;
+    private final MappedByteBuffer data;
+
+    // Header values
+    private final int timerStartValue;
+    private final float playerStartX;
+    private final float playerStartY;
+    private final int recordCount;
+    private final long durationMillis;
+    private final int recordsEnd;
+    private final String[] strings;
+
+    // Cursor state
+    private int position;
+    private boolean hasRecord;
+    private byte tag;
+    private long timestamp;
+    private int entityIndex;
+    private boolean flag;
+    private float x;
+    private float y;
+    private int[] lastFixedX;
+    private int[] lastFixedY;
+
+    /**
+     * Opens and maps a recording file.
+     *
+     * @param path The file to read
+     * @return The reader, positioned on the first record
+     * @throws IOException If the file cannot be read or is not a valid recording
+     */
+    public static RecordingReader open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < RecordingFormat.HEADER_SIZE) {
+                throw new IOException("Recording " + path + " is too small (" + size + " bytes)");
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Recording " + path + " is too large to map (" + size + " bytes)");
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new RecordingReader(path, data);
+        }
+    }
+
+    private RecordingReader(Path path, MappedByteBuffer data) throws IOException {
+        this.path = path;
+        this.data = data;
+        data.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (data.getInt(RecordingFormat.OFFSET_MAGIC) != RecordingFormat.MAGIC) {
+            throw new IOException(path + " is not a recording file");
+        }
+        short version = data.getShort(RecordingFormat.OFFSET_VERSION);
+        if (version != RecordingFormat.VERSION) {
+            throw new IOException("Unsupported recording version " + version + " in " + path);
+        }
+
+        long stringTableOffset = data.getLong(RecordingFormat.OFFSET_STRING_TABLE);
+        if (stringTableOffset < RecordingFormat.HEADER_SIZE || stringTableOffset > data.capacity()) {
+            throw new IOException("Recording " + path + " was not closed properly");
+        }
+
+        timerStartValue = data.getInt(RecordingFormat.OFFSET_TIMER_START);
+        playerStartX = data.getFloat(RecordingFormat.OFFSET_PLAYER_START_X);
+        playerStartY = data.getFloat(RecordingFormat.OFFSET_PLAYER_START_Y);
+        recordCount = data.getInt(RecordingFormat.OFFSET_RECORD_COUNT);
+        durationMillis = data.getLong(RecordingFormat.OFFSET_DURATION);
+        recordsEnd = (int) stringTableOffset;
+
+        // Decode the string table
+        data.position(recordsEnd);
+        try {
+            int count = RecordingFormat.getVarInt(data);
+            if (count < 0 || count > data.remaining()) {
+                throw new IOException("Recording " + path + " has a corrupt string table");
+            }
+            strings = new String[count];
+            for (int i = 0; i < count; i++) {
+                int length = RecordingFormat.getVarInt(data);
+                if (length < 0 || length > data.remaining()) {
+                    throw new IOException("Recording " + path + " has a corrupt string table");
+                }
+                byte[] bytes = new byte[length];
+                data.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Recording " + path + " is truncated in its string table");
+        }
+
+        lastFixedX = new int[strings.length];
+        lastFixedY = new int[strings.length];
+        rewind();
+    }
+
+    /**
+     * Moves the cursor back to the first record.
+     *
+     * @throws IOException If the first record is corrupt
+     */
+    public void rewind() throws IOException {
+        position = RecordingFormat.HEADER_SIZE;
+        timestamp = 0;
+        Arrays.fill(lastFixedX, 0);
+        Arrays.fill(lastFixedY, 0);
+        advance();
+    }
+
+    /**
+     * Decodes the next record into the cursor.
+     *
+     * @return True if a record is available, false at the end of the file
+     * @throws IOException If the record is corrupt or the file ends part way through it
+     */
+    public boolean advance() throws IOException {
+        if (position >= recordsEnd) {
+            hasRecord = false;
+            return false;
+        }
+
+        // A corrupt record ends the recording, so the cursor is moved to the end first
+        int start = position;
+        position = recordsEnd;
+        hasRecord = false;
+        try {
+            decodeRecord(start);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Recording " + path + " is truncated at offset " + start);
+        }
+        if (data.position() > recordsEnd) {
+            throw new IOException("Record at offset " + start + " runs into the string table of " + path);
+        }
+
+        position = data.position();
+        hasRecord = true;
+        return true;
+    }
+
+    /**
+     * Decodes the record starting at an offset into the cursor.
+     */
+    private void decodeRecord(int start) throws IOException {
+        data.position(start);
+        tag = data.get();
+        timestamp += RecordingFormat.getVarInt(data);
+        entityIndex = RecordingFormat.getVarInt(data);
+        if (entityIndex < 0 || entityIndex >= strings.length) {
+            throw new IOException("Record at offset " + start + " names entity " + entityIndex + " but "
+                                  + path + " has " + strings.length);
+        }
+
+        switch (tag) {
+            case RecordingFormat.TAG_BUTTON_STATE:
+            case RecordingFormat.TAG_BUTTON_EVENT:
+                flag = data.get() != 0;
+                break;
+            case RecordingFormat.TAG_BOX_PICKUP:
+            case RecordingFormat.TAG_BOX_DROP:
+                readPosition();
+                flag = tag == RecordingFormat.TAG_BOX_PICKUP;
+                break;
+            case RecordingFormat.TAG_BOX_POSITION:
+                readPosition();
+                flag = data.get() != 0;
+                break;
+            default:
+                throw new IOException("Unknown record tag " + tag + " in " + path + " at offset " + start);
+        }
+    }
+
+    private void readPosition() {
+        int fixedX = lastFixedX[entityIndex] + RecordingFormat.unZigZag(RecordingFormat.getVarInt(data));
+        int fixedY = lastFixedY[entityIndex] + RecordingFormat.unZigZag(RecordingFormat.getVarInt(data));
+        lastFixedX[entityIndex] = fixedX;
+        lastFixedY[entityIndex] = fixedY;
+        x = RecordingFormat.fromFixed(fixedX);
+        y = RecordingFormat.fromFixed(fixedY);
+    }
+
+    /**
+     * Checks if the cursor is on a record.
+     *
+     * @return True if a record is available
+     */
+    public boolean hasRecord() {
+        return hasRecord;
+    }
+
+    /**
+     * Gets the tag of the current record.
+     *
+     * @return One of the {@code RecordingFormat.TAG_*} constants
+     */
+    public byte getTag() {
+        return tag;
+    }
+
+    /**
+     * Gets the timestamp of the current record.
+     *
+     * @return The time relative to the start of recording
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Gets the string table index of the current record's entity.
+     *
+     * @return The entity index
+     */
+    public int getEntityIndex() {
+        return entityIndex;
+    }
+
+    /**
+     * Gets the activated flag of a button record, or the carried flag of a position record.
+     *
+     * @return The record flag
+     */
+    public boolean getFlag() {
+        return flag;
+    }
+
+    /**
+     * Gets the X position of a box record.
+     *
+     * @return The X position in pixels
+     */
+    public float getX() {
+        return x;
+    }
+
+    /**
+     * Gets the Y position of a box record.
+     *
+     * @return The Y position in pixels
+     */
+    public float getY() {
+        return y;
+    }
+
+    /**
+     * Gets the entity IDs in the string table.
+     *
+     * @return The entity IDs, indexed by entity index
+     */
+    public String[] getEntityIds() {
+        return strings;
+    }
+
+    public int getTimerStartValue() { return timerStartValue; }
+    public float getPlayerStartX() { return playerStartX; }
+    public float getPlayerStartY() { return playerStartY; }
+    public int getRecordCount() { return recordCount; }
+    public long getDurationMillis() { return durationMillis; }
+    public Path getPath() { return path; }
+}
@@ -0,0 +1,311 @@
+package com.niravramdhanie.twod.game.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a recording file incrementally while the game is recording.
+ * Records are buffered in a small fixed buffer and appended to the file as it
+ * fills, so memory use does not grow with the length of the recording.
+ * The string table and header are written by {@link #close()}.
+ */
+public class RecordingWriter implements AutoCloseable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Largest possible record: tag + 3 varints + 2 zigzag varints + flag byte
+    private static final int MAX_RECORD_SIZE = 32;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    // Header values
+    private int timerStartValue;
+    private float playerStartX;
+    private float playerStartY;
+    private int recordCount;
+
+    // Delta encoding state
+    private long lastTimestamp;
+    private int[] lastFixedX = new int[16];
+    private int[] lastFixedY = new int[16];
+
+    // String table
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIndex = new HashMap<>();
+
+    private boolean closed;
+
+    /**
+     * Creates a new recording file, replacing any existing file at the path.
+     *
+     * @param path The file to write
+     * @throws IOException If the file cannot be created
+     */
+    public RecordingWriter(Path path) throws IOException {
+        this(path, newBuffer());
+    }
+
+    /**
+     * Creates a new recording file that buffers its records in a buffer made by
+     * {@link #newBuffer()}, so a recorder starting recording after recording can keep
+     * one buffer rather than make a new one each time. The buffer mustn't be given to
+     * another writer until this one is closed.
+     *
+     * @param path The file to write
+     * @param buffer The buffer to reuse; whatever it held is overwritten
+     * @throws IOException If the file cannot be created
+     */
+    public RecordingWriter(Path path, ByteBuffer buffer) throws IOException {
+        this.path = path;
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.buffer = buffer;
+
+        // Reserve space for the header; all of it is written on close
+        buffer.clear();
+        buffer.position(RecordingFormat.HEADER_SIZE);
+    }
+
+    /**
+     * Makes a buffer for {@link #RecordingWriter(Path, ByteBuffer)}.
+     *
+     * @return The buffer
+     */
+    public static ByteBuffer newBuffer() {
+        return ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Sets the initial state stored in the file header.
+     *
+     * @param timerStartValue The timer value when recording started
+     * @param playerStartX The player's X position when recording started
+     * @param playerStartY The player's Y position when recording started
+     */
+    public void begin(int timerStartValue, float playerStartX, float playerStartY) {
+        this.timerStartValue = timerStartValue;
+        this.playerStartX = playerStartX;
+        this.playerStartY = playerStartY;
+    }
+
+    /**
+     * Writes the state a button had when recording started.
+     *
+     * @param timestamp The time relative to the start of recording
+     * @param entityIndex The button's index from {@link #defineEntity(String)}
+     * @param activated Whether the button was activated
+     * @throws IOException If writing fails
+     */
+    public void writeButtonState(long timestamp, int entityIndex, boolean activated) throws IOException {
+        beginRecord(RecordingFormat.TAG_BUTTON_STATE, timestamp, entityIndex);
+        buffer.put((byte) (activated ? 1 : 0));
+        recordCount++;
+    }
+
+    /**
+     * Writes a button activation or deactivation.
+     *
+     * @param timestamp The time relative to the start of recording
+     * @param entityIndex The button's index from {@link #defineEntity(String)}
+     * @param activated Whether the button was activated or deactivated
+     * @throws IOException If writing fails
+     */
+    public void writeButtonEvent(long timestamp, int entityIndex, boolean activated) throws IOException {
+        beginRecord(RecordingFormat.TAG_BUTTON_EVENT, timestamp, entityIndex);
+        buffer.put((byte) (activated ? 1 : 0));
+        recordCount++;
+    }
+
+    /**
+     * Writes a box pickup or drop.
+     *
+     * @param timestamp The time relative to the start of recording
+     * @param entityIndex The box's index from {@link #defineEntity(String)}
+     * @param isPickup Whether the box was picked up (true) or dropped (false)
+     * @param x The box X position at the time of the interaction
+     * @param y The box Y position at the time of the interaction
+     * @throws IOException If writing fails
+     */
+    public void writeBoxInteraction(long timestamp, int entityIndex, boolean isPickup, float x, float y) throws IOException {
+        beginRecord(isPickup ? RecordingFormat.TAG_BOX_PICKUP : RecordingFormat.TAG_BOX_DROP,
+                timestamp, entityIndex);
+        putPosition(entityIndex, x, y);
+        recordCount++;
+    }
+
+    /**
+     * Writes a box position sample.
+     *
+     * @param timestamp The time relative to the start of recording
+     * @param entityIndex The box's index from {@link #defineEntity(String)}
+     * @param x The box X position
+     * @param y The box Y position
+     * @param carried Whether the box was being carried
+     * @throws IOException If writing fails
+     */
+    public void writeBoxPosition(long timestamp, int entityIndex, float x, float y, boolean carried) throws IOException {
+        beginRecord(RecordingFormat.TAG_BOX_POSITION, timestamp, entityIndex);
+        putPosition(entityIndex, x, y);
+        buffer.put((byte) (carried ? 1 : 0));
+        recordCount++;
+    }
+
+    /**
+     * Writes the record tag, timestamp delta and entity reference.
+     */
+    private void beginRecord(byte tag, long timestamp, int entityIndex) throws IOException {
+        if (closed) {
+            throw new IOException("Recording " + path + " is already closed");
+        }
+        if (entityIndex < 0 || entityIndex >= strings.size()) {
+            throw new IOException("Entity index " + entityIndex + " was not defined in " + path);
+        }
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            flush();
+        }
+
+        // Clamp so the delta is never negative
+        if (timestamp < lastTimestamp) {
+            timestamp = lastTimestamp;
+        }
+
+        buffer.put(tag);
+        RecordingFormat.putVarInt(buffer, (int) (timestamp - lastTimestamp));
+        RecordingFormat.putVarInt(buffer, entityIndex);
+        lastTimestamp = timestamp;
+    }
+
+    /**
+     * Writes a position as zigzag deltas from the entity's previous position.
+     */
+    private void putPosition(int id, float x, float y) {
+        int fixedX = RecordingFormat.toFixed(x);
+        int fixedY = RecordingFormat.toFixed(y);
+        RecordingFormat.putVarInt(buffer, RecordingFormat.zigZag(fixedX - lastFixedX[id]));
+        RecordingFormat.putVarInt(buffer, RecordingFormat.zigZag(fixedY - lastFixedY[id]));
+        lastFixedX[id] = fixedX;
+        lastFixedY[id] = fixedY;
+    }
+
+    /**
+     * Adds an entity ID to the file's string table.
+     * Records refer to the entity by the returned index, so the ID itself is
+     * only handled once per recording.
+     *
+     * @param entityId The entity ID
+     * @return The string table index of the entity
+     */
+    public int defineEntity(String entityId) {
+        Integer index = stringIndex.get(entityId);
+        if (index != null) {
+            return index;
+        }
+
+        int newIndex = strings.size();
+        strings.add(entityId);
+        stringIndex.put(entityId, newIndex);
+
+        if (newIndex >= lastFixedX.length) {
+            lastFixedX = Arrays.copyOf(lastFixedX, newIndex * 2);
+            lastFixedY = Arrays.copyOf(lastFixedY, newIndex * 2);
+        }
+        return newIndex;
+    }
+
+    /**
+     * Appends the buffered records to the file.
+     *
+     * @throws IOException If writing fails
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Gets the number of records written so far.
+     *
+     * @return The record count
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Gets the path of the file being written.
+     *
+     * @return The file path
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Writes the string table and header and closes the file.
+     *
+     * @throws IOException If writing fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            flush();
+            long stringTableOffset = channel.position();
+
+            // Write the string table
+            RecordingFormat.putVarInt(buffer, strings.size());
+            for (String entityId : strings) {
+                byte[] bytes = entityId.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length + 5 > buffer.capacity()) {
+                    throw new IOException("Entity ID too long: " + entityId);
+                }
+                if (buffer.remaining() < bytes.length + 5) {
+                    flush();
+                }
+                RecordingFormat.putVarInt(buffer, bytes.length);
+                buffer.put(bytes);
+            }
+            flush();
+
+            // Patch the header at the start of the file
+            ByteBuffer header = ByteBuffer.allocate(RecordingFormat.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(RecordingFormat.OFFSET_MAGIC, RecordingFormat.MAGIC);
+            header.putShort(RecordingFormat.OFFSET_VERSION, RecordingFormat.VERSION);
+            header.putShort(RecordingFormat.OFFSET_FLAGS, (short) 0);
+            header.putInt(RecordingFormat.OFFSET_TIMER_START, timerStartValue);
+            header.putFloat(RecordingFormat.OFFSET_PLAYER_START_X, playerStartX);
+            header.putFloat(RecordingFormat.OFFSET_PLAYER_START_Y, playerStartY);
+            header.putLong(RecordingFormat.OFFSET_STRING_TABLE, stringTableOffset);
+            header.putInt(RecordingFormat.OFFSET_RECORD_COUNT, recordCount);
+            header.putLong(RecordingFormat.OFFSET_DURATION, lastTimestamp);
+            channel.write(header, 0);
+        } finally {
+            closed = true;
+            channel.close();
+        }
+
+        System.out.println("Recording saved to " + path + " (" + recordCount + " records, " +
+                          strings.size() + " entities)");
+    }
+}
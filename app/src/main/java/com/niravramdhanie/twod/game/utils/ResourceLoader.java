@@ -6,14 +6,15 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.imageio.ImageIO;
 
 public class ResourceLoader {
-    // Cache loaded resources to avoid reloading the same resource multiple times
-    private static final Map<String, BufferedImage> imageCache = new HashMap<>();
+    // Cache loaded resources to avoid reloading the same resource multiple times; levels
+    // are built on a background thread too, so the cache is shared between threads
+    private static final Map<String, BufferedImage> imageCache = new ConcurrentHashMap<>();
     
     public static BufferedImage loadImage(String path) {
         // First check if the image is already in the cache
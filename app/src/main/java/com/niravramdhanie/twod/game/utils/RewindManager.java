@@ -1,28 +1,31 @@
 package com.niravramdhanie.twod.game.utils;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import com.niravramdhanie.twod.game.actions.Action;
-import com.niravramdhanie.twod.game.actions.DoorAction;
-import com.niravramdhanie.twod.game.actions.TimedAction;
-import com.niravramdhanie.twod.game.actions.ToggleAction;
+import com.niravramdhanie.twod.game.actions.ActionProgram;
 import com.niravramdhanie.twod.game.entity.BallPlayer;
 import com.niravramdhanie.twod.game.entity.Block;
 import com.niravramdhanie.twod.game.entity.Box;
 import com.niravramdhanie.twod.game.entity.Button;
 import com.niravramdhanie.twod.game.entity.Entity;
+import com.niravramdhanie.twod.game.entity.EntityRegistry;
 
 /**
  * Manages the rewind feature for the game.
  * Records player position, timer value, and button states.
  * Replays recorded actions when rewinding.
  */
-public class RewindManager {
+public class RewindManager implements EventBus.Listener {
     // Enum to track rewind state
     public enum RewindState {
         IDLE,       // Not recording or rewinding
@@ -30,8 +33,36 @@ public class RewindManager {
         REWINDING   // Currently rewinding and replaying actions
     }
     
+    // What a recording captures
+    public enum RecordingMode {
+        EVENTS,     // Button and box events, replayed alongside the player
+        INPUT_LOG   // Player input per tick, replayed by re-simulating from a snapshot
+    }
+    
+    /**
+     * Interface for the game state that saves and restores the whole world
+     * for input-log recordings.
+     */
+    public interface WorldStateProvider {
+        /**
+         * Writes the complete simulation state to a snapshot.
+         * 
+         * @param snapshot The snapshot to write to
+         */
+        void saveWorldState(WorldSnapshot snapshot);
+        
+        /**
+         * Restores the simulation state from a snapshot.
+         * 
+         * @param snapshot The snapshot to read from
+         * @return True if the state was restored, false if the snapshot doesn't match the world
+         */
+        boolean loadWorldState(WorldSnapshot snapshot);
+    }
+    
     // Current state of the rewind system
     private RewindState currentState = RewindState.IDLE;
+    private RecordingMode recordingMode = RecordingMode.EVENTS;
     
     // Timestamp relative to the start of recording
     private long recordingStartTime;
@@ -42,8 +73,6 @@ public class RewindManager {
     private float playerStartY;
     private int timerStartValue;
     private List<ButtonState> initialButtonStates = new ArrayList<>();
-    private Map<String, Boolean> initialToggleStates = new HashMap<>();
-    private Map<String, Boolean> initialDoorStates = new HashMap<>();
     
     // Box state tracking
     private List<BoxState> initialBoxStates = new ArrayList<>();
@@ -54,13 +83,53 @@ public class RewindManager {
     // Recorded actions
     private List<RecordedAction> recordedActions = new ArrayList<>();
     
+    // Most button, box and position records kept on the heap during one recording.
+    // Past this the heap copies are dropped and rewinding plays the recording file instead.
+    private static final int MAX_HEAP_RECORDS = 4096;
+    private int heapRecordCount;
+    private boolean spilled;
+    
+    // Set when a recording without a file has filled half the heap window with button
+    // and box events; later events aren't recorded, so box positions keep the other half
+    private boolean heapFull;
+    
     // Reference to game objects
     private BallPlayer player;
     private List<Button> buttons;
     private TimerManager timer;
+    private final GameClock clock;
+    private EntityRegistry registry;
+    
+    // Recording file output. When no path is set, recordings go to a temporary
+    // spill file that is deleted once it has been played back
+    private Path recordingPath;
+    private Path spillPath;
+    private RecordingWriter recordingWriter;
+    
+    // The buffer each recording file is written through, kept from one recording to the next
+    private ByteBuffer recordingBuffer;
+    
+    // String table index of each entity in the recording file, by handle
+    private int[] fileEntityIndex = new int[0];
+    
+    // Playback of a saved recording file
+    private RecordingReader playbackReader;
+    private Button[] playbackButtons;
+    private Box[] playbackBoxes;
     
-    // Map to track toggle states during replay
-    private Map<String, Boolean> currentToggleStates = new HashMap<>();
+    // Input-log recording and replay
+    private WorldStateProvider worldStateProvider;
+    private final WorldSnapshot startSnapshot = new WorldSnapshot();
+    private final WorldSnapshot checkSnapshot = new WorldSnapshot();
+    private final InputLog inputLog = new InputLog();
+    private boolean replayingInput;
+    private int expectedEndHash;
+    
+    // Timeline of recent world states that can be scrubbed through
+    private final RewindTimeline timeline = new RewindTimeline(RewindTimeline.DEFAULT_KEYFRAME_INTERVAL);
+    private final WorldSnapshot timelineSnapshot = new WorldSnapshot();
+    private boolean scrubbing;
+    private int scrubTick;
     
     /**
      * Creates a new RewindManager.
@@ -68,13 +137,70 @@ public class RewindManager {
      * @param player The player to record/restore
      * @param buttons The list of buttons to record/restore
      * @param timer The timer to record/restore
+     * @param clock The clock recordings are timed against
      */
-    public RewindManager(BallPlayer player, List<Button> buttons, TimerManager timer) {
+    public RewindManager(BallPlayer player, List<Button> buttons, TimerManager timer, GameClock clock) {
+        this.clock = clock;
         this.player = player;
         this.buttons = buttons;
         this.timer = timer;
     }
     
+    /**
+     * Sets the registry used to look up recorded buttons by handle.
+     * 
+     * @param registry The level's entity registry
+     */
+    public void setEntityRegistry(EntityRegistry registry) {
+        this.registry = registry;
+    }
+    
+    /**
+     * Subscribes to button and box events, so they are recorded while recording.
+     * 
+     * @param eventBus The game's event bus
+     */
+    public void setEventBus(EventBus eventBus) {
+        eventBus.subscribe(EventBus.EventType.BUTTON_ACTIVATED, this);
+        eventBus.subscribe(EventBus.EventType.BUTTON_DEACTIVATED, this);
+        eventBus.subscribe(EventBus.EventType.BOX_PICKED_UP, this);
+        eventBus.subscribe(EventBus.EventType.BOX_DROPPED, this);
+    }
+    
+    @Override
+    public void onEvent(EventBus.EventType type, int handle) {
+        if (currentState != RewindState.RECORDING || registry == null) {
+            return;
+        }
+        
+        Entity entity = registry.get(handle);
+        switch (type) {
+            case BUTTON_ACTIVATED:
+            case BUTTON_DEACTIVATED:
+                if (entity instanceof Button) {
+                    recordButtonActivation((Button) entity, type == EventBus.EventType.BUTTON_ACTIVATED);
+                }
+                break;
+            case BOX_PICKED_UP:
+            case BOX_DROPPED:
+                if (entity instanceof Box) {
+                    recordBoxInteraction((Box) entity, type == EventBus.EventType.BOX_PICKED_UP);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+    
+    /**
+     * Sets the list of buttons to record/restore, after the level changes.
+     * 
+     * @param buttons The list of buttons
+     */
+    public void setButtons(List<Button> buttons) {
+        this.buttons = buttons;
+    }
+    
     /**
      * Sets the list of boxes to track for rewind.
      * 
@@ -93,54 +219,98 @@ public class RewindManager {
         this.levelBlocks = new ArrayList<>(blocks);
     }
     
+    /**
+     * Sets the file that recordings are written to while recording.
+     * The file is replaced each time a new recording starts.
+     * 
+     * @param recordingPath The file to write, or null to save only to a temporary spill file
+     */
+    public void setRecordingPath(Path recordingPath) {
+        this.recordingPath = recordingPath;
+    }
+    
+    /**
+     * Gets the file that recordings are written to.
+     * 
+     * @return The recording file, or null if recordings are not saved
+     */
+    public Path getRecordingPath() {
+        return recordingPath;
+    }
+    
+    /**
+     * Sets the provider used to save and restore the world for input-log recordings.
+     * 
+     * @param worldStateProvider The world state provider
+     */
+    public void setWorldStateProvider(WorldStateProvider worldStateProvider) {
+        this.worldStateProvider = worldStateProvider;
+    }
+    
+    /**
+     * Sets what the next recording captures.
+     * The mode can only be changed while idle.
+     * 
+     * @param recordingMode The recording mode
+     * @return True if the mode was changed, false if a recording or rewind is in progress
+     */
+    public boolean setRecordingMode(RecordingMode recordingMode) {
+        if (currentState != RewindState.IDLE) {
+            return false;
+        }
+        if (recordingMode == RecordingMode.INPUT_LOG && worldStateProvider == null) {
+            System.out.println("Rewind: Input log mode needs a world state provider");
+            return false;
+        }
+        this.recordingMode = recordingMode;
+        System.out.println("Rewind: Recording mode set to " + recordingMode);
+        return true;
+    }
+    
+    /**
+     * Gets what recordings capture.
+     * 
+     * @return The recording mode
+     */
+    public RecordingMode getRecordingMode() {
+        return recordingMode;
+    }
+    
     /**
      * Starts recording player actions and game state.
      */
     public void startRecording() {
+        // Stop any playback of a saved recording
+        stopPlayback();
+        
+        if (recordingMode == RecordingMode.INPUT_LOG) {
+            startInputRecording();
+            return;
+        }
+        
         // Clear previous recordings
         recordedActions.clear();
         initialButtonStates.clear();
-        initialToggleStates.clear();
-        initialDoorStates.clear();
         initialBoxStates.clear();
-        currentToggleStates.clear();
         boxPositionHistory.clear();
+        heapRecordCount = 0;
+        spilled = false;
+        heapFull = false;
         
         // Record initial state
         playerStartX = player.getX();
         playerStartY = player.getY();
         timerStartValue = timer.getTime();
         
-        // Record initial button states and toggle states
+        // Record initial button states, including everything their actions remember
         for (Button button : buttons) {
-            String buttonId = getButtonId(button);
-            boolean isActivated = button.isActivated();
-            
-            // Check if the button has a TimedAction and record its state
-            boolean hasTimedAction = false;
-            boolean timedActionActive = false;
-            Action action = button.getAction();
-            if (action instanceof TimedAction) {
-                hasTimedAction = true;
-                timedActionActive = ((TimedAction) action).isActive();
-            }
-            
-            initialButtonStates.add(new ButtonState(buttonId, isActivated, hasTimedAction, timedActionActive));
-            
-            // Store toggle states for ToggleAction buttons
-            if (action instanceof ToggleAction) {
-                ToggleAction toggleAction = (ToggleAction) action;
-                initialToggleStates.put(buttonId, toggleAction.isToggled());
-                
-                // Store door states for DoorActions inside ToggleActions
-                if (toggleAction.getOnAction() instanceof DoorAction) {
-                    DoorAction doorAction = (DoorAction) toggleAction.getOnAction();
-                    initialDoorStates.put(doorAction.getDoorId(), doorAction.isDoorOpen());
-                }
-            } else if (action instanceof DoorAction) {
-                DoorAction doorAction = (DoorAction) action;
-                initialDoorStates.put(doorAction.getDoorId(), doorAction.isDoorOpen());
+            int buttonHandle = button.getHandle();
+            if (buttonHandle < 0) {
+                continue;
             }
+            ActionProgram program = button.getProgram();
+            long[] programState = program != null ? program.copyState() : null;
+            initialButtonStates.add(new ButtonState(buttonHandle, button.isActivated(), programState));
         }
         
         // Record initial box states
@@ -158,7 +328,10 @@ public class RewindManager {
         
         // Set recording state
         currentState = RewindState.RECORDING;
-        recordingStartTime = System.currentTimeMillis();
+        recordingStartTime = clock.millis();
+        
+        // Start writing the recording file
+        openRecordingFile();
         
         System.out.println("Rewind: Started recording at position (" + playerStartX + ", " + playerStartY + 
                           "), time: " + timerStartValue);
@@ -171,15 +344,26 @@ public class RewindManager {
      * @param activated Whether the button was activated or deactivated
      */
     public void recordButtonActivation(Button button, boolean activated) {
-        if (currentState != RewindState.RECORDING) {
+        if (currentState != RewindState.RECORDING || recordingMode != RecordingMode.EVENTS) {
             return;
         }
         
-        String buttonId = getButtonId(button);
-        long timestamp = System.currentTimeMillis() - recordingStartTime;
-        recordedActions.add(new RecordedAction(ActionType.BUTTON_ACTIVATION, timestamp, buttonId, activated));
+        int buttonHandle = button.getHandle();
+        long timestamp = clock.millis() - recordingStartTime;
+        if (!spilled && !heapFull) {
+            recordedActions.add(new RecordedAction(ActionType.BUTTON_ACTIVATION, timestamp, buttonHandle, activated));
+            countHeapRecord();
+        }
+        
+        if (recordingWriter != null) {
+            try {
+                recordingWriter.writeButtonEvent(timestamp, getFileEntityIndex(button), activated);
+            } catch (IOException e) {
+                handleRecordingFileError(e);
+            }
+        }
         
-        System.out.println("Rewind: Recorded button " + buttonId + " " + 
+        System.out.println("Rewind: Recorded button " + buttonHandle + " " + 
                           (activated ? "activation" : "deactivation") + " at time " + timestamp + "ms");
     }
     
@@ -190,26 +374,37 @@ public class RewindManager {
      * @param isPickup Whether the box was picked up (true) or dropped (false)
      */
     public void recordBoxInteraction(Box box, boolean isPickup) {
-        if (currentState != RewindState.RECORDING || !box.isActive()) {
+        if (currentState != RewindState.RECORDING || recordingMode != RecordingMode.EVENTS || !box.isActive()) {
             return;
         }
         
-        long timestamp = System.currentTimeMillis() - recordingStartTime;
-        
-        // Record the box position and state at time of interaction
-        RecordedAction action = new RecordedAction(
-            isPickup ? ActionType.BOX_PICKUP : ActionType.BOX_DROP,
-            timestamp,
-            null, // No button ID for box interactions
-            false // Not used for box interactions
-        );
+        long timestamp = clock.millis() - recordingStartTime;
         
-        // Store box reference and current position
-        action.box = box;
-        action.boxX = box.getX();
-        action.boxY = box.getY();
+        if (!spilled && !heapFull) {
+            // Record the box position and state at time of interaction
+            RecordedAction action = new RecordedAction(
+                isPickup ? ActionType.BOX_PICKUP : ActionType.BOX_DROP,
+                timestamp,
+                EntityRegistry.NO_HANDLE, // No button for box interactions
+                false // Not used for box interactions
+            );
+            
+            // Store box reference and current position
+            action.box = box;
+            action.boxX = box.getX();
+            action.boxY = box.getY();
+            
+            recordedActions.add(action);
+            countHeapRecord();
+        }
         
-        recordedActions.add(action);
+        if (recordingWriter != null) {
+            try {
+                recordingWriter.writeBoxInteraction(timestamp, getFileEntityIndex(box), isPickup, box.getX(), box.getY());
+            } catch (IOException e) {
+                handleRecordingFileError(e);
+            }
+        }
         
         System.out.println("Rewind: Recorded box " + 
                           (isPickup ? "pickup" : "drop") + " at time " + timestamp + "ms, position (" +
@@ -221,28 +416,101 @@ public class RewindManager {
      * Should be called on each game tick.
      */
     public void recordBoxPositions() {
-        if (currentState != RewindState.RECORDING) {
+        if (currentState != RewindState.RECORDING || recordingMode != RecordingMode.EVENTS) {
             return;
         }
         
-        long timestamp = System.currentTimeMillis() - recordingStartTime;
+        long timestamp = clock.millis() - recordingStartTime;
         
-        for (Box box : boxes) {
+        for (int i = 0; i < boxes.size(); i++) {
+            Box box = boxes.get(i);
             if (box.isActive() && box.hasFullRewindTracking()) {
                 // Get or create the position history list for this box
                 List<BoxPositionRecord> positionHistory = boxPositionHistory.computeIfAbsent(box, k -> new ArrayList<>());
                 
-                // Record the current position and time
-                positionHistory.add(new BoxPositionRecord(
-                    timestamp,
-                    box.getX(),
-                    box.getY(),
-                    box.isBeingCarried()
-                ));
+                // Rewinding puts a box where its last record before the time says, so a box
+                // that hasn't moved since its last record needs no new one
+                if (!positionHistory.isEmpty()) {
+                    BoxPositionRecord last = positionHistory.get(positionHistory.size() - 1);
+                    if (last.x == box.getX() && last.y == box.getY() && last.isBeingCarried == box.isBeingCarried()) {
+                        continue;
+                    }
+                }
+                
+                if (!spilled) {
+                    // Record the current position and time
+                    positionHistory.add(new BoxPositionRecord(
+                        timestamp,
+                        box.getX(),
+                        box.getY(),
+                        box.isBeingCarried()
+                    ));
+                    countHeapRecord();
+                }
                 
-                System.out.println("Recorded box position at time " + timestamp + ": (" + box.getX() + ", " + box.getY() + ")");
+                if (recordingWriter != null) {
+                    try {
+                        recordingWriter.writeBoxPosition(timestamp, getFileEntityIndex(box), box.getX(), box.getY(), box.isBeingCarried());
+                    } catch (IOException e) {
+                        handleRecordingFileError(e);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Counts a record added to the heap lists and spills the recording to its
+     * file once the heap window is full. Without a file, for example after a write
+     * error, the heap window is kept instead by merging box position records.
+     */
+    private void countHeapRecord() {
+        heapRecordCount++;
+        if (recordingWriter == null && !heapFull && recordedActions.size() >= MAX_HEAP_RECORDS / 2) {
+            heapFull = true;
+            System.out.println("Rewind: Recording has " + recordedActions.size()
+                              + " events in memory and no file to continue in; later events are not recorded");
+        }
+        if (heapRecordCount <= MAX_HEAP_RECORDS) {
+            return;
+        }
+        if (recordingWriter == null) {
+            thinHeapRecords();
+            return;
+        }
+        
+        // Every record is already in the file, so the heap copies can go
+        recordedActions.clear();
+        boxPositionHistory.clear();
+        heapRecordCount = 0;
+        spilled = true;
+        System.out.println("Rewind: Recording exceeded " + MAX_HEAP_RECORDS + 
+                          " records in memory, continuing in " + recordingWriter.getPath());
+    }
+    
+    /**
+     * Keeps a recording that can't spill within the heap window: every other box
+     * position record is dropped, so boxes replay the whole recording at half the
+     * rate. Events are never dropped; {@link #countHeapRecord()} stops recording them
+     * once they fill half the window.
+     */
+    private void thinHeapRecords() {
+        int positionRecords = 0;
+        for (List<BoxPositionRecord> positionHistory : boxPositionHistory.values()) {
+            int kept = 0;
+            int last = positionHistory.size() - 1;
+            for (int i = 0; i <= last; i++) {
+                // The last record stays, so the box ends where it was when recording stopped
+                if (i % 2 == 0 || i == last) {
+                    positionHistory.set(kept++, positionHistory.get(i));
+                }
             }
+            positionHistory.subList(kept, positionHistory.size()).clear();
+            positionRecords += kept;
         }
+        heapRecordCount = recordedActions.size() + positionRecords;
+        System.out.println("Rewind: Recording exceeded " + MAX_HEAP_RECORDS
+                          + " records in memory with no file to continue in, merged box positions");
     }
     
     /**
@@ -253,6 +521,15 @@ public class RewindManager {
             return;
         }
         
+        if (recordingMode == RecordingMode.INPUT_LOG) {
+            startInputReplay();
+            return;
+        }
+        
+        // The recording is complete, so finish the file
+        Path recordedFile = recordingWriter != null ? recordingWriter.getPath() : null;
+        closeRecordingFile();
+        
         // Reset player position
         player.setX(playerStartX);
         player.setY(playerStartY);
@@ -260,39 +537,20 @@ public class RewindManager {
         // Reset timer
         timer.setTime(timerStartValue);
         
-        // Initialize current toggle states with the initial values
-        currentToggleStates.clear();
-        currentToggleStates.putAll(initialToggleStates);
-        
         // Reset button states and toggle states
         for (ButtonState state : initialButtonStates) {
-            for (Button button : buttons) {
-                String buttonId = getButtonId(button);
-                if (buttonId.equals(state.buttonId)) {
-                    // Set button activation state without triggering actions
-                    button.setActivated(state.activated);
-                    
-                    // Handle TimedAction states
-                    Action action = button.getAction();
-                    if (state.hasTimedAction && action instanceof TimedAction) {
-                        TimedAction timedAction = (TimedAction) action;
-                        timedAction.setActive(state.timedActionActive);
-                    }
-                    
-                    // Handle toggle states using the new method
-                    boolean initialToggled = initialToggleStates.getOrDefault(buttonId, false);
-                    button.forceSetToggleState(initialToggled);
-                    
-                    // For actions that aren't toggles but might be DoorActions
-                    if (!(action instanceof ToggleAction) && action instanceof DoorAction) {
-                        DoorAction doorAction = (DoorAction) action;
-                        String doorId = doorAction.getDoorId();
-                        boolean initialDoorOpen = initialDoorStates.getOrDefault(doorId, false);
-                        doorAction.setDoorOpen(initialDoorOpen);
-                    }
-                    
-                    break;
-                }
+            Button button = getButton(state.buttonHandle);
+            if (button == null) {
+                continue;
+            }
+            
+            // Set button activation state without triggering actions
+            button.setActivated(state.activated);
+            
+            // Put back the toggle, door, timer and message state of the button's actions
+            ActionProgram program = button.getProgram();
+            if (program != null && state.programState != null) {
+                program.restoreState(state.programState);
             }
         }
         
@@ -310,6 +568,28 @@ public class RewindManager {
             }
         }
         
+        // A recording too long to keep on the heap is replayed from its file,
+        // which is memory-mapped and paged in as playback reaches it
+        if (spilled) {
+            spilled = false;
+            RecordingReader reader = null;
+            if (recordedFile != null) {
+                try {
+                    reader = RecordingReader.open(recordedFile);
+                } catch (IOException e) {
+                    System.err.println("Error opening spilled recording " + recordedFile + ": " + e.getMessage());
+                }
+            }
+            if (reader == null) {
+                System.out.println("Rewind: Spilled recording is unavailable, cannot rewind");
+                currentState = RewindState.IDLE;
+                return;
+            }
+            beginPlayback(reader);
+            System.out.println("Rewind: Started rewinding from " + recordedFile);
+            return;
+        }
+        
         // Mark all actions as not applied
         for (RecordedAction action : recordedActions) {
             action.applied = false;
@@ -320,7 +600,7 @@ public class RewindManager {
         
         // Start rewinding
         currentState = RewindState.REWINDING;
-        rewindStartTime = System.currentTimeMillis();
+        rewindStartTime = clock.millis();
         
         System.out.println("Rewind: Started rewinding to position (" + playerStartX + ", " + playerStartY + 
                           "), time: " + timerStartValue);
@@ -341,15 +621,26 @@ public class RewindManager {
             return;
         }
         
+        // Replaying a saved recording reads from the file instead of the in-memory lists
+        if (playbackReader != null) {
+            updatePlayback();
+            return;
+        }
+        
+        // Input replay is driven by the game requesting each tick's input
+        if (replayingInput) {
+            return;
+        }
+        
         // Calculate current time relative to rewind start
-        long currentRelativeTime = System.currentTimeMillis() - rewindStartTime;
-        System.out.println("Current rewind time: " + currentRelativeTime);
+        long currentRelativeTime = clock.millis() - rewindStartTime;
         
         // Update box positions for boxes with full rewind tracking
         updateBoxPositionsForRewind(currentRelativeTime);
         
         // Apply any actions that should occur at this time
-        for (RecordedAction action : recordedActions) {
+        for (int i = 0; i < recordedActions.size(); i++) {
+            RecordedAction action = recordedActions.get(i);
             if (action.timestamp <= currentRelativeTime && !action.applied) {
                 applyAction(action);
                 action.applied = true;
@@ -358,8 +649,8 @@ public class RewindManager {
         
         // Check if all actions have been applied
         boolean allApplied = true;
-        for (RecordedAction action : recordedActions) {
-            if (!action.applied) {
+        for (int i = 0; i < recordedActions.size(); i++) {
+            if (!recordedActions.get(i).applied) {
                 allApplied = false;
                 break;
             }
@@ -375,13 +666,461 @@ public class RewindManager {
         }
     }
     
+    /**
+     * Starts an input-log recording by saving the whole world as the starting point.
+     */
+    private void startInputRecording() {
+        startSnapshot.clear();
+        worldStateProvider.saveWorldState(startSnapshot);
+        inputLog.clear();
+        
+        currentState = RewindState.RECORDING;
+        System.out.println("Rewind: Started input log recording (" + startSnapshot.size() + " state values)");
+    }
+    
+    /**
+     * Records the player's input for the current tick.
+     * Should be called once per game tick; ignored unless recording an input log.
+     * 
+     * @param inputMask The input bitmask, built from the {@code InputLog} bits
+     */
+    public void recordInput(int inputMask) {
+        if (currentState == RewindState.RECORDING && recordingMode == RecordingMode.INPUT_LOG) {
+            inputLog.append(inputMask);
+        }
+    }
+    
+    /**
+     * Ends an input-log recording, restores the starting snapshot and
+     * begins feeding the logged input back one tick at a time.
+     */
+    private void startInputReplay() {
+        // Remember how the recording ended so the replay can be checked against it
+        checkSnapshot.clear();
+        worldStateProvider.saveWorldState(checkSnapshot);
+        expectedEndHash = checkSnapshot.hash();
+        
+        startSnapshot.rewind();
+        if (!worldStateProvider.loadWorldState(startSnapshot)) {
+            System.out.println("Rewind: Could not restore the recording's starting state, replay cancelled");
+            currentState = RewindState.IDLE;
+            return;
+        }
+        
+        inputLog.rewind();
+        replayingInput = true;
+        currentState = RewindState.REWINDING;
+        
+        System.out.println("Rewind: Replaying " + inputLog.getTickCount() + " ticks of input (" +
+                          inputLog.getByteSize() + " bytes)");
+    }
+    
+    /**
+     * Gets the logged input for the current tick of an input replay.
+     * Should be called once per game tick while {@link #isReplayingInput()} is true.
+     * 
+     * @return The input bitmask, or -1 if the replay has finished
+     */
+    public int nextReplayInput() {
+        if (!replayingInput) {
+            return -1;
+        }
+        
+        if (inputLog.hasNext()) {
+            return inputLog.next();
+        }
+        
+        // The whole log has been replayed; the world should match the end of the recording
+        checkSnapshot.clear();
+        worldStateProvider.saveWorldState(checkSnapshot);
+        if (checkSnapshot.hash() == expectedEndHash) {
+            System.out.println("Rewind: Input replay complete, state matches the recording");
+        } else {
+            System.out.println("Rewind: Input replay complete, but state diverged from the recording");
+        }
+        
+        replayingInput = false;
+        currentState = RewindState.IDLE;
+        return -1;
+    }
+    
+    /**
+     * Checks if an input-log recording is being replayed.
+     * 
+     * @return True if replaying logged input
+     */
+    public boolean isReplayingInput() {
+        return replayingInput;
+    }
+    
+    /**
+     * Adds the current world state to the scrubbing timeline.
+     * Should be called once at the end of each game update.
+     */
+    public void recordTimelineTick() {
+        if (worldStateProvider == null || scrubbing) {
+            return;
+        }
+        
+        timelineSnapshot.clear();
+        worldStateProvider.saveWorldState(timelineSnapshot);
+        timeline.record(timelineSnapshot);
+    }
+    
+    /**
+     * Moves the world backward or forward along the timeline.
+     * The game should not update the simulation while scrubbing; when the player
+     * lets go, {@link #endScrub()} resumes play from the tick scrubbed to.
+     * 
+     * @param ticks The number of ticks to move, negative to go back in time
+     * @return True if the world was moved, false if scrubbing isn't possible now
+     */
+    public boolean scrub(int ticks) {
+        if (worldStateProvider == null || currentState != RewindState.IDLE || timeline.getTickCount() == 0) {
+            return false;
+        }
+        
+        if (!scrubbing) {
+            scrubbing = true;
+            scrubTick = timeline.getTickCount() - 1;
+        }
+        
+        scrubTick = Math.max(timeline.getFirstTick(), Math.min(timeline.getTickCount() - 1, scrubTick + ticks));
+        timeline.seek(scrubTick, timelineSnapshot);
+        if (!worldStateProvider.loadWorldState(timelineSnapshot)) {
+            // The world no longer matches the timeline, so it can't be used
+            timeline.clear();
+            scrubbing = false;
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Stops scrubbing and discards the timeline after the current tick,
+     * so play continues from the state scrubbed to.
+     */
+    public void endScrub() {
+        if (!scrubbing) {
+            return;
+        }
+        
+        timeline.truncate(scrubTick);
+        scrubbing = false;
+        System.out.println("Rewind: Resumed from timeline tick " + scrubTick);
+    }
+    
+    /**
+     * Discards the scrubbing timeline, for example after the level changes.
+     */
+    public void clearTimeline() {
+        timeline.clear();
+        scrubbing = false;
+    }
+    
+    /**
+     * Discards the newest ticks of the timeline, for example when the world has been
+     * put back a few ticks to simulate them again.
+     * 
+     * @param ticks The number of ticks to discard
+     */
+    public void discardTimelineTicks(int ticks) {
+        if (ticks > 0 && timeline.getTickCount() > 0) {
+            timeline.truncate(timeline.getTickCount() - 1 - ticks);
+        }
+    }
+    
+    /**
+     * Checks if the world is being scrubbed along the timeline.
+     * 
+     * @return True if scrubbing
+     */
+    public boolean isScrubbing() {
+        return scrubbing;
+    }
+    
+    /**
+     * Gets the timeline tick the world was last scrubbed to.
+     * 
+     * @return The scrub tick
+     */
+    public int getScrubTick() {
+        return scrubTick;
+    }
+    
+    /**
+     * Gets the number of ticks in the scrubbing timeline.
+     * 
+     * @return The timeline length in ticks
+     */
+    public int getTimelineLength() {
+        return timeline.getTickCount();
+    }
+    
+    /**
+     * Opens the recording file and writes the initial state into it.
+     */
+    private void openRecordingFile() {
+        closeRecordingFile();
+        deleteSpillFile();
+        
+        try {
+            Path path = recordingPath;
+            if (path == null) {
+                spillPath = Files.createTempFile("rewind", ".tnr");
+                spillPath.toFile().deleteOnExit();
+                path = spillPath;
+            }
+            if (recordingBuffer == null) {
+                recordingBuffer = RecordingWriter.newBuffer();
+            }
+            recordingWriter = new RecordingWriter(path, recordingBuffer);
+            recordingWriter.begin(timerStartValue, playerStartX, playerStartY);
+            
+            // Define every entity in the file's string table up front so records
+            // only carry the entity's index
+            fileEntityIndex = new int[registry != null ? registry.getHandleCount() : 0];
+            Arrays.fill(fileEntityIndex, -1);
+            
+            for (Button button : buttons) {
+                recordingWriter.writeButtonState(0, getFileEntityIndex(button), button.isActivated());
+            }
+            for (BoxState state : initialBoxStates) {
+                recordingWriter.writeBoxPosition(0, getFileEntityIndex(state.box), state.x, state.y, state.isBeingCarried);
+            }
+        } catch (IOException e) {
+            handleRecordingFileError(e);
+        }
+    }
+    
+    /**
+     * Finishes the recording file, if one is being written.
+     */
+    private void closeRecordingFile() {
+        if (recordingWriter == null) {
+            return;
+        }
+        
+        try {
+            recordingWriter.close();
+        } catch (IOException e) {
+            System.err.println("Error saving recording: " + e.getMessage());
+        }
+        recordingWriter = null;
+    }
+    
+    /**
+     * Deletes the temporary spill file, if there is one.
+     */
+    private void deleteSpillFile() {
+        if (spillPath == null) {
+            return;
+        }
+        
+        try {
+            Files.deleteIfExists(spillPath);
+        } catch (IOException e) {
+            System.err.println("Error deleting spill file " + spillPath + ": " + e.getMessage());
+        }
+        spillPath = null;
+    }
+    
+    /**
+     * Stops writing the recording file after an I/O error.
+     * The in-memory recording is unaffected.
+     */
+    private void handleRecordingFileError(IOException e) {
+        System.err.println("Error writing recording file, disabling file output: " + e.getMessage());
+        if (recordingWriter != null) {
+            try {
+                recordingWriter.close();
+            } catch (IOException closeError) {
+                // Already reported the original error
+            }
+            recordingWriter = null;
+        }
+    }
+    
+    /**
+     * Replays a saved recording file.
+     * Restores the recorded starting state and then replays the file's records
+     * in real time, reading them through a memory-mapped buffer.
+     * 
+     * @param path The recording file to play
+     * @return True if playback started, false if the file could not be played
+     */
+    public boolean playRecording(Path path) {
+        if (currentState == RewindState.RECORDING) {
+            System.out.println("Rewind: Cannot play a recording while recording");
+            return false;
+        }
+        
+        RecordingReader reader;
+        try {
+            reader = RecordingReader.open(path);
+        } catch (IOException e) {
+            System.err.println("Error opening recording " + path + ": " + e.getMessage());
+            return false;
+        }
+        
+        // Restore the recorded starting state
+        player.setX(reader.getPlayerStartX());
+        player.setY(reader.getPlayerStartY());
+        timer.setTime(reader.getTimerStartValue());
+        
+        beginPlayback(reader);
+        
+        System.out.println("Rewind: Playing recording " + path + " (" + reader.getRecordCount() + 
+                          " records, " + reader.getDurationMillis() + "ms)");
+        return true;
+    }
+    
+    /**
+     * Starts applying the records of a recording file as game time passes.
+     * 
+     * @param reader The opened recording
+     */
+    private void beginPlayback(RecordingReader reader) {
+        // Resolve the file's entity IDs against the current level once, so
+        // records can be applied by index during playback
+        String[] entityIds = reader.getEntityIds();
+        playbackButtons = new Button[entityIds.length];
+        playbackBoxes = new Box[entityIds.length];
+        for (Button button : buttons) {
+            String buttonId = getButtonId(button);
+            for (int i = 0; i < entityIds.length; i++) {
+                if (entityIds[i].equals(buttonId)) {
+                    playbackButtons[i] = button;
+                }
+            }
+        }
+        for (Box box : boxes) {
+            String boxId = getBoxId(box);
+            for (int i = 0; i < entityIds.length; i++) {
+                if (entityIds[i].equals(boxId)) {
+                    playbackBoxes[i] = box;
+                }
+            }
+        }
+        
+        playbackReader = reader;
+        currentState = RewindState.REWINDING;
+        rewindStartTime = clock.millis();
+    }
+    
+    /**
+     * Applies the records of a saved recording that are due at the current time.
+     */
+    private void updatePlayback() {
+        long currentRelativeTime = clock.millis() - rewindStartTime;
+        
+        while (playbackReader.hasRecord() && playbackReader.getTimestamp() <= currentRelativeTime) {
+            applyPlaybackRecord(playbackReader);
+            try {
+                playbackReader.advance();
+            } catch (IOException e) {
+                // The rest of the recording can't be trusted; end playback where it is
+                System.err.println("Error reading recording: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        
+        if (!playbackReader.hasRecord()) {
+            for (Box box : playbackBoxes) {
+                if (box != null) {
+                    box.setRewinding(false);
+                }
+            }
+            stopPlayback();
+            currentState = RewindState.IDLE;
+            System.out.println("Rewind: Completed playback of recording");
+        }
+    }
+    
+    /**
+     * Applies a single record from a saved recording.
+     */
+    private void applyPlaybackRecord(RecordingReader reader) {
+        int index = reader.getEntityIndex();
+        Button button = playbackButtons[index];
+        Box box = playbackBoxes[index];
+        
+        switch (reader.getTag()) {
+            case RecordingFormat.TAG_BUTTON_STATE:
+                if (button != null) {
+                    button.setActivated(reader.getFlag());
+                }
+                break;
+            case RecordingFormat.TAG_BUTTON_EVENT:
+                if (button != null) {
+                    if (reader.getFlag()) {
+                        button.activate();
+                    } else {
+                        button.deactivate();
+                    }
+                }
+                break;
+            case RecordingFormat.TAG_BOX_PICKUP:
+                if (box != null) {
+                    box.setX(reader.getX());
+                    box.setY(reader.getY());
+                    box.pickUp(player.getX(), player.getY(), player);
+                    box.setRewinding(true);
+                }
+                break;
+            case RecordingFormat.TAG_BOX_DROP:
+                if (box != null) {
+                    box.drop();
+                    box.setX(reader.getX());
+                    box.setY(reader.getY());
+                    box.setRewinding(false);
+                }
+                break;
+            case RecordingFormat.TAG_BOX_POSITION:
+                if (box != null && box.isActive()) {
+                    if (!box.isRewinding() && !box.isBeingCarried()) {
+                        box.setRewinding(true);
+                    }
+                    if (box.isRewinding()) {
+                        box.setX(reader.getX());
+                        box.setY(reader.getY());
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+    
+    /**
+     * Stops playback of a saved recording, if one is playing.
+     */
+    private void stopPlayback() {
+        playbackReader = null;
+        playbackButtons = null;
+        playbackBoxes = null;
+        
+        // A spilled recording has been played back and isn't needed any more
+        deleteSpillFile();
+    }
+    
+    /**
+     * Checks if a saved recording is being played back.
+     * 
+     * @return True if a recording file is playing
+     */
+    public boolean isPlayingRecording() {
+        return playbackReader != null;
+    }
+    
     /**
      * Updates box positions during rewind based on recorded history.
      * 
      * @param currentRelativeTime The current time relative to the start of rewinding
      */
     private void updateBoxPositionsForRewind(long currentRelativeTime) {
-        for (Box box : boxes) {
+        for (int b = 0; b < boxes.size(); b++) {
+            Box box = boxes.get(b);
             if (!box.isActive() || !box.hasFullRewindTracking()) {
                 continue; // Skip inactive boxes
             }
@@ -408,7 +1147,8 @@ public class RewindManager {
             BoxPositionRecord currentRecord = null;
             
             // Find the record that matches or is closest to our current rewind time
-            for (BoxPositionRecord record : positionHistory) {
+            for (int i = 0; i < positionHistory.size(); i++) {
+                BoxPositionRecord record = positionHistory.get(i);
                 if (record.timestamp <= currentRelativeTime) {
                     currentRecord = record;
                 } else {
@@ -422,7 +1162,6 @@ public class RewindManager {
                     if (state.box == box) {
                         box.setX(state.x);
                         box.setY(state.y);
-                        System.out.println("Using initial state: (" + state.x + ", " + state.y + ")");
                         break;
                     }
                 }
@@ -432,40 +1171,15 @@ public class RewindManager {
             // Set the box to the current record's position
             box.setX(currentRecord.x);
             box.setY(currentRecord.y);
-            System.out.println("Setting box position at time " + currentRelativeTime + ": (" + currentRecord.x + ", " + currentRecord.y + ")");
         }
     }
     
     /**
      * Synchronizes final states after rewinding to ensure consistency.
+     * Button actions need nothing here: their programs reached the final state
+     * by running again for each replayed press.
      */
     private void synchronizeFinalStates() {
-        // Ensure all buttons have their final state
-        for (Button button : buttons) {
-            String buttonId = getButtonId(button);
-            boolean finalToggled = currentToggleStates.getOrDefault(buttonId, false);
-            
-            // Set final toggle state
-            button.forceSetToggleState(finalToggled);
-            
-            // Update door states via actions
-            Action action = button.getAction();
-            if (action instanceof DoorAction) {
-                DoorAction doorAction = (DoorAction) action;
-                doorAction.setDoorOpen(finalToggled);
-            } else if (action instanceof ToggleAction) {
-                ToggleAction toggleAction = (ToggleAction) action;
-                if (toggleAction.getOnAction() instanceof DoorAction) {
-                    DoorAction doorAction = (DoorAction) toggleAction.getOnAction();
-                    doorAction.setDoorOpen(finalToggled);
-                }
-                if (toggleAction.getOffAction() instanceof DoorAction) {
-                    DoorAction doorAction = (DoorAction) toggleAction.getOffAction();
-                    doorAction.setDoorOpen(!finalToggled);
-                }
-            }
-        }
-        
         // Ensure boxes are in proper positions
         for (Box box : boxes) {
             if (box.isActive()) {
@@ -501,30 +1215,21 @@ public class RewindManager {
      * @param action The button activation action to apply
      */
     private void applyButtonActivation(RecordedAction action) {
-        for (Button button : buttons) {
-            String buttonId = getButtonId(button);
-            if (buttonId.equals(action.buttonId)) {
-                // Activate or deactivate the button
-                if (action.activated) {
-                    button.activate();
-                } else {
-                    button.deactivate();
-                }
-                
-                // Update toggle state if this is a toggle button
-                Action buttonAction = button.getAction();
-                if (buttonAction instanceof ToggleAction) {
-                    boolean newToggled = action.activated ? !currentToggleStates.getOrDefault(buttonId, false) 
-                                                         : currentToggleStates.getOrDefault(buttonId, false);
-                    currentToggleStates.put(buttonId, newToggled);
-                }
-                
-                System.out.println("Rewind: Applied button " + buttonId + " " + 
-                                  (action.activated ? "activation" : "deactivation") + 
-                                  " at replay time " + action.timestamp + "ms");
-                break;
-            }
+        Button button = getButton(action.buttonHandle);
+        if (button == null) {
+            return;
         }
+        
+        // Activate or deactivate the button
+        if (action.activated) {
+            button.activate();
+        } else {
+            button.deactivate();
+        }
+        
+        System.out.println("Rewind: Applied button " + action.buttonHandle + " " + 
+                          (action.activated ? "activation" : "deactivation") + 
+                          " at replay time " + action.timestamp + "ms");
     }
     
     /**
@@ -601,34 +1306,70 @@ public class RewindManager {
     }
     
     /**
-     * Converts a button to a unique ID for tracking.
+     * Gets the button with a handle.
+     * 
+     * @param buttonHandle The button handle
+     * @return The button, or null if the handle doesn't refer to a button
+     */
+    private Button getButton(int buttonHandle) {
+        if (registry == null) {
+            return null;
+        }
+        Entity entity = registry.get(buttonHandle);
+        return entity instanceof Button ? (Button) entity : null;
+    }
+    
+    /**
+     * Gets the string table index of an entity in the recording file,
+     * defining it the first time the entity is written.
+     */
+    private int getFileEntityIndex(Entity entity) {
+        int handle = entity.getHandle();
+        if (handle >= fileEntityIndex.length) {
+            int oldLength = fileEntityIndex.length;
+            fileEntityIndex = Arrays.copyOf(fileEntityIndex, handle + 1);
+            Arrays.fill(fileEntityIndex, oldLength, fileEntityIndex.length, -1);
+        }
+        if (handle >= 0 && fileEntityIndex[handle] >= 0) {
+            return fileEntityIndex[handle];
+        }
+        
+        String entityId = entity instanceof Button ? getButtonId((Button) entity) : getBoxId((Box) entity);
+        int index = recordingWriter.defineEntity(entityId);
+        if (handle >= 0) {
+            fileEntityIndex[handle] = index;
+        }
+        return index;
+    }
+    
+    /**
+     * Converts a button to a unique ID for recording files.
      */
     private String getButtonId(Button button) {
         // Use the location as a unique identifier to avoid requiring IDs
         return "button_" + button.getX() + "_" + button.getY();
     }
     
+    /**
+     * Converts a box to a unique ID for recording files.
+     */
+    private String getBoxId(Box box) {
+        // Boxes are identified by their order in the level
+        return "box_" + boxes.indexOf(box);
+    }
+    
     /**
      * Class to track button state information.
      */
     private static class ButtonState {
-        String buttonId;
+        int buttonHandle;
         boolean activated;
-        boolean hasTimedAction;
-        boolean timedActionActive;
-        
-        ButtonState(String buttonId, boolean activated) {
-            this.buttonId = buttonId;
-            this.activated = activated;
-            this.hasTimedAction = false;
-            this.timedActionActive = false;
-        }
+        long[] programState;
         
-        ButtonState(String buttonId, boolean activated, boolean hasTimedAction, boolean timedActionActive) {
-            this.buttonId = buttonId;
+        ButtonState(int buttonHandle, boolean activated, long[] programState) {
+            this.buttonHandle = buttonHandle;
             this.activated = activated;
-            this.hasTimedAction = hasTimedAction;
-            this.timedActionActive = timedActionActive;
+            this.programState = programState;
         }
     }
     
@@ -683,7 +1424,7 @@ public class RewindManager {
     private static class RecordedAction {
         ActionType type;
         long timestamp;
-        String buttonId;  // Used for button actions
+        int buttonHandle; // Used for button actions
         boolean activated; // Used for button actions
         boolean applied = false;
         
@@ -692,10 +1433,10 @@ public class RewindManager {
         float boxX;       // Used for box actions
         float boxY;       // Used for box actions
         
-        RecordedAction(ActionType type, long timestamp, String buttonId, boolean activated) {
+        RecordedAction(ActionType type, long timestamp, int buttonHandle, boolean activated) {
             this.type = type;
             this.timestamp = timestamp;
-            this.buttonId = buttonId;
+            this.buttonHandle = buttonHandle;
             this.activated = activated;
         }
     }
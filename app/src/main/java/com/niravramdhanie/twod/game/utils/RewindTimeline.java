@@ -0,0 +1,425 @@
+package com.niravramdhanie.twod.game.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A history of world snapshots, one per game update, that can be seeked to any tick.
+ * Every {@code keyframeInterval} ticks a full copy of the snapshot is kept; every
+ * other tick only stores the values that changed since the previous tick, as
+ * (index, value) pairs. Seeking loads the nearest keyframe at or before the target
+ * and applies at most one interval of deltas, so the cost of a seek depends on the
+ * keyframe interval and not on how long the timeline is.
+ * <p>
+ * A keyframe and the deltas that follow it form a segment. Only the newest
+ * {@code maxHeapSegments} segments are kept on the heap; older ones are appended
+ * to a temporary spill file and memory-mapped back in when a seek reaches them,
+ * so heap use stays the same however long the timeline gets.
+ */
+public class RewindTimeline {
+    // One keyframe per second of game time
+    public static final int DEFAULT_KEYFRAME_INTERVAL = GameClock.TICKS_PER_SECOND;
+
+    // Thirty seconds of history on the heap before segments are spilled
+    public static final int DEFAULT_HEAP_SEGMENTS = 30;
+
+    private final int keyframeInterval;
+    private final int maxHeapSegments;
+
+    // Segments on the heap, starting at firstHeapTick
+    private final List<int[]> keyframes;
+    private int firstHeapTick;
+
+    // Changed values of each heap tick as (index, value) pairs; tick t's pairs run
+    // from tickStart[t - firstHeapTick] to tickStart[t - firstHeapTick + 1]
+    private int[] deltaData;
+    private int deltaLength;
+    private int[] tickStart;
+    private int tickCount;
+
+    // Earliest tick that can still be seeked to
+    private int firstTick;
+
+    // Values of the last recorded tick, used to find what changed
+    private int[] lastValues;
+    private int stateSize;
+
+    // Values at the last tick seeked to, so scrubbing forward continues from there
+    private int[] cursorValues;
+    private int cursorTick;
+
+    // Spilled segments: segment s is stored at spillOffsets[s] to spillOffsets[s + 1]
+    // as the keyframe, keyframeInterval + 1 tick starts, then the deltas
+    private Path spillPath;
+    private FileChannel spillChannel;
+    private long[] spillOffsets;
+    private int spilledSegments;
+    private boolean spillFailed;
+    private ByteBuffer spillBuffer;
+
+    // The spilled segment currently mapped in for seeking
+    private int pagedSegment;
+    private IntBuffer pagedData;
+
+    /**
+     * Creates an empty timeline that keeps the default number of segments on the heap.
+     *
+     * @param keyframeInterval The number of ticks between keyframes
+     */
+    public RewindTimeline(int keyframeInterval) {
+        this(keyframeInterval, DEFAULT_HEAP_SEGMENTS);
+    }
+
+    /**
+     * Creates an empty timeline.
+     *
+     * @param keyframeInterval The number of ticks between keyframes
+     * @param maxHeapSegments The number of segments kept on the heap before older ones are spilled
+     */
+    public RewindTimeline(int keyframeInterval, int maxHeapSegments) {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Keyframe interval must be at least 1: " + keyframeInterval);
+        }
+        if (maxHeapSegments < 1) {
+            throw new IllegalArgumentException("Heap segment count must be at least 1: " + maxHeapSegments);
+        }
+        this.keyframeInterval = keyframeInterval;
+        this.maxHeapSegments = maxHeapSegments;
+        this.keyframes = new ArrayList<>();
+        this.deltaData = new int[1024];
+        this.tickStart = new int[Math.max(256, keyframeInterval + 2)];
+        this.lastValues = new int[0];
+        this.cursorValues = new int[0];
+        this.spillOffsets = new long[16];
+        this.spillBuffer = ByteBuffer.allocate(0);
+        clear();
+    }
+
+    /**
+     * Removes all recorded ticks.
+     */
+    public void clear() {
+        keyframes.clear();
+        firstHeapTick = 0;
+        deltaLength = 0;
+        tickStart[0] = 0;
+        tickCount = 0;
+        firstTick = 0;
+        stateSize = 0;
+        cursorTick = -1;
+
+        truncateSpill(0);
+        spillFailed = false;
+    }
+
+    /**
+     * Appends the world state after a game update.
+     * If the snapshot has a different layout from the previous one (for example
+     * after a level change) the timeline starts over from this tick.
+     *
+     * @param snapshot The world state
+     */
+    public void record(WorldSnapshot snapshot) {
+        int size = snapshot.size();
+        if (tickCount > 0 && size != stateSize) {
+            System.out.println("RewindTimeline: World state layout changed, starting a new timeline");
+            clear();
+        }
+
+        if (tickCount == 0) {
+            stateSize = size;
+            if (lastValues.length < size) {
+                lastValues = new int[size];
+                cursorValues = new int[size];
+            }
+            for (int i = 0; i < size; i++) {
+                lastValues[i] = snapshot.getInt(i);
+            }
+        } else {
+            // Store the values that changed since the previous tick
+            for (int i = 0; i < size; i++) {
+                int value = snapshot.getInt(i);
+                if (value != lastValues[i]) {
+                    if (deltaLength + 2 > deltaData.length) {
+                        deltaData = Arrays.copyOf(deltaData, deltaData.length * 2);
+                    }
+                    deltaData[deltaLength++] = i;
+                    deltaData[deltaLength++] = value;
+                    lastValues[i] = value;
+                }
+            }
+        }
+
+        if (tickCount % keyframeInterval == 0) {
+            keyframes.add(Arrays.copyOf(lastValues, size));
+        }
+
+        int heapTicks = tickCount - firstHeapTick;
+        if (heapTicks + 2 > tickStart.length) {
+            tickStart = Arrays.copyOf(tickStart, tickStart.length * 2);
+        }
+        tickCount++;
+        tickStart[heapTicks + 1] = deltaLength;
+
+        // A new segment has started; move the oldest complete one off the heap if over the limit
+        if (keyframes.size() > maxHeapSegments) {
+            spillOldestSegment();
+        }
+    }
+
+    /**
+     * Reconstructs the world state at a tick.
+     *
+     * @param tick The tick, from {@link #getFirstTick()} to {@link #getTickCount()} - 1
+     * @param snapshot The snapshot to write the state into
+     */
+    public void seek(int tick, WorldSnapshot snapshot) {
+        if (tick < firstTick || tick >= tickCount) {
+            throw new IndexOutOfBoundsException("Tick " + tick + " outside timeline of ticks " +
+                    firstTick + " to " + (tickCount - 1));
+        }
+
+        moveCursor(tick);
+        snapshot.setValues(cursorValues, stateSize);
+    }
+
+    /**
+     * Discards every tick after the given one, so recording continues from it.
+     *
+     * @param tick The last tick to keep
+     */
+    public void truncate(int tick) {
+        if (tick < firstTick) {
+            clear();
+            return;
+        }
+        if (tick >= tickCount - 1) {
+            return;
+        }
+
+        moveCursor(tick);
+        System.arraycopy(cursorValues, 0, lastValues, 0, stateSize);
+
+        int segment = tick / keyframeInterval;
+        if (tick < firstHeapTick) {
+            // Bring the segment holding the tick back onto the heap, replacing
+            // the heap segments and every spilled segment after it
+            pageIn(segment);
+            int[] keyframe = new int[stateSize];
+            pagedData.get(0, keyframe);
+
+            keyframes.clear();
+            keyframes.add(keyframe);
+            firstHeapTick = segment * keyframeInterval;
+
+            int heapTicks = tick - firstHeapTick + 1;
+            for (int i = 0; i <= heapTicks; i++) {
+                tickStart[i] = pagedData.get(stateSize + i);
+            }
+            deltaLength = tickStart[heapTicks];
+            if (deltaData.length < deltaLength) {
+                deltaData = Arrays.copyOf(deltaData, deltaLength);
+            }
+            pagedData.get(stateSize + keyframeInterval + 1, deltaData, 0, deltaLength);
+
+            truncateSpill(segment);
+        } else {
+            deltaLength = tickStart[tick - firstHeapTick + 1];
+            int keyframeCount = segment - firstHeapTick / keyframeInterval + 1;
+            while (keyframes.size() > keyframeCount) {
+                keyframes.remove(keyframes.size() - 1);
+            }
+        }
+        tickCount = tick + 1;
+    }
+
+    /**
+     * Moves the cursor to a tick, starting from the nearest keyframe unless
+     * the cursor is already between that keyframe and the tick.
+     */
+    private void moveCursor(int tick) {
+        int segment = tick / keyframeInterval;
+        int keyframeTick = segment * keyframeInterval;
+        boolean spilled = tick < firstHeapTick;
+        if (spilled) {
+            pageIn(segment);
+        }
+
+        if (cursorTick < keyframeTick || cursorTick > tick) {
+            if (spilled) {
+                pagedData.get(0, cursorValues, 0, stateSize);
+            } else {
+                System.arraycopy(keyframes.get(segment - firstHeapTick / keyframeInterval), 0,
+                        cursorValues, 0, stateSize);
+            }
+            cursorTick = keyframeTick;
+        }
+
+        if (spilled) {
+            int deltaBase = stateSize + keyframeInterval + 1;
+            for (int t = cursorTick + 1; t <= tick; t++) {
+                int start = pagedData.get(stateSize + t - keyframeTick);
+                int end = pagedData.get(stateSize + t - keyframeTick + 1);
+                for (int i = start; i < end; i += 2) {
+                    cursorValues[pagedData.get(deltaBase + i)] = pagedData.get(deltaBase + i + 1);
+                }
+            }
+        } else {
+            for (int t = cursorTick + 1; t <= tick; t++) {
+                int heapTick = t - firstHeapTick;
+                for (int i = tickStart[heapTick]; i < tickStart[heapTick + 1]; i += 2) {
+                    cursorValues[deltaData[i]] = deltaData[i + 1];
+                }
+            }
+        }
+        cursorTick = tick;
+    }
+
+    /**
+     * Moves the oldest heap segment to the spill file, or drops it if the file can't be written.
+     */
+    private void spillOldestSegment() {
+        int end = tickStart[keyframeInterval];
+        if (!spillFailed) {
+            try {
+                writeSegment(keyframes.get(0), end);
+            } catch (IOException e) {
+                System.err.println("RewindTimeline: Error writing spill file, discarding old history: " + e.getMessage());
+                truncateSpill(0);
+                spillFailed = true;
+            }
+        }
+
+        // Shift the remaining heap segments down
+        System.arraycopy(deltaData, end, deltaData, 0, deltaLength - end);
+        deltaLength -= end;
+        int heapTicks = tickCount - firstHeapTick;
+        for (int i = 0; i <= heapTicks - keyframeInterval; i++) {
+            tickStart[i] = tickStart[i + keyframeInterval] - end;
+        }
+        keyframes.remove(0);
+        firstHeapTick += keyframeInterval;
+
+        if (spillFailed) {
+            firstTick = firstHeapTick;
+        }
+    }
+
+    /**
+     * Appends the oldest heap segment to the spill file.
+     */
+    private void writeSegment(int[] keyframe, int deltaEnd) throws IOException {
+        if (spillChannel == null) {
+            spillPath = Files.createTempFile("timeline", ".spill");
+            spillPath.toFile().deleteOnExit();
+            spillChannel = FileChannel.open(spillPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        int byteSize = (stateSize + keyframeInterval + 1 + deltaEnd) * 4;
+        if (spillBuffer.capacity() < byteSize) {
+            spillBuffer = ByteBuffer.allocate(byteSize).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        spillBuffer.clear();
+        IntBuffer ints = spillBuffer.asIntBuffer();
+        ints.put(keyframe, 0, stateSize);
+        ints.put(tickStart, 0, keyframeInterval + 1);
+        ints.put(deltaData, 0, deltaEnd);
+        spillBuffer.limit(byteSize);
+
+        long offset = spillOffsets[spilledSegments];
+        while (spillBuffer.hasRemaining()) {
+            offset += spillChannel.write(spillBuffer, offset);
+        }
+
+        spilledSegments++;
+        if (spilledSegments + 1 > spillOffsets.length) {
+            spillOffsets = Arrays.copyOf(spillOffsets, spillOffsets.length * 2);
+        }
+        spillOffsets[spilledSegments] = offset;
+    }
+
+    /**
+     * Maps a spilled segment in for reading.
+     */
+    private void pageIn(int segment) {
+        if (pagedSegment == segment) {
+            return;
+        }
+
+        try {
+            long offset = spillOffsets[segment];
+            long length = spillOffsets[segment + 1] - offset;
+            pagedData = spillChannel.map(FileChannel.MapMode.READ_ONLY, offset, length)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            pagedSegment = segment;
+        } catch (IOException e) {
+            throw new IllegalStateException("Error reading spilled timeline segment " + segment, e);
+        }
+    }
+
+    /**
+     * Discards spilled segments from the given one onwards.
+     */
+    private void truncateSpill(int segment) {
+        pagedSegment = -1;
+        pagedData = null;
+        if (spillChannel == null) {
+            spilledSegments = 0;
+            spillOffsets[0] = 0;
+            return;
+        }
+
+        try {
+            spillChannel.truncate(spillOffsets[segment]);
+        } catch (IOException e) {
+            System.err.println("RewindTimeline: Error truncating spill file: " + e.getMessage());
+        }
+        spilledSegments = segment;
+    }
+
+    /**
+     * Gets the number of recorded ticks.
+     *
+     * @return The tick count
+     */
+    public int getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Gets the earliest tick that can be seeked to. This is 0 unless older
+     * history had to be discarded because the spill file couldn't be written.
+     *
+     * @return The first available tick
+     */
+    public int getFirstTick() {
+        return firstTick;
+    }
+
+    /**
+     * Gets the number of ticks between keyframes.
+     *
+     * @return The keyframe interval
+     */
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * Gets the number of segments currently in the spill file.
+     *
+     * @return The spilled segment count
+     */
+    public int getSpilledSegmentCount() {
+        return spilledSegments;
+    }
+}
@@ -9,19 +9,24 @@ import java.awt.geom.Rectangle2D;
 /**
  * Manages the game timer.
  * Displays and updates a countdown timer on screen.
+ * Counts simulated time from the game's {@link GameClock}, so the timer stays in step
+ * with the game even when updates are delayed.
  */
 public class TimerManager {
     private int time; // Time in seconds
     private int maxTime; // Maximum time
     private boolean running; // Whether the timer is running
     private long lastUpdateTime; // Time of last update in milliseconds
+    private final GameClock clock; // Clock of the game being timed
     
     /**
      * Creates a new timer with the specified maximum time.
      * 
      * @param maxTime The maximum time in seconds
+     * @param clock The clock of the game being timed
      */
-    public TimerManager(int maxTime) {
+    public TimerManager(int maxTime, GameClock clock) {
+        this.clock = clock;
         this.maxTime = maxTime;
         this.time = maxTime;
         this.running = false;
@@ -33,7 +38,7 @@ public class TimerManager {
      */
     public void start() {
         running = true;
-        lastUpdateTime = System.currentTimeMillis();
+        lastUpdateTime = clock.millis();
     }
     
     /**
@@ -48,7 +53,7 @@ public class TimerManager {
      */
     public void reset() {
         time = maxTime;
-        lastUpdateTime = System.currentTimeMillis();
+        lastUpdateTime = clock.millis();
     }
     
     /**
@@ -59,7 +64,7 @@ public class TimerManager {
             return;
         }
         
-        long currentTime = System.currentTimeMillis();
+        long currentTime = clock.millis();
         long elapsed = currentTime - lastUpdateTime;
         
         // Decrease timer by 1 second if 1000ms has passed
@@ -152,6 +157,28 @@ public class TimerManager {
         this.maxTime = maxTime;
     }
     
+    /**
+     * Writes the timer state to a snapshot.
+     * 
+     * @param snapshot The snapshot to write to
+     */
+    public void saveState(WorldSnapshot snapshot) {
+        snapshot.writeInt(time);
+        snapshot.writeBoolean(running);
+        snapshot.writeLong(lastUpdateTime);
+    }
+    
+    /**
+     * Restores the timer state written by {@link #saveState(WorldSnapshot)}.
+     * 
+     * @param snapshot The snapshot to read from
+     */
+    public void loadState(WorldSnapshot snapshot) {
+        time = snapshot.readInt();
+        running = snapshot.readBoolean();
+        lastUpdateTime = snapshot.readLong();
+    }
+    
     /**
      * Checks if the timer is running.
      * 
@@ -0,0 +1,269 @@
+package com.niravramdhanie.twod.game.utils;
+
+/**
+ * Schedules callbacks to run on a later game tick.
+ * Timers are kept in a hierarchical timing wheel: four levels of 64 slots, where
+ * each level covers 64 times the span of the one below. A timer goes into the
+ * slot its deadline falls in and moves down a level each time the wheel reaches
+ * that slot, so scheduling and cancelling are constant time and advancing a tick
+ * only looks at the timers due soon, however many are waiting.
+ * Deadlines are in {@link GameClock} ticks, so timers behave the same when a game is replayed.
+ */
+public class TimerWheel {
+    /**
+     * Interface for objects that are called back when a timer expires.
+     */
+    public interface Callback {
+        /**
+         * Called on the tick the timer is due.
+         *
+         * @param timer The expired timer
+         */
+        void onTimer(Timer timer);
+    }
+
+    /**
+     * A timer that can be scheduled on a wheel, cancelled and scheduled again.
+     * Holds its own links in the wheel's slot lists, so scheduling doesn't allocate.
+     */
+    public static final class Timer {
+        private final Callback callback;
+        private TimerWheel wheel;
+        private long deadline;
+        private int slot = -1;
+        private Timer prev;
+        private Timer next;
+
+        /**
+         * Creates a timer.
+         *
+         * @param callback The callback to run when the timer expires
+         */
+        public Timer(Callback callback) {
+            this.callback = callback;
+        }
+
+        /**
+         * Checks if the timer is waiting to expire.
+         *
+         * @return True if scheduled, false otherwise
+         */
+        public boolean isScheduled() {
+            return wheel != null;
+        }
+
+        /**
+         * Gets the tick the timer is due on.
+         *
+         * @return The deadline tick, meaningful only while scheduled
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Cancels the timer if it's scheduled.
+         */
+        public void cancel() {
+            if (wheel != null) {
+                wheel.cancel(this);
+            }
+        }
+    }
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    // Deadlines further away than this are parked in the top level until they come into range
+    private static final long MAX_SPAN = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    // The first timer in each slot, level by level
+    private final Timer[] slots;
+    private long currentTick;
+    private int scheduledCount;
+
+    /**
+     * Creates a timer wheel.
+     *
+     * @param currentTick The tick the wheel starts at
+     */
+    public TimerWheel(long currentTick) {
+        this.slots = new Timer[LEVELS * SLOTS];
+        this.currentTick = currentTick;
+    }
+
+    /**
+     * Schedules a timer to expire after a number of ticks, replacing any earlier schedule.
+     *
+     * @param timer The timer
+     * @param delayTicks The number of ticks from now; anything below 1 means the next tick
+     */
+    public void schedule(Timer timer, long delayTicks) {
+        scheduleAt(timer, currentTick + delayTicks);
+    }
+
+    /**
+     * Schedules a timer to expire on a tick, replacing any earlier schedule.
+     * A deadline that has already passed expires on the next tick.
+     *
+     * @param timer The timer
+     * @param deadline The tick to expire on
+     */
+    public void scheduleAt(Timer timer, long deadline) {
+        timer.cancel();
+        timer.deadline = Math.max(deadline, currentTick + 1);
+        timer.wheel = this;
+        scheduledCount++;
+        place(timer);
+    }
+
+    /**
+     * Cancels a timer scheduled on this wheel.
+     *
+     * @param timer The timer
+     */
+    public void cancel(Timer timer) {
+        if (timer.wheel != this) {
+            return;
+        }
+        unlink(timer);
+        timer.wheel = null;
+        scheduledCount--;
+    }
+
+    /**
+     * Advances the wheel to a tick, running the callbacks of timers due on each tick on the way.
+     * Does nothing if the tick isn't ahead of the wheel; use {@link #reset(long)} to move back.
+     *
+     * @param tick The tick to advance to
+     */
+    public void advanceTo(long tick) {
+        while (currentTick < tick) {
+            currentTick++;
+
+            // Move timers down from the higher levels whose slot the wheel has reached,
+            // top level first so timers can fall more than one level in the same tick
+            for (int level = LEVELS - 1; level > 0; level--) {
+                int shift = SLOT_BITS * level;
+                if ((currentTick & ((1L << shift) - 1)) == 0) {
+                    cascade(level * SLOTS + (int) ((currentTick >>> shift) & SLOT_MASK));
+                }
+            }
+
+            // Every timer left in this tick's slot is due now
+            int slot = (int) (currentTick & SLOT_MASK);
+            Timer timer;
+            while ((timer = slots[slot]) != null) {
+                unlink(timer);
+                timer.wheel = null;
+                scheduledCount--;
+                timer.callback.onTimer(timer);
+            }
+        }
+    }
+
+    /**
+     * Cancels every timer and moves the wheel to a tick, used when the game state
+     * is restored and its timed objects reschedule themselves from the snapshot.
+     *
+     * @param tick The tick to move to
+     */
+    public void reset(long tick) {
+        clear();
+        currentTick = tick;
+    }
+
+    /**
+     * Cancels every timer.
+     */
+    public void clear() {
+        for (int i = 0; i < slots.length; i++) {
+            Timer timer = slots[i];
+            while (timer != null) {
+                Timer next = timer.next;
+                timer.prev = null;
+                timer.next = null;
+                timer.slot = -1;
+                timer.wheel = null;
+                timer = next;
+            }
+            slots[i] = null;
+        }
+        scheduledCount = 0;
+    }
+
+    /**
+     * Gets the tick the wheel has advanced to.
+     *
+     * @return The current tick
+     */
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Gets the number of timers waiting to expire.
+     *
+     * @return The scheduled timer count
+     */
+    public int getScheduledCount() {
+        return scheduledCount;
+    }
+
+    /**
+     * Re-places every timer in a higher level slot now that the wheel has reached it.
+     */
+    private void cascade(int slot) {
+        Timer timer;
+        while ((timer = slots[slot]) != null) {
+            unlink(timer);
+            place(timer);
+        }
+    }
+
+    /**
+     * Links a timer into the slot for its deadline, choosing the level by how far away it is.
+     */
+    private void place(Timer timer) {
+        long delta = timer.deadline - currentTick;
+        long position = timer.deadline;
+        if (delta > MAX_SPAN) {
+            position = currentTick + MAX_SPAN;
+            delta = MAX_SPAN;
+        }
+
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+
+        int slot = level * SLOTS + (int) ((position >>> (SLOT_BITS * level)) & SLOT_MASK);
+        Timer head = slots[slot];
+        timer.slot = slot;
+        timer.prev = null;
+        timer.next = head;
+        if (head != null) {
+            head.prev = timer;
+        }
+        slots[slot] = timer;
+    }
+
+    /**
+     * Removes a timer from its slot list.
+     */
+    private void unlink(Timer timer) {
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            slots[timer.slot] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+        timer.slot = -1;
+    }
+}
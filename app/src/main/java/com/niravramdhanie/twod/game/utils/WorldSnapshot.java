@@ -0,0 +1,140 @@
+package com.niravramdhanie.twod.game.utils;
+
+import java.util.Arrays;
+
+/**
+ * A flat buffer holding a copy of the game's simulation state.
+ * Entities, actions and managers write their fields in a fixed order with
+ * {@code saveState} and read them back in the same order with {@code loadState}.
+ * Values are stored as raw ints, so two snapshots of identical state are
+ * identical bit for bit and can be compared with {@link #hash()}.
+ */
+public class WorldSnapshot {
+    private int[] data;
+    private int size;
+    private int readPosition;
+
+    /**
+     * Creates an empty snapshot.
+     */
+    public WorldSnapshot() {
+        this.data = new int[256];
+        this.size = 0;
+        this.readPosition = 0;
+    }
+
+    /**
+     * Clears the snapshot so it can be written again.
+     */
+    public void clear() {
+        size = 0;
+        readPosition = 0;
+    }
+
+    /**
+     * Moves the read position back to the start of the snapshot.
+     */
+    public void rewind() {
+        readPosition = 0;
+    }
+
+    public void writeInt(int value) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        data[size++] = value;
+    }
+
+    public void writeFloat(float value) {
+        writeInt(Float.floatToRawIntBits(value));
+    }
+
+    public void writeBoolean(boolean value) {
+        writeInt(value ? 1 : 0);
+    }
+
+    public void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    public int readInt() {
+        if (readPosition >= size) {
+            throw new IllegalStateException("Read past end of snapshot (" + size + " values)");
+        }
+        return data[readPosition++];
+    }
+
+    public float readFloat() {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public boolean readBoolean() {
+        return readInt() != 0;
+    }
+
+    public long readLong() {
+        long high = readInt();
+        long low = readInt() & 0xFFFFFFFFL;
+        return (high << 32) | low;
+    }
+
+    /**
+     * Gets a value by its position in the snapshot, without moving the read position.
+     * 
+     * @param index The value index
+     * @return The raw value
+     */
+    public int getInt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " outside snapshot of " + size + " values");
+        }
+        return data[index];
+    }
+
+    /**
+     * Replaces the snapshot contents with raw values and rewinds it for reading.
+     * 
+     * @param values The values to copy
+     * @param length The number of values to copy
+     */
+    public void setValues(int[] values, int length) {
+        if (data.length < length) {
+            data = Arrays.copyOf(data, length);
+        }
+        System.arraycopy(values, 0, data, 0, length);
+        size = length;
+        readPosition = 0;
+    }
+
+    /**
+     * Copies the snapshot contents out as raw values.
+     * 
+     * @param values The array to copy to; must hold at least {@link #size()} values
+     */
+    public void getValues(int[] values) {
+        System.arraycopy(data, 0, values, 0, size);
+    }
+
+    /**
+     * Gets the number of values written to the snapshot.
+     *
+     * @return The snapshot size in ints
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Computes a hash of the snapshot contents.
+     *
+     * @return The hash
+     */
+    public int hash() {
+        int hash = 1;
+        for (int i = 0; i < size; i++) {
+            hash = 31 * hash + data[i];
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,229 @@
+package com.niravramdhanie.twod.game.actions;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.niravramdhanie.twod.game.entity.Button;
+import com.niravramdhanie.twod.game.utils.GameClock;
+import com.niravramdhanie.twod.game.utils.TimerWheel;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
+public class ActionProgramTest {
+    private final ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    private PrintStream console;
+
+    @Before
+    public void capturePrints() {
+        console = System.out;
+        System.setOut(new PrintStream(printed, true));
+    }
+
+    @After
+    public void restorePrints() {
+        System.setOut(console);
+    }
+
+    private List<String> takePrinted() {
+        List<String> lines = new ArrayList<>();
+        for (String line : printed.toString().split("\\R")) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        printed.reset();
+        return lines;
+    }
+
+    @Test
+    public void noActionCompilesToNoProgram() {
+        assertNull(ActionProgram.compile(null, null));
+    }
+
+    @Test
+    public void printAndMessageRunInOrder() {
+        MessageAction cycling = new MessageAction(true, "one", "two");
+        ActionProgram program = ActionProgram.compile(new MultiAction(new PrintAction("start"), cycling), null);
+
+        program.execute();
+        program.execute();
+        program.execute();
+        assertEquals(List.of("start", "one", "start", "two", "start", "one"), takePrinted());
+        assertEquals(1, program.getStateSize());
+        assertFalse(program.isRepeatable());
+        assertTrue(ActionProgram.compile(cycling, null).isRepeatable());
+    }
+
+    @Test
+    public void sharedActionSharesItsState() {
+        MessageAction cycling = new MessageAction(true, "a", "b", "c");
+        ActionProgram program = ActionProgram.compile(new MultiAction(cycling, cycling), null);
+
+        program.execute();
+        assertEquals(List.of("a", "b"), takePrinted());
+        assertEquals(1, program.getStateSize());
+    }
+
+    @Test
+    public void toggleAlternatesBranches() {
+        ActionProgram program = ActionProgram.compile(new ToggleAction(new PrintAction("off"), new PrintAction("on")),
+                                                      null);
+        assertTrue(program.isRepeatable());
+        assertFalse(program.isToggled());
+
+        program.execute();
+        assertTrue(program.isToggled());
+        program.execute();
+        assertFalse(program.isToggled());
+        assertEquals(List.of("on", "off"), takePrinted());
+
+        assertTrue(program.setToggled(true));
+        assertTrue(program.isToggled());
+        assertTrue(takePrinted().isEmpty());
+    }
+
+    @Test
+    public void doorIsAskedToMoveOnlyWhenItsStateChanges() {
+        List<Boolean> requests = new ArrayList<>();
+        DoorAction door = new DoorAction("door");
+        door.setDoorStateChangeListener((handle, open) -> requests.add(open));
+        ActionProgram program = ActionProgram.compile(new ToggleAction(door), null);
+
+        program.execute();
+        program.execute();
+        assertEquals(List.of(true, false), requests);
+
+        requests.clear();
+        program.setDoorsOpen(true);
+        program.setDoorsOpen(true);
+        assertEquals(List.of(true), requests);
+
+        // Toggling the root toggle moves the door it opens
+        requests.clear();
+        program.setToggled(false);
+        assertEquals(List.of(false), requests);
+    }
+
+    @Test
+    public void timerExpiresOnTheWheelAndDeactivatesTheButton() {
+        GameClock clock = new GameClock();
+        TimerWheel wheel = new TimerWheel(clock.getTicks());
+        TimedAction timed = new TimedAction(new PrintAction("go"), 1000, clock);
+        timed.setTimerWheel(wheel);
+        timed.setDeactivateAction(new PrintAction("end"));
+        Button button = new Button(0, 0, 32, 32);
+        button.setAction(timed);
+        ActionProgram program = button.getProgram();
+
+        button.activate();
+        assertTrue(program.isTimerActive());
+        assertTrue(takePrinted().contains("go"));
+
+        advance(clock, wheel, GameClock.TICKS_PER_SECOND / 2);
+        assertEquals(0.5f, program.getTimeRemainingFraction(), 0.001f);
+        advance(clock, wheel, GameClock.TICKS_PER_SECOND / 2 - 1);
+        assertTrue(program.isTimerActive());
+        assertTrue(button.isActivated());
+
+        advance(clock, wheel, 1);
+        assertFalse(program.isTimerActive());
+        assertFalse(button.isActivated());
+        assertEquals(List.of("end"), takePrinted());
+    }
+
+    @Test
+    public void timerWithoutAWheelExpiresWhenPolled() {
+        GameClock clock = new GameClock();
+        TimedAction timed = new TimedAction(new PrintAction("go"), 500, clock);
+        ActionProgram program = ActionProgram.compile(timed, null);
+
+        program.execute();
+        for (int i = 0; i < GameClock.TICKS_PER_SECOND / 2 - 1; i++) {
+            clock.tick();
+            program.update();
+        }
+        assertTrue(program.isTimerActive());
+        clock.tick();
+        program.update();
+        assertFalse(program.isTimerActive());
+    }
+
+    @Test
+    public void otherActionsAreCalledDirectly() {
+        int[] calls = new int[1];
+        Action custom = new Action() {
+            @Override
+            public void execute() {
+                calls[0]++;
+            }
+
+            @Override
+            public String getDescription() {
+                return "custom";
+            }
+
+            @Override
+            public void saveState(WorldSnapshot snapshot) {
+                snapshot.writeInt(calls[0]);
+            }
+
+            @Override
+            public void loadState(WorldSnapshot snapshot) {
+                calls[0] = snapshot.readInt();
+            }
+        };
+        ActionProgram program = ActionProgram.compile(new MultiAction(custom, custom), null);
+
+        program.execute();
+        assertEquals(2, calls[0]);
+
+        WorldSnapshot snapshot = new WorldSnapshot();
+        program.saveState(snapshot);
+        program.execute();
+        snapshot.rewind();
+        program.loadState(snapshot);
+        assertEquals(2, calls[0]);
+    }
+
+    @Test
+    public void loadedStateMatchesSavedState() {
+        GameClock clock = new GameClock();
+        TimerWheel wheel = new TimerWheel(clock.getTicks());
+        TimedAction timed = new TimedAction(new MessageAction(true, "x", "y", "z"), 2000, clock);
+        timed.setTimerWheel(wheel);
+        ToggleAction toggle = new ToggleAction(new PrintAction("off"), new DoorAction("door"));
+        ActionProgram program = ActionProgram.compile(new MultiAction(toggle, timed), null);
+
+        program.execute();
+        advance(clock, wheel, 10);
+        long[] saved = program.copyState();
+        WorldSnapshot snapshot = new WorldSnapshot();
+        program.saveState(snapshot);
+
+        advance(clock, wheel, 200);
+        program.execute();
+        assertFalse(java.util.Arrays.equals(saved, program.copyState()));
+
+        snapshot.rewind();
+        program.loadState(snapshot);
+        assertArrayEquals(saved, program.copyState());
+    }
+
+    private static void advance(GameClock clock, TimerWheel wheel, int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            clock.tick();
+            wheel.advanceTo(clock.getTicks());
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.niravramdhanie.twod.game.actions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.niravramdhanie.twod.game.utils.EventBus;
+import com.niravramdhanie.twod.game.utils.TimerWheel;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
+public class LogicGraphTest {
+    @Test
+    public void gatesFollowTheirInputs() {
+        LogicGraph graph = new LogicGraph(null);
+        int a = graph.addInput("a");
+        int b = graph.addInput("b");
+        int and = graph.addGate(LogicGraph.NodeType.AND, "and", a, b);
+        int or = graph.addGate(LogicGraph.NodeType.OR, "or", a, b);
+        int xor = graph.addGate(LogicGraph.NodeType.XOR, "xor", a, b);
+        int not = graph.addGate(LogicGraph.NodeType.NOT, "not", a);
+
+        // Compiling settles the gates for inputs that are all off
+        assertFalse(graph.getValue(and));
+        assertFalse(graph.getValue(or));
+        assertFalse(graph.getValue(xor));
+        assertTrue(graph.getValue(not));
+
+        graph.setInput(a, true);
+        assertFalse(graph.getValue(and));
+        assertTrue(graph.getValue(or));
+        assertTrue(graph.getValue(xor));
+        assertFalse(graph.getValue(not));
+
+        graph.setInput(b, true);
+        assertTrue(graph.getValue(and));
+        assertTrue(graph.getValue(or));
+        assertFalse(graph.getValue(xor));
+    }
+
+    @Test
+    public void dirtyEvaluationMatchesEvaluatingEveryNode() {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 20; trial++) {
+            LogicGraph graph = new LogicGraph(null);
+            int inputCount = 1 + random.nextInt(8);
+            int nodeCount = inputCount + 1 + random.nextInt(150);
+            LogicGraph.NodeType[] types = new LogicGraph.NodeType[nodeCount];
+            int[][] inputs = new int[nodeCount][];
+            for (int node = 0; node < nodeCount; node++) {
+                if (node < inputCount) {
+                    types[node] = LogicGraph.NodeType.INPUT;
+                    inputs[node] = new int[0];
+                    graph.addInput("in" + node);
+                    continue;
+                }
+                switch (random.nextInt(5)) {
+                    case 0: types[node] = LogicGraph.NodeType.AND; break;
+                    case 1: types[node] = LogicGraph.NodeType.OR; break;
+                    case 2: types[node] = LogicGraph.NodeType.XOR; break;
+                    case 3: types[node] = LogicGraph.NodeType.NOT; break;
+                    default: types[node] = LogicGraph.NodeType.LATCH; break;
+                }
+                int count = types[node] == LogicGraph.NodeType.LATCH ? 2 : 1 + random.nextInt(Math.min(node, 70));
+                inputs[node] = new int[Math.min(count, LogicGraph.MAX_GATE_INPUTS)];
+                for (int i = 0; i < inputs[node].length; i++) {
+                    inputs[node][i] = random.nextInt(node);
+                }
+                if (types[node] == LogicGraph.NodeType.LATCH) {
+                    graph.addLatch("n" + node, inputs[node][0], inputs[node][1]);
+                } else {
+                    graph.addGate(types[node], "n" + node, inputs[node]);
+                }
+            }
+
+            boolean[] expected = new boolean[nodeCount];
+            evaluateAll(types, inputs, expected);
+            for (int step = 0; step < 200; step++) {
+                int input = random.nextInt(inputCount);
+                boolean value = random.nextBoolean();
+                graph.setInput(input, value);
+                expected[input] = value;
+                evaluateAll(types, inputs, expected);
+                for (int node = 0; node < nodeCount; node++) {
+                    assertEquals("trial " + trial + " step " + step + " node " + node,
+                                 expected[node], graph.getValue(node));
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluates every gate from scratch in node order; latches keep their last value.
+     */
+    private static void evaluateAll(LogicGraph.NodeType[] types, int[][] inputs, boolean[] values) {
+        for (int node = 0; node < types.length; node++) {
+            int on = 0;
+            for (int input : inputs[node]) {
+                if (values[input]) {
+                    on++;
+                }
+            }
+            switch (types[node]) {
+                case AND: values[node] = on == inputs[node].length; break;
+                case OR: values[node] = on > 0; break;
+                case XOR: values[node] = (on & 1) != 0; break;
+                case NOT: values[node] = on == 0; break;
+                case LATCH:
+                    // The same node as both set and reset counts once in the gate's mask
+                    boolean set = values[inputs[node][0]];
+                    boolean reset = values[inputs[node][1]];
+                    values[node] = !reset && (set || values[node]);
+                    break;
+                default: break;
+            }
+        }
+    }
+
+    @Test
+    public void outputsAreReportedOnceTheGraphHasSettled() {
+        LogicGraph graph = new LogicGraph(null);
+        int a = graph.addInput("a");
+        int b = graph.addInput("b");
+        int and = graph.addGate(LogicGraph.NodeType.AND, "and", a, b);
+        int xor = graph.addGate(LogicGraph.NodeType.XOR, "xor", a, b);
+        graph.addOutput(and);
+        graph.addOutput(xor);
+        List<String> reports = new ArrayList<>();
+        graph.setOutputListener((node, value) ->
+            reports.add(graph.getName(node) + "=" + value + " and=" + graph.getValue(and) + " xor=" + graph.getValue(xor)));
+
+        graph.setInput(a, true);
+        assertEquals(List.of("xor=true and=false xor=true"), reports);
+
+        reports.clear();
+        graph.setInput(b, true);
+        assertEquals(List.of("and=true and=true xor=false", "xor=false and=true xor=false"), reports);
+
+        // Setting an input to the value it has changes nothing
+        reports.clear();
+        graph.setInput(b, true);
+        assertTrue(reports.isEmpty());
+    }
+
+    @Test
+    public void latchStaysOnUntilReset() {
+        LogicGraph graph = new LogicGraph(null);
+        int set = graph.addInput("set");
+        int reset = graph.addInput("reset");
+        int latch = graph.addLatch("latch", set, reset);
+
+        graph.setInput(set, true);
+        graph.setInput(set, false);
+        assertTrue(graph.getValue(latch));
+
+        graph.setInput(reset, true);
+        assertFalse(graph.getValue(latch));
+        graph.setInput(set, true);
+        assertFalse(graph.getValue(latch));
+    }
+
+    @Test
+    public void timerHoldsForItsDelayAfterTheInputTurnsOff() {
+        TimerWheel wheel = new TimerWheel(0);
+        LogicGraph graph = new LogicGraph(wheel);
+        int in = graph.addInput("in");
+        int timer = graph.addTimer("timer", in, 30);
+
+        graph.setInput(in, true);
+        assertTrue(graph.getValue(timer));
+        graph.setInput(in, false);
+
+        wheel.advanceTo(29);
+        assertTrue(graph.getValue(timer));
+        wheel.advanceTo(30);
+        assertFalse(graph.getValue(timer));
+    }
+
+    @Test
+    public void buttonInputsFollowButtonEvents() {
+        EventBus bus = new EventBus();
+        LogicGraph graph = new LogicGraph(null);
+        int button = graph.addButtonInput("button", 5);
+        int not = graph.addGate(LogicGraph.NodeType.NOT, "not", button);
+        graph.subscribe(bus);
+
+        bus.publish(EventBus.EventType.BUTTON_ACTIVATED, 5);
+        bus.publish(EventBus.EventType.BUTTON_ACTIVATED, 6);
+        bus.dispatch();
+        assertTrue(graph.getValue(button));
+        assertFalse(graph.getValue(not));
+
+        bus.publish(EventBus.EventType.BUTTON_DEACTIVATED, 5);
+        bus.dispatch();
+        assertFalse(graph.getValue(button));
+    }
+
+    @Test
+    public void loadedStateMatchesSavedState() {
+        TimerWheel wheel = new TimerWheel(0);
+        LogicGraph graph = new LogicGraph(wheel);
+        int a = graph.addInput("a");
+        int b = graph.addInput("b");
+        int latch = graph.addLatch("latch", a, b);
+        int timer = graph.addTimer("timer", a, 20);
+
+        graph.setInput(a, true);
+        graph.setInput(a, false);
+        wheel.advanceTo(5);
+        WorldSnapshot snapshot = new WorldSnapshot();
+        graph.saveState(snapshot);
+
+        graph.setInput(b, true);
+        wheel.advanceTo(40);
+        assertFalse(graph.getValue(latch));
+        assertFalse(graph.getValue(timer));
+
+        wheel.reset(5);
+        snapshot.rewind();
+        graph.loadState(snapshot);
+        assertTrue(graph.getValue(latch));
+        assertTrue(graph.getValue(timer));
+        assertFalse(graph.getValue(b));
+        wheel.advanceTo(19);
+        assertTrue(graph.getValue(timer));
+        wheel.advanceTo(20);
+        assertFalse(graph.getValue(timer));
+    }
+}
@@ -0,0 +1,117 @@
+package com.niravramdhanie.twod.game.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelSystemsTest {
+    private static final int ENTITY_COUNT = 20_000;
+
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void parallelTriggersMatchTheSingleThreadedPass() {
+        ComponentStore single = new ComponentStore(16);
+        ComponentStore parallel = new ComponentStore(16);
+        fill(single, parallel, new Random(7));
+
+        ParallelSystems systems = new ParallelSystems(pool);
+        boolean[] singlePressed = new boolean[ENTITY_COUNT];
+        boolean[] parallelPressed = new boolean[ENTITY_COUNT];
+        int[] loads = new int[ENTITY_COUNT];
+        int pressedCount = 0;
+        for (int tick = 0; tick < 50; tick++) {
+            EntitySystems.move(single);
+            EntitySystems.findPressedTriggers(single, singlePressed, loads);
+            EntitySystems.move(parallel);
+            systems.findPressedTriggers(parallel, parallelPressed);
+
+            for (int i = 0; i < ENTITY_COUNT; i++) {
+                assertEquals(Float.floatToRawIntBits(single.x[i]), Float.floatToRawIntBits(parallel.x[i]));
+                assertEquals(Float.floatToRawIntBits(single.y[i]), Float.floatToRawIntBits(parallel.y[i]));
+                assertEquals("slot " + i + " at tick " + tick, singlePressed[i], parallelPressed[i]);
+                if (parallelPressed[i]) {
+                    pressedCount++;
+                }
+            }
+        }
+        assertTrue(pressedCount > 0);
+    }
+
+    @Test
+    public void pressedTriggersHaveALoadOnThem() {
+        ComponentStore store = new ComponentStore(16);
+        fill(store, new ComponentStore(16), new Random(11));
+
+        boolean[] pressed = new boolean[ENTITY_COUNT];
+        new ParallelSystems(pool).findPressedTriggers(store, pressed);
+
+        int trigger = ComponentStore.ACTIVE | ComponentStore.TRIGGER;
+        int load = ComponentStore.ACTIVE | ComponentStore.LOAD;
+        for (int i = 0; i < ENTITY_COUNT; i++) {
+            boolean loaded = false;
+            if ((store.flags[i] & trigger) == trigger) {
+                float halfWidth = store.width[i] / 2;
+                float halfHeight = store.height[i] / 2;
+                float centerX = store.x[i] + halfWidth;
+                float centerY = store.y[i] + halfHeight;
+                for (int other = 0; other < ENTITY_COUNT && !loaded; other++) {
+                    loaded = (store.flags[other] & load) == load
+                             && Math.abs(centerX - (store.x[other] + store.width[other] / 2)) < halfWidth
+                             && Math.abs(centerY - (store.y[other] + store.height[other] / 2)) < halfHeight;
+                }
+            }
+            assertEquals("slot " + i, loaded, pressed[i]);
+        }
+    }
+
+    /**
+     * Fills two stores with the same random mix of movers, triggers, loads and inactive slots.
+     */
+    private static void fill(ComponentStore first, ComponentStore second, Random random) {
+        for (int i = 0; i < ENTITY_COUNT; i++) {
+            float x = random.nextFloat() * 5000;
+            float y = random.nextFloat() * 5000;
+            int size = 8 + random.nextInt(32);
+            first.add(x, y, size, size);
+            second.add(x, y, size, size);
+
+            int flags = ComponentStore.ACTIVE;
+            switch (random.nextInt(4)) {
+                case 0:
+                    flags |= ComponentStore.MOVING;
+                    break;
+                case 1:
+                    flags |= ComponentStore.TRIGGER;
+                    break;
+                case 2:
+                    flags |= ComponentStore.LOAD | ComponentStore.MOVING;
+                    break;
+                default:
+                    break;
+            }
+            if (random.nextInt(10) == 0) {
+                flags = 0;
+            }
+            first.flags[i] = second.flags[i] = flags;
+            first.velX[i] = second.velX[i] = random.nextFloat() * 3 - 1.5f;
+            first.velY[i] = second.velY[i] = random.nextFloat() * 3 - 1.5f;
+        }
+    }
+}
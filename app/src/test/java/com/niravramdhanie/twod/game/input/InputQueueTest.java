@@ -0,0 +1,108 @@
+package com.niravramdhanie.twod.game.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class InputQueueTest {
+    @Test
+    public void drainHandsOverEventsOldestFirst() {
+        InputQueue queue = new InputQueue();
+        queue.addKey(InputQueue.KEY_PRESSED, 65);
+        queue.addMouse(InputQueue.MOUSE_MOVED, 10, 20);
+        queue.addKey(InputQueue.KEY_RELEASED, 65);
+
+        List<String> events = new ArrayList<>();
+        int drained = queue.drain((type, code, x, y, time) -> events.add(type + ":" + code + ":" + x + ":" + y));
+        assertEquals(3, drained);
+        assertEquals(List.of(InputQueue.KEY_PRESSED + ":65:0:0", InputQueue.MOUSE_MOVED + ":0:10:20",
+                             InputQueue.KEY_RELEASED + ":65:0:0"), events);
+
+        assertEquals(0, queue.drain((type, code, x, y, time) -> events.add("again")));
+        assertEquals(3, events.size());
+    }
+
+    @Test
+    public void eventsCarryTheTimeTheyWereQueued() {
+        InputQueue queue = new InputQueue();
+        long before = System.nanoTime();
+        queue.addKey(InputQueue.KEY_PRESSED, 65);
+        queue.addKey(InputQueue.KEY_RELEASED, 65);
+        long after = System.nanoTime();
+
+        List<Long> times = new ArrayList<>();
+        queue.drain((type, code, x, y, time) -> times.add(time));
+        assertEquals(2, times.size());
+        assertTrue(times.get(0) >= before);
+        assertTrue(times.get(0) <= times.get(1));
+        assertTrue(times.get(1) <= after);
+    }
+
+    @Test
+    public void fullQueueDropsNewEventsAndCountsThem() {
+        InputQueue queue = new InputQueue(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.addKey(InputQueue.KEY_PRESSED, i));
+        }
+        assertFalse(queue.addKey(InputQueue.KEY_PRESSED, 4));
+        assertEquals(1, queue.getDroppedCount());
+
+        List<Integer> codes = new ArrayList<>();
+        queue.drain((type, code, x, y, time) -> codes.add(code));
+        assertEquals(List.of(0, 1, 2, 3), codes);
+        assertTrue(queue.addKey(InputQueue.KEY_PRESSED, 5));
+    }
+
+    @Test
+    public void slotsAreReusedAfterEachDrain() {
+        InputQueue queue = new InputQueue(8);
+        List<Integer> codes = new ArrayList<>();
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(queue.addKey(InputQueue.KEY_PRESSED, round * 5 + i));
+            }
+            queue.drain((type, code, x, y, time) -> codes.add(code));
+        }
+        assertEquals(50, codes.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, (int) codes.get(i));
+        }
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void eventsFromAnotherThreadAllArrive() throws InterruptedException {
+        InputQueue queue = new InputQueue(64);
+        int total = 20_000;
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < total && System.nanoTime() < deadline; i++) {
+                while (!queue.addKey(InputQueue.KEY_PRESSED, i) && System.nanoTime() < deadline) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+
+        int[] next = new int[1];
+        List<Integer> outOfOrder = new ArrayList<>();
+        while (next[0] < total && System.nanoTime() < deadline) {
+            if (queue.drain((type, code, x, y, time) -> {
+                if (code != next[0]) {
+                    outOfOrder.add(code);
+                }
+                next[0]++;
+            }) == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+        assertTrue(outOfOrder.isEmpty());
+        assertEquals(total, next[0]);
+    }
+}
@@ -0,0 +1,195 @@
+package com.niravramdhanie.twod.game.level;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LevelPackTest {
+    private static final String[] LEVELS = { "level1", "level2", "level3" };
+
+    private Path file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("levels", ".pack");
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void compiledLevelSurvivesWritingAndReading() throws IOException {
+        for (String name : LEVELS) {
+            LevelData level = LevelData.load(name);
+            assertNotNull(name, level);
+            byte[] written = toBytes(level);
+
+            LevelData read = LevelData.read(new ByteArrayInputStream(written));
+            assertSameLevel(name, level, read);
+            assertArrayEquals(name, written, toBytes(read));
+        }
+    }
+
+    @Test
+    public void packHoldsEveryLevelItWasGiven() throws IOException {
+        writePack();
+
+        LevelPack pack = LevelPack.open(file);
+        assertEquals(LEVELS.length, pack.getLevelCount());
+        for (int i = 0; i < LEVELS.length; i++) {
+            LevelData level = LevelData.load(LEVELS[i]);
+            LevelData packed = pack.getLevel(LEVELS[i]);
+            assertSameLevel(LEVELS[i], level, packed);
+            assertArrayEquals(LEVELS[i], toBytes(level), toBytes(packed));
+
+            // Opened levels are kept
+            assertSame(packed, pack.getLevel(LEVELS[i]));
+        }
+        assertNull(pack.getLevel("missing"));
+    }
+
+    @Test
+    public void fileThatIsNotAPackIsRejected() throws IOException {
+        Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+        try {
+            LevelPack.open(file);
+            fail("Opened a file that isn't a level pack");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("not a level pack"));
+        }
+    }
+
+    @Test
+    public void truncatedDirectoryIsRejected() throws IOException {
+        writePack();
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, 12));
+        assertTruncated();
+    }
+
+    @Test
+    public void negativeLevelLengthIsRejected() throws IOException {
+        writePack();
+        byte[] bytes = Files.readAllBytes(file);
+        // The first entry's length follows its name and offset
+        int length = 8 + 2 + LEVELS[0].length() + 4;
+        Arrays.fill(bytes, length, length + 4, (byte) 0xFF);
+        Files.write(file, bytes);
+        assertTruncated();
+    }
+
+    @Test
+    public void packOfTooManyLevelsIsNotWritten() throws IOException {
+        LevelData level = LevelData.load(LEVELS[0]);
+        List<String> names = Collections.nCopies(0x10000, LEVELS[0]);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            LevelPack.write(names, Collections.nCopies(names.size(), level), out);
+            fail("Wrote a pack whose level count doesn't fit in its directory");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("65535"));
+        }
+        assertEquals(0, out.size());
+    }
+
+    private void writePack() throws IOException {
+        List<String> names = new ArrayList<>();
+        List<LevelData> levels = new ArrayList<>();
+        for (String name : LEVELS) {
+            names.add(name);
+            levels.add(LevelData.load(name));
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            LevelPack.write(names, levels, out);
+        }
+    }
+
+    private void assertTruncated() {
+        try {
+            LevelPack.open(file);
+            fail("Opened a damaged level pack");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("truncated"));
+        }
+    }
+
+    private static byte[] toBytes(LevelData level) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        level.write(bytes);
+        return bytes.toByteArray();
+    }
+
+    private static void assertSameLevel(String name, LevelData expected, LevelData actual) throws IOException {
+        assertEquals(name, expected.getWidth(), actual.getWidth());
+        assertEquals(name, expected.getHeight(), actual.getHeight());
+        assertEquals(name, expected.getTimeLimit(), actual.getTimeLimit());
+        assertEquals(name, expected.getSpawnX(), actual.getSpawnX());
+        assertEquals(name, expected.getSpawnY(), actual.getSpawnY());
+        assertEquals(name, expected.getNextLevel(), actual.getNextLevel());
+        assertEquals(name, expected.getExitDoor(), actual.getExitDoor());
+
+        assertEquals(name, expected.getEntityCount(), actual.getEntityCount());
+        for (int i = 0; i < expected.getEntityCount(); i++) {
+            assertEquals(name, expected.getEntityType(i), actual.getEntityType(i));
+            assertEquals(name, expected.getEntityX(i), actual.getEntityX(i));
+            assertEquals(name, expected.getEntityY(i), actual.getEntityY(i));
+            assertEquals(name, expected.getEntityName(i), actual.getEntityName(i));
+            assertEquals(name, expected.getEntityColor(i), actual.getEntityColor(i));
+            assertEquals(name, expected.getEntityActiveColor(i), actual.getEntityActiveColor(i));
+            assertEquals(name, expected.hasEntityFlag(i, LevelData.FLAG_OPEN), actual.hasEntityFlag(i, LevelData.FLAG_OPEN));
+        }
+
+        assertEquals(name, expected.getActionCount(), actual.getActionCount());
+        for (int i = 0; i < expected.getActionCount(); i++) {
+            assertEquals(name, expected.getActionButton(i), actual.getActionButton(i));
+            assertEquals(name, expected.getActionType(i), actual.getActionType(i));
+            assertEquals(name, expected.getActionDoor(i), actual.getActionDoor(i));
+            assertEquals(name, expected.getActionMillis(i), actual.getActionMillis(i));
+        }
+
+        assertEquals(name, expected.getNodeCount(), actual.getNodeCount());
+        for (int i = 0; i < expected.getNodeCount(); i++) {
+            assertEquals(name, expected.getNodeType(i), actual.getNodeType(i));
+            assertEquals(name, expected.getNodeName(i), actual.getNodeName(i));
+            assertEquals(name, expected.getNodeButton(i), actual.getNodeButton(i));
+            assertEquals(name, expected.getNodeDelay(i), actual.getNodeDelay(i));
+            assertArrayEquals(name, expected.getNodeInputs(i), actual.getNodeInputs(i));
+        }
+        assertEquals(name, expected.getOutputCount(), actual.getOutputCount());
+        for (int i = 0; i < expected.getOutputCount(); i++) {
+            assertEquals(name, expected.getOutputNode(i), actual.getOutputNode(i));
+            assertArrayEquals(name, expected.getOutputDoors(i), actual.getOutputDoors(i));
+        }
+
+        long[] expectedWords = new long[LevelData.CHUNK_WORDS];
+        long[] actualWords = new long[LevelData.CHUNK_WORDS];
+        for (int cy = 0; cy < expected.getChunkRows(); cy++) {
+            for (int cx = 0; cx < expected.getChunkColumns(); cx++) {
+                expected.readChunk(cx, cy, expectedWords);
+                actual.readChunk(cx, cy, actualWords);
+                assertArrayEquals(name + " chunk " + cx + "," + cy, expectedWords, actualWords);
+            }
+        }
+    }
+}
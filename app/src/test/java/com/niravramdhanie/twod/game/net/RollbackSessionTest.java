@@ -0,0 +1,42 @@
+package com.niravramdhanie.twod.game.net;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.niravramdhanie.twod.game.utils.GameClock;
+
+public class RollbackSessionTest {
+    private PrintStream console;
+    private PrintStream report;
+
+    @Before
+    public void setUp() {
+        console = System.out;
+        report = new PrintStream(OutputStream.nullOutputStream());
+        System.setOut(report);
+    }
+
+    @After
+    public void tearDown() {
+        System.setOut(console);
+    }
+
+    @Test
+    public void peersStayInSyncOnAFastNetwork() throws IOException {
+        RollbackHarness harness = new RollbackHarness(20 * GameClock.TICKS_PER_SECOND, 1);
+        assertTrue(harness.run(0, 0, 0, report));
+    }
+
+    @Test
+    public void peersStayInSyncThroughDelayJitterAndLoss() throws IOException {
+        RollbackHarness harness = new RollbackHarness(20 * GameClock.TICKS_PER_SECOND, 2);
+        assertTrue(harness.run(100, 25, 0.05, report));
+    }
+}
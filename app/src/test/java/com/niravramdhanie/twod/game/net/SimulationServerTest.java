@@ -0,0 +1,126 @@
+package com.niravramdhanie.twod.game.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.niravramdhanie.twod.game.core.GameStateManager;
+import com.niravramdhanie.twod.game.utils.InputLog;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
+public class SimulationServerTest {
+    private static final int SCREEN_WIDTH = 1000;
+    private static final int SCREEN_HEIGHT = 750;
+    private static final int SESSION = 42;
+
+    private static final int[] DIRECTIONS = {
+        0, InputLog.LEFT, InputLog.RIGHT, InputLog.UP, InputLog.DOWN,
+        InputLog.LEFT | InputLog.UP, InputLog.RIGHT | InputLog.DOWN
+    };
+
+    private PrintStream console;
+    private SimulationServer server;
+    private SimulationClient present;
+    private SimulationClient past;
+
+    @Before
+    public void setUp() throws IOException {
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        server = new SimulationServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+        GameStateManager gsm = GameStateManager.createHeadless(SCREEN_WIDTH, SCREEN_HEIGHT);
+        present = new SimulationClient(gsm, SCREEN_WIDTH, SCREEN_HEIGHT, address, SESSION, CoopProtocol.ROLE_PRESENT);
+        past = new SimulationClient(gsm, SCREEN_WIDTH, SCREEN_HEIGHT, address, SESSION, CoopProtocol.ROLE_PAST);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        present.close();
+        past.close();
+        server.close();
+        System.setOut(console);
+    }
+
+    @Test
+    public void predictionMatchesTheServer() throws IOException {
+        // The past player is shown the server's snapshots as they are, so the world the
+        // present player predicted for each tick can be checked against them
+        Map<Long, Integer> predicted = new HashMap<>();
+        Random random = new Random(5);
+        int direction = 0;
+        int directionTicks = 0;
+        int compared = 0;
+        for (int tick = 0; tick < 1200; tick++) {
+            if (--directionTicks <= 0) {
+                direction = DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+                directionTicks = 10 + random.nextInt(50);
+            }
+
+            server.tick();
+            present.tick(direction);
+            past.tick(0);
+
+            if (present.hasWorld()) {
+                predicted.put(present.getPlayState().getClock().getTicks(), hash(present));
+            }
+            if (past.hasWorld()) {
+                Integer prediction = predicted.get(past.getPlayState().getClock().getTicks());
+                if (prediction != null) {
+                    assertEquals("snapshot " + past.getSnapshotTick(), hash(past), prediction.intValue());
+                    compared++;
+                }
+            }
+        }
+
+        assertEquals(CoopProtocol.ROLE_PRESENT, present.getRole());
+        assertEquals(CoopProtocol.ROLE_PAST, past.getRole());
+        assertEquals(1, server.getSessionCount());
+        assertTrue(compared > 100);
+    }
+
+    @Test
+    public void thirdPlayerIsTurnedAway() throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+        GameStateManager gsm = GameStateManager.createHeadless(SCREEN_WIDTH, SCREEN_HEIGHT);
+        SimulationClient third = new SimulationClient(gsm, SCREEN_WIDTH, SCREEN_HEIGHT, address, SESSION,
+                                                      CoopProtocol.ROLE_PRESENT);
+        try {
+            for (int tick = 0; tick < 10; tick++) {
+                present.tick(0);
+                past.tick(0);
+                server.tick();
+            }
+            for (int tick = 0; tick < 10; tick++) {
+                third.tick(0);
+                server.tick();
+            }
+
+            assertTrue(third.isRejected());
+            assertFalse(third.hasWorld());
+            assertEquals(CoopProtocol.ROLE_PRESENT, present.getRole());
+        } finally {
+            third.close();
+        }
+    }
+
+    private static int hash(SimulationClient client) {
+        WorldSnapshot snapshot = new WorldSnapshot();
+        client.getPlayState().saveWorldState(snapshot);
+        return snapshot.hash();
+    }
+}
@@ -0,0 +1,387 @@
+package com.niravramdhanie.twod.game.state;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.niravramdhanie.twod.game.core.GameStateManager;
+import com.niravramdhanie.twod.game.entity.BallPlayer;
+import com.niravramdhanie.twod.game.entity.Box;
+import com.niravramdhanie.twod.game.entity.Button;
+import com.niravramdhanie.twod.game.entity.Entity;
+import com.niravramdhanie.twod.game.entity.WeightedButton;
+import com.niravramdhanie.twod.game.level.FlowField;
+import com.niravramdhanie.twod.game.level.Level;
+import com.niravramdhanie.twod.game.utils.GridSystem;
+import com.niravramdhanie.twod.game.utils.InputLog;
+import com.niravramdhanie.twod.game.utils.RewindManager;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Checks that a tick of the game doesn't leave garbage behind. Each level is played
+ * headless by a script that steers the player along the level's flow fields: it picks
+ * up a box and drops it by a button, presses a button, then records itself pressing
+ * another and rewinds, over and over. The script is played through once to warm the
+ * level up, then the level is restarted and the bytes the simulation thread allocates
+ * while the script plays again are measured with the JVM's per-thread allocation
+ * counter. A level fails if its average per tick is over the budget.
+ * <p>
+ * After measuring, a few more ticks are played under a JFR allocation profile, and the
+ * places in the game that allocated the most are listed, so a failure says where to look.
+ */
+public class AllocationBudget {
+    private static final int SCREEN_WIDTH = 1000;
+    private static final int SCREEN_HEIGHT = 750;
+
+    // Most ticks played warming up, then ticks measured and profiled; levels run out after 60 seconds
+    private static final int WARMUP_TICKS = 1800;
+    private static final int MEASURED_TICKS = 1800;
+    private static final int PROFILED_TICKS = 600;
+
+    // The steps of the script, played in order and then from the start again
+    private static final int FETCH_BOX = 0;
+    private static final int CARRY_BOX = 1;
+    private static final int PRESS_BUTTON = 2;
+    private static final int RECORD = 3;
+    private static final int WAIT_FOR_REWIND = 4;
+
+    // Ticks a step may take to reach its target before the script gives up on it
+    private static final int STEP_TICKS = 600;
+
+    // How close in cells the player gets to a target, within the game's reach of one cell
+    private static final float REACH = 0.75f;
+
+    // How many of the places that allocated the most are listed
+    private static final int OFFENDERS_SHOWN = 8;
+
+    private static final String GAME_PACKAGE = "com.niravramdhanie.twod.game.";
+
+    private final PlayState playState;
+    private final com.sun.management.ThreadMXBean threads;
+
+    // Where the script is: its step, what it's heading for, and the ticks spent on the step
+    private int step;
+    private Entity target;
+    private FlowField field;
+    private int stepTicks;
+    private int buttonTurn;
+    private int cycles;
+
+    /**
+     * Creates a harness around a new, initialized play state.
+     */
+    public AllocationBudget() {
+        playState = new PlayState(GameStateManager.createHeadless(SCREEN_WIDTH, SCREEN_HEIGHT), SCREEN_WIDTH, SCREEN_HEIGHT);
+        playState.init();
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    /**
+     * Plays a level through the script once to warm it up, then restarts it and
+     * measures what its ticks allocate while the script plays again.
+     *
+     * @param levelNumber The level
+     * @return The average bytes allocated per measured tick
+     */
+    public long measure(int levelNumber) {
+        finishRewind();
+        playState.setLevelLayout(levelNumber);
+        startScript();
+        for (int i = 0; i < WARMUP_TICKS && cycles == 0; i++) {
+            play(1);
+        }
+
+        finishRewind();
+        playState.setLevelLayout(levelNumber);
+        startScript();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        play(MEASURED_TICKS);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        return allocated / MEASURED_TICKS;
+    }
+
+    /**
+     * Plays on under a JFR allocation profile and adds up the sampled bytes by the
+     * place in the game they were allocated from.
+     *
+     * @return The places and their bytes, the most first
+     * @throws IOException If the recording can't be written or read back
+     */
+    public List<Map.Entry<String, Long>> profile() throws IOException {
+        Path file = Files.createTempFile("allocations", ".jfr");
+        Map<String, Long> bytes = new HashMap<>();
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.ObjectAllocationSample").withStackTrace().with("throttle", "10000/s");
+            recording.start();
+            play(PROFILED_TICKS);
+            recording.stop();
+            recording.dump(file);
+
+            String thread = Thread.currentThread().getName();
+            List<RecordedEvent> events = new ArrayList<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if (event.getThread() != null && thread.equals(event.getThread().getJavaName())) {
+                    events.add(event);
+                }
+            }
+
+            // A sample weighs what the thread allocated since the last one, so the first
+            // also carries everything from before the recording started
+            events.sort((a, b) -> a.getStartTime().compareTo(b.getStartTime()));
+            for (RecordedEvent event : events.subList(Math.min(1, events.size()), events.size())) {
+                String place = event.getClass("objectClass").getName() + " from " + gameFrame(event.getStackTrace());
+                bytes.merge(place, event.getLong("weight"), Long::sum);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        List<Map.Entry<String, Long>> places = new ArrayList<>(bytes.entrySet());
+        places.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return places;
+    }
+
+    /**
+     * Starts the script from its first step.
+     */
+    private void startScript() {
+        cycles = 0;
+        buttonTurn = 0;
+        startStep(FETCH_BOX);
+    }
+
+    /**
+     * Plays on without input until a recording or rewind left from before is over, as
+     * a rewind carries on through a level change.
+     */
+    private void finishRewind() {
+        RewindManager rewind = playState.getRewindManager();
+        if (rewind.getCurrentState() == RewindManager.RewindState.RECORDING) {
+            playState.setRewindInput(true, false, false);
+        }
+        for (int i = 0; i < WARMUP_TICKS && rewind.getCurrentState() != RewindManager.RewindState.IDLE; i++) {
+            playState.setInput(0);
+            playState.update();
+        }
+    }
+
+    /**
+     * Plays some ticks of the script.
+     */
+    private void play(int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            playState.setInput(nextInput());
+            playState.update();
+        }
+    }
+
+    /**
+     * Works out the input for the next tick, moving on to the next step once the
+     * player has reached the step's target.
+     */
+    private int nextInput() {
+        stepTicks++;
+        if (stepTicks == 1 && (step == RECORD || step == WAIT_FOR_REWIND)) {
+            // Start recording on the way to the button, and rewind once it's pressed
+            playState.setRewindInput(true, false, false);
+        }
+        if (step == WAIT_FOR_REWIND) {
+            RewindManager rewind = playState.getRewindManager();
+            if (stepTicks > 1 && rewind.getCurrentState() == RewindManager.RewindState.IDLE
+                    || stepTicks > STEP_TICKS) {
+                cycles++;
+                startStep(FETCH_BOX);
+            }
+            return 0;
+        }
+        if (target != null && !reached() && stepTicks <= STEP_TICKS) {
+            return steer();
+        }
+
+        // At the target, or given up on it: interact there and move on
+        int input = target != null ? InputLog.INTERACT : 0;
+        startStep(step + 1);
+        return input;
+    }
+
+    /**
+     * Moves the script to a step and picks the step's target: a box to fetch, a
+     * weighted button to carry it to, or the next button in turn to press.
+     */
+    private void startStep(int next) {
+        step = next;
+        stepTicks = 0;
+        target = null;
+        if (step == FETCH_BOX) {
+            target = findTarget(Box.class, 0);
+        } else if (step == CARRY_BOX) {
+            target = findTarget(WeightedButton.class, 0);
+            if (target == null) {
+                target = findTarget(Button.class, 0);
+            }
+        } else if (step == PRESS_BUTTON || step == RECORD) {
+            target = findTarget(Button.class, buttonTurn++);
+        }
+
+        field = null;
+        if (target != null) {
+            GridSystem grid = playState.getLevel().getGrid();
+            field = playState.getNavigation().getFlowField(grid.screenToGridX((int) centerX(target)),
+                                                           grid.screenToGridY((int) centerY(target)));
+        }
+    }
+
+    /**
+     * Finds an entity of a type the player can get to, counting round from the one
+     * a turn number picks.
+     */
+    private Entity findTarget(Class<? extends Entity> type, int turn) {
+        List<Entity> entities = playState.getLevel().getEntities();
+        GridSystem grid = playState.getLevel().getGrid();
+        BallPlayer player = playState.getPlayer();
+        int playerX = grid.screenToGridX((int) centerX(player));
+        int playerY = grid.screenToGridY((int) centerY(player));
+
+        int count = 0;
+        for (int i = 0; i < entities.size(); i++) {
+            if (type.isInstance(entities.get(i))) {
+                count++;
+            }
+        }
+        for (int n = 0; n < count; n++) {
+            int wanted = (turn + n) % count;
+            for (int i = 0; i < entities.size(); i++) {
+                Entity entity = entities.get(i);
+                if (!type.isInstance(entity) || wanted-- != 0) {
+                    continue;
+                }
+                if (entity instanceof Box && ((Box) entity).isBeingCarried()) {
+                    break;
+                }
+                FlowField way = playState.getNavigation().getFlowField(grid.screenToGridX((int) centerX(entity)),
+                                                                       grid.screenToGridY((int) centerY(entity)));
+                if (way != null && way.isReachable(playerX, playerY)) {
+                    return entity;
+                }
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the player is close enough to the target to interact with it.
+     */
+    private boolean reached() {
+        BallPlayer player = playState.getPlayer();
+        float cellSize = playState.getLevel().getGrid().getCellSize();
+        return Math.abs(centerX(player) - centerX(target)) / cellSize <= REACH
+               && Math.abs(centerY(player) - centerY(target)) / cellSize <= REACH;
+    }
+
+    /**
+     * Gets the input that moves the player toward the target: along the flow field
+     * while further than a cell away, then straight at it.
+     */
+    private int steer() {
+        Level level = playState.getLevel();
+        GridSystem grid = level.getGrid();
+        BallPlayer player = playState.getPlayer();
+        float dx = centerX(target) - centerX(player);
+        float dy = centerY(target) - centerY(player);
+
+        int stepX;
+        int stepY;
+        int playerX = grid.screenToGridX((int) centerX(player));
+        int playerY = grid.screenToGridY((int) centerY(player));
+        if (field != null && field.getDistance(playerX, playerY) > FlowField.DIAGONAL_COST) {
+            stepX = field.getDirectionX(playerX, playerY);
+            stepY = field.getDirectionY(playerX, playerY);
+        } else {
+            float deadZone = grid.getCellSize() / 4f;
+            stepX = dx > deadZone ? 1 : dx < -deadZone ? -1 : 0;
+            stepY = dy > deadZone ? 1 : dy < -deadZone ? -1 : 0;
+        }
+        return (stepX < 0 ? InputLog.LEFT : 0) | (stepX > 0 ? InputLog.RIGHT : 0)
+               | (stepY < 0 ? InputLog.UP : 0) | (stepY > 0 ? InputLog.DOWN : 0);
+    }
+
+    private static float centerX(Entity entity) {
+        return entity.getX() + entity.getWidth() / 2f;
+    }
+
+    private static float centerY(Entity entity) {
+        return entity.getY() + entity.getHeight() / 2f;
+    }
+
+    /**
+     * Finds the first frame of a stack trace that is in the game's own code.
+     */
+    private static String gameFrame(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "unknown";
+        }
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            String type = frame.getMethod().getType().getName();
+            if (type.startsWith(GAME_PACKAGE) && !type.equals(AllocationBudget.class.getName())) {
+                return type.substring(GAME_PACKAGE.length()) + "." + frame.getMethod().getName()
+                       + ":" + frame.getLineNumber();
+            }
+        }
+        return "unknown";
+    }
+
+    /**
+     * Measures each level and exits with an error if any of them is over budget.
+     *
+     * @param args The budget in bytes per tick, then the levels, such as level2; all three levels if none are given
+     */
+    public static void main(String[] args) throws IOException {
+        long budget = args.length > 0 ? Long.parseLong(args[0]) : 0;
+        int[] levels = { 1, 2, 3 };
+        if (args.length > 1) {
+            levels = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                levels[i - 1] = Integer.parseInt(args[i].startsWith("level") ? args[i].substring(5) : args[i]);
+            }
+        }
+
+        // The game's own logging would drown out the report; it still allocates as it would on screen
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        boolean failed = false;
+        try {
+            AllocationBudget harness = new AllocationBudget();
+            for (int level : levels) {
+                long perTick = harness.measure(level);
+                List<Map.Entry<String, Long>> places = harness.profile();
+
+                boolean over = perTick > budget;
+                failed |= over;
+                console.println("level" + level + ": " + perTick + " bytes per tick, budget " + budget
+                                + (over ? " - OVER BUDGET" : ""));
+                for (int i = 0; i < places.size() && i < OFFENDERS_SHOWN; i++) {
+                    console.printf("  %10d bytes  %s%n", places.get(i).getValue(), places.get(i).getKey());
+                }
+            }
+        } finally {
+            System.setOut(console);
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.niravramdhanie.twod.game.state;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AllocationBudgetTest {
+    // The rewind timeline's keyframes are the only steady allocation once a level is warmed up
+    private static final long BUDGET = 64;
+
+    private PrintStream console;
+
+    @Before
+    public void setUp() {
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @After
+    public void tearDown() {
+        System.setOut(console);
+    }
+
+    @Test
+    public void ticksStayWithinTheAllocationBudget() {
+        AllocationBudget budget = new AllocationBudget();
+        for (int level = 1; level <= 3; level++) {
+            long perTick = budget.measure(level);
+            assertTrue("level" + level + " allocates " + perTick + " bytes per tick", perTick <= BUDGET);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.niravramdhanie.twod.game.state;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.niravramdhanie.twod.game.core.GameStateManager;
+import com.niravramdhanie.twod.game.utils.InputLog;
+import com.niravramdhanie.twod.game.utils.WorldSnapshot;
+
+public class PlayStatePreloadTest {
+    private static final int SCREEN_WIDTH = 1000;
+    private static final int SCREEN_HEIGHT = 750;
+
+    private static final int[] DIRECTIONS = {
+        0, InputLog.LEFT, InputLog.RIGHT, InputLog.UP, InputLog.DOWN,
+        InputLog.LEFT | InputLog.UP, InputLog.RIGHT | InputLog.DOWN
+    };
+
+    private PrintStream console;
+
+    @Before
+    public void setUp() {
+        // The game logs every level it builds
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @After
+    public void tearDown() {
+        System.setOut(console);
+    }
+
+    @Test
+    public void preloadedLevelPlaysLikeOneBuiltNow() {
+        GameStateManager gsm = GameStateManager.createHeadless(SCREEN_WIDTH, SCREEN_HEIGHT);
+
+        // Level 1 preloads level 2, which the exit door swaps in
+        PlayState preloaded = new PlayState(gsm, SCREEN_WIDTH, SCREEN_HEIGHT);
+        preloaded.init();
+        preloaded.setLevelLayout(2);
+
+        // Going to level 3 first drops that preload, so level 2 is built when it's asked for
+        PlayState builtNow = new PlayState(gsm, SCREEN_WIDTH, SCREEN_HEIGHT);
+        builtNow.init();
+        builtNow.setLevelLayout(3);
+        builtNow.setLevelLayout(2);
+
+        assertEquals(2, preloaded.getCurrentLevel());
+        assertEquals(2, builtNow.getCurrentLevel());
+        assertArrayEquals(save(builtNow), save(preloaded));
+
+        // Walk both around the level the same way; the walls they bump into and the
+        // buttons and boxes they touch are the level's, so any difference shows up
+        Random random = new Random(3);
+        int direction = 0;
+        int directionTicks = 0;
+        for (int tick = 0; tick < 1200; tick++) {
+            if (--directionTicks <= 0) {
+                direction = DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+                directionTicks = 10 + random.nextInt(50);
+            }
+            int input = direction;
+            if (random.nextInt(60) == 0) {
+                input |= InputLog.INTERACT;
+            }
+
+            preloaded.setInput(input);
+            preloaded.update();
+            builtNow.setInput(input);
+            builtNow.update();
+            assertArrayEquals("tick " + tick, save(builtNow), save(preloaded));
+        }
+    }
+
+    private static int[] save(PlayState playState) {
+        WorldSnapshot snapshot = new WorldSnapshot();
+        playState.saveWorldState(snapshot);
+        int[] values = new int[snapshot.size()];
+        snapshot.getValues(values);
+        return values;
+    }
+}
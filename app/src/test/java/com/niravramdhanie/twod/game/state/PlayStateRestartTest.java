@@ -0,0 +1,61 @@
+package com.niravramdhanie.twod.game.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.niravramdhanie.twod.game.core.GameStateManager;
+import com.niravramdhanie.twod.game.entity.BallPlayer;
+import com.niravramdhanie.twod.game.utils.InputLog;
+
+public class PlayStateRestartTest {
+    private static final int SCREEN_WIDTH = 1000;
+    private static final int SCREEN_HEIGHT = 750;
+
+    private PrintStream console;
+
+    @Before
+    public void setUp() {
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @After
+    public void tearDown() {
+        System.setOut(console);
+    }
+
+    @Test
+    public void restartPutsTheSamePlayerBackAtTheSpawn() {
+        GameStateManager gsm = GameStateManager.createHeadless(SCREEN_WIDTH, SCREEN_HEIGHT);
+        PlayState playState = new PlayState(gsm, SCREEN_WIDTH, SCREEN_HEIGHT);
+        playState.init();
+        playState.setRecordingPath(null);
+        BallPlayer player = playState.getPlayer();
+        float spawnX = player.getX();
+        float spawnY = player.getY();
+
+        for (int tick = 0; tick < 60; tick++) {
+            playState.setInput(tick < 30 ? InputLog.RIGHT : InputLog.DOWN);
+            playState.update();
+        }
+        assertTrue(player.getX() != spawnX || player.getY() != spawnY);
+
+        playState.init();
+        assertSame(player, playState.getPlayer());
+        assertEquals(spawnX, player.getX(), 0);
+        assertEquals(spawnY, player.getY(), 0);
+        assertEquals(0, player.getVelX(), 0);
+        assertEquals(0, player.getVelY(), 0);
+        assertFalse(player.isCarryingBox());
+        assertEquals(player.getMaxHealth(), player.getHealth());
+    }
+}
@@ -0,0 +1,98 @@
+package com.niravramdhanie.twod.game.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class EventBusTest {
+    @Test
+    public void eventsAreDeliveredInOrderOnDispatch() {
+        EventBus bus = new EventBus();
+        List<Integer> handles = new ArrayList<>();
+        bus.subscribe(EventBus.EventType.DOOR_OPENED, (type, handle) -> handles.add(handle));
+
+        bus.publish(EventBus.EventType.DOOR_OPENED, 3);
+        bus.publish(EventBus.EventType.DOOR_CLOSED, 4);
+        bus.publish(EventBus.EventType.DOOR_OPENED, 5);
+        assertTrue(handles.isEmpty());
+        assertEquals(3, bus.getPendingCount());
+
+        bus.dispatch();
+        assertEquals(List.of(3, 5), handles);
+        assertEquals(0, bus.getPendingCount());
+    }
+
+    @Test
+    public void ringGrowsAndKeepsOrderWhenWrapped() {
+        EventBus bus = new EventBus(16);
+        List<Integer> handles = new ArrayList<>();
+        bus.subscribe(EventBus.EventType.BOX_DROPPED, (type, handle) -> handles.add(handle));
+
+        // Move the head along first, so the ring has wrapped when it grows
+        for (int i = 0; i < 10; i++) {
+            bus.publish(EventBus.EventType.BOX_DROPPED, -1);
+        }
+        bus.dispatch();
+        handles.clear();
+
+        for (int i = 0; i < 1000; i++) {
+            bus.publish(EventBus.EventType.BOX_DROPPED, i);
+        }
+        assertEquals(1000, bus.getPendingCount());
+        bus.dispatch();
+
+        assertEquals(1000, handles.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) handles.get(i));
+        }
+    }
+
+    @Test
+    public void eventsPublishedWhileDispatchingAreDeliveredInTheSameDispatch() {
+        EventBus bus = new EventBus();
+        List<String> seen = new ArrayList<>();
+        bus.subscribe(EventBus.EventType.BUTTON_ACTIVATED, (type, handle) -> {
+            seen.add("button " + handle);
+            bus.publish(EventBus.EventType.DOOR_OPEN_REQUESTED, handle + 100);
+        });
+        bus.subscribe(EventBus.EventType.DOOR_OPEN_REQUESTED, (type, handle) -> seen.add("door " + handle));
+
+        bus.publish(EventBus.EventType.BUTTON_ACTIVATED, 1);
+        bus.dispatch();
+        assertEquals(List.of("button 1", "door 101"), seen);
+    }
+
+    @Test
+    public void listenersPublishingInALoopAreStopped() {
+        EventBus bus = new EventBus();
+        int[] delivered = new int[1];
+        bus.subscribe(EventBus.EventType.DOOR_OPENED, (type, handle) -> {
+            delivered[0]++;
+            bus.publish(EventBus.EventType.DOOR_OPENED, handle);
+        });
+
+        bus.publish(EventBus.EventType.DOOR_OPENED, 0);
+        bus.dispatch();
+        assertEquals(4096, delivered[0]);
+        assertEquals(0, bus.getPendingCount());
+    }
+
+    @Test
+    public void unsubscribedListenerHearsNothing() {
+        EventBus bus = new EventBus();
+        int[] delivered = new int[1];
+        EventBus.Listener listener = (type, handle) -> delivered[0]++;
+        bus.subscribe(EventBus.EventType.BUTTON_ACTIVATED, listener);
+        bus.subscribe(EventBus.EventType.BUTTON_DEACTIVATED, listener);
+        bus.unsubscribe(listener);
+
+        bus.publish(EventBus.EventType.BUTTON_ACTIVATED, 0);
+        bus.publish(EventBus.EventType.BUTTON_DEACTIVATED, 0);
+        bus.dispatch();
+        assertEquals(0, delivered[0]);
+    }
+}
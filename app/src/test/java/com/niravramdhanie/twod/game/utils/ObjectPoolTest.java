@@ -0,0 +1,40 @@
+package com.niravramdhanie.twod.game.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ObjectPoolTest {
+    @Test
+    public void releasedObjectIsResetAndReused() {
+        ObjectPool<List<String>> pool = new ObjectPool<>(ArrayList::new, List::clear);
+
+        List<String> first = pool.acquire();
+        first.add("used");
+        pool.release(first);
+        assertEquals(1, pool.getFreeCount());
+
+        List<String> second = pool.acquire();
+        assertSame(first, second);
+        assertEquals(0, second.size());
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(1, pool.getReusedCount());
+        assertEquals(0, pool.getFreeCount());
+    }
+
+    @Test
+    public void emptyPoolMakesNewObjects() {
+        ObjectPool<StringBuilder> pool = new ObjectPool<>(StringBuilder::new, builder -> builder.setLength(0));
+
+        StringBuilder first = pool.acquire();
+        StringBuilder second = pool.acquire();
+        assertNotSame(first, second);
+        assertEquals(2, pool.getCreatedCount());
+        assertEquals(0, pool.getReusedCount());
+    }
+}
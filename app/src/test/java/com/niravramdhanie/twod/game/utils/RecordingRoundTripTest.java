@@ -0,0 +1,151 @@
+package com.niravramdhanie.twod.game.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecordingRoundTripTest {
+    private Path file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("recording", ".rec");
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void readerSeesEveryRecordTheWriterWrote() throws IOException {
+        // Enough records to flush the writer's buffer several times
+        int count = 40_000;
+        Random random = new Random(3);
+        byte[] tags = new byte[count];
+        long[] timestamps = new long[count];
+        int[] entities = new int[count];
+        boolean[] flags = new boolean[count];
+        float[] xs = new float[count];
+        float[] ys = new float[count];
+
+        try (RecordingWriter writer = new RecordingWriter(file)) {
+            writer.begin(90, 123.5f, -7.25f);
+            String[] ids = { "button_1", "button_2", "box_1", "box_2", "door \u00fc" };
+            for (String id : ids) {
+                writer.defineEntity(id);
+            }
+            assertEquals(2, writer.defineEntity("box_1"));
+
+            long time = 0;
+            for (int i = 0; i < count; i++) {
+                time += random.nextInt(3) == 0 ? 0 : random.nextInt(100_000);
+                timestamps[i] = time;
+                entities[i] = random.nextInt(ids.length);
+                flags[i] = random.nextBoolean();
+                // Positions are kept to a sixteenth of a pixel
+                xs[i] = (random.nextInt(200_000) - 100_000) / 16f;
+                ys[i] = (random.nextInt(200_000) - 100_000) / 16f;
+                tags[i] = (byte) (1 + random.nextInt(5));
+                switch (tags[i]) {
+                    case RecordingFormat.TAG_BUTTON_STATE:
+                        writer.writeButtonState(time, entities[i], flags[i]);
+                        break;
+                    case RecordingFormat.TAG_BUTTON_EVENT:
+                        writer.writeButtonEvent(time, entities[i], flags[i]);
+                        break;
+                    case RecordingFormat.TAG_BOX_POSITION:
+                        writer.writeBoxPosition(time, entities[i], xs[i], ys[i], flags[i]);
+                        break;
+                    default:
+                        flags[i] = tags[i] == RecordingFormat.TAG_BOX_PICKUP;
+                        writer.writeBoxInteraction(time, entities[i], flags[i], xs[i], ys[i]);
+                        break;
+                }
+            }
+            assertEquals(count, writer.getRecordCount());
+        }
+
+        RecordingReader reader = RecordingReader.open(file);
+        assertEquals(90, reader.getTimerStartValue());
+        assertEquals(123.5f, reader.getPlayerStartX(), 0f);
+        assertEquals(-7.25f, reader.getPlayerStartY(), 0f);
+        assertEquals(count, reader.getRecordCount());
+        assertEquals(timestamps[count - 1], reader.getDurationMillis());
+        assertArrayEquals(new Object[] { "button_1", "button_2", "box_1", "box_2", "door \u00fc" }, reader.getEntityIds());
+
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < count; i++) {
+                assertTrue("record " + i, reader.hasRecord());
+                assertEquals("record " + i, tags[i], reader.getTag());
+                assertEquals("record " + i, timestamps[i], reader.getTimestamp());
+                assertEquals("record " + i, entities[i], reader.getEntityIndex());
+                assertEquals("record " + i, flags[i], reader.getFlag());
+                if (tags[i] >= RecordingFormat.TAG_BOX_PICKUP) {
+                    assertEquals("record " + i, xs[i], reader.getX(), 0f);
+                    assertEquals("record " + i, ys[i], reader.getY(), 0f);
+                }
+                reader.advance();
+            }
+            assertFalse(reader.hasRecord());
+            reader.rewind();
+        }
+    }
+
+    @Test
+    public void timestampsNeverGoBackwards() throws IOException {
+        try (RecordingWriter writer = new RecordingWriter(file)) {
+            int button = writer.defineEntity("button");
+            writer.writeButtonEvent(500, button, true);
+            writer.writeButtonEvent(200, button, false);
+        }
+
+        RecordingReader reader = RecordingReader.open(file);
+        assertEquals(500, reader.getTimestamp());
+        reader.advance();
+        assertEquals(500, reader.getTimestamp());
+    }
+
+    @Test
+    public void undefinedEntityIsRejected() throws IOException {
+        try (RecordingWriter writer = new RecordingWriter(file)) {
+            writer.writeButtonEvent(0, 0, true);
+            fail("Wrote a record for an entity that wasn't defined");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("not defined"));
+        }
+    }
+
+    @Test
+    public void truncatedRecordingIsRejected() throws IOException {
+        try (RecordingWriter writer = new RecordingWriter(file)) {
+            int box = writer.defineEntity("box");
+            for (int i = 0; i < 100; i++) {
+                writer.writeBoxPosition(i * 16, box, i * 3.5f, i, false);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() / 2);
+        }
+
+        try {
+            RecordingReader.open(file);
+            fail("Opened a truncated recording");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(file.toString()));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.niravramdhanie.twod.game.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TimerWheelTest {
+    @Test
+    public void timerExpiresOnItsDeadline() {
+        TimerWheel wheel = new TimerWheel(0);
+        List<Long> fired = new ArrayList<>();
+        TimerWheel.Timer timer = new TimerWheel.Timer(t -> fired.add(wheel.getCurrentTick()));
+
+        wheel.schedule(timer, 10);
+        wheel.advanceTo(9);
+        assertTrue(fired.isEmpty());
+        assertTrue(timer.isScheduled());
+
+        wheel.advanceTo(10);
+        assertEquals(List.of(10L), fired);
+        assertFalse(timer.isScheduled());
+        assertEquals(0, wheel.getScheduledCount());
+    }
+
+    @Test
+    public void farDeadlinesCascadeDownToTheExactTick() {
+        // Deadlines in every level of the wheel, and one past its span
+        long[] deadlines = {1, 63, 64, 65, 4095, 4096, 4097, 262143, 262144, 300000, 20_000_000};
+        TimerWheel wheel = new TimerWheel(0);
+        long[] fired = new long[deadlines.length];
+        for (int i = 0; i < deadlines.length; i++) {
+            final int index = i;
+            wheel.scheduleAt(new TimerWheel.Timer(t -> fired[index] = wheel.getCurrentTick()), deadlines[i]);
+        }
+        assertEquals(deadlines.length, wheel.getScheduledCount());
+
+        wheel.advanceTo(20_000_000);
+        for (int i = 0; i < deadlines.length; i++) {
+            assertEquals("deadline " + deadlines[i], deadlines[i], fired[i]);
+        }
+        assertEquals(0, wheel.getScheduledCount());
+    }
+
+    @Test
+    public void passedDeadlineExpiresOnTheNextTick() {
+        TimerWheel wheel = new TimerWheel(100);
+        TimerWheel.Timer timer = new TimerWheel.Timer(t -> { });
+        wheel.scheduleAt(timer, 50);
+        assertEquals(101, timer.getDeadline());
+    }
+
+    @Test
+    public void cancelledTimerDoesNotFire() {
+        TimerWheel wheel = new TimerWheel(0);
+        int[] fired = new int[1];
+        TimerWheel.Timer timer = new TimerWheel.Timer(t -> fired[0]++);
+
+        wheel.schedule(timer, 5);
+        timer.cancel();
+        wheel.advanceTo(10);
+        assertEquals(0, fired[0]);
+        assertEquals(0, wheel.getScheduledCount());
+    }
+
+    @Test
+    public void reschedulingReplacesTheEarlierDeadline() {
+        TimerWheel wheel = new TimerWheel(0);
+        List<Long> fired = new ArrayList<>();
+        TimerWheel.Timer timer = new TimerWheel.Timer(t -> fired.add(wheel.getCurrentTick()));
+
+        wheel.schedule(timer, 5);
+        wheel.schedule(timer, 200);
+        assertEquals(1, wheel.getScheduledCount());
+        wheel.advanceTo(300);
+        assertEquals(List.of(200L), fired);
+    }
+
+    @Test
+    public void callbackCanScheduleItsTimerAgain() {
+        TimerWheel wheel = new TimerWheel(0);
+        List<Long> fired = new ArrayList<>();
+        TimerWheel.Timer[] timer = new TimerWheel.Timer[1];
+        timer[0] = new TimerWheel.Timer(t -> {
+            fired.add(wheel.getCurrentTick());
+            wheel.schedule(t, 3);
+        });
+
+        wheel.schedule(timer[0], 3);
+        wheel.advanceTo(10);
+        assertEquals(List.of(3L, 6L, 9L), fired);
+    }
+
+    @Test
+    public void resetCancelsEveryTimerAndMovesTheWheel() {
+        TimerWheel wheel = new TimerWheel(0);
+        TimerWheel.Timer near = new TimerWheel.Timer(t -> { });
+        TimerWheel.Timer far = new TimerWheel.Timer(t -> { });
+        wheel.schedule(near, 2);
+        wheel.schedule(far, 5000);
+
+        wheel.reset(40);
+        assertEquals(40, wheel.getCurrentTick());
+        assertEquals(0, wheel.getScheduledCount());
+        assertFalse(near.isScheduled());
+        assertFalse(far.isScheduled());
+    }
+}